@@ -21,6 +21,7 @@ package org.xcmis.renditions.impl;
 
 import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.RenditionContentStream;
+import org.xcmis.spi.RenditionExecutor;
 import org.xcmis.spi.RenditionProvider;
 import org.xcmis.spi.utils.MimeType;
 
@@ -29,17 +30,29 @@ import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 /**
+ * Creates thumbnails of images. Image is decoded with subsampling, so decoded
+ * image is not much greater then thumbnail and fits in memory limit whatever
+ * size of source image is.
+ *
  * @author <a href="mailto:andrey.parfonov@exoplatform.com">Andrey Parfonov</a>
  * @version $Id: ImageRenditionProvider.java 1218 2010-06-03 14:56:06Z andrew00x
  *          $
  */
-public class ImageRenditionProvider implements RenditionProvider
+public class ImageRenditionProvider implements RenditionProvider, RenditionProvider.MemoryBounded
 {
 
+   /** Estimated number of bytes of one pixel of decoded image. */
+   private static final int BYTES_PER_PIXEL = 4;
+
    private static final MimeType[] SUPPORTED_MEDIA_TYPES;
 
    static
@@ -89,13 +102,97 @@ public class ImageRenditionProvider implements RenditionProvider
     */
    public RenditionContentStream getRenditionStream(ContentStream stream) throws IOException
    {
-      BufferedImage image = ImageIO.read(stream.getStream());
-      // Determine scale and be sure both width and height are not greater the max
-      int scale =
-         (int)Math.max(Math.floor((image.getHeight() / maxHeight) + 1.0d), Math
-            .floor((image.getWidth() / maxWidth) + 1.0d));
-      int height = image.getHeight() / scale;
-      int width = image.getWidth() / scale;
+      return getRenditionStream(stream, RenditionExecutor.DEFAULT_MEMORY_LIMIT);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public RenditionContentStream getRenditionStream(ContentStream stream, long memoryLimit) throws IOException
+   {
+      InputStream in = stream.getStream();
+      ImageInputStream input = null;
+      ImageReader reader = null;
+      try
+      {
+         input = ImageIO.createImageInputStream(in);
+         if (input == null)
+         {
+            throw new IOException("Unable read image. ");
+         }
+         Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+         if (!readers.hasNext())
+         {
+            throw new IOException("Unsupported image format. ");
+         }
+         reader = readers.next();
+         reader.setInput(input, true, true);
+         int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), maxWidth, maxHeight, memoryLimit);
+         ImageReadParam param = reader.getDefaultReadParam();
+         param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+         return createThumbnail(reader.read(0, param), maxWidth, maxHeight, getKind());
+      }
+      finally
+      {
+         if (reader != null)
+         {
+            reader.dispose();
+         }
+         if (input != null)
+         {
+            input.close();
+         }
+         in.close();
+      }
+   }
+
+   /**
+    * Get subsampling of source image. Decoded image is not smaller than
+    * thumbnail if it fits in memory limit.
+    *
+    * @param width width of source image
+    * @param height height of source image
+    * @param maxWidth max width of thumbnail
+    * @param maxHeight max height of thumbnail
+    * @param memoryLimit max number of bytes of decoded image
+    * @return number of source pixels per decoded pixel in each direction
+    */
+   static int getSubsampling(int width, int height, int maxWidth, int maxHeight, long memoryLimit)
+   {
+      int subsampling = Math.max(1, Math.min(width / maxWidth, height / maxHeight));
+      long maxPixels = Math.max(1, memoryLimit / BYTES_PER_PIXEL);
+      subsampling = Math.max(subsampling, (int)Math.sqrt((double)width * height / maxPixels));
+      int max = Math.max(width, height);
+      while (subsampling < max && decodedSize(width, subsampling) * decodedSize(height, subsampling) > maxPixels)
+      {
+         subsampling++;
+      }
+      return subsampling;
+   }
+
+   private static long decodedSize(int size, int subsampling)
+   {
+      return (size + subsampling - 1) / subsampling;
+   }
+
+   /**
+    * Scale image to thumbnail and encode it in PNG format. Both width and
+    * height of thumbnail are not greater than max, image is not enlarged.
+    *
+    * @param image source image
+    * @param maxWidth max width of thumbnail
+    * @param maxHeight max height of thumbnail
+    * @param kind rendition kind
+    * @return rendition stream
+    * @throws IOException if image can't be encoded
+    */
+   static RenditionContentStream createThumbnail(BufferedImage image, int maxWidth, int maxHeight, String kind)
+      throws IOException
+   {
+      double scale =
+         Math.min(1.0d, Math.min((double)maxWidth / image.getWidth(), (double)maxHeight / image.getHeight()));
+      int height = Math.max(1, (int)Math.round(image.getHeight() * scale));
+      int width = Math.max(1, (int)Math.round(image.getWidth() * scale));
       BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
       Graphics2D graphics2D = scaledImage.createGraphics();
       graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
@@ -104,10 +201,7 @@ public class ImageRenditionProvider implements RenditionProvider
 
       ByteArrayOutputStream out = new ByteArrayOutputStream();
       ImageIO.write(scaledImage, "png", out);
-      RenditionContentStream renditionStream =
-         new RenditionContentStream(out.toByteArray(), null, new MimeType("image", "png"), getKind(), height, width);
-
-      return renditionStream;
+      return new RenditionContentStream(out.toByteArray(), null, PRODUCED, kind, height, width);
    }
 
    /**
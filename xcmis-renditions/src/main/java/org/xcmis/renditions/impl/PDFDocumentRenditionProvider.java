@@ -19,29 +19,37 @@
 
 package org.xcmis.renditions.impl;
 
+import org.apache.pdfbox.io.RandomAccessFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.RenditionContentStream;
+import org.xcmis.spi.RenditionExecutor;
 import org.xcmis.spi.RenditionProvider;
 import org.xcmis.spi.utils.MimeType;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.io.InputStream;
+import java.util.List;
 
 /**
+ * Creates thumbnails of first page of PDF documents. Page is rendered at
+ * resolution of thumbnail. Streams of document which is greater than memory
+ * limit are kept in temporary scratch file instead of memory.
+ *
  * @author <a href="mailto:andrey.parfonov@exoplatform.com">Andrey Parfonov</a>
  * @version $Id: PDFDocumentRenditionProvider.java 774 2010-04-16 11:56:20Z
  *          ur3cma $
  */
-public class PDFDocumentRenditionProvider implements RenditionProvider
+public class PDFDocumentRenditionProvider implements RenditionProvider, RenditionProvider.MemoryBounded
 {
 
+   /** Resolution of PDF user space, points per inch. */
+   private static final float POINTS_PER_INCH = 72;
+
    private static final MimeType[] SUPPORTED_MEDIA_TYPES = new MimeType[]{new MimeType("application", "pdf")};
 
    private static final MimeType PRODUCED = new MimeType("image", "png");
@@ -81,29 +89,42 @@ public class PDFDocumentRenditionProvider implements RenditionProvider
     */
    public RenditionContentStream getRenditionStream(ContentStream stream) throws IOException
    {
+      return getRenditionStream(stream, RenditionExecutor.DEFAULT_MEMORY_LIMIT);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public RenditionContentStream getRenditionStream(ContentStream stream, long memoryLimit) throws IOException
+   {
+      InputStream in = stream.getStream();
+      File scratchFile = null;
+      RandomAccessFile scratch = null;
       PDDocument pdf = null;
       try
       {
-         pdf = PDDocument.load(stream.getStream());
-         PDPage page = (PDPage)pdf.getDocumentCatalog().getAllPages().get(0);
-         BufferedImage image = page.convertToImage();
-         // Determine scale and be sure both width and height are not greater the max
-         int scale =
-            (int)Math.max(Math.floor((image.getHeight() / maxHeight) + 1.0d), Math
-               .floor((image.getWidth() / maxWidth) + 1.0d));
-         int height = image.getHeight() / scale;
-         int width = image.getWidth() / scale;
-         BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-         Graphics2D graphics2D = scaledImage.createGraphics();
-         graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-         graphics2D.drawImage(image, 0, 0, width, height, null);
-         graphics2D.dispose();
-
-         ByteArrayOutputStream out = new ByteArrayOutputStream();
-         ImageIO.write(scaledImage, "png", out);
-         RenditionContentStream renditionStream =
-            new RenditionContentStream(out.toByteArray(), null, new MimeType("image", " png"), getKind(), height, width);
-         return renditionStream;
+         long length = stream.length();
+         if (length < 0 || length > memoryLimit)
+         {
+            scratchFile = File.createTempFile("xcmis-pdf", ".tmp");
+            scratch = new RandomAccessFile(scratchFile, "rw");
+            pdf = PDDocument.load(in, scratch);
+         }
+         else
+         {
+            pdf = PDDocument.load(in);
+         }
+         List<?> pages = pdf.getDocumentCatalog().getAllPages();
+         if (pages.isEmpty())
+         {
+            throw new IOException("PDF document has no pages. ");
+         }
+         PDPage page = (PDPage)pages.get(0);
+         PDRectangle box = page.findCropBox();
+         BufferedImage image =
+            page.convertToImage(BufferedImage.TYPE_INT_RGB, getResolution(box.getWidth(), box.getHeight(), maxWidth,
+               maxHeight));
+         return ImageRenditionProvider.createThumbnail(image, maxWidth, maxHeight, getKind());
       }
       finally
       {
@@ -111,7 +132,35 @@ public class PDFDocumentRenditionProvider implements RenditionProvider
          {
             pdf.close();
          }
+         if (scratch != null)
+         {
+            scratch.close();
+         }
+         if (scratchFile != null)
+         {
+            scratchFile.delete();
+         }
+         in.close();
+      }
+   }
+
+   /**
+    * Get resolution at which page is rendered not much greater than
+    * thumbnail.
+    *
+    * @param width width of page in points
+    * @param height height of page in points
+    * @param maxWidth max width of thumbnail
+    * @param maxHeight max height of thumbnail
+    * @return resolution in dots per inch
+    */
+   static int getResolution(float width, float height, int maxWidth, int maxHeight)
+   {
+      if (width <= 0 || height <= 0)
+      {
+         return (int)POINTS_PER_INCH;
       }
+      return Math.max(1, (int)Math.ceil(POINTS_PER_INCH * Math.min(maxWidth / width, maxHeight / height)));
    }
 
    /**
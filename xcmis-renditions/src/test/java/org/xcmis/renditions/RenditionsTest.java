@@ -24,10 +24,16 @@ import junit.framework.TestCase;
 import org.xcmis.renditions.impl.ImageRenditionProvider;
 import org.xcmis.spi.BaseContentStream;
 import org.xcmis.spi.ContentStream;
+import org.xcmis.spi.RenditionContentStream;
 import org.xcmis.spi.utils.MimeType;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
+import javax.imageio.ImageIO;
+
 public class RenditionsTest extends TestCase
 {
 
@@ -80,6 +86,23 @@ public class RenditionsTest extends TestCase
       }
    }
 
+   public void testSubsampledImage() throws Exception
+   {
+      BufferedImage image = new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB);
+      ByteArrayOutputStream png = new ByteArrayOutputStream();
+      ImageIO.write(image, "png", png);
+      ImageRenditionProvider prov = new ImageRenditionProvider();
+      BaseContentStream stream =
+         new BaseContentStream(new ByteArrayInputStream(png.toByteArray()), "test.png", new MimeType("image", "png"));
+      // Memory limit is less than size of decoded source image.
+      RenditionContentStream out = prov.getRenditionStream(stream, 64 * 1024);
+      assertEquals(100, out.getWidth());
+      assertEquals(50, out.getHeight());
+      BufferedImage thumbnail = ImageIO.read(out.getStream());
+      assertEquals(100, thumbnail.getWidth());
+      assertEquals(50, thumbnail.getHeight());
+   }
+
    @Override
    protected void tearDown() throws Exception
    {
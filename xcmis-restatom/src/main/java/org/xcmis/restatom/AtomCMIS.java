@@ -558,4 +558,12 @@ public interface AtomCMIS extends CmisConstants
 
    String CONTENT_DISPOSITION_HEADER = "Content-Disposition";
 
+   String RANGE_HEADER = "Range";
+
+   String IF_RANGE_HEADER = "If-Range";
+
+   String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+
+   String CONTENT_RANGE_HEADER = "Content-Range";
+
 }
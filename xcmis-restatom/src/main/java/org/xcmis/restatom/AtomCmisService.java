@@ -57,6 +57,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -772,7 +773,8 @@ public class AtomCmisService
          for (Object v : abderaResponse.getHeaders(headerName))
          {
             // For now just be sure not get errors if RESTful framework.
-            responseBuilder.header(headerName, v.toString());
+            // Dates are kept as is to be formatted as HTTP dates by framework.
+            responseBuilder.header(headerName, v instanceof Date ? v : v.toString());
          }
       }
    }
@@ -58,11 +58,13 @@ import org.xcmis.spi.model.AccessControlEntry;
 import org.xcmis.spi.model.BaseType;
 import org.xcmis.spi.model.CmisObject;
 import org.xcmis.spi.model.IncludeRelationships;
+import org.xcmis.spi.model.ObjectInfo;
 import org.xcmis.spi.model.Property;
 import org.xcmis.spi.model.Rendition;
 import org.xcmis.spi.model.RepositoryCapabilities;
 import org.xcmis.spi.model.RepositoryInfo;
 import org.xcmis.spi.model.impl.StringProperty;
+import org.xcmis.spi.utils.ContentRange;
 import org.xcmis.spi.utils.Logger;
 
 import java.io.IOException;
@@ -474,11 +476,55 @@ public abstract class CmisObjectCollection extends AbstractCmisCollection<CmisOb
       try
       {
          Connection connection = getConnection(request);
-         // TODO : resolve (optional) offset, length
-         ContentStream content = connection.getContentStream(getId(request), getStreamId(request));
-         ResponseContext response = new BinaryResponseContext(content.getStream(), 200);
+         String objectId = getId(request);
+         String streamId = getStreamId(request);
+         ContentStream content = connection.getContentStream(objectId, streamId);
+         ObjectInfo info =
+            connection.getProperties(objectId, true, CmisConstants.LAST_MODIFICATION_DATE).getObjectInfo();
+         String entityTag = getContentEntityTag(content, info, streamId);
+         Date lastModified = info.getLastModificationDate() != null ? info.getLastModificationDate().getTime() : null;
+
+         if (isNotModified(request, entityTag, lastModified))
+         {
+            content.getStream().close();
+            ResponseContext response = new BinaryResponseContext(null, 304);
+            setValidators(response, entityTag, lastModified);
+            return response;
+         }
+
+         long length = content.length();
+         long[] range = null;
+         if (length >= 0 && isRangeValid(request, entityTag, lastModified))
+         {
+            range = parseRange(request.getHeader(AtomCMIS.RANGE_HEADER), length);
+         }
+         ResponseContext response;
+         if (range == null)
+         {
+            response = new BinaryResponseContext(content.getStream(), 200);
+            response.setContentLength(length);
+         }
+         else if (range.length == 0)
+         {
+            content.getStream().close();
+            response = new BinaryResponseContext(null, 416);
+            response.setHeader(AtomCMIS.CONTENT_RANGE_HEADER, "bytes */" + length);
+            return response;
+         }
+         else
+         {
+            long rangeLength = range[1] - range[0] + 1;
+            // providers which support random access skip to start of range directly
+            response = new BinaryResponseContext(ContentRange.open(content, range[0], rangeLength), 206);
+            response.setContentLength(rangeLength);
+            response.setHeader(AtomCMIS.CONTENT_RANGE_HEADER, "bytes " + range[0] + "-" + range[1] + "/" + length);
+         }
+         if (length >= 0)
+         {
+            response.setHeader(AtomCMIS.ACCEPT_RANGES_HEADER, "bytes");
+         }
+         setValidators(response, entityTag, lastModified);
          response.setContentType(content.getMediaType().toString());
-         response.setContentLength(content.length());
          response.setHeader(AtomCMIS.CONTENT_DISPOSITION_HEADER, //
             "attachment; filename=\"" + content.getFileName() + "\"");
          return response;
@@ -497,6 +543,174 @@ public abstract class CmisObjectCollection extends AbstractCmisCollection<CmisOb
       }
    }
 
+   /**
+    * Get entity tag of content. Change token of object is used if any, so tag
+    * may be used in 'If-Match' header to update content. Otherwise key of
+    * content is used if content stream provides it.
+    *
+    * @param content content stream
+    * @param info object info
+    * @param streamId id of rendition stream or <code>null</code> for content
+    *        of document
+    * @return entity tag or <code>null</code> if content has not tag
+    */
+   private static String getContentEntityTag(ContentStream content, ObjectInfo info, String streamId)
+   {
+      String changeToken = info.getChangeToken();
+      if (changeToken != null)
+      {
+         return streamId == null ? changeToken : changeToken + "-" + streamId;
+      }
+      if (content instanceof ContentStream.Keyed)
+      {
+         return ((ContentStream.Keyed)content).getContentKey();
+      }
+      return null;
+   }
+
+   private static void setValidators(ResponseContext response, String entityTag, Date lastModified)
+   {
+      if (entityTag != null)
+      {
+         response.setEntityTag(entityTag);
+      }
+      if (lastModified != null)
+      {
+         response.setLastModified(lastModified);
+      }
+   }
+
+   /**
+    * Check 'If-None-Match' and 'If-Modified-Since' headers. 'If-Modified-Since'
+    * is ignored if request contains 'If-None-Match'.
+    */
+   private static boolean isNotModified(RequestContext request, String entityTag, Date lastModified)
+   {
+      String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+      if (ifNoneMatch != null)
+      {
+         for (String tag : ifNoneMatch.split(","))
+         {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+            {
+               // weak comparison
+               tag = tag.substring(2);
+            }
+            if (tag.equals("*") || (entityTag != null && tag.equals('"' + entityTag + '"')))
+            {
+               return true;
+            }
+         }
+         return false;
+      }
+      Date since = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+      // HTTP dates have precision of seconds
+      return since != null && lastModified != null && lastModified.getTime() / 1000 <= since.getTime() / 1000;
+   }
+
+   /**
+    * Check 'If-Range' header. Range is sent only if content is not changed
+    * since client got its validator, otherwise whole content is sent.
+    */
+   private static boolean isRangeValid(RequestContext request, String entityTag, Date lastModified)
+   {
+      String ifRange = request.getHeader(AtomCMIS.IF_RANGE_HEADER);
+      if (ifRange == null)
+      {
+         return true;
+      }
+      ifRange = ifRange.trim();
+      if (ifRange.startsWith("\""))
+      {
+         return entityTag != null && ifRange.equals('"' + entityTag + '"');
+      }
+      if (ifRange.startsWith("W/"))
+      {
+         // weak tags may not be used with ranges
+         return false;
+      }
+      Date date = getDateHeader(request, AtomCMIS.IF_RANGE_HEADER);
+      return date != null && lastModified != null && lastModified.getTime() / 1000 == date.getTime() / 1000;
+   }
+
+   /**
+    * Parse 'Range' header. Only single range of bytes is supported, whole
+    * content is sent if header contains few ranges.
+    *
+    * @param header value of 'Range' header, may be <code>null</code>
+    * @param length length of content
+    * @return positions of first and last byte of range, empty array if range
+    *         can't be satisfied or <code>null</code> if header must be ignored
+    */
+   private static long[] parseRange(String header, long length)
+   {
+      if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0)
+      {
+         return null;
+      }
+      String spec = header.substring("bytes=".length()).trim();
+      int dash = spec.indexOf('-');
+      if (dash < 0)
+      {
+         return null;
+      }
+      try
+      {
+         long first;
+         long last;
+         if (dash == 0)
+         {
+            // suffix range, last N bytes of content
+            long suffix = Long.parseLong(spec.substring(1).trim());
+            if (suffix < 0)
+            {
+               // syntactically invalid, e.g. 'bytes=--5'
+               return null;
+            }
+            if (suffix == 0 || length == 0)
+            {
+               return new long[0];
+            }
+            first = Math.max(0, length - suffix);
+            last = length - 1;
+         }
+         else
+         {
+            first = Long.parseLong(spec.substring(0, dash).trim());
+            String end = spec.substring(dash + 1).trim();
+            last = end.length() == 0 ? length - 1 : Long.parseLong(end);
+            if (first < 0 || last < first)
+            {
+               return null;
+            }
+            if (first >= length)
+            {
+               return new long[0];
+            }
+            last = Math.min(last, length - 1);
+         }
+         return new long[]{first, last};
+      }
+      catch (NumberFormatException e)
+      {
+         return null;
+      }
+   }
+
+   private static Date getDateHeader(RequestContext request, String name)
+   {
+      try
+      {
+         return request.getDateHeader(name);
+      }
+      catch (RuntimeException e)
+      {
+         // not valid HTTP date
+         return null;
+      }
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.restatom;
+
+import org.everrest.core.impl.ContainerResponse;
+import org.everrest.core.impl.MultivaluedMapImpl;
+import org.everrest.core.tools.ByteArrayContainerResponseWriter;
+import org.xcmis.spi.BaseContentStream;
+import org.xcmis.spi.ContentStream;
+import org.xcmis.spi.utils.MimeType;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Test for conditional and partial requests of document content.
+ *
+ * @version $Id$
+ */
+public class ContentStreamTest extends BaseTest
+{
+
+   private static final String CONTENT = "to be or not to be";
+
+   private String requestURI;
+
+   @Override
+   public void setUp() throws Exception
+   {
+      super.setUp();
+      ContentStream content =
+         new BaseContentStream(CONTENT.getBytes(), "file", MimeType.fromString("text/plain; charset=UTF-8"));
+      String docId = createDocument(testFolderId, "doc1", null, content);
+      requestURI = "http://localhost:8080/rest/cmisatom/" + cmisRepositoryId + "/file/" + docId;
+   }
+
+   public void testGetContent() throws Exception
+   {
+      ByteArrayContainerResponseWriter writer = new ByteArrayContainerResponseWriter();
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", null, null, writer);
+      assertEquals(200, resp.getStatus());
+      assertEquals(CONTENT, new String(writer.getBody()));
+      assertEquals("bytes", getHeader(resp, AtomCMIS.ACCEPT_RANGES_HEADER));
+      assertNotNull(getHeader(resp, HttpHeaders.ETAG));
+      assertNotNull(getHeader(resp, HttpHeaders.LAST_MODIFIED));
+   }
+
+   public void testIfNoneMatch() throws Exception
+   {
+      String entityTag = getEntityTag();
+
+      MultivaluedMap<String, String> headers = new MultivaluedMapImpl();
+      headers.putSingle(HttpHeaders.IF_NONE_MATCH, entityTag);
+      ByteArrayContainerResponseWriter writer = new ByteArrayContainerResponseWriter();
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null, writer);
+      assertEquals(304, resp.getStatus());
+      assertEquals(entityTag, getHeader(resp, HttpHeaders.ETAG));
+      assertTrue(writer.getBody() == null || writer.getBody().length == 0);
+
+      headers.putSingle(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+      writer = new ByteArrayContainerResponseWriter();
+      resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null, writer);
+      assertEquals(200, resp.getStatus());
+      assertEquals(CONTENT, new String(writer.getBody()));
+   }
+
+   public void testRange() throws Exception
+   {
+      MultivaluedMap<String, String> headers = new MultivaluedMapImpl();
+      headers.putSingle(AtomCMIS.RANGE_HEADER, "bytes=3-4");
+      ByteArrayContainerResponseWriter writer = new ByteArrayContainerResponseWriter();
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null, writer);
+      assertEquals(206, resp.getStatus());
+      assertEquals("be", new String(writer.getBody()));
+      assertEquals("bytes 3-4/" + CONTENT.length(), getHeader(resp, AtomCMIS.CONTENT_RANGE_HEADER));
+   }
+
+   public void testSuffixRange() throws Exception
+   {
+      MultivaluedMap<String, String> headers = new MultivaluedMapImpl();
+      headers.putSingle(AtomCMIS.RANGE_HEADER, "bytes=-2");
+      ByteArrayContainerResponseWriter writer = new ByteArrayContainerResponseWriter();
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null, writer);
+      assertEquals(206, resp.getStatus());
+      assertEquals("be", new String(writer.getBody()));
+      int length = CONTENT.length();
+      assertEquals("bytes " + (length - 2) + "-" + (length - 1) + "/" + length,
+         getHeader(resp, AtomCMIS.CONTENT_RANGE_HEADER));
+   }
+
+   public void testUnsatisfiableRange() throws Exception
+   {
+      MultivaluedMap<String, String> headers = new MultivaluedMapImpl();
+      headers.putSingle(AtomCMIS.RANGE_HEADER, "bytes=100-");
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null);
+      assertEquals(416, resp.getStatus());
+      assertEquals("bytes */" + CONTENT.length(), getHeader(resp, AtomCMIS.CONTENT_RANGE_HEADER));
+   }
+
+   public void testInvalidRangeIgnored() throws Exception
+   {
+      MultivaluedMap<String, String> headers = new MultivaluedMapImpl();
+      headers.putSingle(AtomCMIS.RANGE_HEADER, "bytes=--5");
+      ByteArrayContainerResponseWriter writer = new ByteArrayContainerResponseWriter();
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null, writer);
+      assertEquals(200, resp.getStatus());
+      assertEquals(CONTENT, new String(writer.getBody()));
+   }
+
+   public void testIfRange() throws Exception
+   {
+      String entityTag = getEntityTag();
+
+      MultivaluedMap<String, String> headers = new MultivaluedMapImpl();
+      headers.putSingle(AtomCMIS.RANGE_HEADER, "bytes=0-1");
+      headers.putSingle(AtomCMIS.IF_RANGE_HEADER, entityTag);
+      ByteArrayContainerResponseWriter writer = new ByteArrayContainerResponseWriter();
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null, writer);
+      assertEquals(206, resp.getStatus());
+      assertEquals("to", new String(writer.getBody()));
+
+      // Content changed since client got its tag, whole content must be sent.
+      headers.putSingle(AtomCMIS.IF_RANGE_HEADER, "\"other\"");
+      writer = new ByteArrayContainerResponseWriter();
+      resp = service("GET", requestURI, "http://localhost:8080/rest", headers, null, writer);
+      assertEquals(200, resp.getStatus());
+      assertEquals(CONTENT, new String(writer.getBody()));
+   }
+
+   private String getEntityTag() throws Exception
+   {
+      ContainerResponse resp = service("GET", requestURI, "http://localhost:8080/rest", null, null);
+      assertEquals(200, resp.getStatus());
+      String entityTag = getHeader(resp, HttpHeaders.ETAG);
+      assertNotNull(entityTag);
+      return entityTag;
+   }
+
+   private static String getHeader(ContainerResponse resp, String name)
+   {
+      Object value = resp.getHttpHeaders().getFirst(name);
+      return value != null ? value.toString() : null;
+   }
+
+}
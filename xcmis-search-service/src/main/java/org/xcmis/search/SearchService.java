@@ -34,9 +34,15 @@ import org.xcmis.search.content.interceptors.QueryableIndexStorage;
 import org.xcmis.search.model.Query;
 import org.xcmis.search.query.QueryExecutionException;
 import org.xcmis.search.query.Searcher;
+import org.xcmis.search.query.optimize.CostBasedOptimizer;
 import org.xcmis.search.query.optimize.CriteriaBasedOptimizer;
+import org.xcmis.search.query.optimize.IndexStatistics;
+import org.xcmis.search.query.plan.Optimizer;
 import org.xcmis.search.query.plan.SimplePlaner;
+import org.xcmis.search.result.RowFetchException;
 import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.result.ScoredRowIterator;
+import org.xcmis.search.result.ScoredRowListIterator;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -79,10 +85,12 @@ public class SearchService implements Startable, ContentModificationListener, Se
       this.interceptorChain = new InterceptorChain(configuration.getContentReader());
       this.defaultInvocationContext = configuration;
 
-      addQueryableIndexStorageInterceptor(interceptorChain);
+      QueryableIndexStorage queryableIndexStorage = addQueryableIndexStorageInterceptor(interceptorChain);
 
-      interceptorChain.addBeforeInterceptor(new QueryProcessorInterceptor(new SimplePlaner(),
-         new CriteriaBasedOptimizer()), QueryableIndexStorage.class);
+      IndexStatistics statistics = queryableIndexStorage.getIndexStatistics();
+      Optimizer optimizer = statistics != null ? new CostBasedOptimizer(statistics) : new CriteriaBasedOptimizer();
+      interceptorChain.addBeforeInterceptor(new QueryProcessorInterceptor(new SimplePlaner(), optimizer),
+         QueryableIndexStorage.class);
 
    }
 
@@ -130,15 +138,59 @@ public class SearchService implements Startable, ContentModificationListener, Se
     * @see org.xcmis.search.query.Searcher#execute(org.xcmis.search.model.Query,
     *      java.util.Map, org.xcmis.search.content.command.InvocationContext)
     */
-   @SuppressWarnings("unchecked")
    public List<ScoredRow> execute(Query query, Map<String, Object> bindVariablesValues,
       InvocationContext invocationContext) throws InvalidQueryException, QueryExecutionException
+   {
+      ScoredRowIterator rows = iterate(query, bindVariablesValues, invocationContext);
+      try
+      {
+         return ScoredRowListIterator.toList(rows);
+      }
+      catch (RowFetchException e)
+      {
+         throw new QueryExecutionException(e.getLocalizedMessage(), e);
+      }
+   }
+
+   /**
+    * @see org.xcmis.search.query.Searcher#iterate(org.xcmis.search.model.Query)
+    */
+   @SuppressWarnings("unchecked")
+   public ScoredRowIterator iterate(Query query) throws InvalidQueryException, QueryExecutionException
+   {
+      if (defaultInvocationContext == null)
+      {
+         throw new QueryExecutionException("DefaultInvocationContext can't be null");
+      }
+      return iterate(query, Collections.EMPTY_MAP);
+   }
+
+   /**
+    * @see org.xcmis.search.query.Searcher#iterate(org.xcmis.search.model.Query,
+    *      java.util.Map)
+    */
+   public ScoredRowIterator iterate(Query query, Map<String, Object> bindVariablesValues)
+      throws InvalidQueryException, QueryExecutionException
+   {
+      if (defaultInvocationContext == null)
+      {
+         throw new QueryExecutionException("DefaultInvocationContext can't be null");
+      }
+      return iterate(query, bindVariablesValues, defaultInvocationContext);
+   }
+
+   /**
+    * @see org.xcmis.search.query.Searcher#iterate(org.xcmis.search.model.Query,
+    *      java.util.Map, org.xcmis.search.content.command.InvocationContext)
+    */
+   public ScoredRowIterator iterate(Query query, Map<String, Object> bindVariablesValues,
+      InvocationContext invocationContext) throws InvalidQueryException, QueryExecutionException
    {
       ProcessQueryCommand processQueryCommand = new ProcessQueryCommand(query, bindVariablesValues);
 
       try
       {
-         return (List<ScoredRow>)interceptorChain.invoke(invocationContext, processQueryCommand);
+         return (ScoredRowIterator)interceptorChain.invoke(invocationContext, processQueryCommand);
       }
       catch (Throwable e)
       {
@@ -146,6 +198,15 @@ public class SearchService implements Startable, ContentModificationListener, Se
       }
    }
 
+   /**
+    * @return context used by methods which do not accept
+    *         {@link InvocationContext} explicitly
+    */
+   public InvocationContext getDefaultInvocationContext()
+   {
+      return defaultInvocationContext;
+   }
+
    /**
     * @see org.xcmis.search.Startable#start()
     */
@@ -221,10 +282,12 @@ public class SearchService implements Startable, ContentModificationListener, Se
     * 
     * @param interceptorChain
     *           InterceptorChain
+    * @return added QueryableIndexStorage
     * @throws SearchServiceException
     *            if error occurs
     */
-   protected void addQueryableIndexStorageInterceptor(InterceptorChain interceptorChain) throws SearchServiceException
+   protected QueryableIndexStorage addQueryableIndexStorageInterceptor(InterceptorChain interceptorChain)
+      throws SearchServiceException
    {
       String className = configuration.getIndexConfuguration().getQueryableIndexStorage();
       try
@@ -237,6 +300,7 @@ public class SearchService implements Startable, ContentModificationListener, Se
                (Constructor<QueryableIndexStorage>)queryableIndexStorageClass.getConstructor(configuration.getClass());
             QueryableIndexStorage queryableIndexStorage = constructor.newInstance(configuration);
             interceptorChain.addBeforeInterceptor(queryableIndexStorage, ContentReaderInterceptor.class);
+            return queryableIndexStorage;
          }
          else
          {
@@ -36,6 +36,32 @@ public class IndexConfiguration
    public static final String DEFAULT_QUERYABLEINDEXSTORAGE =
       "org.xcmis.search.lucene.InMemoryLuceneQueryableIndexStorage";
 
+   /**
+    * Default max number of index transactions between two commits.
+    */
+   public static final int DEFAULT_COMMIT_BATCH_SIZE = 100;
+
+   /**
+    * Default max time in milliseconds between two commits.
+    */
+   public static final long DEFAULT_COMMIT_INTERVAL = 1000;
+
+   /**
+    * Default max number of characters of cached extracted text.
+    */
+   public static final int DEFAULT_EXTRACTED_TEXT_CACHE_SIZE = 4 * 1024 * 1024;
+
+   /**
+    * Default size in bytes of transaction log segments.
+    */
+   public static final long DEFAULT_TRANSACTION_LOG_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+   /**
+    * Default max number of concurrent background merges of index segments.
+    */
+   public static final int DEFAULT_MAX_CONCURRENT_MERGES =
+      Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() / 2));
+
    /**
     * Path where index should be stored.
     */
@@ -61,6 +87,42 @@ public class IndexConfiguration
     */
    private final String queryableIndexStorage;
 
+   /**
+    * Max number of index transactions between two commits.
+    */
+   private int commitBatchSize = DEFAULT_COMMIT_BATCH_SIZE;
+
+   /**
+    * Max time in milliseconds between two commits.
+    */
+   private long commitInterval = DEFAULT_COMMIT_INTERVAL;
+
+   /**
+    * Max number of characters of cached extracted text.
+    */
+   private int extractedTextCacheSize = DEFAULT_EXTRACTED_TEXT_CACHE_SIZE;
+
+   /**
+    * Number of threads which create documents when index is rebuilt.
+    */
+   private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * Size in bytes of transaction log segments, 0 if each transaction is
+    * logged to separate file.
+    */
+   private long transactionLogSegmentSize = DEFAULT_TRANSACTION_LOG_SEGMENT_SIZE;
+
+   /**
+    * Max number of concurrent background merges of index segments.
+    */
+   private int maxConcurrentMerges = DEFAULT_MAX_CONCURRENT_MERGES;
+
+   /**
+    * Max number of megabytes per second written by merges, 0 if not limited.
+    */
+   private double mergeRateLimit;
+
    /**
     * In memory index storage with default Tika configuration
     * 
@@ -147,4 +209,151 @@ public class IndexConfiguration
       return tikaConfiguration;
    }
 
+   /**
+    * @return max number of index transactions between two commits
+    */
+   public int getCommitBatchSize()
+   {
+      return commitBatchSize;
+   }
+
+   /**
+    * @param commitBatchSize max number of index transactions between two
+    *        commits, must be positive
+    */
+   public void setCommitBatchSize(int commitBatchSize)
+   {
+      if (commitBatchSize < 1)
+      {
+         throw new IllegalArgumentException("Commit batch size must be positive. ");
+      }
+      this.commitBatchSize = commitBatchSize;
+   }
+
+   /**
+    * @return max time in milliseconds between two commits
+    */
+   public long getCommitInterval()
+   {
+      return commitInterval;
+   }
+
+   /**
+    * @param commitInterval max time in milliseconds between two commits
+    */
+   public void setCommitInterval(long commitInterval)
+   {
+      this.commitInterval = commitInterval;
+   }
+
+   /**
+    * @return max number of characters of text extracted from binary values
+    *         which is kept to reuse when values are indexed again
+    */
+   public int getExtractedTextCacheSize()
+   {
+      return extractedTextCacheSize;
+   }
+
+   /**
+    * @param extractedTextCacheSize max number of characters of cached
+    *        extracted text, 0 disables cache
+    */
+   public void setExtractedTextCacheSize(int extractedTextCacheSize)
+   {
+      if (extractedTextCacheSize < 0)
+      {
+         throw new IllegalArgumentException("Extracted text cache size may not be negative. ");
+      }
+      this.extractedTextCacheSize = extractedTextCacheSize;
+   }
+
+   /**
+    * @return number of threads which traverse content and create documents
+    *         when index is rebuilt
+    */
+   public int getRecoveryThreads()
+   {
+      return recoveryThreads;
+   }
+
+   /**
+    * @param recoveryThreads number of threads which traverse content and
+    *        create documents when index is rebuilt, must be positive
+    */
+   public void setRecoveryThreads(int recoveryThreads)
+   {
+      if (recoveryThreads < 1)
+      {
+         throw new IllegalArgumentException("Number of recovery threads must be positive. ");
+      }
+      this.recoveryThreads = recoveryThreads;
+   }
+
+   /**
+    * @return size in bytes of segments of persistent index transaction log, 0
+    *         if each transaction is logged to separate file
+    */
+   public long getTransactionLogSegmentSize()
+   {
+      return transactionLogSegmentSize;
+   }
+
+   /**
+    * @param transactionLogSegmentSize size in bytes of segments of persistent
+    *        index transaction log, 0 to log each transaction to separate file
+    */
+   public void setTransactionLogSegmentSize(long transactionLogSegmentSize)
+   {
+      if (transactionLogSegmentSize < 0)
+      {
+         throw new IllegalArgumentException("Transaction log segment size may not be negative. ");
+      }
+      this.transactionLogSegmentSize = transactionLogSegmentSize;
+   }
+
+   /**
+    * @return max number of background merges of persistent index segments
+    *         running at once
+    */
+   public int getMaxConcurrentMerges()
+   {
+      return maxConcurrentMerges;
+   }
+
+   /**
+    * @param maxConcurrentMerges max number of background merges of persistent
+    *        index segments running at once, must be positive
+    */
+   public void setMaxConcurrentMerges(int maxConcurrentMerges)
+   {
+      if (maxConcurrentMerges < 1)
+      {
+         throw new IllegalArgumentException("Number of concurrent merges must be positive. ");
+      }
+      this.maxConcurrentMerges = maxConcurrentMerges;
+   }
+
+   /**
+    * @return max number of megabytes per second written by background merges,
+    *         0 if rate is not limited
+    */
+   public double getMergeRateLimit()
+   {
+      return mergeRateLimit;
+   }
+
+   /**
+    * @param mergeRateLimit max number of megabytes per second written by
+    *        background merges, 0 to not limit rate
+    */
+   public void setMergeRateLimit(double mergeRateLimit)
+   {
+      if (mergeRateLimit < 0)
+      {
+         throw new IllegalArgumentException("Merge rate limit may not be negative. ");
+      }
+      this.mergeRateLimit = mergeRateLimit;
+   }
+
 }
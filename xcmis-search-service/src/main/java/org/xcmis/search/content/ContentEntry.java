@@ -40,6 +40,24 @@ public class ContentEntry
     */
    private final String[] parentIdentifiers;
 
+   /**
+    * An array of identifiers of all ancestors of entry or <code>null</code> if
+    * they are not known.
+    */
+   private final String[] ancestorIdentifiers;
+
+   /**
+    * An array of principals allowed to read entry or <code>null</code> if
+    * everyone is allowed to read it.
+    */
+   private final String[] principals;
+
+   /**
+    * Key of entry in document order or <code>null</code> if content provider
+    * does not define document order.
+    */
+   private final String orderKey;
+
    /**
     *  Entry identifier.
     */
@@ -59,6 +77,58 @@ public class ContentEntry
     */
    public ContentEntry(String name, String[] tableNames, String identifer, String[] parentIdentifiers,
       Property[] properties)
+   {
+      this(name, tableNames, identifer, parentIdentifiers, null, properties);
+   }
+
+   /**
+    * @param name String name
+    * @param tableNames String[]
+    * @param identifier String
+    * @param parentIdentifiers String[]
+    * @param ancestorIdentifiers String[] identifiers of all ancestors. If
+    *           <code>null</code> ancestors will be resolved by index
+    * @param properties Property[]
+    */
+   public ContentEntry(String name, String[] tableNames, String identifer, String[] parentIdentifiers,
+      String[] ancestorIdentifiers, Property[] properties)
+   {
+      this(name, tableNames, identifer, parentIdentifiers, ancestorIdentifiers, null, properties);
+   }
+
+   /**
+    * @param name String name
+    * @param tableNames String[]
+    * @param identifier String
+    * @param parentIdentifiers String[]
+    * @param ancestorIdentifiers String[] identifiers of all ancestors. If
+    *           <code>null</code> ancestors will be resolved by index
+    * @param principals String[] principals allowed to read entry. If
+    *           <code>null</code> everyone is allowed to read it
+    * @param properties Property[]
+    */
+   public ContentEntry(String name, String[] tableNames, String identifer, String[] parentIdentifiers,
+      String[] ancestorIdentifiers, String[] principals, Property[] properties)
+   {
+      this(name, tableNames, identifer, parentIdentifiers, ancestorIdentifiers, principals, null, properties);
+   }
+
+   /**
+    * @param name String name
+    * @param tableNames String[]
+    * @param identifier String
+    * @param parentIdentifiers String[]
+    * @param ancestorIdentifiers String[] identifiers of all ancestors. If
+    *           <code>null</code> ancestors will be resolved by index
+    * @param principals String[] principals allowed to read entry. If
+    *           <code>null</code> everyone is allowed to read it
+    * @param orderKey String key of entry in document order, keys are compared
+    *           as strings. If <code>null</code> entry goes first in document
+    *           order
+    * @param properties Property[]
+    */
+   public ContentEntry(String name, String[] tableNames, String identifer, String[] parentIdentifiers,
+      String[] ancestorIdentifiers, String[] principals, String orderKey, Property[] properties)
    {
       Validate.notNull(name, "The value argument may not be null");
       Validate.notEmpty(tableNames, "The tableNames may not be empty");
@@ -67,6 +137,9 @@ public class ContentEntry
       this.tableNames = tableNames;
       this.identifier = identifer;
       this.parentIdentifiers = parentIdentifiers;
+      this.ancestorIdentifiers = ancestorIdentifiers;
+      this.principals = principals;
+      this.orderKey = orderKey;
       this.properties = properties;
    }
 
@@ -94,6 +167,32 @@ public class ContentEntry
       return parentIdentifiers;
    }
 
+   /**
+    * @return the ancestorIdentifiers or <code>null</code> if they are not known
+    */
+   public String[] getAncestorIdentifiers()
+   {
+      return ancestorIdentifiers;
+   }
+
+   /**
+    * @return the principals allowed to read entry or <code>null</code> if
+    *         everyone is allowed to read it
+    */
+   public String[] getPrincipals()
+   {
+      return principals;
+   }
+
+   /**
+    * @return key of entry in document order or <code>null</code> if it is not
+    *         defined
+    */
+   public String getOrderKey()
+   {
+      return orderKey;
+   }
+
    /**
     * @return the identifier
     */
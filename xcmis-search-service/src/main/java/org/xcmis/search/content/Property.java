@@ -179,10 +179,26 @@ public class Property<V>
 
       private final long length;
 
+      private final String contentKey;
+
       /**
        * @param value
        */
       public BinaryValue(InputStream value, String mimeType, String encoding, long length)
+      {
+         this(value, mimeType, encoding, length, null);
+      }
+
+      /**
+       * @param value
+       * @param mimeType
+       * @param encoding
+       * @param length
+       * @param contentKey key of bytes, values with the same key have the
+       *           same bytes so text extracted from one of them is reused for
+       *           others. May be <code>null</code> if key is unknown
+       */
+      public BinaryValue(InputStream value, String mimeType, String encoding, long length, String contentKey)
       {
          super(length);
          Validate.notNull(value, "The value argument may not be null");
@@ -190,6 +206,7 @@ public class Property<V>
          this.mimeType = mimeType;
          this.encoding = encoding;
          this.length = length;
+         this.contentKey = contentKey;
       }
 
       /**
@@ -208,6 +225,14 @@ public class Property<V>
          return encoding;
       }
 
+      /**
+       * @return key of bytes or <code>null</code> if key is unknown
+       */
+      public String getContentKey()
+      {
+         return contentKey;
+      }
+
       /**
        * @see org.xcmis.search.content.Property.ContentValue#getValue()
        */
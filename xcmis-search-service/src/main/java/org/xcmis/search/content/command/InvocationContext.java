@@ -25,6 +25,10 @@ import org.xcmis.search.value.PathSplitter;
 import org.xcmis.search.value.SlashSplitter;
 import org.xcmis.search.value.ToStringNameConverter;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Context of command invocation.
  */
@@ -50,23 +54,74 @@ public class InvocationContext
     */
    private final PathSplitter pathSplitter;
 
+   /**
+    * Principals on whose behalf command is invoked or <code>null</code> if
+    * results must not be filtered by principals.
+    */
+   private final Set<String> principals;
+
+   /**
+    * If set rows of selectors without orderings are sorted in document order.
+    */
+   private final boolean documentOrder;
+
    public InvocationContext(Schema schema, VirtualTableResolver tableResolver)
    {
       this.schema = schema;
       this.tableResolver = tableResolver;
       this.nameConverter = new ToStringNameConverter();
       this.pathSplitter = new SlashSplitter();
-
+      this.principals = null;
+      this.documentOrder = false;
    }
 
    public InvocationContext(Schema schema, VirtualTableResolver tableResolver, NameConverter nameConverter,
       PathSplitter pathSplitter)
+   {
+      this(schema, tableResolver, nameConverter, pathSplitter, null);
+   }
+
+   public InvocationContext(Schema schema, VirtualTableResolver tableResolver, NameConverter nameConverter,
+      PathSplitter pathSplitter, Set<String> principals)
+   {
+      this(schema, tableResolver, nameConverter, pathSplitter, principals, false);
+   }
+
+   public InvocationContext(Schema schema, VirtualTableResolver tableResolver, NameConverter nameConverter,
+      PathSplitter pathSplitter, Set<String> principals, boolean documentOrder)
    {
       super();
       this.schema = schema;
       this.tableResolver = tableResolver;
       this.nameConverter = nameConverter;
       this.pathSplitter = pathSplitter;
+      this.principals = principals == null ? null : Collections.unmodifiableSet(new HashSet<String>(principals));
+      this.documentOrder = documentOrder;
+   }
+
+   /**
+    * Create copy of this context which restricts results of queries by
+    * content readable by specified principals.
+    *
+    * @param principals principals on whose behalf command is invoked. If
+    *        <code>null</code> results are not filtered
+    * @return new invocation context
+    */
+   public InvocationContext withPrincipals(Set<String> principals)
+   {
+      return new InvocationContext(schema, tableResolver, nameConverter, pathSplitter, principals, documentOrder);
+   }
+
+   /**
+    * Create copy of this context which sorts rows of selectors without
+    * orderings by keys of entries in document order supplied by content
+    * provider, see {@link org.xcmis.search.content.ContentEntry#getOrderKey()}.
+    *
+    * @return new invocation context
+    */
+   public InvocationContext withDocumentOrder()
+   {
+      return new InvocationContext(schema, tableResolver, nameConverter, pathSplitter, principals, true);
    }
 
    /**
@@ -85,6 +140,24 @@ public class InvocationContext
       return pathSplitter;
    }
 
+   /**
+    * @return principals on whose behalf command is invoked or
+    *         <code>null</code> if results must not be filtered by principals
+    */
+   public Set<String> getPrincipals()
+   {
+      return principals;
+   }
+
+   /**
+    * @return <code>true</code> if rows of selectors without orderings must be
+    *         sorted in document order
+    */
+   public boolean isDocumentOrder()
+   {
+      return documentOrder;
+   }
+
    /**
     * @return the schema
     */
@@ -20,16 +20,24 @@ package org.xcmis.search.content.interceptors;
 
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.Validate;
+import org.xcmis.search.content.ContentEntry;
 import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
 import org.xcmis.search.content.command.query.ProcessQueryCommand;
+import org.xcmis.search.content.command.read.GetContentEntryCommand;
 import org.xcmis.search.model.Limit;
 import org.xcmis.search.model.Query;
 import org.xcmis.search.model.constraint.Constraint;
 import org.xcmis.search.model.ordering.Ordering;
+import org.xcmis.search.model.source.join.JoinType;
 import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.QueryExecutionException;
 import org.xcmis.search.query.QueryExecutionExceptions;
 import org.xcmis.search.query.Statistics;
+import org.xcmis.search.query.join.JoinExecutor;
+import org.xcmis.search.query.join.JoinMatcher;
+import org.xcmis.search.query.join.RowSorter;
+import org.xcmis.search.query.join.JoinMatcher.EntryReader;
 import org.xcmis.search.query.plan.Optimizer;
 import org.xcmis.search.query.plan.QueryExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlaner;
@@ -39,11 +47,15 @@ import org.xcmis.search.query.plan.QueryExecutionPlan.ProjectExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.SelectorExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.SortExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.WhereExecutionPlan;
+import org.xcmis.search.result.RowFetchException;
 import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.result.ScoredRowIterator;
+import org.xcmis.search.result.ScoredRowListIterator;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A query engine that is able to execute formal queries expressed in the
@@ -106,10 +118,11 @@ public class QueryProcessorInterceptor extends CommandInterceptor
     * 
     * @param context the context in which the query should be executed
     * @param query the query that is to be executed
-    * @return the query results; never null
+    * @return the query results; never null. Rows may be fetched lazily while
+    *         iterating
     * @throws IllegalArgumentException if the context or query references are null
     */
-   public List<ScoredRow> execute(InvocationContext ctx, QueryExecutionContext context, Query query)
+   public ScoredRowIterator execute(InvocationContext ctx, QueryExecutionContext context, Query query)
    {
       Validate.notNull(context, "The context argument may not be null");
       Validate.notNull(query, "The query argument may not be null");
@@ -143,7 +156,7 @@ public class QueryProcessorInterceptor extends CommandInterceptor
             }
          }
       }
-      return Collections.emptyList();
+      return ScoredRowListIterator.empty();
    }
 
    /**
@@ -154,25 +167,27 @@ public class QueryProcessorInterceptor extends CommandInterceptor
     * @param stats
     * @param queryPlan
     */
-   private List<ScoredRow> execute(InvocationContext ctx, QueryExecutionContext context, Query query, Statistics stats,
+   private ScoredRowIterator execute(InvocationContext ctx, QueryExecutionContext context, Query query, Statistics stats,
       QueryExecutionPlan queryPlan)
    {
-      QueryExecuteableComponent component = createQueryExecuteableComponent(queryPlan);
+      QueryExecuteableComponent component =
+         createQueryExecuteableComponent(queryPlan, new ArrayList<WhereExecutionPlan>());
       return component.executeComponent(ctx, context);
    };
 
    /**
     * Create component for execution.
     * @param queryExecutionPlan
+    * @param constraintsPlan constraints pushed down from upper plan
     * @return
     */
-   private QueryExecuteableComponent createQueryExecuteableComponent(QueryExecutionPlan queryExecutionPlan)
+   private QueryExecuteableComponent createQueryExecuteableComponent(QueryExecutionPlan queryExecutionPlan,
+      List<WhereExecutionPlan> constraintsPlan)
    {
 
       LimitExecutionPlan limitPlan = null;
       SortExecutionPlan sortPlan = null;
       ProjectExecutionPlan projectPlan = null;
-      List<WhereExecutionPlan> constraintsPlan = new ArrayList<WhereExecutionPlan>();
       QueryExecutionPlan nextPlan = queryExecutionPlan;
       do
       {
@@ -196,10 +211,39 @@ public class QueryProcessorInterceptor extends CommandInterceptor
                   constraintsPlan, sortPlan, limitPlan);
             case JOIN :
                JoinExecutionPlan joinPlan = (JoinExecutionPlan)nextPlan;
-               QueryExecuteableComponent left = createQueryExecuteableComponent(joinPlan.getLeftPlan());
-               QueryExecuteableComponent right = createQueryExecuteableComponent(joinPlan.getRightPlan());
-               return new JoinExecutionComponent(this, joinPlan, left, right, projectPlan, constraintsPlan, sortPlan,
-                  limitPlan);
+               // Push constraints which refer to one side of join down to this side.
+               List<WhereExecutionPlan> leftConstraints = new ArrayList<WhereExecutionPlan>();
+               List<WhereExecutionPlan> rightConstraints = new ArrayList<WhereExecutionPlan>();
+               List<WhereExecutionPlan> joinConstraints = new ArrayList<WhereExecutionPlan>();
+               for (WhereExecutionPlan constraint : constraintsPlan)
+               {
+                  if (joinPlan.getLeftPlan().getSelectors().containsAll(constraint.getSelectors()))
+                  {
+                     leftConstraints.add(constraint);
+                  }
+                  else if (joinPlan.getRightPlan().getSelectors().containsAll(constraint.getSelectors()))
+                  {
+                     rightConstraints.add(constraint);
+                  }
+                  else
+                  {
+                     joinConstraints.add(constraint);
+                  }
+               }
+               // Constraint on the side which may be null in outer join rejects rows
+               // without match, so outer join becomes inner.
+               JoinType joinType = joinPlan.getJoinType();
+               if ((joinType == JoinType.LEFT_OUTER && rightConstraints.size() > 0)
+                  || (joinType == JoinType.RIGHT_OUTER && leftConstraints.size() > 0))
+               {
+                  joinType = JoinType.INNER;
+               }
+               QueryExecuteableComponent left =
+                  createQueryExecuteableComponent(joinPlan.getLeftPlan(), leftConstraints);
+               QueryExecuteableComponent right =
+                  createQueryExecuteableComponent(joinPlan.getRightPlan(), rightConstraints);
+               return new JoinExecutionComponent(this, joinPlan, joinType, left, right, projectPlan,
+                  joinConstraints, sortPlan, limitPlan);
             default :
                throw new NotImplementedException("Execution for plan " + queryExecutionPlan.getType().toString()
                   + " not implemented");
@@ -313,7 +357,7 @@ public class QueryProcessorInterceptor extends CommandInterceptor
          return constraints;
       }
 
-      public abstract List<ScoredRow> executeComponent(InvocationContext ctx, QueryExecutionContext context);
+      public abstract ScoredRowIterator executeComponent(InvocationContext ctx, QueryExecutionContext context);
    }
 
    /**
@@ -352,14 +396,14 @@ public class QueryProcessorInterceptor extends CommandInterceptor
        * @see org.xcmis.search.content.interceptors.QueryProcessorInterceptor.QueryExecuteableComponent#executeComponent(org.xcmis.search.query.QueryExecutionContext)
        */
       @Override
-      public List<ScoredRow> executeComponent(InvocationContext ctx, QueryExecutionContext context)
+      public ScoredRowIterator executeComponent(InvocationContext ctx, QueryExecutionContext context)
       {
          try
          {
             ExecuteSelectorCommand command =
                new ExecuteSelectorCommand(selectorExecutionPlan.getName(), selectorExecutionPlan.getAlias(),
                   getConstraints(), getLimit(), getOrder(), context.getVariables());
-            return (List<ScoredRow>)getInterceptor().invokeNextInterceptor(ctx, command);
+            return (ScoredRowIterator)getInterceptor().invokeNextInterceptor(ctx, command);
          }
          catch (Throwable e)
          {
@@ -369,23 +413,40 @@ public class QueryProcessorInterceptor extends CommandInterceptor
       }
    }
 
+   /**
+    * Execution component for join. Rows of both sides are joined by
+    * {@link JoinExecutor} and then sorted and limited.
+    */
    private class JoinExecutionComponent extends QueryExecuteableComponent
    {
 
       private final JoinExecutionPlan joinPlan;
 
+      private final JoinType joinType;
+
+      private final QueryExecuteableComponent left;
+
+      private final QueryExecuteableComponent right;
+
       /**
+       * @param joinType type of join, may differ from type of joinPlan if
+       *           constraints allow to replace outer join by inner
+       * @param left component for left side
+       * @param right component for right side
        * @param projectPlan
        * @param constraintsPlan
        * @param sortPlan
        * @param limitPlan
        */
-      public JoinExecutionComponent(CommandInterceptor interceptor, JoinExecutionPlan joinPlan,
+      public JoinExecutionComponent(CommandInterceptor interceptor, JoinExecutionPlan joinPlan, JoinType joinType,
          QueryExecuteableComponent left, QueryExecuteableComponent right, ProjectExecutionPlan projectPlan,
          List<WhereExecutionPlan> constraintsPlan, SortExecutionPlan sortPlan, LimitExecutionPlan limitPlan)
       {
          super(interceptor, projectPlan, constraintsPlan, sortPlan, limitPlan);
          this.joinPlan = joinPlan;
+         this.joinType = joinType;
+         this.left = left;
+         this.right = right;
       }
 
       /**
@@ -393,9 +454,89 @@ public class QueryProcessorInterceptor extends CommandInterceptor
        * @see org.xcmis.search.content.interceptors.QueryProcessorInterceptor.QueryExecuteableComponent#executeComponent(org.xcmis.search.query.QueryExecutionContext)
        */
       @Override
-      public List<ScoredRow> executeComponent(InvocationContext ctx, QueryExecutionContext context)
+      public ScoredRowIterator executeComponent(InvocationContext ctx, QueryExecutionContext context)
+      {
+         if (getConstraintsPlan().size() > 0)
+         {
+            context.getExecutionExceptions().addException(
+               new NotImplementedException("Constraints which refer to few selectors are not supported: "
+                  + getConstraints()));
+            return null;
+         }
+         // Build side is expected to be smaller, execute it first. If it is
+         // empty there is no need to execute other side.
+         boolean buildLeft = joinPlan.isBuildLeft();
+         List<ScoredRow> buildRows = readRows((buildLeft ? left : right), ctx, context);
+         if (buildRows == null)
+         {
+            // Problems are already added in context.
+            return null;
+         }
+         if (buildRows.isEmpty()
+            && (joinType == JoinType.INNER || (buildLeft && joinType == JoinType.LEFT_OUTER) || (!buildLeft && joinType
+               == JoinType.RIGHT_OUTER)))
+         {
+            return ScoredRowListIterator.empty();
+         }
+         List<ScoredRow> probeRows = readRows((buildLeft ? right : left), ctx, context);
+         if (probeRows == null)
+         {
+            return null;
+         }
+         List<ScoredRow> leftRows = buildLeft ? buildRows : probeRows;
+         List<ScoredRow> rightRows = buildLeft ? probeRows : buildRows;
+         try
+         {
+            EntryReader reader = new ContentEntryReader(ctx);
+            JoinMatcher matcher =
+               JoinMatcher.create(joinPlan.getJoinCondition(), joinPlan.getLeftPlan().getSelectors(), reader);
+            Limit limit = getLimit();
+            List<Ordering> order = getOrder();
+            // If rows should not be sorted join may stop as soon as enough rows produced.
+            int maxRows =
+               order.isEmpty() ? (int)Math.min(Integer.MAX_VALUE, (long)limit.getOffset() + limit.getRowLimit())
+                  : Integer.MAX_VALUE;
+            List<ScoredRow> rows =
+               new JoinExecutor(matcher, joinType, joinPlan.getJoinAlgorithm()).join(leftRows, rightRows, maxRows);
+            new RowSorter(order, reader).sort(rows);
+            if (limit.getOffset() > 0 || rows.size() > limit.getRowLimit())
+            {
+               int from = Math.min(limit.getOffset(), rows.size());
+               int to = (int)Math.min(rows.size(), (long)from + limit.getRowLimit());
+               rows = new ArrayList<ScoredRow>(rows.subList(from, to));
+            }
+            return new ScoredRowListIterator(rows);
+         }
+         catch (Throwable e)
+         {
+            context.getExecutionExceptions().addException(e);
+         }
+         return null;
+      }
+
+      /**
+       * Join needs all rows of both sides, so read them in memory.
+       * 
+       * @return rows of component or <code>null</code> if component can't be
+       *         executed
+       */
+      private List<ScoredRow> readRows(QueryExecuteableComponent component, InvocationContext ctx,
+         QueryExecutionContext context)
       {
-         throw new NotImplementedException("Method not implemented");
+         ScoredRowIterator rows = component.executeComponent(ctx, context);
+         if (rows == null)
+         {
+            return null;
+         }
+         try
+         {
+            return ScoredRowListIterator.toList(rows);
+         }
+         catch (RowFetchException e)
+         {
+            context.getExecutionExceptions().addException(e);
+         }
+         return null;
       }
 
       /**
@@ -407,4 +548,42 @@ public class QueryProcessorInterceptor extends CommandInterceptor
       }
 
    }
+
+   /**
+    * Read content entries from next interceptors. Each entry is read once per
+    * query.
+    */
+   private class ContentEntryReader implements EntryReader
+   {
+      private final InvocationContext ctx;
+
+      private final Map<String, ContentEntry> entries = new HashMap<String, ContentEntry>();
+
+      public ContentEntryReader(InvocationContext ctx)
+      {
+         this.ctx = ctx;
+      }
+
+      /**
+       * @see org.xcmis.search.query.join.JoinMatcher.EntryReader#getEntry(java.lang.String)
+       */
+      public ContentEntry getEntry(String identifier) throws QueryExecutionException
+      {
+         if (entries.containsKey(identifier))
+         {
+            return entries.get(identifier);
+         }
+         ContentEntry entry;
+         try
+         {
+            entry = (ContentEntry)invokeNextInterceptor(ctx, new GetContentEntryCommand(identifier));
+         }
+         catch (Throwable e)
+         {
+            throw new QueryExecutionException(e.getLocalizedMessage(), e);
+         }
+         entries.put(identifier, entry);
+         return entry;
+      }
+   }
 }
@@ -22,6 +22,7 @@ import org.xcmis.search.config.SearchServiceConfiguration;
 import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.content.command.index.ModifyIndexCommand;
 import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
+import org.xcmis.search.query.optimize.IndexStatistics;
 
 /**
  *  Interceptor that handle changes to the index. And execute query's.
@@ -55,4 +56,15 @@ public abstract class QueryableIndexStorage extends CommandInterceptor
    public abstract Object visitExecuteSelectorCommand(InvocationContext ctx, ExecuteSelectorCommand command)
       throws Throwable;
 
+   /**
+    * Statistics used by optimizer to estimate cost of query execution.
+    * 
+    * @return statistics of index or <code>null</code> if storage doesn't
+    *         provide statistics
+    */
+   public IndexStatistics getIndexStatistics()
+   {
+      return null;
+   }
+
 }
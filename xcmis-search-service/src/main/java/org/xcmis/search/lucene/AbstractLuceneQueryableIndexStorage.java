@@ -20,30 +20,42 @@ package org.xcmis.search.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.Validate;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
-import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.xcmis.search.VisitException;
 import org.xcmis.search.Visitors;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
 import org.xcmis.search.config.SearchServiceConfiguration;
 import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.Schema;
 import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.content.command.index.ModifyIndexCommand;
 import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
@@ -67,9 +79,14 @@ import org.xcmis.search.model.operand.PropertyValue;
 import org.xcmis.search.model.operand.UpperCase;
 import org.xcmis.search.model.ordering.Order;
 import org.xcmis.search.model.ordering.Ordering;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.optimize.IndexStatistics;
+import org.xcmis.search.result.RowFetchException;
 import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.result.ScoredRowIterator;
 import org.xcmis.search.value.NameConverter;
 import org.xcmis.search.value.PathSplitter;
+import org.xcmis.search.value.PropertyType;
 import org.xcmis.spi.utils.Logger;
 
 /**
@@ -85,10 +102,21 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
    private static final Logger LOG = Logger.getLogger(AbstractLuceneQueryableIndexStorage.class);
 
    /**
-    * The upper limit for the initial fetch size.
+    * The upper limit for the fetch size of one page of result.
     */
    protected static final int MAX_FETCH_SIZE = 32 * 1024;
 
+   /**
+    * Size of first page of result. Size of each next page is doubled until
+    * {@link #MAX_FETCH_SIZE} is reached.
+    */
+   protected static final int FIRST_PAGE_SIZE = 128;
+
+   /**
+    * Max number of cached principal filters.
+    */
+   private static final int MAX_PRINCIPAL_FILTERS = 128;
+
    /**
     * Convert one Sting name to other String name.
     */
@@ -104,6 +132,11 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
     */
    protected final VirtualTableResolver tableResolver;
 
+   /**
+    * Content schema, types of columns define encoding of values in index.
+    */
+   protected final Schema schema;
+
    /**
     * Node indexer.
     */
@@ -114,6 +147,28 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
     */
    protected IndexConfiguration indexConfuguration;
 
+   /**
+    * Statistics of index, used by optimizer.
+    */
+   protected final LuceneIndexStatistics indexStatistics;
+
+   /**
+    * Filters which accept only documents readable by set of principals. Each
+    * filter caches its bit set per index segment, so repeated queries of the
+    * same user do not evaluate principal terms again.
+    */
+   private final Map<Set<String>, Filter> principalFilters = Collections
+      .synchronizedMap(new LinkedHashMap<Set<String>, Filter>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Set<String>, Filter> eldest)
+         {
+            return size() > MAX_PRINCIPAL_FILTERS;
+         }
+      });
+
    /**
     * @param serviceConfiguration
     * @throws IndexException
@@ -139,19 +194,53 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
          "The TikaConfiguration may not be null in IndexConfiguration");
 
       this.tableResolver = serviceConfiguration.getTableResolver();
+      this.schema = serviceConfiguration.getSchema();
       this.nameConverter = serviceConfiguration.getNameConverter();
       this.pathSplitter = serviceConfiguration.getPathSplitter();
       this.indexConfuguration = serviceConfiguration.getIndexConfuguration();
 
       this.nodeIndexer = new LuceneIndexer(indexConfuguration);
+      this.indexStatistics = new LuceneIndexStatistics(this);
 
    }
 
    public Query getConstrainQuery(Constraint constraint, Map<String, Object> bindVariablesValues)
       throws VisitException, IndexException
+   {
+      IndexReader indexReader = getIndexReader();
+      try
+      {
+         return getConstrainQuery(constraint, bindVariablesValues, indexReader);
+      }
+      finally
+      {
+         if (indexReader != null)
+         {
+            releaseIndexReader(indexReader);
+         }
+      }
+   }
+
+   /**
+    * Build Lucene query for constraint with given reader.
+    */
+   Query getConstrainQuery(Constraint constraint, Map<String, Object> bindVariablesValues,
+      IndexReader indexReader) throws VisitException, IndexException
+   {
+      return getConstrainQuery(constraint, bindVariablesValues, indexReader, null);
+   }
+
+   /**
+    * Build Lucene query for constraint on selector with given reader.
+    * 
+    * @param table table of selector, may be <code>null</code>
+    */
+   Query getConstrainQuery(Constraint constraint, Map<String, Object> bindVariablesValues,
+      IndexReader indexReader, Schema.Table table) throws VisitException, IndexException
    {
       LuceneQueryBuilder luceneQueryBuilder =
-         new LuceneQueryBuilder(getIndexReader(), nameConverter, pathSplitter, bindVariablesValues, indexConfuguration);
+         new LuceneQueryBuilder(indexReader, nameConverter, pathSplitter, bindVariablesValues, indexConfuguration,
+            table);
       Visitors.visit(constraint, luceneQueryBuilder);
       return luceneQueryBuilder.getQuery();
    }
@@ -163,76 +252,88 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
    @Override
    public Object visitExecuteSelectorCommand(InvocationContext ctx, ExecuteSelectorCommand command) throws Throwable
    {
-
-      List<ScoredRow> resultNodes = new ArrayList<ScoredRow>();
       Query query = (Query)ctx.getTableResolver().resolve(command.getSelector().getName(), true);
-      if (command.getConstrains().size() > 0)
-      {
-         BooleanQuery booleanQuery = new BooleanQuery();
-
-         for (Constraint constrain : command.getConstrains())
-         {
-            booleanQuery.add(getConstrainQuery(constrain, command.getBindVariablesValues()), Occur.MUST);
-         }
-
-         booleanQuery.add(query, Occur.MUST);
-         query = booleanQuery;
-      }
-      // Open writer
-
-      IndexSearcher searcher = null;
+      Schema.Table table = getTable(command.getSelector());
+      // Constraints are resolved and rows are fetched with the same reader,
+      // it is passed to iterator and released by it.
+      IndexReader indexReader = getIndexReader();
       try
       {
-         // get result
-         IndexReader indexReader = getIndexReader();
-         if (indexReader != null)
+         if (command.getConstrains().size() > 0)
          {
-            searcher = new Searcher(indexReader);
-
-            // query
-            Limit limit = command.getLimit();
-            int hits = Math.min(MAX_FETCH_SIZE, limit.getOffset() + limit.getRowLimit());
-            TopFieldDocs topDocs = searcher.search(query, null, hits, getSort(command.getOrderings()));
+            BooleanQuery booleanQuery = new BooleanQuery();
 
-            resultNodes = new LinkedList<ScoredRow>();
-            for (int i = limit.getOffset(); i < topDocs.scoreDocs.length; i++)
+            for (Constraint constrain : command.getConstrains())
             {
-               // get identifiers
-               final Document doc = searcher.doc(topDocs.scoreDocs[i].doc, new UUIDFieldSelector());
-               final String id = doc.get(FieldNames.UUID);
-               final FieldDoc fieldDoc = (FieldDoc) topDocs.scoreDocs[i];
-               Float score = Float.NaN;
-               if(fieldDoc.fields[0] instanceof Float)
-               {
-                   score = (Float) fieldDoc.fields[0];
-               }
-               resultNodes.add(new ScoredRow(command.getAlias().getName(), id, score));
+               booleanQuery.add(getConstrainQuery(constrain, command.getBindVariablesValues(), indexReader, table),
+                  Occur.MUST);
             }
+
+            booleanQuery.add(query, Occur.MUST);
+            query = booleanQuery;
          }
-      }
-      catch (final CorruptIndexException e)
-      {
-         throw new IndexException(e.getLocalizedMessage(), e);
-      }
-      catch (final IOException e)
-      {
-         throw new IndexException(e.getLocalizedMessage(), e);
+         if (ctx.getPrincipals() != null)
+         {
+            query = new FilteredQuery(query, getPrincipalFilter(ctx.getPrincipals()));
+         }
+         List<Ordering> orderings = command.getOrderings();
+         Sort sort = null;
+         if (orderings.size() > 0)
+         {
+            sort = getSort(orderings, table);
+         }
+         else if (ctx.isDocumentOrder())
+         {
+            // Entries without key go first.
+            sort = new Sort(new SortField(FieldNames.ORDER_KEY, SortField.STRING));
+         }
+         LuceneRowIterator rows =
+            new LuceneRowIterator(indexReader, query, sort, command.getAlias().getName(), command.getLimit());
+         indexReader = null;
+         return rows;
       }
       finally
       {
-         try
+         if (indexReader != null)
          {
-            if (searcher != null)
-            {
-               searcher.close();
-            }
+            releaseIndexReader(indexReader);
          }
-         catch (final IOException e)
+      }
+   }
+
+   /**
+    * Get table of schema by selector name.
+    * 
+    * @param selectorName selector name
+    * @return table or <code>null</code> if schema has not such table
+    */
+   Schema.Table getTable(SelectorName selectorName)
+   {
+      return schema != null ? schema.getTable(selectorName) : null;
+   }
+
+   /**
+    * Get filter which accepts only documents readable by any of specified
+    * principals or by everyone.
+    *
+    * @param principals principals
+    * @return filter
+    */
+   protected Filter getPrincipalFilter(Set<String> principals)
+   {
+      Filter filter = principalFilters.get(principals);
+      if (filter == null)
+      {
+         BooleanQuery principalQuery = new BooleanQuery();
+         principalQuery.add(new TermQuery(new Term(FieldNames.PRINCIPAL, FieldNames.ANY_PRINCIPAL)), Occur.SHOULD);
+         for (String principal : principals)
          {
-            throw new IndexException(e.getLocalizedMessage(), e);
+            principalQuery.add(new TermQuery(new Term(FieldNames.PRINCIPAL, principal)), Occur.SHOULD);
          }
+         filter = new CachingWrapperFilter(new QueryWrapperFilter(principalQuery));
+         principalFilters.put(new HashSet<String>(principals), filter);
       }
-      return resultNodes;
+      return filter;
    }
 
    /**
@@ -244,7 +345,7 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
    {
       Map<String, Document> addedDocuments = new HashMap<String, Document>();
       // indexing content
-      for (ContentEntry entry : command.getAddedDocuments())
+      for (ContentEntry entry : resolveAncestors(command.getAddedDocuments()))
       {
          addedDocuments.put(entry.getIdentifier(), nodeIndexer.createDocument(entry));
       }
@@ -252,7 +353,35 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       LuceneIndexTransaction indexTransaction =
          new LuceneIndexTransaction(addedDocuments, command.getDeletedDocuments());
 
-      return save(indexTransaction);
+      try
+      {
+         return save(indexTransaction);
+      }
+      finally
+      {
+         indexStatistics.invalidate();
+      }
+   }
+
+   /**
+    * @see org.xcmis.search.content.interceptors.QueryableIndexStorage#getIndexStatistics()
+    */
+   @Override
+   public IndexStatistics getIndexStatistics()
+   {
+      return indexStatistics;
+   }
+
+   /**
+    * Set ancestors of entries if they are not supplied by content provider.
+    *
+    * @param entries entries which are indexed together
+    * @return entries with ancestors
+    * @throws IndexException if ancestors can't be read from index
+    */
+   List<ContentEntry> resolveAncestors(Collection<ContentEntry> entries) throws IndexException
+   {
+      return new AncestorsResolver(this, indexConfuguration.getRootParentUuid(), entries).resolve();
    }
 
    /**
@@ -260,6 +389,18 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
     */
    protected abstract IndexReader getIndexReader() throws IndexException;
 
+   /**
+    * Release reader obtained by {@link #getIndexReader()}. Storage which
+    * shares readers between queries should override this method, by default
+    * does nothing.
+    *
+    * @param reader index reader
+    * @throws IndexException
+    */
+   protected void releaseIndexReader(IndexReader reader) throws IndexException
+   {
+   }
+
    /**
     * @param indexTransaction
     * @return
@@ -273,15 +414,16 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
     * Return lucene sorter by list of orderings.
     * 
     * @param list
+    * @param table table of selector, may be <code>null</code>
     * @return
     * @throws VisitException
     */
-   private Sort getSort(List<Ordering> list) throws VisitException
+   private Sort getSort(List<Ordering> list, Schema.Table table) throws VisitException
    {
       if (list.size() > 0)
       {
          SortField[] fields = new SortField[list.size()];
-         SortFieldVisitor sortVisitor = new SortFieldVisitor();
+         SortFieldVisitor sortVisitor = new SortFieldVisitor(table);
          int i = 0;
          for (Ordering ordering : list)
          {
@@ -294,13 +436,300 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       return new Sort();
    }
 
+   /**
+    * Rows of selector fetched from index page by page. Iterator holds one
+    * index reader from its creation until all rows are fetched, fetching
+    * failed or iterator is closed, so all pages are fetched from the same
+    * state of index. If result is ordered by relevance next page is searched
+    * after the last fetched document, otherwise top documents are searched
+    * again and rows before current position are dropped.
+    */
+   private class LuceneRowIterator implements ScoredRowIterator
+   {
+      private final Query query;
+
+      /**
+       * Sort of result or <code>null</code> if result is ordered by relevance.
+       */
+      private final Sort sort;
+
+      private final String selectorName;
+
+      /**
+       * Index of first row of result.
+       */
+      private final int start;
+
+      /**
+       * Index of row after the last row of result.
+       */
+      private final int end;
+
+      /**
+       * Reader used for all pages or <code>null</code> if iterator is closed.
+       */
+      private IndexReader indexReader;
+
+      private IndexSearcher searcher;
+
+      /**
+       * Index of next row.
+       */
+      private int index;
+
+      /**
+       * Number of documents matched by query or -1 if nothing fetched yet.
+       */
+      private int totalHits = -1;
+
+      private List<ScoredRow> page = Collections.emptyList();
+
+      /**
+       * Index of first row of page.
+       */
+      private int pageStart;
+
+      private int pageSize = FIRST_PAGE_SIZE;
+
+      /**
+       * The last fetched document, used to continue search ordered by
+       * relevance.
+       */
+      private ScoreDoc after;
+
+      /**
+       * Index of row next to {@link #after}.
+       */
+      private int afterIndex = -1;
+
+      /**
+       * @param indexReader reader obtained by {@link #getIndexReader()}, it is
+       *           released by iterator. May be <code>null</code> if index has
+       *           no reader, then iterator is empty
+       */
+      LuceneRowIterator(IndexReader indexReader, Query query, Sort sort, String selectorName, Limit limit)
+      {
+         this.query = query;
+         this.sort = sort;
+         this.selectorName = selectorName;
+         this.start = limit.getOffset();
+         this.end = (int)Math.min(Integer.MAX_VALUE, (long)limit.getOffset() + limit.getRowLimit());
+         this.index = start;
+         this.indexReader = indexReader;
+         if (indexReader == null)
+         {
+            totalHits = 0;
+         }
+         else
+         {
+            searcher = new Searcher(indexReader);
+            // rows of sorted result keep relevance score
+            searcher.setDefaultFieldSortScoring(true, false);
+         }
+      }
+
+      /**
+       * @see org.xcmis.search.result.ScoredRowIterator#size()
+       */
+      public int size()
+      {
+         if (totalHits < 0)
+         {
+            fetch();
+         }
+         return Math.max(0, getEnd() - start);
+      }
+
+      /**
+       * @see org.xcmis.search.result.ScoredRowIterator#getPosition()
+       */
+      public int getPosition()
+      {
+         return index - start;
+      }
+
+      /**
+       * @see org.xcmis.search.result.ScoredRowIterator#skip(int)
+       */
+      public void skip(int skip) throws NoSuchElementException
+      {
+         if (skip > 0)
+         {
+            if (totalHits < 0)
+            {
+               // Need to know size of result.
+               fetch();
+            }
+            long target = (long)index + skip;
+            if (target > getEnd())
+            {
+               index = Math.max(index, getEnd());
+               throw new NoSuchElementException();
+            }
+            index = (int)target;
+         }
+      }
+
+      /**
+       * @see java.util.Iterator#hasNext()
+       */
+      public boolean hasNext()
+      {
+         if (isFetched(index))
+         {
+            return true;
+         }
+         if (index >= end || (totalHits >= 0 && index >= totalHits))
+         {
+            close();
+            return false;
+         }
+         fetch();
+         return isFetched(index);
+      }
+
+      /**
+       * @see java.util.Iterator#next()
+       */
+      public ScoredRow next()
+      {
+         if (!hasNext())
+         {
+            throw new NoSuchElementException();
+         }
+         return page.get(index++ - pageStart);
+      }
+
+      /**
+       * @see java.util.Iterator#remove()
+       */
+      public void remove()
+      {
+         throw new UnsupportedOperationException("remove");
+      }
+
+      /**
+       * @see org.xcmis.search.result.ScoredRowIterator#close()
+       */
+      public void close()
+      {
+         if (indexReader == null)
+         {
+            return;
+         }
+         try
+         {
+            searcher.close();
+         }
+         catch (IOException e)
+         {
+            LOG.warn("Unable to close searcher: " + e.getLocalizedMessage());
+         }
+         finally
+         {
+            try
+            {
+               releaseIndexReader(indexReader);
+            }
+            catch (IndexException e)
+            {
+               LOG.warn("Unable to release index reader: " + e.getLocalizedMessage());
+            }
+            indexReader = null;
+            searcher = null;
+         }
+      }
+
+      private int getEnd()
+      {
+         return Math.min(end, totalHits);
+      }
+
+      private boolean isFetched(int i)
+      {
+         return i >= pageStart && i < pageStart + page.size();
+      }
+
+      /**
+       * Fetch page of rows started from current index. Iterator is closed
+       * after the last page or if page can't be fetched.
+       */
+      private void fetch()
+      {
+         if (indexReader == null)
+         {
+            throw new IllegalStateException("Iterator is closed.");
+         }
+         int hits = Math.max(1, Math.min(pageSize, end - index));
+         boolean fetched = false;
+         try
+         {
+            TopDocs topDocs;
+            int from;
+            if (sort == null && after != null && afterIndex == index)
+            {
+               topDocs = searcher.searchAfter(after, query, hits);
+               from = 0;
+            }
+            else if (sort == null)
+            {
+               topDocs = searcher.search(query, index + hits);
+               from = index;
+            }
+            else
+            {
+               topDocs = searcher.search(query, null, index + hits, sort);
+               from = index;
+            }
+            totalHits = topDocs.totalHits;
+            List<ScoredRow> rows = new ArrayList<ScoredRow>(Math.max(0, topDocs.scoreDocs.length - from));
+            for (int i = from; i < topDocs.scoreDocs.length; i++)
+            {
+               ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+               // get identifiers
+               final Document doc = searcher.doc(scoreDoc.doc, new UUIDFieldSelector());
+               final String id = doc.get(FieldNames.UUID);
+               rows.add(new ScoredRow(selectorName, id, scoreDoc.score));
+            }
+            page = rows;
+            pageStart = index;
+            if (sort == null && rows.size() > 0)
+            {
+               after = topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+               afterIndex = index + rows.size();
+            }
+            pageSize = Math.min(MAX_FETCH_SIZE, pageSize * 2);
+            fetched = true;
+         }
+         catch (IOException e)
+         {
+            throw new RowFetchException(e.getLocalizedMessage(), e);
+         }
+         finally
+         {
+            // Reader is not needed any more if rows left are in page.
+            if (!fetched || pageStart + page.size() >= getEnd())
+            {
+               close();
+            }
+         }
+      }
+   }
+
    private class SortFieldVisitor extends Visitors.AbstractModelVisitor
    {
 
+      private final Schema.Table table;
+
       private Order order;
 
       private SortField sortField;
 
+      SortFieldVisitor(Schema.Table table)
+      {
+         this.table = table;
+      }
+
       public SortField getSortField()
       {
          return sortField;
@@ -376,10 +805,26 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(PropertyValue node) throws VisitException
       {
-        //AUTO mode was removed since version 3.0. Therefore we will used STRING type as sort type.
-         sortField =
-            new SortField(FieldNames.createPropertyFieldName(node.getPropertyName()), 
-                    SortField.STRING, order == Order.DESCENDING);
+         String field = FieldNames.createPropertyFieldName(node.getPropertyName());
+         boolean reverse = order == Order.DESCENDING;
+         Schema.Column column = table != null ? table.getColumn(node.getPropertyName()) : null;
+         PropertyType type = column != null ? column.getPropertyType() : null;
+         if (type == PropertyType.LONG || type == PropertyType.DATE)
+         {
+            // Numeric fields, values without property go first as for strings.
+            sortField = new SortField(field, FieldCache.NUMERIC_UTILS_LONG_PARSER, reverse);
+            sortField.setMissingValue(Long.MIN_VALUE);
+         }
+         else if (type == PropertyType.DOUBLE)
+         {
+            sortField = new SortField(field, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER, reverse);
+            sortField.setMissingValue(Double.NEGATIVE_INFINITY);
+         }
+         else
+         {
+            //AUTO mode was removed since version 3.0. Therefore we will used STRING type as sort type.
+            sortField = new SortField(field, SortField.STRING, reverse);
+         }
       }
 
       /**
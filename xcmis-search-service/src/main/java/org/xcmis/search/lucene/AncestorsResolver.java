@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.lucene.index.FieldNames;
+import org.xcmis.search.lucene.index.IndexException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves ancestors of entries which are going to be indexed if content
+ * provider did not supply them. Ancestors of parent are taken from entries
+ * indexed in the same batch or from {@link FieldNames#ANCESTOR} field of
+ * parent document which is already in index.
+ */
+class AncestorsResolver
+{
+   /**
+    * Loads only ancestors of document.
+    */
+   private static final FieldSelector ANCESTOR_FIELD_SELECTOR = new FieldSelector()
+   {
+      private static final long serialVersionUID = 4382047263871290143L;
+
+      public FieldSelectorResult accept(String fieldName)
+      {
+         return fieldName == FieldNames.ANCESTOR ? FieldSelectorResult.LOAD : FieldSelectorResult.NO_LOAD;
+      }
+   };
+
+   private static final String[] NO_ANCESTORS = new String[0];
+
+   private final AbstractLuceneQueryableIndexStorage storage;
+
+   /**
+    * Entries of current batch.
+    */
+   private final Map<String, ContentEntry> batch;
+
+   /**
+    * Already resolved ancestors.
+    */
+   private final Map<String, String[]> resolved;
+
+   /**
+    * Identifiers of entries which ancestors are resolving at the moment, used
+    * to break cycles.
+    */
+   private final Set<String> resolving;
+
+   private final String rootParentUuid;
+
+   private IndexReader reader;
+
+   /**
+    * @param storage index storage
+    * @param rootParentUuid uuid of parent of root, it is not real entry
+    * @param entries entries which are indexed together
+    */
+   AncestorsResolver(AbstractLuceneQueryableIndexStorage storage, String rootParentUuid,
+      Collection<ContentEntry> entries)
+   {
+      this.storage = storage;
+      this.rootParentUuid = rootParentUuid;
+      this.batch = new HashMap<String, ContentEntry>(entries.size() * 4 / 3 + 1);
+      for (ContentEntry entry : entries)
+      {
+         batch.put(entry.getIdentifier(), entry);
+      }
+      this.resolved = new HashMap<String, String[]>();
+      this.resolving = new LinkedHashSet<String>();
+   }
+
+   /**
+    * Get entries with ancestors. Index reader obtained for resolving ancestors
+    * is released before return.
+    *
+    * @return entries of batch, the ones without ancestors are replaced by
+    *         copies with ancestors
+    * @throws IndexException if index can't be read
+    */
+   List<ContentEntry> resolve() throws IndexException
+   {
+      List<ContentEntry> result = new ArrayList<ContentEntry>(batch.size());
+      try
+      {
+         for (ContentEntry entry : batch.values())
+         {
+            if (entry.getAncestorIdentifiers() != null)
+            {
+               result.add(entry);
+            }
+            else
+            {
+               result.add(new ContentEntry(entry.getName(), entry.getTableNames(), entry.getIdentifier(), entry
+                  .getParentIdentifiers(), getAncestors(entry), entry.getPrincipals(), entry.getOrderKey(), entry
+                  .getProperties()));
+            }
+         }
+      }
+      finally
+      {
+         if (reader != null)
+         {
+            storage.releaseIndexReader(reader);
+            reader = null;
+         }
+      }
+      return result;
+   }
+
+   private String[] getAncestors(ContentEntry entry) throws IndexException
+   {
+      String[] ancestors = entry.getAncestorIdentifiers();
+      if (ancestors != null)
+      {
+         return ancestors;
+      }
+      ancestors = resolved.get(entry.getIdentifier());
+      if (ancestors != null)
+      {
+         return ancestors;
+      }
+      String[] parents = entry.getParentIdentifiers();
+      if (parents == null || parents.length == 0 || !resolving.add(entry.getIdentifier()))
+      {
+         return NO_ANCESTORS;
+      }
+      try
+      {
+         Set<String> all = new LinkedHashSet<String>();
+         for (String parent : parents)
+         {
+            if (parent == null || parent.length() == 0 || parent.equals(rootParentUuid))
+            {
+               continue;
+            }
+            all.add(parent);
+            ContentEntry parentEntry = batch.get(parent);
+            String[] parentAncestors = parentEntry != null ? getAncestors(parentEntry) : getIndexedAncestors(parent);
+            for (String ancestor : parentAncestors)
+            {
+               all.add(ancestor);
+            }
+         }
+         ancestors = all.toArray(new String[all.size()]);
+         resolved.put(entry.getIdentifier(), ancestors);
+         return ancestors;
+      }
+      finally
+      {
+         resolving.remove(entry.getIdentifier());
+      }
+   }
+
+   private String[] getIndexedAncestors(String uuid) throws IndexException
+   {
+      String[] ancestors = resolved.get(uuid);
+      if (ancestors != null)
+      {
+         return ancestors;
+      }
+      if (reader == null)
+      {
+         reader = storage.getIndexReader();
+      }
+      ancestors = NO_ANCESTORS;
+      if (reader != null)
+      {
+         try
+         {
+            TermDocs termDocs = reader.termDocs(new Term(FieldNames.UUID, uuid));
+            try
+            {
+               if (termDocs.next())
+               {
+                  Document doc = reader.document(termDocs.doc(), ANCESTOR_FIELD_SELECTOR);
+                  ancestors = doc.getValues(FieldNames.ANCESTOR);
+               }
+            }
+            finally
+            {
+               termDocs.close();
+            }
+         }
+         catch (IOException e)
+         {
+            throw new IndexException(e.getLocalizedMessage(), e);
+         }
+      }
+      resolved.put(uuid, ancestors);
+      return ancestors;
+   }
+}
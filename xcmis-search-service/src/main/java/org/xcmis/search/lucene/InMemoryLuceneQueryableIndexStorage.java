@@ -18,14 +18,14 @@
  */
 package org.xcmis.search.lucene;
 
-import org.apache.lucene.analysis.SimpleAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
@@ -35,6 +35,7 @@ import org.xcmis.search.lucene.index.FieldNames;
 import org.xcmis.search.lucene.index.IndexException;
 import org.xcmis.search.lucene.index.IndexTransactionException;
 import org.xcmis.search.lucene.index.LuceneIndexTransaction;
+import org.xcmis.spi.utils.Logger;
 
 import java.io.IOException;
 import java.util.Map.Entry;
@@ -47,11 +48,51 @@ import java.util.Map.Entry;
  */
 public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryableIndexStorage
 {
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(InMemoryLuceneQueryableIndexStorage.class);
+
    /**
     * Lucene in memory index directory.
     */
    private final RAMDirectory ramDirectory;
 
+   /**
+    * Writer shared by all index transactions. Changes are visible for near
+    * real time readers immediately and committed in batches.
+    */
+   private final IndexWriter indexWriter;
+
+   /**
+    * Max number of transactions between two commits.
+    */
+   private final int commitBatchSize;
+
+   /**
+    * Max time in milliseconds between two commits.
+    */
+   private final long commitInterval;
+
+   /**
+    * Number of transactions applied since last commit. Guarded by this.
+    */
+   private int uncommitted;
+
+   /**
+    * Time of last commit. Guarded by this.
+    */
+   private long lastCommit;
+
+   /**
+    * Lock for {@link #indexReader}.
+    */
+   private final Object readerLock = new Object();
+
+   /**
+    * Current near real time reader. Storage holds one reference to it, each
+    * query holds one more until reader released. Guarded by readerLock.
+    */
    private IndexReader indexReader;
 
    /**
@@ -62,19 +103,26 @@ public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryable
    {
       super(serviceConfuguration);
       this.ramDirectory = new RAMDirectory();
-      initDirectory();
+      this.commitBatchSize = indexConfuguration.getCommitBatchSize();
+      this.commitInterval = indexConfuguration.getCommitInterval();
+      this.indexWriter = initDirectory();
+      this.lastCommit = System.currentTimeMillis();
    }
 
    /**
+    * @return writer opened over newly created index
     * @throws IndexException
     */
-   private void initDirectory() throws IndexException
+   private IndexWriter initDirectory() throws IndexException
    {
       try
       {
-         IndexWriter.MaxFieldLength fieldLength = new IndexWriter.MaxFieldLength(IndexWriter.DEFAULT_MAX_FIELD_LENGTH);
-         IndexWriter iw = new IndexWriter(ramDirectory, new SimpleAnalyzer(), true, fieldLength);
-         iw.close();
+         IndexWriterConfig config =
+            new IndexWriterConfig(Version.LUCENE_35, new StandardAnalyzer(Version.LUCENE_35))
+               .setOpenMode(OpenMode.CREATE);
+         IndexWriter iw = new IndexWriter(ramDirectory, config);
+         iw.commit();
+         return iw;
       }
       catch (IOException e)
       {
@@ -83,33 +131,62 @@ public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryable
    }
 
    /**
+    * Returned reader must be released with
+    * {@link #releaseIndexReader(IndexReader)}.
+    *
     * @throws IndexException
     * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#getIndexReader()
     */
    @Override
    protected IndexReader getIndexReader() throws IndexException
    {
-      try
+      synchronized (readerLock)
       {
-         // reopen if need
-         if (this.indexReader == null)
+         try
+         {
+            // reopen if need
+            if (this.indexReader == null)
+            {
+               this.indexReader = IndexReader.open(indexWriter, true);
+            }
+            else
+            {
+               IndexReader newReader = IndexReader.openIfChanged(this.indexReader, indexWriter, true);
+               if (newReader != null)
+               {
+                  // Old reader will be closed when last query releases it.
+                  this.indexReader.decRef();
+                  this.indexReader = newReader;
+               }
+            }
+            this.indexReader.incRef();
+            return this.indexReader;
+         }
+         catch (CorruptIndexException e)
          {
-            this.indexReader = IndexReader.open(this.ramDirectory);
+            throw new IndexException(e.getLocalizedMessage(), e);
          }
-         else if (!this.indexReader.isCurrent())
+         catch (IOException e)
          {
-            this.indexReader = this.indexReader.reopen();
+            throw new IndexException(e.getLocalizedMessage(), e);
          }
       }
-      catch (CorruptIndexException e)
+   }
+
+   /**
+    * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#releaseIndexReader(org.apache.lucene.index.IndexReader)
+    */
+   @Override
+   protected void releaseIndexReader(IndexReader reader) throws IndexException
+   {
+      try
       {
-         throw new IndexException(e.getLocalizedMessage(), e);
+         reader.decRef();
       }
       catch (IOException e)
       {
          throw new IndexException(e.getLocalizedMessage(), e);
       }
-      return indexReader;
    }
 
    /**
@@ -123,22 +200,24 @@ public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryable
 
       try
       {
-         IndexWriter writer = new IndexWriter(ramDirectory, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
-
          // removed
          for (final String uuid : indexTransaction.getRemovedDocuments())
          {
-            writer.deleteDocuments(new Term(FieldNames.UUID, uuid));
+            indexWriter.deleteDocuments(new Term(FieldNames.UUID, uuid));
          }
 
          // added
          for (final Entry<String, Document> entry : indexTransaction.getAddedDocuments().entrySet())
          {
-            writer.updateDocument(new Term(FieldNames.UUID, entry.getKey()), entry.getValue());
+            indexWriter.updateDocument(new Term(FieldNames.UUID, entry.getKey()), entry.getValue());
          }
 
-         writer.commit();
-         writer.close();
+         uncommitted++;
+         long now = System.currentTimeMillis();
+         if (uncommitted >= commitBatchSize || now - lastCommit >= commitInterval)
+         {
+            commit(now);
+         }
       }
       catch (CorruptIndexException e)
       {
@@ -155,4 +234,58 @@ public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryable
       return new Object();
    }
 
+   /**
+    * Commit all pending changes.
+    *
+    * @param now current time
+    * @throws IOException
+    */
+   private void commit(long now) throws IOException
+   {
+      indexWriter.commit();
+      uncommitted = 0;
+      lastCommit = now;
+   }
+
+   /**
+    * Commit pending changes and close writer and reader.
+    *
+    * @see org.xcmis.search.content.interceptors.CommandInterceptor#stop()
+    */
+   @Override
+   public void stop()
+   {
+      super.stop();
+      synchronized (this)
+      {
+         try
+         {
+            if (uncommitted > 0)
+            {
+               commit(System.currentTimeMillis());
+            }
+            indexWriter.close();
+         }
+         catch (IOException e)
+         {
+            LOG.error("Unable to close index writer: " + e.getLocalizedMessage(), e);
+         }
+      }
+      synchronized (readerLock)
+      {
+         if (indexReader != null)
+         {
+            try
+            {
+               indexReader.decRef();
+            }
+            catch (IOException e)
+            {
+               LOG.error("Unable to close index reader: " + e.getLocalizedMessage(), e);
+            }
+            indexReader = null;
+         }
+      }
+   }
+
 }
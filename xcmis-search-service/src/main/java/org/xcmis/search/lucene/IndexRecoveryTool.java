@@ -20,22 +20,36 @@ package org.xcmis.search.lucene;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.content.ContentEntry;
 import org.xcmis.search.content.command.read.GetChildEntriesCommand;
 import org.xcmis.search.content.command.read.GetContentEntryCommand;
 import org.xcmis.search.content.command.read.GetUnfiledEntriesCommand;
+import org.xcmis.search.lucene.index.FieldNames;
 import org.xcmis.search.lucene.index.IndexException;
 import org.xcmis.search.lucene.index.IndexTransactionException;
 import org.xcmis.search.lucene.index.LuceneIndexTransaction;
 import org.xcmis.search.lucene.index.LuceneIndexer;
 import org.xcmis.spi.utils.Logger;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tools for index recovering. 
@@ -109,7 +123,9 @@ public class IndexRecoveryTool
             else
             {
 
-               Document doc = nodeIndexer.createDocument(contentEntry);
+               Document doc =
+                  nodeIndexer.createDocument(indexStorage.resolveAncestors(Collections.singletonList(contentEntry))
+                     .get(0));
 
                if (indexStorage.getDocument(nodeUuid, reader) != null)
                {
@@ -139,6 +155,10 @@ public class IndexRecoveryTool
       {
          throw new IndexException(e.getLocalizedMessage(), e);
       }
+      finally
+      {
+         indexStorage.releaseIndexReader(reader);
+      }
    }
 
    /**
@@ -147,24 +167,37 @@ public class IndexRecoveryTool
     */
    public void recoverAll() throws IndexException
    {
-      Map<String, Document> documentBuffer = new HashMap<String, Document>();
-      final HashSet<String> removedDocuments = new HashSet<String>();
+      recoverAll(false);
+   }
+
+   /**
+    * Recover all content. Content tree is traversed by
+    * {@link IndexConfiguration#getRecoveryThreads()} threads which also
+    * create documents. Documents are saved to index by caller thread in
+    * batches of {@link #BUFFER_MAX_SIZE} documents. Each saved batch is a
+    * checkpoint: if <code>resume</code> is <code>true</code> entries which are
+    * already in index are not indexed again, so interrupted recovery continues
+    * from the last saved batch.
+    * 
+    * @param resume if <code>true</code> entries which are already in index
+    *           are skipped
+    * @throws IndexException
+    */
+   public void recoverAll(boolean resume) throws IndexException
+   {
+      IndexReader reader = resume ? indexStorage.getIndexReader() : null;
       try
       {
          GetContentEntryCommand getCommand = new GetContentEntryCommand(indexConfiguration.getRootUuid());
          final ContentEntry rootEntry = (ContentEntry)indexStorage.invokeNextInterceptor(null, getCommand);
          if (rootEntry != null)
          {
-            restoreBranch(rootEntry, documentBuffer, removedDocuments);
+            new Recovery(reader).run(rootEntry);
          }
          else
          {
             LOG.warn("Root element with id " + indexConfiguration.getRootUuid() + " not found ");
          }
-         if (documentBuffer.size() > 0)
-         {
-            flash(documentBuffer, removedDocuments);
-         }
          //recover unfiled documents.
          GetUnfiledEntriesCommand getUnfiledEntriesCommand = new GetUnfiledEntriesCommand();
          Iterator<String> uuids = (Iterator<String>)indexStorage.invokeNextInterceptor(null, getUnfiledEntriesCommand);
@@ -178,6 +211,13 @@ public class IndexRecoveryTool
       {
          throw new IndexException(e.getLocalizedMessage(), e);
       }
+      finally
+      {
+         if (reader != null)
+         {
+            indexStorage.releaseIndexReader(reader);
+         }
+      }
    }
 
    /**
@@ -207,40 +247,237 @@ public class IndexRecoveryTool
    }
 
    /**
-    * Restore content of branch starting from branchUuid.
-    * 
-    * @param branchUuid
-    *           - Uuid of root element of branch.
-    * @param documentBuffer
-    * @param removedDocuments 
-    * @throws Throwable
+    * Parallel recovery of content tree. Each branch is processed by separate
+    * task of pool of workers: worker creates document of branch root and
+    * submits tasks for its children. Documents are passed to thread which
+    * runs recovery and saves them to index, so index is modified by single
+    * thread.
     */
-   private void restoreBranch(ContentEntry branchRoot, Map<String, Document> documentBuffer,
-      HashSet<String> removedDocuments) throws Throwable
+   private final class Recovery
    {
-      // add root.
+      /**
+       * Marker of end of traversal in queue of documents.
+       */
+      private final IndexedDocument end = new IndexedDocument(null, null);
+
+      /**
+       * Created documents. Queue is bounded so workers wait if documents are
+       * not saved as fast as they are created.
+       */
+      private final BlockingQueue<IndexedDocument> documents =
+         new ArrayBlockingQueue<IndexedDocument>(BUFFER_MAX_SIZE);
+
+      /**
+       * Number of submitted tasks which are not completed yet.
+       */
+      private final AtomicInteger pending = new AtomicInteger();
+
+      /**
+       * First error of workers.
+       */
+      private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+      /**
+       * Number of entries which are already in index.
+       */
+      private final AtomicLong skipped = new AtomicLong();
 
-      documentBuffer.put(branchRoot.getIdentifier(), nodeIndexer.createDocument(branchRoot));
-      if (checkFlush(documentBuffer, removedDocuments))
+      /**
+       * Reader used to check is entry already indexed or <code>null</code> if
+       * all entries must be indexed.
+       */
+      private final IndexReader reader;
+
+      private ExecutorService workers;
+
+      Recovery(IndexReader reader)
       {
-         flash(documentBuffer, removedDocuments);
+         this.reader = reader;
       }
 
-      // add childs
-      GetChildEntriesCommand getChildCommand = new GetChildEntriesCommand(branchRoot.getIdentifier());
-      Collection<ContentEntry> childEntries =
-         (Collection<ContentEntry>)indexStorage.invokeNextInterceptor(null, getChildCommand);
-      if (childEntries != null)
+      /**
+       * Recover branch and save its documents to index.
+       * 
+       * @param root root of content tree
+       * @throws Throwable
+       */
+      void run(ContentEntry root) throws Throwable
       {
-         for (ContentEntry contentEntry : childEntries)
+         workers = Executors.newFixedThreadPool(indexConfiguration.getRecoveryThreads(), new ThreadFactory()
+         {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, "xcmis-index-recovery-" + threadNumber.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         final long started = System.currentTimeMillis();
+         long indexed = 0;
+         try
+         {
+            submit(root, new String[0]);
+            final Map<String, Document> documentBuffer = new HashMap<String, Document>();
+            final HashSet<String> removedDocuments = new HashSet<String>();
+            IndexedDocument document;
+            while ((document = documents.take()) != end)
+            {
+               // after failure documents are only taken to release workers
+               if (error.get() == null)
+               {
+                  documentBuffer.put(document.identifier, document.document);
+                  if (checkFlush(documentBuffer, removedDocuments))
+                  {
+                     indexed += documentBuffer.size();
+                     flash(documentBuffer, removedDocuments);
+                     logProgress("Index recovery progress: ", indexed, started);
+                  }
+               }
+            }
+            if (error.get() != null)
+            {
+               throw error.get();
+            }
+            if (documentBuffer.size() > 0)
+            {
+               indexed += documentBuffer.size();
+               flash(documentBuffer, removedDocuments);
+            }
+            logProgress("Index recovery of content tree finished: ", indexed, started);
+         }
+         finally
          {
-            restoreBranch(contentEntry, documentBuffer, removedDocuments);
+            workers.shutdownNow();
          }
       }
-      else
+
+      private void submit(final ContentEntry branchRoot, final String[] ancestors)
       {
-         LOG.warn("Child elements for element with id " + branchRoot.getIdentifier() + " is not found ");
+         pending.incrementAndGet();
+         try
+         {
+            workers.execute(new Runnable()
+            {
+               public void run()
+               {
+                  try
+                  {
+                     if (error.get() == null)
+                     {
+                        restoreBranch(branchRoot, ancestors);
+                     }
+                  }
+                  catch (Throwable e)
+                  {
+                     error.compareAndSet(null, e);
+                  }
+                  finally
+                  {
+                     if (pending.decrementAndGet() == 0)
+                     {
+                        try
+                        {
+                           documents.put(end);
+                        }
+                        catch (InterruptedException e)
+                        {
+                           // recovery is stopped
+                           Thread.currentThread().interrupt();
+                        }
+                     }
+                  }
+               }
+            });
+         }
+         catch (RejectedExecutionException e)
+         {
+            pending.decrementAndGet();
+            throw e;
+         }
+      }
+
+      /**
+       * Create document of branch root and submit tasks for its children.
+       * 
+       * @param branchRoot root element of branch.
+       * @param ancestors Uuids of ancestors of root element of branch, used if
+       *           content provider does not supply them.
+       * @throws Throwable
+       */
+      private void restoreBranch(ContentEntry branchRoot, String[] ancestors) throws Throwable
+      {
+         if (branchRoot.getAncestorIdentifiers() == null)
+         {
+            branchRoot =
+               new ContentEntry(branchRoot.getName(), branchRoot.getTableNames(), branchRoot.getIdentifier(),
+                  branchRoot.getParentIdentifiers(), ancestors, branchRoot.getPrincipals(), branchRoot.getOrderKey(),
+                  branchRoot.getProperties());
+         }
+         if (reader != null && isIndexed(branchRoot.getIdentifier()))
+         {
+            skipped.incrementAndGet();
+         }
+         else
+         {
+            documents.put(new IndexedDocument(branchRoot.getIdentifier(), nodeIndexer.createDocument(branchRoot)));
+         }
+
+         // add childs
+         GetChildEntriesCommand getChildCommand = new GetChildEntriesCommand(branchRoot.getIdentifier());
+         Collection<ContentEntry> childEntries =
+            (Collection<ContentEntry>)indexStorage.invokeNextInterceptor(null, getChildCommand);
+         if (childEntries != null)
+         {
+            String[] childAncestors = new String[branchRoot.getAncestorIdentifiers().length + 1];
+            System.arraycopy(branchRoot.getAncestorIdentifiers(), 0, childAncestors, 1, childAncestors.length - 1);
+            childAncestors[0] = branchRoot.getIdentifier();
+            for (ContentEntry contentEntry : childEntries)
+            {
+               submit(contentEntry, childAncestors);
+            }
+         }
+         else
+         {
+            LOG.warn("Child elements for element with id " + branchRoot.getIdentifier() + " is not found ");
+         }
+      }
+
+      private boolean isIndexed(String identifier) throws IOException
+      {
+         final TermDocs termDocs = reader.termDocs(new Term(FieldNames.UUID, identifier));
+         try
+         {
+            return termDocs.next();
+         }
+         finally
+         {
+            termDocs.close();
+         }
+      }
+
+      private void logProgress(String message, long indexed, long started)
+      {
+         long time = Math.max(System.currentTimeMillis() - started, 1);
+         LOG.info(message + indexed + " entries indexed, " + skipped.get() + " already indexed entries skipped, "
+            + (indexed * 1000 / time) + " entries/s.");
       }
+   }
+
+   /**
+    * Document created by worker.
+    */
+   private static final class IndexedDocument
+   {
+      final String identifier;
+
+      final Document document;
 
+      IndexedDocument(String identifier, Document document)
+      {
+         this.identifier = identifier;
+         this.document = document;
+      }
    }
 }
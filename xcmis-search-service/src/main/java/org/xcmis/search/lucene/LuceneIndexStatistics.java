@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ * 
+ * This is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ * 
+ * This software is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this software; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA, or see the FSF
+ * site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.xcmis.search.VisitException;
+import org.xcmis.search.lucene.index.FieldNames;
+import org.xcmis.search.lucene.index.IndexException;
+import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.optimize.IndexStatistics;
+import org.xcmis.spi.utils.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of Lucene index. Estimations are based on document frequencies
+ * of terms, frequencies are cached. Cache is invalidated when index is
+ * changed and each cached frequency is refreshed next time it is requested,
+ * so only terms used by queries are read from index after commit.
+ */
+public class LuceneIndexStatistics implements IndexStatistics
+{
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(LuceneIndexStatistics.class);
+
+   /**
+    * Part of entries which match constraint if it can't be estimated by terms,
+    * e.g. range or like comparison.
+    */
+   static final double DEFAULT_SELECTIVITY = 1.0 / 3;
+
+   /**
+    * Max number of cached frequencies.
+    */
+   private static final int MAX_CACHED_TERMS = 10000;
+
+   /**
+    * Key for number of documents in index.
+    */
+   private static final Term ENTRIES_COUNT = new Term(FieldNames.UUID, "");
+
+   private final AbstractLuceneQueryableIndexStorage storage;
+
+   private final ConcurrentHashMap<Term, Frequency> frequencies = new ConcurrentHashMap<Term, Frequency>();
+
+   /**
+    * Incremented on each change of index.
+    */
+   private final AtomicLong generation = new AtomicLong();
+
+   /**
+    * @param storage storage of index
+    */
+   public LuceneIndexStatistics(AbstractLuceneQueryableIndexStorage storage)
+   {
+      this.storage = storage;
+   }
+
+   /**
+    * Notify statistics about changes of index. Cached frequencies are not
+    * dropped but will be refreshed when requested.
+    */
+   public void invalidate()
+   {
+      generation.incrementAndGet();
+   }
+
+   /**
+    * @see org.xcmis.search.query.optimize.IndexStatistics#getEntriesCount()
+    */
+   public long getEntriesCount()
+   {
+      Reader reader = new Reader();
+      try
+      {
+         return getEntriesCount(reader);
+      }
+      finally
+      {
+         reader.release();
+      }
+   }
+
+   /**
+    * @see org.xcmis.search.query.optimize.IndexStatistics#getTableCardinality(org.xcmis.search.model.source.SelectorName)
+    */
+   public long getTableCardinality(SelectorName tableName)
+   {
+      Reader reader = new Reader();
+      try
+      {
+         return getTableCardinality(tableName, reader);
+      }
+      finally
+      {
+         reader.release();
+      }
+   }
+
+   /**
+    * @see org.xcmis.search.query.optimize.IndexStatistics#estimateCardinality(org.xcmis.search.model.source.SelectorName,
+    *      org.xcmis.search.model.constraint.Constraint, java.util.Map)
+    */
+   public long estimateCardinality(SelectorName tableName, Constraint constraint,
+      Map<String, Object> bindVariablesValues)
+   {
+      Reader reader = new Reader();
+      try
+      {
+         long cardinality = getTableCardinality(tableName, reader);
+         // Hierarchy constraints are single terms of PARENT or ANCESTOR fields.
+         IndexReader indexReader = reader.get();
+         if (indexReader == null)
+         {
+            return 0;
+         }
+         long estimated =
+            estimate(storage.getConstrainQuery(constraint, bindVariablesValues, indexReader, storage
+               .getTable(tableName)), cardinality, reader);
+         return Math.min(estimated, cardinality);
+      }
+      catch (VisitException e)
+      {
+         LOG.warn("Unable to estimate constraint " + constraint + ": " + e.getLocalizedMessage());
+      }
+      catch (IndexException e)
+      {
+         LOG.warn("Unable to estimate constraint " + constraint + ": " + e.getLocalizedMessage());
+      }
+      catch (RuntimeException e)
+      {
+         // Query builder validates operands with runtime exceptions.
+         LOG.warn("Unable to estimate constraint " + constraint + ": " + e.getLocalizedMessage());
+      }
+      finally
+      {
+         reader.release();
+      }
+      return (long)Math.ceil(getTableCardinality(tableName) * DEFAULT_SELECTIVITY);
+   }
+
+   private long getTableCardinality(SelectorName tableName, Reader reader)
+   {
+      Query query = (Query)storage.tableResolver.resolve(tableName.getName(), true);
+      return Math.min(estimate(query, getEntriesCount(reader), reader), getEntriesCount(reader));
+   }
+
+   /**
+    * Estimate number of documents matched by Lucene query.
+    */
+   private long estimate(Query query, long total, Reader reader)
+   {
+      if (query instanceof TermQuery)
+      {
+         return getFrequency(((TermQuery)query).getTerm(), reader);
+      }
+      else if (query instanceof MatchAllDocsQuery)
+      {
+         return total;
+      }
+      else if (query instanceof BooleanQuery)
+      {
+         if (((BooleanQuery)query).clauses().isEmpty())
+         {
+            return 0;
+         }
+         long must = -1;
+         long should = -1;
+         double excluded = 0;
+         for (BooleanClause clause : ((BooleanQuery)query).getClauses())
+         {
+            long estimated = Math.min(estimate(clause.getQuery(), total, reader), total);
+            if (clause.getOccur() == BooleanClause.Occur.MUST)
+            {
+               must = must < 0 ? estimated : Math.min(must, estimated);
+            }
+            else if (clause.getOccur() == BooleanClause.Occur.SHOULD)
+            {
+               should = should < 0 ? estimated : Math.min(total, should + estimated);
+            }
+            else if (total > 0)
+            {
+               excluded = excluded + (1 - excluded) * estimated / total;
+            }
+         }
+         long matched = must >= 0 ? must : (should >= 0 ? should : total);
+         return (long)Math.ceil(matched * (1 - excluded));
+      }
+      return (long)Math.ceil(total * DEFAULT_SELECTIVITY);
+   }
+
+   private long getEntriesCount(Reader reader)
+   {
+      long currentGeneration = generation.get();
+      Frequency frequency = frequencies.get(ENTRIES_COUNT);
+      if (frequency == null || frequency.generation != currentGeneration)
+      {
+         IndexReader indexReader = reader.get();
+         frequency = new Frequency(currentGeneration, indexReader == null ? 0 : indexReader.numDocs());
+         frequencies.put(ENTRIES_COUNT, frequency);
+      }
+      return frequency.value;
+   }
+
+   private long getFrequency(Term term, Reader reader)
+   {
+      // Remember generation before reading index, frequency read from reader
+      // opened before next change is out of date after this change.
+      long currentGeneration = generation.get();
+      Frequency frequency = frequencies.get(term);
+      if (frequency == null || frequency.generation != currentGeneration)
+      {
+         IndexReader indexReader = reader.get();
+         try
+         {
+            frequency = new Frequency(currentGeneration, indexReader == null ? 0 : indexReader.docFreq(term));
+         }
+         catch (IOException e)
+         {
+            LOG.warn("Unable to read frequency of " + term + ": " + e.getLocalizedMessage());
+            return 0;
+         }
+         if (frequencies.size() >= MAX_CACHED_TERMS)
+         {
+            frequencies.clear();
+         }
+         frequencies.put(term, frequency);
+      }
+      return frequency.value;
+   }
+
+   /**
+    * Cached frequency of term.
+    */
+   private static final class Frequency
+   {
+      final long generation;
+
+      final long value;
+
+      Frequency(long generation, long value)
+      {
+         this.generation = generation;
+         this.value = value;
+      }
+   }
+
+   /**
+    * Index reader obtained from storage on first use.
+    */
+   private final class Reader
+   {
+      private IndexReader reader;
+
+      private boolean obtained;
+
+      IndexReader get()
+      {
+         if (!obtained)
+         {
+            obtained = true;
+            try
+            {
+               reader = storage.getIndexReader();
+            }
+            catch (IndexException e)
+            {
+               LOG.warn("Unable to get index reader: " + e.getLocalizedMessage());
+            }
+         }
+         return reader;
+      }
+
+      void release()
+      {
+         if (reader != null)
+         {
+            try
+            {
+               storage.releaseIndexReader(reader);
+            }
+            catch (IndexException e)
+            {
+               LOG.warn("Unable to release index reader: " + e.getLocalizedMessage());
+            }
+            reader = null;
+         }
+      }
+   }
+}
@@ -18,6 +18,7 @@
  */
 package org.xcmis.search.lucene;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -33,17 +34,19 @@ import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.DateTools;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.WildcardQuery;
@@ -57,15 +60,13 @@ import org.xcmis.search.Visitors;
 import org.xcmis.search.antlr.FullTextLexer;
 import org.xcmis.search.antlr.FullTextParser;
 import org.xcmis.search.config.IndexConfiguration;
+import org.xcmis.search.content.Schema;
 import org.xcmis.search.lucene.content.ErrorReporterImpl;
-import org.xcmis.search.lucene.index.ExtendedNumberTools;
 import org.xcmis.search.lucene.index.FieldNames;
 import org.xcmis.search.lucene.index.IndexException;
-import org.xcmis.search.lucene.search.CaseInsensitiveRangeQuery;
-import org.xcmis.search.lucene.search.CaseInsensitiveRegexCapImpl;
-import org.xcmis.search.lucene.search.CaseInsensitiveTermQuery;
-import org.xcmis.search.lucene.search.ChildTraversingQueryNode;
 import org.xcmis.search.lucene.search.DescendantQueryNode;
+import org.xcmis.search.lucene.search.PrefixRegexCapImpl;
+import org.xcmis.search.lucene.search.UUIDFieldSelector;
 import org.xcmis.search.model.Limit;
 import org.xcmis.search.model.column.Column;
 import org.xcmis.search.model.constraint.And;
@@ -79,6 +80,7 @@ import org.xcmis.search.model.constraint.Or;
 import org.xcmis.search.model.constraint.PropertyExistence;
 import org.xcmis.search.model.constraint.SameNode;
 import org.xcmis.search.model.operand.BindVariableName;
+import org.xcmis.search.model.operand.DynamicOperand;
 import org.xcmis.search.model.operand.FullTextSearchScore;
 import org.xcmis.search.model.operand.Length;
 import org.xcmis.search.model.operand.Literal;
@@ -97,6 +99,7 @@ import org.xcmis.search.model.source.join.EquiJoinCondition;
 import org.xcmis.search.model.source.join.SameNodeJoinCondition;
 import org.xcmis.search.value.NameConverter;
 import org.xcmis.search.value.PathSplitter;
+import org.xcmis.search.value.PropertyType;
 
 /**
  * @author <a href="mailto:Sergey.Kabashnyuk@gmail.com">Sergey Kabashnyuk</a>
@@ -129,6 +132,12 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
 
    private final IndexConfiguration indexConfiguration;
 
+   /**
+    * Table of selector which is queried. Types of its columns define encoding
+    * of values in index. May be <code>null</code>.
+    */
+   private final Schema.Table table;
+
    /**
     * @param indexReader 
     * @param nameConverter 
@@ -138,8 +147,24 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
     */
    public LuceneQueryBuilder(IndexReader indexReader, NameConverter<?> nameConverter, PathSplitter<?> pathSplitter,
       Map<String, Object> bindVariablesValues, IndexConfiguration indexConfiguration)
+   {
+      this(indexReader, nameConverter, pathSplitter, bindVariablesValues, indexConfiguration, null);
+   }
+
+   /**
+    * @param indexReader 
+    * @param nameConverter 
+    * @param pathSplitter
+    * @param bindVariablesValues
+    * @param indexConfiguration
+    * @param table table of queried selector. If <code>null</code> then
+    *           encoding of values is chosen by type of static values
+    */
+   public LuceneQueryBuilder(IndexReader indexReader, NameConverter<?> nameConverter, PathSplitter<?> pathSplitter,
+      Map<String, Object> bindVariablesValues, IndexConfiguration indexConfiguration, Schema.Table table)
    {
       this.indexConfiguration = indexConfiguration;
+      this.table = table;
       Validate.notNull(indexReader, "The indexReader argument may not be null");
 
       this.indexReader = indexReader;
@@ -216,10 +241,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
       if (parentPath.charAt(0) == '[')
       {
          //uuid based absolute path
-         Query parentQuery = new TermQuery(new Term(FieldNames.UUID, parentPath.substring(1, parentPath.length() - 1)));
-         Query childNodeQuery = new ChildTraversingQueryNode(parentQuery, false);
-         queryBuilderStack.push(childNodeQuery);
-
+         queryBuilderStack.push(new TermQuery(new Term(FieldNames.PARENT, parentPath.substring(1,
+            parentPath.length() - 1))));
       }
       else
       {
@@ -227,24 +250,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          final Object[] entries = pathSplitter.splitPath(parentPath);
          if (entries.length > 0)
          {
-            Query childNodeQuery = null;
-            for (int i = 0; i < entries.length; i++)
-            {
-               if (i == 0)
-               {
-                  childNodeQuery = new TermQuery(new Term(FieldNames.UUID, indexConfiguration.getRootUuid()));
-               }
-               else
-               {
-                  final String stepName = nameConverter.convertName(entries[i]);
-                  final Query nameQuery = new TermQuery(new Term(FieldNames.LABEL, stepName));
-                  childNodeQuery = new DescendantQueryNode(nameQuery, childNodeQuery);
-               }
-            }
-
             // all child
-            childNodeQuery = new ChildTraversingQueryNode(childNodeQuery, false);
-            queryBuilderStack.push(childNodeQuery);
+            queryBuilderStack.push(createHierarchyQuery(FieldNames.PARENT, entries));
          }
          else
          {
@@ -298,27 +305,100 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
       if (parentPath.charAt(0) == '[')
       {
          //uuid based absolute path
-         Query parentQuery = new TermQuery(new Term(FieldNames.UUID, parentPath.substring(1, parentPath.length() - 1)));
-         Query childNodeQuery = new ChildTraversingQueryNode(parentQuery, true);
-         queryBuilderStack.push(childNodeQuery);
+         queryBuilderStack.push(new TermQuery(new Term(FieldNames.ANCESTOR, parentPath.substring(1, parentPath
+            .length() - 1))));
       }
       else
       {
-         final Object[] entries = pathSplitter.splitPath(parentPath);
+         // all childs
+         queryBuilderStack.push(createHierarchyQuery(FieldNames.ANCESTOR, pathSplitter.splitPath(parentPath)));
+      }
+   }
 
-         Query descendantQuery = new TermQuery(new Term(FieldNames.UUID, indexConfiguration.getRootUuid()));
+   /**
+    * Create query for documents which have node with specified path as parent
+    * or ancestor. Path is resolved to identifier of node first, so result is
+    * found by single term.
+    *
+    * @param field {@link FieldNames#PARENT} or {@link FieldNames#ANCESTOR}
+    * @param entries path entries, the first one is root
+    * @return query
+    * @throws VisitException if path can't be resolved
+    */
+   private Query createHierarchyQuery(String field, Object[] entries) throws VisitException
+   {
+      if (entries.length <= 1)
+      {
+         return new TermQuery(new Term(field, indexConfiguration.getRootUuid()));
+      }
+      Query nodeQuery = new TermQuery(new Term(FieldNames.UUID, indexConfiguration.getRootUuid()));
+      for (int i = 1; i < entries.length; i++)
+      {
+         final String stepName = nameConverter.convertName(entries[i]);
+         final Query nameQuery = new TermQuery(new Term(FieldNames.LABEL, stepName));
+         nodeQuery = new DescendantQueryNode(nameQuery, nodeQuery);
+      }
+      List<String> identifiers = getIdentifiers(nodeQuery);
+      if (identifiers.size() == 1)
+      {
+         return new TermQuery(new Term(field, identifiers.get(0)));
+      }
+      // Nothing matched if path is not found.
+      BooleanQuery query = new BooleanQuery();
+      for (String identifier : identifiers)
+      {
+         query.add(new TermQuery(new Term(field, identifier)), Occur.SHOULD);
+      }
+      return query;
+   }
 
-         for (int i = 1; i < entries.length; i++)
+   /**
+    * @param query query
+    * @return identifiers of documents matched by query
+    * @throws VisitException if index can't be read
+    */
+   private List<String> getIdentifiers(Query query) throws VisitException
+   {
+      final List<Integer> docs = new ArrayList<Integer>();
+      try
+      {
+         new Searcher(indexReader).search(query, new Collector()
          {
-            final String stepName = nameConverter.convertName(entries[i]);
-            final Query nameQuery = new TermQuery(new Term(FieldNames.LABEL, stepName));
-            descendantQuery = new DescendantQueryNode(nameQuery, descendantQuery);
-         }
-         // all childs
+            private int docBase;
 
-         descendantQuery = new ChildTraversingQueryNode(descendantQuery, true);
+            @Override
+            public void setScorer(Scorer scorer)
+            {
+            }
+
+            @Override
+            public void collect(int doc)
+            {
+               docs.add(docBase + doc);
+            }
 
-         queryBuilderStack.push(descendantQuery);
+            @Override
+            public void setNextReader(IndexReader reader, int docBase)
+            {
+               this.docBase = docBase;
+            }
+
+            @Override
+            public boolean acceptsDocsOutOfOrder()
+            {
+               return true;
+            }
+         });
+         List<String> identifiers = new ArrayList<String>(docs.size());
+         for (Integer doc : docs)
+         {
+            identifiers.add(indexReader.document(doc, new UUIDFieldSelector()).get(FieldNames.UUID));
+         }
+         return identifiers;
+      }
+      catch (IOException e)
+      {
+         throw new VisitException(e.getLocalizedMessage());
       }
    }
 
@@ -461,16 +541,16 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             queryBuilderStack.push(booleanQuery);
             break;
          case GREATER_THAN :
-            queryBuilderStack.push(new TermRangeQuery(lengthTerm.field(), lengthTerm.text(), null, false, false));
+            queryBuilderStack.push(NumericRangeQuery.newLongRange(propertyField, staticLongValue, null, false, true));
             break;
          case GREATER_THAN_OR_EQUAL_TO :
-            queryBuilderStack.push(new TermRangeQuery(lengthTerm.field(), lengthTerm.text(), null, true, true));
+            queryBuilderStack.push(NumericRangeQuery.newLongRange(propertyField, staticLongValue, null, true, true));
             break;
          case LESS_THAN :
-            queryBuilderStack.push(new TermRangeQuery(lengthTerm.field(), null, lengthTerm.text(), false, false));
+            queryBuilderStack.push(NumericRangeQuery.newLongRange(propertyField, null, staticLongValue, true, false));
             break;
          case LESS_THAN_OR_EQUAL_TO :
-            queryBuilderStack.push(new TermRangeQuery(lengthTerm.field(), null, lengthTerm.text(), true, true));
+            queryBuilderStack.push(NumericRangeQuery.newLongRange(propertyField, null, staticLongValue, true, true));
             break;
          case LIKE :
             throw new VisitException("Unsupported operation for Length operator");
@@ -504,19 +584,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
 
    public void visit(LowerCase node) throws VisitException
    {
-      Validate.isTrue(queryBuilderStack.peek() instanceof Boolean, "Stack should contains caseInsensitiveSearch flag");
-      boolean caseInsensitiveSearch = (Boolean)queryBuilderStack.pop();
-
-      final String value = (String)queryBuilderStack.peek();
-      if (!caseInsensitiveSearch && !StringUtils.isAllLowerCase(value))
-      {
-         // search nothing because static value in different case
-         queryBuilderStack.push(new BooleanQuery());
-      }
-
-      queryBuilderStack.push(new Boolean(true));
-      // push dynamic query to stack;
-      Visitors.visit(node.getOperand(), this);
+      visitCaseConversion(node.getOperand(), false);
    }
 
    /**
@@ -555,7 +623,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
                throw new VisitException("Unsupported operation of caseinsensetive search and NodeLocalName");
             }
             final BooleanQuery equalToQuery = new BooleanQuery();
-            equalToQuery.add(new WildcardQuery(new Term(FieldNames.LABEL, "*?:" + staticStingValue)),
+            equalToQuery.add(new TermQuery(new Term(FieldNames.LOCAL_NAME, staticStingValue)),
                BooleanClause.Occur.SHOULD);
             equalToQuery.add(new TermQuery(staticValueTerm), BooleanClause.Occur.SHOULD);
             queryBuilderStack.push(equalToQuery);
@@ -570,7 +638,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             // property exists
             notEqualToQuery.add(new MatchAllDocsQuery(), BooleanClause.Occur.SHOULD);
             final BooleanQuery q = new BooleanQuery();
-            q.add(new WildcardQuery(new Term(FieldNames.LABEL, "*?:" + staticStingValue)), BooleanClause.Occur.SHOULD);
+            q.add(new TermQuery(new Term(FieldNames.LOCAL_NAME, staticStingValue)), BooleanClause.Occur.SHOULD);
             q.add(new TermQuery(new Term(FieldNames.LABEL, staticStingValue)), BooleanClause.Occur.SHOULD);
 
             notEqualToQuery.add(q, BooleanClause.Occur.MUST_NOT);
@@ -594,12 +662,13 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             }
             else
             {
-               final String term = "(.+:)?" + likePatternToRegex(likeExpression);
-               likeQuery = new RegexQuery(new Term(FieldNames.LABEL, term));
-               if (caseInsensitiveSearch)
-               {
-                  ((RegexQuery)likeQuery).setRegexImplementation(new CaseInsensitiveRegexCapImpl());
-               }
+               // local name or full label with namespace prefix
+               final BooleanQuery localNameQuery = new BooleanQuery();
+               localNameQuery.add(createLikeQuery(FieldNames.LOCAL_NAME, likeExpression, caseInsensitiveSearch),
+                  BooleanClause.Occur.SHOULD);
+               localNameQuery.add(createLikeQuery(FieldNames.LABEL, likeExpression, caseInsensitiveSearch),
+                  BooleanClause.Occur.SHOULD);
+               likeQuery = localNameQuery;
             }
             queryBuilderStack.push(likeQuery);
 
@@ -627,14 +696,15 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
       String staticStingValue = (String)queryBuilderStack.pop();
 
       Term staticValueTerm = new Term(FieldNames.LABEL, staticStingValue);
+      Term lowerCaseTerm =
+         new Term(FieldNames.createLowerCaseFieldName(FieldNames.LABEL), staticStingValue.toLowerCase());
 
       switch (operator)
       {
          case EQUAL_TO :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveTermQuery(new Term(FieldNames.LABEL, staticStingValue
-                  .toLowerCase())));
+               queryBuilderStack.push(new TermQuery(lowerCaseTerm));
             }
             else
             {
@@ -648,7 +718,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             // property not equal to
             if (caseInsensitiveSearch)
             {
-               booleanQuery.add(new CaseInsensitiveTermQuery(staticValueTerm), BooleanClause.Occur.MUST_NOT);
+               booleanQuery.add(new TermQuery(lowerCaseTerm), BooleanClause.Occur.MUST_NOT);
 
             }
             else
@@ -660,8 +730,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          case GREATER_THAN :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(staticValueTerm.field(), 
-                       staticValueTerm.text().toLowerCase(), null, false, false));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), lowerCaseTerm.text(), null, false,
+                  false));
             }
             else
             {
@@ -673,8 +743,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
 
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(staticValueTerm.field(), 
-                       staticValueTerm.text().toLowerCase(), null, true, true));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), lowerCaseTerm.text(), null, true,
+                  true));
             }
             else
             {
@@ -685,8 +755,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          case LESS_THAN :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(staticValueTerm.field(),
-                       null, staticValueTerm.text().toUpperCase(), false, false));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), null, lowerCaseTerm.text(), false,
+                  false));
             }
             else
             {
@@ -697,8 +767,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          case LESS_THAN_OR_EQUAL_TO :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(staticValueTerm.field(), 
-                       null, staticValueTerm.text().toUpperCase(), true, true));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), null, lowerCaseTerm.text(), true,
+                  true));
             }
             else
             {
@@ -716,13 +786,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             }
             else
             {
-               final String term = likePatternToRegex(likeExpression);
-               RegexQuery query = new RegexQuery(new Term(FieldNames.LABEL, term));
-               if (caseInsensitiveSearch)
-               {
-                  (query).setRegexImplementation(new CaseInsensitiveRegexCapImpl());
-               }
-               queryBuilderStack.push(query);
+               queryBuilderStack.push(createLikeQuery(FieldNames.LABEL, likeExpression, caseInsensitiveSearch));
             }
 
             break;
@@ -815,39 +879,26 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          "Stack should contains static value. But found " + queryBuilderStack.peek().getClass().getCanonicalName());
       staticValue = queryBuilderStack.pop();
 
-      String staticStingValue = null;
-      //convert static value to string
-      //TODO check cast system
-      if (staticValue instanceof String)
-      {
-         staticStingValue = (String)staticValue;
-      }
-      else if (staticValue instanceof Double)
-      {
-         staticStingValue = ExtendedNumberTools.doubleToString((Double)staticValue);
-      }
-      else if (staticValue instanceof Long)
-      {
-         staticStingValue = NumericUtils.longToPrefixCoded((Long)staticValue);
-      }
-      else if (staticValue instanceof Calendar)
-      {
-         staticStingValue = DateTools.dateToString(((Calendar)staticValue).getTime(), DateTools.Resolution.MILLISECOND);
-      }
-      else if (staticValue instanceof Boolean)
+      PropertyType numericType = getNumericType(node.getPropertyName(), staticValue);
+      if (numericType != null)
       {
-         staticStingValue = staticValue.toString();
+         queryBuilderStack.push(createNumericQuery(node.getPropertyName(), operator, numericType, staticValue));
+         return;
       }
 
+      String staticStingValue = staticValue.toString();
+
       Term propertyValueTerm = new Term(FieldNames.createPropertyFieldName(node.getPropertyName()), staticStingValue);
       TermQuery propertyValueQuery = new TermQuery(propertyValueTerm);
       Term maxFildValue = new Term(FieldNames.createPropertyFieldName(node.getPropertyName()), "\uFFFF");
+      Term lowerCaseTerm =
+         new Term(FieldNames.createLowerCaseFieldName(propertyValueTerm.field()), staticStingValue.toLowerCase());
       switch (operator)
       {
          case EQUAL_TO :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveTermQuery(propertyValueTerm));
+               queryBuilderStack.push(new TermQuery(lowerCaseTerm));
             }
             else
             {
@@ -863,7 +914,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             // property not equal to
             if (caseInsensitiveSearch)
             {
-               notEqualQuery.add(new CaseInsensitiveTermQuery(propertyValueTerm), BooleanClause.Occur.MUST_NOT);
+               notEqualQuery.add(new TermQuery(lowerCaseTerm), BooleanClause.Occur.MUST_NOT);
             }
             else
             {
@@ -875,8 +926,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          case GREATER_THAN :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(FieldNames.createPropertyFieldName(node.getPropertyName()), 
-                       propertyValueTerm.text(), maxFildValue.text(), false, false));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), lowerCaseTerm.text(), maxFildValue
+                  .text(), false, false));
             }
             else
             {
@@ -888,8 +939,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
 
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(FieldNames.createPropertyFieldName(node.getPropertyName()), 
-                       propertyValueTerm.text(), maxFildValue.text(), true, true));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), lowerCaseTerm.text(), maxFildValue
+                  .text(), true, true));
             }
             else
             {
@@ -900,8 +951,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          case LESS_THAN :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(FieldNames.createPropertyFieldName(node.getPropertyName()), 
-                       "", propertyValueTerm.text(), false, false));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), "", lowerCaseTerm.text(), false,
+                  false));
             }
             else
             {
@@ -912,8 +963,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
          case LESS_THAN_OR_EQUAL_TO :
             if (caseInsensitiveSearch)
             {
-               queryBuilderStack.push(new CaseInsensitiveRangeQuery(FieldNames.createPropertyFieldName(node.getPropertyName()), 
-                       "", propertyValueTerm.text(), true, true));
+               queryBuilderStack.push(new TermRangeQuery(lowerCaseTerm.field(), "", lowerCaseTerm.text(), true, true));
             }
             else
             {
@@ -930,14 +980,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             }
             else
             {
-               final String term = likePatternToRegex(staticStingValue);
-               Query likeQuery =
-                  new RegexQuery(new Term(FieldNames.createPropertyFieldName(node.getPropertyName()), term));
-               if (caseInsensitiveSearch)
-               {
-                  ((RegexQuery)likeQuery).setRegexImplementation(new CaseInsensitiveRegexCapImpl());
-               }
-               queryBuilderStack.push(likeQuery);
+               queryBuilderStack.push(createLikeQuery(propertyValueTerm.field(), staticStingValue,
+                  caseInsensitiveSearch));
             }
 
             break;
@@ -1006,21 +1050,195 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
     */
 
    public void visit(UpperCase node) throws VisitException
+   {
+      visitCaseConversion(node.getOperand(), true);
+   }
+
+   /**
+    * Push query for comparison of lower or upper case form of dynamic operand
+    * to stack. Operand is compared with lower case copy of values. Equality
+    * or LIKE comparison with static value which contains characters in other
+    * case matches nothing.
+    * 
+    * @param operand dynamic operand
+    * @param upperCase <code>true</code> for upper case form of operand
+    * @throws VisitException
+    */
+   private void visitCaseConversion(DynamicOperand operand, boolean upperCase) throws VisitException
    {
       Validate.isTrue(queryBuilderStack.peek() instanceof Boolean, "Stack should contains caseInsensitiveSearch flag");
       boolean caseInsensitiveSearch = (Boolean)queryBuilderStack.pop();
 
-      final String value = (String)queryBuilderStack.peek();
-      if (!caseInsensitiveSearch && !StringUtils.isAllUpperCase(value))
+      Validate.isTrue(queryBuilderStack.peek() instanceof Operator, "Stack should contains comparation operator ");
+      Operator operator = (Operator)queryBuilderStack.pop();
+
+      final Object value = queryBuilderStack.peek();
+      if (!caseInsensitiveSearch && value instanceof String
+         && (operator == Operator.EQUAL_TO || operator == Operator.LIKE))
       {
-         // search nothing because static value in different case
-         queryBuilderStack.push(new BooleanQuery());
+         final String stringValue = (String)value;
+         if (!stringValue.equals(upperCase ? stringValue.toUpperCase() : stringValue.toLowerCase()))
+         {
+            // search nothing because static value in different case
+            queryBuilderStack.pop();
+            queryBuilderStack.push(new BooleanQuery());
+            return;
+         }
       }
 
-      queryBuilderStack.push(new Boolean(true));
+      queryBuilderStack.push(operator);
+      queryBuilderStack.push(Boolean.TRUE);
       // push dynamic query to stack;
-      Visitors.visit(node.getOperand(), this);
+      Visitors.visit(operand, this);
+   }
+
+   /**
+    * Get type of numeric field which is used to index property. Type of
+    * column is used if it is known, otherwise type of static value.
+    * 
+    * @param propertyName property name
+    * @param staticValue static value
+    * @return {@link PropertyType#LONG}, {@link PropertyType#DOUBLE},
+    *         {@link PropertyType#DATE} or <code>null</code> if static value
+    *         can't be compared with numeric field of property
+    */
+   private PropertyType getNumericType(String propertyName, Object staticValue)
+   {
+      if (!(staticValue instanceof Number || staticValue instanceof Calendar))
+      {
+         return null;
+      }
+      PropertyType type = null;
+      if (table != null)
+      {
+         Schema.Column column = table.getColumn(propertyName);
+         if (column != null)
+         {
+            type = column.getPropertyType();
+         }
+      }
+      if (type == null)
+      {
+         type =
+            staticValue instanceof Calendar ? PropertyType.DATE : (staticValue instanceof Double ? PropertyType.DOUBLE
+               : PropertyType.LONG);
+      }
+      switch (type)
+      {
+         case LONG :
+         case DOUBLE :
+            return staticValue instanceof Number ? type : null;
+         case DATE :
+            return staticValue instanceof Calendar ? type : null;
+         default :
+            return null;
+      }
+   }
+
+   /**
+    * Create query for property indexed as numeric field. Range constraints
+    * are resolved by {@link NumericRangeQuery} which visits only few terms of
+    * lower precision instead of all terms in range.
+    * 
+    * @param propertyName property name
+    * @param operator comparison operator
+    * @param type type of numeric field, see
+    *           {@link #getNumericType(String, Object)}
+    * @param staticValue static value
+    * @return query
+    * @throws VisitException if operator is not supported for numeric values
+    */
+   private Query createNumericQuery(String propertyName, Operator operator, PropertyType type, Object staticValue)
+      throws VisitException
+   {
+      String field = FieldNames.createPropertyFieldName(propertyName);
+      if (type == PropertyType.DOUBLE)
+      {
+         Double value = ((Number)staticValue).doubleValue();
+         switch (operator)
+         {
+            case EQUAL_TO :
+            case NOT_EQUAL_TO :
+               return createEqualityQuery(propertyName, operator, new Term(field, NumericUtils
+                  .doubleToPrefixCoded(value)));
+            case GREATER_THAN :
+               return NumericRangeQuery.newDoubleRange(field, value, null, false, true);
+            case GREATER_THAN_OR_EQUAL_TO :
+               return NumericRangeQuery.newDoubleRange(field, value, null, true, true);
+            case LESS_THAN :
+               return NumericRangeQuery.newDoubleRange(field, null, value, true, false);
+            case LESS_THAN_OR_EQUAL_TO :
+               return NumericRangeQuery.newDoubleRange(field, null, value, true, true);
+            default :
+               throw new VisitException("Unsupported operation " + operator + " for numeric property "
+                  + propertyName);
+         }
+      }
 
+      Long value;
+      if (staticValue instanceof Calendar)
+      {
+         value = ((Calendar)staticValue).getTimeInMillis();
+      }
+      else if (staticValue instanceof Double && Math.rint((Double)staticValue) != (Double)staticValue)
+      {
+         // Fractional value compared with integer property.
+         double doubleValue = (Double)staticValue;
+         switch (operator)
+         {
+            case EQUAL_TO :
+               return new BooleanQuery();
+            case NOT_EQUAL_TO :
+               return new TermQuery(new Term(FieldNames.PROPERTIES_SET, propertyName));
+            case GREATER_THAN :
+            case GREATER_THAN_OR_EQUAL_TO :
+               return NumericRangeQuery.newLongRange(field, (long)Math.ceil(doubleValue), null, true, true);
+            case LESS_THAN :
+            case LESS_THAN_OR_EQUAL_TO :
+               return NumericRangeQuery.newLongRange(field, null, (long)Math.floor(doubleValue), true, true);
+            default :
+               throw new VisitException("Unsupported operation " + operator + " for numeric property "
+                  + propertyName);
+         }
+      }
+      else
+      {
+         value = ((Number)staticValue).longValue();
+      }
+      switch (operator)
+      {
+         case EQUAL_TO :
+         case NOT_EQUAL_TO :
+            return createEqualityQuery(propertyName, operator, new Term(field, NumericUtils.longToPrefixCoded(value)));
+         case GREATER_THAN :
+            return NumericRangeQuery.newLongRange(field, value, null, false, true);
+         case GREATER_THAN_OR_EQUAL_TO :
+            return NumericRangeQuery.newLongRange(field, value, null, true, true);
+         case LESS_THAN :
+            return NumericRangeQuery.newLongRange(field, null, value, true, false);
+         case LESS_THAN_OR_EQUAL_TO :
+            return NumericRangeQuery.newLongRange(field, null, value, true, true);
+         default :
+            throw new VisitException("Unsupported operation " + operator + " for numeric property " + propertyName);
+      }
+   }
+
+   /**
+    * Create query for {@link Operator#EQUAL_TO} or
+    * {@link Operator#NOT_EQUAL_TO} comparison with single term.
+    */
+   private Query createEqualityQuery(String propertyName, Operator operator, Term term)
+   {
+      if (operator == Operator.EQUAL_TO)
+      {
+         return new TermQuery(term);
+      }
+      final BooleanQuery notEqualQuery = new BooleanQuery();
+      // property exists
+      notEqualQuery.add(new TermQuery(new Term(FieldNames.PROPERTIES_SET, propertyName)), BooleanClause.Occur.SHOULD);
+      // property not equal to
+      notEqualQuery.add(new TermQuery(term), BooleanClause.Occur.MUST_NOT);
+      return notEqualQuery;
    }
 
    /**
@@ -1039,72 +1257,211 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
    }
 
    /**
-    * Transform Like pattern to regular expression.
+    * Create query for LIKE comparison with not tokenized values of field.
+    * Pattern without wildcards is resolved with single term. Terms which match
+    * other patterns are enumerated starting from literal prefix of pattern or,
+    * if pattern has longer literal suffix, from reversed suffix in reversed
+    * copy of field. Case insensitive comparison uses lower case copy of field.
     * 
-    * @param pattern Like pattern
-    * @return String regular expression
+    * @param field name of field which contains original values
+    * @param likeExpression LIKE pattern
+    * @param caseInsensitiveSearch <code>true</code> if case of values is
+    *           ignored
+    * @return Query
     */
-   private String likePatternToRegex(final String pattern)
+   private Query createLikeQuery(String field, String likeExpression, boolean caseInsensitiveSearch)
    {
-      // - escape all non alphabetic characters
-      // - escape constructs like \<alphabetic char> into \\<alphabetic char>
-      // - replace non escaped _ % into . and .*
-      final StringBuffer regexp = new StringBuffer();
-      regexp.append("^");
-      boolean escaped = false;
-      for (int i = 0; i < pattern.length(); i++)
+      String fieldName = field;
+      LikePattern pattern;
+      if (caseInsensitiveSearch)
+      {
+         fieldName = FieldNames.createLowerCaseFieldName(field);
+         pattern = new LikePattern(likeExpression.toLowerCase());
+      }
+      else
+      {
+         pattern = new LikePattern(likeExpression);
+      }
+      if (!pattern.hasWildcards())
+      {
+         return new TermQuery(new Term(fieldName, pattern.getPrefix()));
+      }
+
+      LikePattern reversed = pattern.reverse();
+      if (reversed.getPrefix().length() > pattern.getPrefix().length())
       {
-         if (pattern.charAt(i) == LIKE_ESCAPE_CHAR)
+         fieldName = FieldNames.createReversedFieldName(fieldName);
+         pattern = reversed;
+      }
+      if (pattern.isPrefix())
+      {
+         return new PrefixQuery(new Term(fieldName, pattern.getPrefix()));
+      }
+      final String wildcard = pattern.toWildcard();
+      if (wildcard != null)
+      {
+         return new WildcardQuery(new Term(fieldName, wildcard));
+      }
+      // literal characters clash with wildcards of WildcardQuery
+      RegexQuery query = new RegexQuery(new Term(fieldName, pattern.toRegex()));
+      query.setRegexImplementation(new PrefixRegexCapImpl(pattern.getPrefix()));
+      return query;
+   }
+
+   /**
+    * Like pattern split to literal characters and not escaped wildcards.
+    */
+   private static final class LikePattern
+   {
+      /**
+       * Kind of literal character.
+       */
+      private static final char LITERAL = ' ';
+
+      /**
+       * Characters of pattern without escape characters.
+       */
+      private final String chars;
+
+      /**
+       * Kind of each character: {@link #LITERAL}, {@link LuceneQueryBuilder#LIKE_MATCH_ONE_CHAR}
+       * or {@link LuceneQueryBuilder#LIKE_MATCH_ZERO_OR_MORE_CHAR}.
+       */
+      private final String kinds;
+
+      /**
+       * @param pattern Like pattern
+       */
+      LikePattern(String pattern)
+      {
+         final StringBuilder chars = new StringBuilder();
+         final StringBuilder kinds = new StringBuilder();
+         boolean escaped = false;
+         for (int i = 0; i < pattern.length(); i++)
          {
-            if (escaped)
+            char c = pattern.charAt(i);
+            if (c == LIKE_ESCAPE_CHAR && !escaped)
             {
-               regexp.append("\\\\");
-               escaped = false;
+               escaped = true;
             }
             else
             {
-               escaped = true;
+               chars.append(c);
+               kinds.append(!escaped && (c == LIKE_MATCH_ONE_CHAR || c == LIKE_MATCH_ZERO_OR_MORE_CHAR) ? c : LITERAL);
+               escaped = false;
             }
          }
-         else
+         this.chars = chars.toString();
+         this.kinds = kinds.toString();
+      }
+
+      private LikePattern(String chars, String kinds)
+      {
+         this.chars = chars;
+         this.kinds = kinds;
+      }
+
+      /**
+       * @return true if pattern contains at least one wildcard
+       */
+      boolean hasWildcards()
+      {
+         return kinds.indexOf(LIKE_MATCH_ONE_CHAR) >= 0 || kinds.indexOf(LIKE_MATCH_ZERO_OR_MORE_CHAR) >= 0;
+      }
+
+      /**
+       * @return literal characters before first wildcard
+       */
+      String getPrefix()
+      {
+         int length = 0;
+         while (length < kinds.length() && kinds.charAt(length) == LITERAL)
+         {
+            length++;
+         }
+         return chars.substring(0, length);
+      }
+
+      /**
+       * @return true if literal prefix is followed only by
+       *         {@link LuceneQueryBuilder#LIKE_MATCH_ZERO_OR_MORE_CHAR} wildcards
+       */
+      boolean isPrefix()
+      {
+         for (int i = getPrefix().length(); i < kinds.length(); i++)
          {
-            if (Character.isLetterOrDigit(pattern.charAt(i)))
+            if (kinds.charAt(i) != LIKE_MATCH_ZERO_OR_MORE_CHAR)
             {
-               if (escaped)
-               {
-                  regexp.append(pattern.charAt(i)); // append("\\\\")
-                  escaped = false;
-               }
-               else
-               {
-                  regexp.append(pattern.charAt(i));
-               }
+               return false;
             }
-            else
+         }
+         return true;
+      }
+
+      /**
+       * @return pattern which matches reversed values. Surrogate pairs are
+       *         kept in order as in reversed copies of values in index.
+       */
+      LikePattern reverse()
+      {
+         return new LikePattern(new StringBuilder(chars).reverse().toString(), new StringBuilder(kinds).reverse()
+            .toString());
+      }
+
+      /**
+       * @return pattern of {@link WildcardQuery} or <code>null</code> if
+       *         literal characters contain its wildcards
+       */
+      String toWildcard()
+      {
+         final StringBuilder wildcard = new StringBuilder();
+         for (int i = 0; i < chars.length(); i++)
+         {
+            char c = chars.charAt(i);
+            switch (kinds.charAt(i))
             {
-               if (escaped)
+               case LIKE_MATCH_ONE_CHAR :
+                  wildcard.append('?');
+                  break;
+               case LIKE_MATCH_ZERO_OR_MORE_CHAR :
+                  wildcard.append('*');
+                  break;
+               default :
+                  if (c == '?' || c == '*')
+                  {
+                     return null;
+                  }
+                  wildcard.append(c);
+            }
+         }
+         return wildcard.toString();
+      }
+
+      /**
+       * @return regular expression
+       */
+      String toRegex()
+      {
+         final StringBuilder regexp = new StringBuilder();
+         regexp.append("^");
+         int literalStart = 0;
+         for (int i = 0; i <= chars.length(); i++)
+         {
+            if (i == chars.length() || kinds.charAt(i) != LITERAL)
+            {
+               if (i > literalStart)
                {
-                  regexp.append('\\').append(pattern.charAt(i));
-                  escaped = false;
+                  regexp.append(Pattern.quote(chars.substring(literalStart, i)));
                }
-               else
+               literalStart = i + 1;
+               if (i < chars.length())
                {
-                  switch (pattern.charAt(i))
-                  {
-                     case LIKE_MATCH_ONE_CHAR :
-                        regexp.append('.');
-                        break;
-                     case LIKE_MATCH_ZERO_OR_MORE_CHAR :
-                        regexp.append(".*");
-                        break;
-                     default :
-                        regexp.append('\\').append(pattern.charAt(i));
-                  }
+                  regexp.append(kinds.charAt(i) == LIKE_MATCH_ONE_CHAR ? "." : ".*");
                }
             }
          }
+         regexp.append("$");
+         return regexp.toString();
       }
-      regexp.append("$");
-      return regexp.toString();
    }
 }
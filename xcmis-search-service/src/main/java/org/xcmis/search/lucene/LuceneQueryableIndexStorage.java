@@ -93,6 +93,15 @@ public class LuceneQueryableIndexStorage extends AbstractLuceneQueryableIndexSto
       return indexDataManager.getIndexReader();
    }
 
+   /**
+    * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#releaseIndexReader(org.apache.lucene.index.IndexReader)
+    */
+   @Override
+   protected void releaseIndexReader(IndexReader reader) throws IndexException
+   {
+      indexDataManager.releaseIndexReader(reader);
+   }
+
    protected Document getDocument(String uuid, IndexReader reader) throws IndexException
    {
 
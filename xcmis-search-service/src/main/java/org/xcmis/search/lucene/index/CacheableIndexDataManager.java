@@ -42,6 +42,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by The eXo Platform SAS.
@@ -107,6 +109,12 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
     * */
    private final Object updateMonitor = new Object();
 
+   /**
+    * Current snapshot of index or <code>null</code> if index is changed since
+    * the last snapshot was created.
+    */
+   private final AtomicReference<ReaderSnapshot> snapshot = new AtomicReference<ReaderSnapshot>();
+
    /**
     * @throws IndexConfigurationException
     * @throws IndexException
@@ -153,6 +161,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
                   indexes.remove(luceneIndexDataManager);
                }
                indexes.add(mergedChain);
+               invalidateSnapshot();
             }
          }
          final Collection<LuceneIndexDataManager> candidats2Save =
@@ -169,6 +178,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
                   ((TransactionableLuceneIndexDataManager)luceneIndexDataManager).getTransactionLog().removeLog();
                   indexes.remove(luceneIndexDataManager);
                }
+               invalidateSnapshot();
                lastFlushTime = System.currentTimeMillis();
             }
          }
@@ -241,76 +251,184 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
    }
 
    /**
-    * {@inheritDoc}
+    * {@inheritDoc} Reader is shared snapshot of index, no locks are taken if
+    * index is not changed since snapshot was created. Reader must be released
+    * with {@link #releaseIndexReader(IndexReader)}.
     * 
     * @throws IndexException
     */
    @Override
    public IndexReader getIndexReader() throws IndexException
    {
+      for (;;)
+      {
+         ReaderSnapshot current = snapshot.get();
+         if (current == null)
+         {
+            current = createSnapshot();
+         }
+         if (current.acquire())
+         {
+            return current;
+         }
+         // Snapshot is closed by concurrent change of index, try again.
+      }
+   }
+
+   /**
+    * Release reader obtained by {@link #getIndexReader()}.
+    * 
+    * @param reader index reader
+    */
+   public void releaseIndexReader(IndexReader reader)
+   {
+      if (reader instanceof ReaderSnapshot)
+      {
+         ((ReaderSnapshot)reader).release();
+      }
+   }
 
+   /**
+    * Create snapshot of current state of index and publish it. Must not be
+    * called while index is changed.
+    * 
+    * @return published snapshot
+    * @throws IndexException
+    */
+   private ReaderSnapshot createSnapshot() throws IndexException
+   {
       synchronized (memoryChains)
       {
          synchronized (updateMonitor)
          {
-            IndexReader result = super.getIndexReader();
-
-            if (memoryChains.size() > 0)
+            ReaderSnapshot current = snapshot.get();
+            if (current != null)
             {
-               final List<IndexReader> readers = new ArrayList<IndexReader>(memoryChains.size());
-               final Iterator<LuceneIndexDataManager> it = memoryChains.iterator();
-
-               while (it.hasNext())
-               {
-                  final LuceneIndexDataManager chain = it.next();
-
-                  final IndexReader indexReader = chain.getIndexReader();
-                  if (indexReader != null)
-                  {
-                     readers.add(indexReader);
-                  }
-
-               }
-               if (result != null)
-               {
-                  readers.add(result);
-               }
-               if (readers.size() > 1)
-               {
-                  final IndexReader[] indexReaders = new IndexReader[readers.size()];
-                  result = new MultiReader(readers.toArray(indexReaders));
-               }
-               else if (readers.size() == 1)
+               // Created by other thread.
+               return current;
+            }
+            final List<IndexReader> readers = new ArrayList<IndexReader>(memoryChains.size() + 1);
+            for (final LuceneIndexDataManager chain : memoryChains)
+            {
+               final IndexReader indexReader = chain.getIndexReader();
+               if (indexReader != null)
                {
-                  result = readers.get(0);
+                  readers.add(indexReader);
                }
-               else
+            }
+            IndexReader persisted = super.getIndexReader();
+            if (persisted != null)
+            {
+               readers.add(persisted);
+            }
+            IndexReader empty = null;
+            if (readers.size() == 0)
+            {
+               if (memoryChains.size() > 0)
                {
                   throw new IndexReaderNotFoundException("No readers found");
                }
-
+               empty = createEmptyReader();
+               readers.add(empty);
             }
-            if (result == null)
+            current = new ReaderSnapshot(readers.toArray(new IndexReader[readers.size()]));
+            if (empty != null)
             {
+               // Empty reader is owned by snapshot only.
                try
                {
-                  RAMDirectory directory = new RAMDirectory();
-                  IndexWriter.MaxFieldLength fieldLength =
-                     new IndexWriter.MaxFieldLength(IndexWriter.DEFAULT_MAX_FIELD_LENGTH);
-                  IndexWriter iw = new IndexWriter(directory, new SimpleAnalyzer(), true, fieldLength);
-                  iw.close();
-                  result = IndexReader.open(directory);
+                  empty.decRef();
                }
                catch (IOException e)
                {
-                  throw new IndexException("Unable to initialize index: empty index ");
+                  LOG.warn("Unable to close index reader: " + e.getLocalizedMessage());
                }
+            }
+            snapshot.set(current);
+            return current;
+         }
+      }
+   }
+
+   /**
+    * Drop current snapshot of index. Must be called by each change of index
+    * while lock of memory chains is held. Readers of dropped snapshot remain
+    * open until they are released by all users.
+    */
+   private void invalidateSnapshot()
+   {
+      ReaderSnapshot old = snapshot.getAndSet(null);
+      if (old != null)
+      {
+         old.release();
+      }
+   }
 
+   private IndexReader createEmptyReader() throws IndexException
+   {
+      try
+      {
+         RAMDirectory directory = new RAMDirectory();
+         IndexWriter.MaxFieldLength fieldLength = new IndexWriter.MaxFieldLength(IndexWriter.DEFAULT_MAX_FIELD_LENGTH);
+         IndexWriter iw = new IndexWriter(directory, new SimpleAnalyzer(), true, fieldLength);
+         iw.close();
+         return IndexReader.open(directory);
+      }
+      catch (IOException e)
+      {
+         throw new IndexException("Unable to initialize index: empty index ");
+      }
+   }
+
+   /**
+    * Immutable composite reader over in-memory chains and persisted index.
+    * Snapshot counts its users, manager holds one reference until snapshot is
+    * replaced. Sub readers are referenced by snapshot (not closed on close of
+    * snapshot but dereferenced), so they stay open if chain is disposed while
+    * snapshot is in use.
+    */
+   private static final class ReaderSnapshot extends MultiReader
+   {
+      private final AtomicInteger refs = new AtomicInteger(1);
+
+      ReaderSnapshot(IndexReader[] readers)
+      {
+         super(readers, false);
+      }
+
+      /**
+       * @return <code>false</code> if snapshot already closed
+       */
+      boolean acquire()
+      {
+         for (;;)
+         {
+            int count = refs.get();
+            if (count <= 0)
+            {
+               return false;
+            }
+            if (refs.compareAndSet(count, count + 1))
+            {
+               return true;
             }
-            return result;
          }
       }
 
+      void release()
+      {
+         if (refs.decrementAndGet() == 0)
+         {
+            try
+            {
+               close();
+            }
+            catch (IOException e)
+            {
+               LOG.warn("Unable to close index reader: " + e.getLocalizedMessage());
+            }
+         }
+      }
    }
 
    /**
@@ -401,6 +519,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
          {
             super.save(changes);
          }
+         invalidateSnapshot();
       }
       aggregate(memoryChains);
       return null;
@@ -414,6 +533,10 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
    {
       try
       {
+         synchronized (memoryChains)
+         {
+            invalidateSnapshot();
+         }
          if (memoryChains.size() > 0)
          {
             synchronized (memoryChains)
@@ -427,9 +550,9 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
          {
             flushTask.cancel();
          }
-         // clear canceled tasks
+         // clear canceled tasks, timer is shared by all indexes and is not
+         // cancelled
          FLUSH_TIMER.purge();
-         FLUSH_TIMER.cancel();
       }
       catch (final ConcurrentModificationException e)
       {
@@ -461,6 +584,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
 
             }
             memoryChains.clear();
+            invalidateSnapshot();
             lastFlushTime = System.currentTimeMillis();
          }
       }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Text extracted from binary values, kept in least recently used order and
+ * limited by total number of characters. Key of entry identifies bytes, mime
+ * type and encoding of value, so text is reused when entry is indexed again
+ * without changes of its content, e.g. when it is moved or its properties are
+ * updated.
+ * 
+ * @version $Id$
+ */
+public class ExtractedTextCache
+{
+   private final int maxSize;
+
+   private final LinkedHashMap<String, String> texts = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+   /**
+    * Total number of cached characters.
+    */
+   private long size;
+
+   /**
+    * @param maxSize max number of cached characters
+    */
+   public ExtractedTextCache(int maxSize)
+   {
+      this.maxSize = maxSize;
+   }
+
+   /**
+    * Create key of text extracted from value.
+    * 
+    * @param contentKey key of bytes of value
+    * @param mimeType mime type of value
+    * @param encoding encoding of value, may be <code>null</code>
+    * @return key of text
+    */
+   public static String createKey(String contentKey, String mimeType, String encoding)
+   {
+      return contentKey + '\n' + mimeType + '\n' + (encoding == null ? "" : encoding);
+   }
+
+   /**
+    * @param key key of text
+    * @return cached text or <code>null</code>
+    */
+   public synchronized String get(String key)
+   {
+      return texts.get(key);
+   }
+
+   /**
+    * Cache text. Least recently used texts are evicted if total size exceeds
+    * limit. Text longer than limit is not cached.
+    * 
+    * @param key key of text
+    * @param text extracted text
+    */
+   public synchronized void put(String key, String text)
+   {
+      if (text.length() > maxSize)
+      {
+         return;
+      }
+      String previous = texts.put(key, text);
+      size += text.length() - (previous == null ? 0 : previous.length());
+      for (Iterator<Map.Entry<String, String>> i = texts.entrySet().iterator(); size > maxSize && i.hasNext();)
+      {
+         Map.Entry<String, String> eldest = i.next();
+         size -= eldest.getValue().length();
+         i.remove();
+      }
+   }
+}
@@ -21,6 +21,7 @@ package org.xcmis.search.lucene.index;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by The eXo Platform SAS. <br/>
@@ -36,10 +37,42 @@ public class FSIndexTransactionService implements IndexTransactionService
 
    private final File storageDir;
 
+   /**
+    * Journal of transactions, <code>null</code> if each transaction is logged
+    * to separate file.
+    */
+   private final TransactionLogJournal journal;
+
+   /**
+    * Service which logs each transaction to separate file.
+    * 
+    * @param storageDir - directory of log files.
+    * @param lockFactory - factory of log directories.
+    */
    public FSIndexTransactionService(final File storageDir, final ConcurrentDirectoryFactory lockFactory)
    {
       this.storageDir = storageDir;
       this.lockFactory = lockFactory;
+      this.journal = null;
+   }
+
+   /**
+    * Service which logs transactions to segments of {@link TransactionLogJournal}.
+    * Logs which are left by previous service with separate files are still
+    * returned by {@link #getTransactionLogs()}.
+    * 
+    * @param storageDir - directory of log files.
+    * @param lockFactory - factory of log directories.
+    * @param segmentSize - size of journal segments in bytes, if 0 each
+    *        transaction is logged to separate file.
+    * @throws TransactionLogException if journal can't be opened.
+    */
+   public FSIndexTransactionService(final File storageDir, final ConcurrentDirectoryFactory lockFactory,
+      final long segmentSize) throws TransactionLogException
+   {
+      this.storageDir = storageDir;
+      this.lockFactory = lockFactory;
+      this.journal = segmentSize > 0 ? new TransactionLogJournal(storageDir, segmentSize) : null;
    }
 
    public final ConcurrentDirectoryFactory getLockFactory()
@@ -52,6 +85,22 @@ public class FSIndexTransactionService implements IndexTransactionService
       return storageDir;
    }
 
+   /**
+    * Create log of new transaction.
+    * 
+    * @param added - uuids of added documents.
+    * @param removed - uuids of removed documents.
+    * @return transaction log.
+    */
+   public TransactionLog createTransactionLog(final Set<String> added, final Set<String> removed)
+   {
+      if (journal != null)
+      {
+         return new SegmentedTransactionLog(added, removed, journal);
+      }
+      return new FileSystemTransactionLog(added, removed, this);
+   }
+
    public List<TransactionLog> getTransactionLogs() throws TransactionLogException
    {
       final List<File> logFileList = this.getFileList(storageDir);
@@ -61,6 +110,10 @@ public class FSIndexTransactionService implements IndexTransactionService
          final TransactionLog log = new FileSystemTransactionLog(file, this);
          logs.add(log);
       }
+      if (journal != null)
+      {
+         logs.addAll(journal.getReplayedLogs());
+      }
       return logs;
    }
 
@@ -69,7 +122,18 @@ public class FSIndexTransactionService implements IndexTransactionService
     */
    public boolean hasUncommitedTransactions()
    {
-      return this.hasFiles(storageDir);
+      return (journal != null && journal.hasReplayedLogs()) || this.hasFiles(storageDir);
+   }
+
+   /**
+    * Close journal of transactions.
+    */
+   public void close()
+   {
+      if (journal != null)
+      {
+         journal.close();
+      }
    }
 
    /**
@@ -86,6 +150,10 @@ public class FSIndexTransactionService implements IndexTransactionService
 
       for (final File file : list)
       {
+         if (TransactionLogJournal.isSegment(file))
+         {
+            continue;
+         }
          if (file.isFile())
          {
             resList.add(file);
@@ -113,6 +181,10 @@ public class FSIndexTransactionService implements IndexTransactionService
 
          for (final File file : list)
          {
+            if (TransactionLogJournal.isSegment(file))
+            {
+               continue;
+            }
             if (file.isFile())
             {
                return true;
@@ -59,18 +59,61 @@ public class FieldNames
     */
    public static final String LENGTH_PREFIX = "LENGTH:";
 
+   /**
+    * Prefix for all field names that contain lower case copy of not tokenized
+    * values. Terms are not stored.
+    */
+   public static final String LOWER_CASE_PREFIX = "LOWER:";
+
+   /**
+    * Prefix for all field names that contain reversed copy of not tokenized
+    * values, such fields allow to find values by suffix. Terms are not stored.
+    */
+   public static final String REVERSED_PREFIX = "REVERSE:";
+
    /**
     * Name of the field that contains the UUID of the parent node. Terms are
     * stored and but not tokenized.
     */
    public static final String PARENT = "_:PARENT".intern();
 
+   /**
+    * Name of the field that contains the UUIDs of all ancestors of the node
+    * (parents, parents of parents, etc). Terms are stored and but not
+    * tokenized.
+    */
+   public static final String ANCESTOR = "_:ANCESTOR".intern();
+
+   /**
+    * Name of the field that contains principals allowed to read the node.
+    * Terms are stored and but not tokenized.
+    */
+   public static final String PRINCIPAL = "_:PRINCIPAL".intern();
+
+   /**
+    * Value of {@link #PRINCIPAL} field for nodes which everyone is allowed to
+    * read.
+    */
+   public static final String ANY_PRINCIPAL = "_:ANY";
+
+   /**
+    * Name of the field that contains key of the node in document order
+    * supplied by content provider. Terms are not stored and not tokenized.
+    */
+   public static final String ORDER_KEY = "_:ORDER_KEY".intern();
+
    /**
     * Name of the field that contains the label of the node. Terms are not
     * tokenized.
     */
    public static final String LABEL = "_:LABEL".intern();
 
+   /**
+    * Name of the field that contains the label of the node without namespace
+    * prefix. Terms are not stored and not tokenized.
+    */
+   public static final String LOCAL_NAME = "_:LOCAL_NAME".intern();
+
    /**
     * Name of the field that contains the names of multi-valued properties that
     * hold more than one value. Terms are not tokenized and not stored, only
@@ -130,6 +173,32 @@ public class FieldNames
       return fieldName.substring(0, idx + 1) + FieldNames.FULLTEXT_PREFIX + fieldName.substring(idx + 1);
    }
 
+   /**
+    * Returns name of the field that contains lower case copy of values of
+    * <code>fieldName</code> field.
+    * 
+    * @param fieldName the field name
+    * @return lower case field name
+    */
+   public static String createLowerCaseFieldName(String fieldName)
+   {
+      int idx = fieldName.indexOf(':');
+      return fieldName.substring(0, idx + 1) + FieldNames.LOWER_CASE_PREFIX + fieldName.substring(idx + 1);
+   }
+
+   /**
+    * Returns name of the field that contains reversed copy of values of
+    * <code>fieldName</code> field.
+    * 
+    * @param fieldName the field name
+    * @return reversed field name
+    */
+   public static String createReversedFieldName(String fieldName)
+   {
+      int idx = fieldName.indexOf(':');
+      return fieldName.substring(0, idx + 1) + FieldNames.REVERSED_PREFIX + fieldName.substring(idx + 1);
+   }
+
    /**
     * Returns a named value for use as a term in the index. The named value is of
     * the form: <code>fieldName</code> + '\uFFFF' + value
@@ -18,27 +18,22 @@
  */
 package org.xcmis.search.lucene.index;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.LockObtainFailedException;
-import org.apache.lucene.util.Version;
 import org.xcmis.search.Startable;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
 import org.xcmis.search.content.IndexModificationException;
 import org.xcmis.search.lucene.index.merge.IndexAggregator;
+import org.xcmis.search.lucene.index.merge.MergeStatistics;
 import org.xcmis.spi.utils.Logger;
 
 /**
@@ -81,6 +76,12 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
 
    }
 
+   /**
+    * Add indexes to persisted index. Segments of added indexes are merged by
+    * background merge scheduler of persisted index, so aggregation doesn't
+    * wait for merges. Merged segments are committed by persisted index when
+    * merges are completed.
+    */
    public IndexTransactionModificationReport aggregate(final Collection<LuceneIndexDataManager> indexes)
       throws IndexException, IndexTransactionException
    {
@@ -90,54 +91,15 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
       }
       else
       {
-         IndexWriter writer = null;
-         try
-         {
-            final PersistedIndex index = chains.get(0);
-
-            writer = new IndexWriter(index.getDirectory(), new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
-            final List<Directory> dirs = new ArrayList<Directory>();
-            for (final LuceneIndexDataManager luceneIndexDataManager : indexes)
-            {
-               // TODO remove get reader
-               luceneIndexDataManager.getIndexReader();
-               dirs.add(luceneIndexDataManager.getDirectory());
-            }
-            final Directory[] dirsToMerge = new Directory[dirs.size()];
-            writer.addIndexesNoOptimize(dirs.toArray(dirsToMerge));
-            writer.optimize();
-         }
-         catch (final CorruptIndexException e)
-         {
-            throw new IndexException(e.getLocalizedMessage(), e);
-         }
-         catch (final LockObtainFailedException e)
-         {
-            throw new IndexException(e.getLocalizedMessage(), e);
-         }
-         catch (final IOException e)
+         final List<Directory> dirs = new ArrayList<Directory>();
+         for (final LuceneIndexDataManager luceneIndexDataManager : indexes)
          {
-            throw new IndexException(e.getLocalizedMessage(), e);
-         }
-         finally
-         {
-            if (writer != null)
-            {
-               try
-               {
-                  writer.close();
-               }
-               catch (CorruptIndexException e)
-               {
-                  throw new IndexException(e.getLocalizedMessage(), e);
-               }
-               catch (IOException e)
-               {
-                  throw new IndexException(e.getLocalizedMessage(), e);
-               }
-            }
-
+            // TODO remove get reader
+            luceneIndexDataManager.getIndexReader();
+            dirs.add(luceneIndexDataManager.getDirectory());
          }
+         final Directory[] dirsToMerge = new Directory[dirs.size()];
+         chains.get(0).addIndexes(dirs.toArray(dirsToMerge));
       }
       return null;
    }
@@ -151,6 +113,28 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
       return null;
    }
 
+   /**
+    * @return writer of persisted index or <code>null</code> if there is no
+    *         persisted index yet
+    * @throws IndexException if writer can't be opened
+    */
+   public IndexWriter getIndexWriter() throws IndexException
+   {
+      if (chains.size() != 0)
+      {
+         return chains.get(0).getIndexWriter();
+      }
+      return null;
+   }
+
+   /**
+    * @return statistics of background merges of persisted index
+    */
+   public MergeStatistics getMergeStatistics()
+   {
+      return indexFactory.getMergeStatistics();
+   }
+
    public long getDirectorySize(final boolean includeInherited)
    {
       return 0;
@@ -297,18 +281,8 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
    {
       for (final PersistedIndex index : chains)
       {
-         try
-         {
-            index.getDirectory().close();
-         }
-         catch (final IndexException e)
-         {
-            LOG.error(e.getMessage(), e);
-         }
-         catch (final IOException e)
-         {
-            LOG.error(e.getMessage(), e);
-         }
+         // closes writer of index and directory
+         index.stop();
       }
 
    }
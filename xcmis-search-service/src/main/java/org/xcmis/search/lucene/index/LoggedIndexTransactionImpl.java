@@ -67,8 +67,8 @@ public class LoggedIndexTransactionImpl extends LuceneIndexTransaction implement
    {
       super(addedDocuments, deletedDocuments);
       this.transactionLog =
-         new FileSystemTransactionLog(addedDocuments.keySet(), deletedDocuments,
-            (FSIndexTransactionService)indexTransactionService);
+         ((FSIndexTransactionService)indexTransactionService).createTransactionLog(addedDocuments.keySet(),
+            deletedDocuments);
    }
 
    @Override
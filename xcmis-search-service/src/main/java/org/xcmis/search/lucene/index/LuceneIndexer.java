@@ -19,11 +19,9 @@
 package org.xcmis.search.lucene.index;
 
 import org.apache.commons.lang.NotImplementedException;
-import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.NumberTools;
-import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.NumericField;
 import org.apache.lucene.document.Field.Store;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
@@ -48,11 +46,24 @@ import java.util.Collection;
  */
 public class LuceneIndexer implements ContentIndexer<Document>
 {
+   /**
+    * Version of layout of documents created by indexer. Index created with
+    * other version must be rebuilt. Version 2 indexes LONG, DOUBLE and DATE
+    * properties and length of values as {@link NumericField}. Version 3 adds
+    * lower case and reversed copies of string values and labels.
+    */
+   public static final int INDEX_FORMAT_VERSION = 3;
 
    private final IndexConfiguration indexConfiguration;
 
    private final AutoDetectParser parser;
 
+   /**
+    * Text extracted from binary values with known content key or
+    * <code>null</code> if cache is disabled.
+    */
+   private final ExtractedTextCache extractedTextCache;
+
    /**
     * Class logger.
     */
@@ -66,6 +77,9 @@ public class LuceneIndexer implements ContentIndexer<Document>
       super();
       this.parser = new AutoDetectParser(indexConfiguration.getTikaConfiguration());
       this.indexConfiguration = indexConfiguration;
+      this.extractedTextCache =
+         indexConfiguration.getExtractedTextCacheSize() > 0 ? new ExtractedTextCache(indexConfiguration
+            .getExtractedTextCacheSize()) : null;
    }
 
    /**
@@ -101,6 +115,36 @@ public class LuceneIndexer implements ContentIndexer<Document>
             doc.add(new Field(FieldNames.LABEL, contentEntry.getName(), Field.Store.YES,
                Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
          }
+         addNameFields(doc, contentEntry.getName());
+      }
+      //ancestor uuids
+      if (contentEntry.getAncestorIdentifiers() != null)
+      {
+         for (String ancestorIdentifier : contentEntry.getAncestorIdentifiers())
+         {
+            doc.add(new Field(FieldNames.ANCESTOR, ancestorIdentifier, Field.Store.YES,
+               Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
+         }
+      }
+      //principals allowed to read
+      if (contentEntry.getPrincipals() == null)
+      {
+         doc.add(new Field(FieldNames.PRINCIPAL, FieldNames.ANY_PRINCIPAL, Field.Store.YES,
+            Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
+      }
+      else
+      {
+         for (String principal : contentEntry.getPrincipals())
+         {
+            doc.add(new Field(FieldNames.PRINCIPAL, principal, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+               Field.TermVector.NO));
+         }
+      }
+      //key in document order
+      if (contentEntry.getOrderKey() != null)
+      {
+         doc.add(new Field(FieldNames.ORDER_KEY, contentEntry.getOrderKey(), Field.Store.NO,
+            Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
       }
       //table names
       for (int i = 0; i < contentEntry.getTableNames().length; i++)
@@ -121,7 +165,9 @@ public class LuceneIndexer implements ContentIndexer<Document>
    }
 
    /**
-    * Extract content of binary value.
+    * Extract content of binary value. Text extracted from value with known
+    * content key is cached, so value is not parsed again until its bytes are
+    * changed.
     * 
     * @param doc
     * @param propName
@@ -136,22 +182,34 @@ public class LuceneIndexer implements ContentIndexer<Document>
          if (parser != null)
          {
             final InputStream is = data.getValue();
+            final String textKey =
+               extractedTextCache != null && data.getContentKey() != null ? ExtractedTextCache.createKey(data
+                  .getContentKey(), data.getMimeType(), data.getEncoding()) : null;
 
             try
             {
-               Metadata metadata = new Metadata();
-               metadata.set(Metadata.CONTENT_TYPE, data.getMimeType());
-               if (data.getEncoding() != null)
+               String text = textKey != null ? extractedTextCache.get(textKey) : null;
+               if (text == null)
                {
-                  metadata.set(Metadata.CONTENT_ENCODING, data.getEncoding());
-               }
+                  Metadata metadata = new Metadata();
+                  metadata.set(Metadata.CONTENT_TYPE, data.getMimeType());
+                  if (data.getEncoding() != null)
+                  {
+                     metadata.set(Metadata.CONTENT_ENCODING, data.getEncoding());
+                  }
 
-               BodyContentHandler handler = new BodyContentHandler();
-               parser.parse(is, handler, metadata);
+                  BodyContentHandler handler = new BodyContentHandler();
+                  parser.parse(is, handler, metadata);
+                  text = handler.toString();
+                  if (textKey != null)
+                  {
+                     extractedTextCache.put(textKey, text);
+                  }
+               }
 
                final Field f =
-                  new Field(FieldNames.createFullTextFieldName(propName), handler.toString(), Field.Store.NO,
-                     Field.Index.ANALYZED, Field.TermVector.NO);
+                  new Field(FieldNames.createFullTextFieldName(propName), text, Field.Store.NO, Field.Index.ANALYZED,
+                     Field.TermVector.NO);
                doc.add(f);
             }
             catch (IOException e)
@@ -217,8 +275,7 @@ public class LuceneIndexer implements ContentIndexer<Document>
 
    /**
     * Adds the calendar value to the document as the named field. The calendar
-    * value is converted to an indexable string value using the
-    * {@link DateTools} class.
+    * value is indexed as {@link NumericField} with time in milliseconds.
     * 
     * @param doc
     *           The document to which to add the field
@@ -230,14 +287,12 @@ public class LuceneIndexer implements ContentIndexer<Document>
    private void addCalendarValue(final Document doc, final String fieldName, final Calendar value)
    {
 
-      doc.add(createFieldWithoutNorms(fieldName, DateTools.dateToString(value.getTime(),
-         DateTools.Resolution.MILLISECOND), false));
+      doc.add(createNumericField(fieldName).setLongValue(value.getTimeInMillis()));
    }
 
    /**
     * Adds the double value to the document as the named field. The double value
-    * is converted to an indexable string value using the {@link DoubleField}
-    * class.
+    * is indexed as {@link NumericField}.
     * 
     * @param doc
     *           The document to which to add the field
@@ -248,7 +303,7 @@ public class LuceneIndexer implements ContentIndexer<Document>
     */
    private void addDoubleValue(final Document doc, final String fieldName, final Double doubleValue)
    {
-      doc.add(createFieldWithoutNorms(fieldName, ExtendedNumberTools.doubleToString(doubleValue), false));
+      doc.add(createNumericField(fieldName).setDoubleValue(doubleValue));
    }
 
    /**
@@ -261,17 +316,14 @@ public class LuceneIndexer implements ContentIndexer<Document>
     */
    private void addLengthField(Document doc, String propName, ContentValue value)
    {
-      doc.add(new Field(FieldNames.createFieldLengthName(propName), //
-         NumberTools.longToString(value.getLength()), //
-         Store.YES, //
-         Index.NOT_ANALYZED_NO_NORMS));
+      doc.add(new NumericField(FieldNames.createFieldLengthName(propName), Store.YES, true).setLongValue(value
+         .getLength()));
 
    }
 
    /**
     * Adds the long value to the document as the named field. The long value is
-    * converted to an indexable string value using the {@link NumberTools}
-    * class.
+    * indexed as {@link NumericField}.
     * 
     * @param doc
     *           The document to which to add the field
@@ -283,7 +335,7 @@ public class LuceneIndexer implements ContentIndexer<Document>
    private void addLongValue(final Document doc, final String fieldName, final Long longValue)
    {
 
-      doc.add(createFieldWithoutNorms(fieldName, NumberTools.longToString(longValue), false));
+      doc.add(createNumericField(fieldName).setLongValue(longValue));
    }
 
    /**
@@ -363,6 +415,50 @@ public class LuceneIndexer implements ContentIndexer<Document>
       }
    }
 
+   /**
+    * Adds the copies of label of the node used by name comparisons: lower case
+    * and reversed label, local name without namespace prefix and its lower
+    * case and reversed copies.
+    * 
+    * @param doc
+    *           the document.
+    * @param name
+    *           the label of the node.
+    */
+   private void addNameFields(final Document doc, final String name)
+   {
+      addShadowFields(doc, FieldNames.LABEL, name);
+      String localName = name.substring(name.indexOf(':') + 1);
+      doc.add(new Field(FieldNames.LOCAL_NAME, localName, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+         Field.TermVector.NO));
+      addShadowFields(doc, FieldNames.LOCAL_NAME, localName);
+   }
+
+   /**
+    * Adds not stored lower case, reversed and reversed lower case copies of
+    * not tokenized value. Case insensitive comparisons are resolved with terms
+    * of lower case field and LIKE patterns that start with wildcard with
+    * prefix of reversed field, so neither of them enumerates all terms.
+    * 
+    * @param doc
+    *           the document.
+    * @param fieldName
+    *           the name of field that contains original value.
+    * @param value
+    *           the value.
+    */
+   private void addShadowFields(final Document doc, final String fieldName, final String value)
+   {
+      final String lowerCaseFieldName = FieldNames.createLowerCaseFieldName(fieldName);
+      final String lowerCaseValue = value.toLowerCase();
+      doc.add(new Field(lowerCaseFieldName, lowerCaseValue, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+         Field.TermVector.NO));
+      doc.add(new Field(FieldNames.createReversedFieldName(fieldName), new StringBuilder(value).reverse().toString(),
+         Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
+      doc.add(new Field(FieldNames.createReversedFieldName(lowerCaseFieldName), new StringBuilder(lowerCaseValue)
+         .reverse().toString(), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
+   }
+
    /**
     * Adds the property name to the lucene _:PROPERTIES_SET field.
     * 
@@ -398,6 +494,7 @@ public class LuceneIndexer implements ContentIndexer<Document>
    {
       // simple String
       doc.add(createFieldWithoutNorms(fieldName, stringValue, false));
+      addShadowFields(doc, FieldNames.createPropertyFieldName(fieldName), stringValue);
       if (tokenized)
       {
          if (stringValue.length() != 0)
@@ -433,6 +530,19 @@ public class LuceneIndexer implements ContentIndexer<Document>
       return field;
    }
 
+   /**
+    * Creates not stored numeric field for property with default precision
+    * step. Norms and term frequencies are omitted by {@link NumericField}.
+    * 
+    * @param fieldName
+    *           The name of the property
+    * @return field NumericField without value
+    */
+   private NumericField createNumericField(final String fieldName)
+   {
+      return new NumericField(FieldNames.createPropertyFieldName(fieldName), Field.Store.NO, true);
+   }
+
    /**
     * Returns <code>true</code> if the property with the given name should be
     * indexed.
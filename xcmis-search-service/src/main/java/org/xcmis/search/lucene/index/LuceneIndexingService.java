@@ -19,15 +19,10 @@
 
 package org.xcmis.search.lucene.index;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
-import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.LockObtainFailedException;
-import org.apache.lucene.util.Version;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
 import org.xcmis.search.lucene.IndexRecoveryTool;
@@ -83,11 +78,19 @@ public class LuceneIndexingService extends TransactionableIndexDataManager
    public Set<String> getFieldNames() throws IndexException
    {
       final Set<String> fildsSet = new HashSet<String>();
-      @SuppressWarnings("unchecked")
-      final Collection fields = super.getIndexReader().getFieldNames(IndexReader.FieldOption.ALL);
-      for (final Object field : fields)
+      final IndexReader reader = super.getIndexReader();
+      try
+      {
+         @SuppressWarnings("unchecked")
+         final Collection fields = reader.getFieldNames(IndexReader.FieldOption.ALL);
+         for (final Object field : fields)
+         {
+            fildsSet.add((String)field);
+         }
+      }
+      finally
       {
-         fildsSet.add((String)field);
+         releaseIndexReader(reader);
       }
       return fildsSet;
    }
@@ -103,21 +106,15 @@ public class LuceneIndexingService extends TransactionableIndexDataManager
             {
                try
                {
-                  final IndexWriter writer =
-                     new IndexWriter(super.getDirectory(), new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
-                  writer.deleteDocuments(new MatchAllDocsQuery());
+                  // Drops all segments and aborts their merges.
+                  final IndexWriter writer = getIndexWriter();
+                  writer.deleteAll();
                   writer.commit();
-                  writer.optimize();
-                  writer.close();
                }
                catch (final CorruptIndexException e)
                {
                   throw new IndexException(e.getLocalizedMessage(), e);
                }
-               catch (final LockObtainFailedException e)
-               {
-                  throw new IndexException(e.getLocalizedMessage(), e);
-               }
                catch (final IOException e)
                {
                   throw new IndexException(e.getLocalizedMessage(), e);
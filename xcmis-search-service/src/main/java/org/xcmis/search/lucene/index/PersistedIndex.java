@@ -22,22 +22,36 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Version;
 import org.xcmis.search.Startable;
+import org.xcmis.search.lucene.index.merge.BackgroundMergeScheduler;
 import org.xcmis.spi.utils.Logger;
 
 /**
  * Created by The eXo Platform SAS.
+ * <p>
+ * Segments merged in background by {@link BackgroundMergeScheduler} are
+ * committed by separate thread as soon as merge is completed, so they are
+ * durable and visible to readers without waiting for next modification of
+ * index. Commit is done under the same lock as modifications, so it never
+ * exposes partially saved transaction.
  * 
  * @author <a href="mailto:Sergey.Kabashnyuk@gmail.com">Sergey Kabashnyuk</a>
  * @version $Id: PersistedIndex.java 2 2010-02-04 17:21:49Z andrew00x $
@@ -58,12 +72,107 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
 
    private long lastModifedTime;
 
-   public PersistedIndex(final Directory directory)
+   /**
+    * Scheduler of background merges of index segments.
+    */
+   private final BackgroundMergeScheduler mergeScheduler;
+
+   /**
+    * Writer shared by all modifications, opened on first use.
+    */
+   private IndexWriter indexWriter;
+
+   /**
+    * Commits merged segments, thread is started only when merge is completed.
+    */
+   private final ThreadPoolExecutor committer;
+
+   /**
+    * Set if commit of merged segments is scheduled but not started yet.
+    */
+   private final AtomicBoolean commitScheduled = new AtomicBoolean();
+
+   public PersistedIndex(final Directory directory, final BackgroundMergeScheduler mergeScheduler)
    {
       super();
       this.indexDirectiry = directory;
+      this.mergeScheduler = mergeScheduler;
       this.lastModifedTime = System.currentTimeMillis();
+      this.committer =
+         new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+         {
+            public Thread newThread(final Runnable r)
+            {
+               final Thread thread = new Thread(r, "PersistedIndex merge committer");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      this.mergeScheduler.setMergeListener(new BackgroundMergeScheduler.MergeListener()
+      {
+         public void mergeCompleted()
+         {
+            scheduleCommit();
+         }
+      });
+   }
 
+   /**
+    * Adds segments of indexes and commits them. Added segments are merged in
+    * background, merged segments are committed when merges are completed.
+    * 
+    * @param directories directories of indexes to add
+    * @throws IndexException if indexes can't be added.
+    */
+   public void addIndexes(final Directory[] directories) throws IndexException
+   {
+      try
+      {
+         synchronized (this.indexDirectiry)
+         {
+            final IndexWriter writer = this.getIndexWriter();
+            writer.addIndexes(directories);
+            writer.maybeMerge();
+            writer.commit();
+            this.lastModifedTime = System.currentTimeMillis();
+         }
+      }
+      catch (final CorruptIndexException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
+      catch (final IOException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
+   }
+
+   /**
+    * Returns writer of index. Writer is kept open while index is used, so
+    * merges of its segments selected by tiered merge policy run in background
+    * and are not interrupted by modifications.
+    * 
+    * @return index writer.
+    * @throws IndexException if writer can't be opened.
+    */
+   public synchronized IndexWriter getIndexWriter() throws IndexException
+   {
+      if (this.indexWriter == null)
+      {
+         final IndexWriterConfig config =
+            new IndexWriterConfig(Version.LUCENE_35, new StandardAnalyzer(Version.LUCENE_35));
+         config.setMergePolicy(new TieredMergePolicy());
+         config.setMergeScheduler(this.mergeScheduler);
+         try
+         {
+            this.indexWriter = new IndexWriter(this.mergeScheduler.throttle(this.indexDirectiry), config);
+         }
+         catch (final IOException e)
+         {
+            throw new IndexException(e.getLocalizedMessage(), e);
+         }
+      }
+      return this.indexWriter;
    }
 
    /**
@@ -126,7 +235,7 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
    /**
     * {@inheritDoc}
     */
-   public IndexReader getIndexReader() throws IndexException
+   public synchronized IndexReader getIndexReader() throws IndexException
    {
       try
       {
@@ -136,7 +245,13 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
          }
          else if (!this.indexReader.isCurrent())
          {
-            this.indexReader = this.indexReader.reopen();
+            final IndexReader old = this.indexReader;
+            this.indexReader = old.reopen();
+            if (this.indexReader != old)
+            {
+               // snapshots which use old reader hold own references
+               old.close();
+            }
          }
       }
       catch (final CorruptIndexException e)
@@ -190,7 +305,6 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
          {
 
             final Set<String> removed = changes.getRemovedDocuments();
-            IndexWriter writer = null;
             IndexReader reader = null;
 
             Map<String, Document> updated = null;
@@ -211,7 +325,7 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
             if (removedDocuments.size() > 0 || changes.getAddedDocuments().size() > 0)
             {
 
-               writer = new IndexWriter(this.indexDirectiry, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
+               final IndexWriter writer = this.getIndexWriter();
 
                // removed
                for (final String uuid : removedDocuments)
@@ -231,7 +345,6 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
                }
 
                writer.commit();
-               writer.close();
 
                this.lastModifedTime = System.currentTimeMillis();
             }
@@ -263,9 +376,27 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
     */
    public void stop()
    {
+      // merges completed from now on are committed by close of writer
+      this.committer.shutdown();
       try
       {
-         this.indexReader.close();
+         synchronized (this.indexDirectiry)
+         {
+            synchronized (this)
+            {
+               if (this.indexWriter != null)
+               {
+                  // running merges are aborted and restarted when index is
+                  // opened next time
+                  this.indexWriter.close(false);
+                  this.indexWriter = null;
+               }
+            }
+         }
+         if (this.indexReader != null)
+         {
+            this.indexReader.close();
+         }
          this.indexDirectiry.close();
       }
       catch (final IOException e)
@@ -274,6 +405,57 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
       }
    }
 
+   /**
+    * Schedule commit of merged segments. Commits requested while previous one
+    * is waiting are done at once.
+    */
+   private void scheduleCommit()
+   {
+      if (this.commitScheduled.compareAndSet(false, true))
+      {
+         try
+         {
+            this.committer.execute(new Runnable()
+            {
+               public void run()
+               {
+                  commitMerges();
+               }
+            });
+         }
+         catch (final RejectedExecutionException e)
+         {
+            // index is stopped
+            this.commitScheduled.set(false);
+         }
+      }
+   }
+
+   private void commitMerges()
+   {
+      // merges completed after this point schedule next commit
+      this.commitScheduled.set(false);
+      synchronized (this.indexDirectiry)
+      {
+         final IndexWriter writer;
+         synchronized (this)
+         {
+            writer = this.indexWriter;
+         }
+         if (writer != null)
+         {
+            try
+            {
+               writer.commit();
+            }
+            catch (final IOException e)
+            {
+               PersistedIndex.LOG.error("Fail to commit merged segments. " + e.getLocalizedMessage(), e);
+            }
+         }
+      }
+   }
+
    private Document getDocument(final String uuid, final IndexReader reader) throws IndexException
    {
 
@@ -27,12 +27,16 @@ import java.util.List;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
+import org.xcmis.search.lucene.index.merge.BackgroundMergeScheduler;
+import org.xcmis.search.lucene.index.merge.MergeLimiter;
+import org.xcmis.search.lucene.index.merge.MergeStatistics;
 import org.xcmis.spi.utils.Logger;
 
 /**
@@ -55,6 +59,16 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
 
    private final IndexConfiguration indexConfuguration;
 
+   /**
+    * Statistics of merges of all persisted indexes.
+    */
+   private final MergeStatistics mergeStatistics = new MergeStatistics();
+
+   /**
+    * Limits of merges shared by all persisted indexes.
+    */
+   private final MergeLimiter mergeLimiter;
+
    /**
     * @throws IndexException
     * @throws IndexConfigurationException
@@ -64,6 +78,9 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
    {
       super();
       this.indexConfuguration = indexConfuguration;
+      this.mergeLimiter =
+         new MergeLimiter(indexConfuguration.getMaxConcurrentMerges(), indexConfuguration.getMergeRateLimit(),
+            mergeStatistics);
       indexDir = new File(indexConfuguration.getIndexDir());
 
       if (indexDir.isFile())
@@ -99,7 +116,7 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
          throw new IndexException(e.getLocalizedMessage(), e);
       }
 
-      final PersistedIndex persistedIndex = new PersistedIndex(dir);
+      final PersistedIndex persistedIndex = new PersistedIndex(dir, this.createMergeScheduler());
       persistedIndex.save(changes);
 
       return persistedIndex;
@@ -135,7 +152,7 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
          try
          {
             final FSDirectory dir = FSDirectory.open(sub);
-            result.add(new PersistedIndex(dir));
+            result.add(new PersistedIndex(dir, this.createMergeScheduler()));
          }
          catch (final IOException e)
          {
@@ -155,7 +172,11 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
       {
          final String newIndexName = indexNames.newName();
          dir = FSDirectory.open(new File(indexDir, newIndexName));
-         final IndexWriter writer = new IndexWriter(dir, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
+         // Segments are merged in background by writer of persisted index.
+         final IndexWriterConfig config =
+            new IndexWriterConfig(Version.LUCENE_35, new StandardAnalyzer(Version.LUCENE_35));
+         config.setMergePolicy(NoMergePolicy.COMPOUND_FILES);
+         final IndexWriter writer = new IndexWriter(dir, config);
          final List<Directory> dirs = new ArrayList<Directory>();
          for (final LuceneIndexDataManager luceneIndexDataManager : chains)
          {
@@ -164,8 +185,7 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
             dirs.add(luceneIndexDataManager.getDirectory());
          }
          final Directory[] dirsToMerge = new Directory[dirs.size()];
-         writer.addIndexesNoOptimize(dirs.toArray(dirsToMerge));
-         writer.optimize();
+         writer.addIndexes(dirs.toArray(dirsToMerge));
          writer.close();
          indexNames.addName(newIndexName);
          indexNames.write(indexDir);
@@ -174,7 +194,23 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
       {
          throw new IndexException(e.getLocalizedMessage(), e);
       }
-      return new PersistedIndex(dir);
+      return new PersistedIndex(dir, this.createMergeScheduler());
+   }
+
+   /**
+    * @return statistics of background merges of persisted indexes.
+    */
+   public MergeStatistics getMergeStatistics()
+   {
+      return mergeStatistics;
+   }
+
+   /**
+    * Writer of each index needs own scheduler, limits of merges are shared.
+    */
+   private BackgroundMergeScheduler createMergeScheduler()
+   {
+      return new BackgroundMergeScheduler(mergeLimiter);
    }
 
 }
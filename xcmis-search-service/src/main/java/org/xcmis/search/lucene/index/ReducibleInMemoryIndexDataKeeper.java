@@ -197,7 +197,13 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
          }
          else if (!this.indexReader.isCurrent())
          {
-            this.indexReader = this.indexReader.reopen();
+            final IndexReader old = this.indexReader;
+            this.indexReader = old.reopen();
+            if (this.indexReader != old)
+            {
+               // snapshots which use old reader hold own references
+               old.close();
+            }
          }
       }
       catch (final CorruptIndexException e)
@@ -337,6 +343,19 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
     */
    public void stop() throws IndexException
    {
+      if (this.indexReader != null)
+      {
+         try
+         {
+            // snapshots which use reader hold own references
+            this.indexReader.close();
+         }
+         catch (final IOException e)
+         {
+            throw new IndexException(e.getLocalizedMessage(), e);
+         }
+         this.indexReader = null;
+      }
       this.indexDirectiry.close();
       this.isStoped = true;
    }
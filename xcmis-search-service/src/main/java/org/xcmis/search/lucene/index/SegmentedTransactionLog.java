@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import java.util.Set;
+
+/**
+ * Transaction log which is stored as records of shared
+ * {@link TransactionLogJournal}.
+ *
+ * @version $Id$
+ */
+public class SegmentedTransactionLog implements TransactionLog
+{
+   private final Set<String> addedDocumentsUuids;
+
+   private final Set<String> removedDocumentsUuids;
+
+   private final TransactionLogJournal journal;
+
+   /**
+    * Identifier of transaction in journal, 0 if transaction is not logged.
+    */
+   private long transactionId;
+
+   /**
+    * Constructor for recovery case.
+    *
+    * @param transactionId identifier of transaction in journal
+    * @param addedDocumentsUuids added documents
+    * @param removedDocumentsUuids removed documents
+    * @param journal journal of transactions
+    */
+   SegmentedTransactionLog(long transactionId, Set<String> addedDocumentsUuids, Set<String> removedDocumentsUuids,
+      TransactionLogJournal journal)
+   {
+      this(addedDocumentsUuids, removedDocumentsUuids, journal);
+      this.transactionId = transactionId;
+   }
+
+   /**
+    * Constructor for ordinary case.
+    *
+    * @param addedDocumentsUuids added documents
+    * @param removedDocumentsUuids removed documents
+    * @param journal journal of transactions
+    */
+   public SegmentedTransactionLog(Set<String> addedDocumentsUuids, Set<String> removedDocumentsUuids,
+      TransactionLogJournal journal)
+   {
+      this.addedDocumentsUuids = addedDocumentsUuids;
+      this.removedDocumentsUuids = removedDocumentsUuids;
+      this.journal = journal;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Set<String> getAddedList() throws TransactionLogException
+   {
+      return addedDocumentsUuids;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Set<String> getRemovedList() throws TransactionLogException
+   {
+      return removedDocumentsUuids;
+   }
+
+   /**
+    * {@inheritDoc} Transactions are read when journal is opened.
+    */
+   public void load() throws TransactionLogException
+   {
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void log() throws TransactionLogException
+   {
+      if (transactionId != 0)
+      {
+         throw new TransactionLogException("Transaction is already logged " + transactionId);
+      }
+      transactionId = journal.append(addedDocumentsUuids, removedDocumentsUuids);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void removeLog() throws TransactionLogException
+   {
+      if (transactionId == 0)
+      {
+         throw new TransactionLogException("Transaction is not logged.");
+      }
+      journal.remove(transactionId);
+   }
+}
@@ -19,6 +19,7 @@
 
 package org.xcmis.search.lucene.index;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.lucene.document.Document;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
@@ -41,10 +42,18 @@ public class StartableIndexingService extends LuceneIndexingService
 {
    /**
     * File name. If this file exists, that means reindex was interrupted, so
-    * need new reindex.
+    * need new reindex. File contains version of documents layout of
+    * interrupted reindex, reindex of the same version is resumed.
     */
    private static final String REINDEX_RUN = "reindexProcessing";
 
+   /**
+    * File name. Contains version of documents layout in index, see
+    * {@link LuceneIndexer#INDEX_FORMAT_VERSION}. If file does not exist or
+    * contains other version index must be rebuilt.
+    */
+   private static final String INDEX_FORMAT = "indexFormat";
+
    /** ChangesLog Buffer (used for saves before start). */
    private List<IndexTransaction<Document>> changesLogBuffer = new ArrayList<IndexTransaction<Document>>();
 
@@ -71,9 +80,14 @@ public class StartableIndexingService extends LuceneIndexingService
       super(configuration, indexRecoveryTool);
       this.indexRecoveryTool = indexRecoveryTool;
       this.indexDir = new File(configuration.getIndexDir());
-      if (!indexDir.exists() && !indexDir.mkdirs())
+      if (!indexDir.exists())
       {
-         throw new IndexException("Fail to create index directory : " + indexDir.getAbsolutePath());
+         if (!indexDir.mkdirs())
+         {
+            throw new IndexException("Fail to create index directory : " + indexDir.getAbsolutePath());
+         }
+         // New index, documents are created in current format.
+         writeIndexFormat();
       }
    }
 
@@ -155,6 +169,11 @@ public class StartableIndexingService extends LuceneIndexingService
       {
          return true;
       }
+      if (readIndexFormat() != LuceneIndexer.INDEX_FORMAT_VERSION)
+      {
+         LOG.info("Index format is out of date, index will be rebuilt.");
+         return true;
+      }
       final File flag = new File(indexDir, StartableIndexingService.REINDEX_RUN);
       return flag.exists();
 
@@ -176,18 +195,23 @@ public class StartableIndexingService extends LuceneIndexingService
       }
 
       final File flag = new File(indexDir, StartableIndexingService.REINDEX_RUN);
-      if (!flag.exists())
+      // documents saved by interrupted reindex are already in current format
+      final boolean resume =
+         flag.exists() && readFormat(flag) == LuceneIndexer.INDEX_FORMAT_VERSION && getDocumentCount() > 0;
+      if (resume)
       {
-         if (!flag.createNewFile())
-         {
-            throw new IOException("Reindex flag file was not created.");
-         }
+         LOG.info("Resume interrupted restore of index.");
+      }
+      else
+      {
+         FileUtils.writeStringToFile(flag, Integer.toString(LuceneIndexer.INDEX_FORMAT_VERSION), "UTF-8");
+         // clean persisted index
+         softCleanIndex();
       }
 
-      // clean persisted index
-      softCleanIndex();
+      indexRecoveryTool.recoverAll(resume);
 
-      indexRecoveryTool.recoverAll();
+      writeIndexFormat();
 
       if (!flag.delete())
       {
@@ -204,4 +228,59 @@ public class StartableIndexingService extends LuceneIndexingService
          LOG.info("Restore index finished.");
       }
    }
+
+   /**
+    * Read version of documents layout in index.
+    * 
+    * @return version or -1 if it is not known
+    */
+   private int readIndexFormat()
+   {
+      return readFormat(new File(indexDir, StartableIndexingService.INDEX_FORMAT));
+   }
+
+   /**
+    * Read version of documents layout from file.
+    * 
+    * @param format file which contains version
+    * @return version or -1 if it is not known
+    */
+   private int readFormat(File format)
+   {
+      if (!format.exists())
+      {
+         return -1;
+      }
+      try
+      {
+         return Integer.parseInt(FileUtils.readFileToString(format, "UTF-8").trim());
+      }
+      catch (IOException e)
+      {
+         LOG.warn("Unable to read index format " + e.getMessage());
+      }
+      catch (NumberFormatException e)
+      {
+         LOG.warn("Invalid index format " + e.getMessage());
+      }
+      return -1;
+   }
+
+   /**
+    * Write current version of documents layout in index.
+    * 
+    * @throws IndexException if version was not written
+    */
+   private void writeIndexFormat() throws IndexException
+   {
+      try
+      {
+         FileUtils.writeStringToFile(new File(indexDir, StartableIndexingService.INDEX_FORMAT), Integer
+            .toString(LuceneIndexer.INDEX_FORMAT_VERSION), "UTF-8");
+      }
+      catch (IOException e)
+      {
+         throw new IndexException("Unable to write index format: " + e.getMessage(), e);
+      }
+   }
 }
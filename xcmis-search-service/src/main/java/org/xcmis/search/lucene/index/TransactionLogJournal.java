@@ -0,0 +1,758 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import org.xcmis.spi.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of index transactions. Transactions are written as
+ * records to segment files which are allocated with fixed size when created.
+ * Each record is prefixed with its length and followed by CRC32 of its body,
+ * so torn record at the end of segment is detected and ignored on replay.
+ * <p>
+ * Logged transaction is forced to disk before {@link #append(Set, Set)}
+ * returns. Committers which append records while disk is forced wait for the
+ * next force and share it, so one force makes durable all records appended
+ * before it. Removal of transaction is appended without force, it is not
+ * needed for consistency: transaction which is replayed after its removal
+ * was lost only causes recovery of already indexed documents.
+ * <p>
+ * Segment is deleted when all its transactions and transactions of all older
+ * segments are removed, so removal records are never dropped before logged
+ * transactions they refer to.
+ * <p>
+ * Interrupt of thread which writes or forces segment closes channel of
+ * segment. Segment is reopened then, so interrupt fails only operation of
+ * interrupted thread.
+ *
+ * @version $Id$
+ */
+public class TransactionLogJournal
+{
+   /**
+    * Extension of segment files.
+    */
+   public static final String SEGMENT_EXTENSION = ".tlog";
+
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(TransactionLogJournal.class);
+
+   private static final byte LOGGED = 1;
+
+   private static final byte REMOVED = 2;
+
+   /**
+    * Length and checksum of record.
+    */
+   private static final int RECORD_OVERHEAD = 8;
+
+   private static final int ALLOCATION_BUFFER_SIZE = 64 * 1024;
+
+   private final File dir;
+
+   private final long segmentSize;
+
+   /**
+    * Guards segments and write position.
+    */
+   private final Object writeLock = new Object();
+
+   /**
+    * Guards synchronized position.
+    */
+   private final Object syncLock = new Object();
+
+   /**
+    * Segments from oldest to current one.
+    */
+   private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+   /**
+    * Segments of not removed transactions.
+    */
+   private final Map<Long, Segment> transactions = new HashMap<Long, Segment>();
+
+   /**
+    * Transactions replayed on open and not removed yet.
+    */
+   private final Map<Long, SegmentedTransactionLog> replayed = new LinkedHashMap<Long, SegmentedTransactionLog>();
+
+   private Segment current;
+
+   private long nextTransactionId = 1;
+
+   private long nextSegmentNumber = 1;
+
+   /**
+    * Total number of bytes appended since journal is open.
+    */
+   private long written;
+
+   /**
+    * Number of bytes which are forced to disk.
+    */
+   private long synced;
+
+   /**
+    * Force is in progress.
+    */
+   private boolean syncing;
+
+   private boolean closed;
+
+   /**
+    * Open journal and replay its segments.
+    *
+    * @param dir directory of segment files
+    * @param segmentSize size of segment files in bytes
+    * @throws TransactionLogException if segments can't be read or new segment
+    *         can't be created
+    */
+   public TransactionLogJournal(File dir, long segmentSize) throws TransactionLogException
+   {
+      if (segmentSize <= RECORD_OVERHEAD)
+      {
+         throw new IllegalArgumentException("Segment size is too small " + segmentSize);
+      }
+      this.dir = dir;
+      this.segmentSize = segmentSize;
+      replay();
+   }
+
+   /**
+    * @param file file to check
+    * @return <code>true</code> if file is segment of journal
+    */
+   public static boolean isSegment(File file)
+   {
+      return file.isFile() && file.getName().endsWith(SEGMENT_EXTENSION);
+   }
+
+   /**
+    * @return transactions which are logged and not removed before journal was
+    *         opened
+    */
+   public List<TransactionLog> getReplayedLogs()
+   {
+      synchronized (writeLock)
+      {
+         return new ArrayList<TransactionLog>(replayed.values());
+      }
+   }
+
+   /**
+    * @return <code>true</code> if there are transactions which are logged and
+    *         not removed before journal was opened
+    */
+   public boolean hasReplayedLogs()
+   {
+      synchronized (writeLock)
+      {
+         return !replayed.isEmpty();
+      }
+   }
+
+   /**
+    * Log transaction and wait until it is forced to disk.
+    *
+    * @param added uuids of added documents
+    * @param removed uuids of removed documents
+    * @return identifier of logged transaction
+    * @throws TransactionLogException if record can't be written
+    */
+   public long append(Set<String> added, Set<String> removed) throws TransactionLogException
+   {
+      long position;
+      long transactionId;
+      synchronized (writeLock)
+      {
+         transactionId = nextTransactionId++;
+         position = write(encode(LOGGED, transactionId, added, removed));
+         transactions.put(transactionId, current);
+         current.live++;
+      }
+      sync(position);
+      return transactionId;
+   }
+
+   /**
+    * Mark transaction as removed. Segments which have no more transactions to
+    * replay are deleted.
+    *
+    * @param transactionId identifier of transaction
+    * @throws TransactionLogException if record can't be written
+    */
+   public void remove(long transactionId) throws TransactionLogException
+   {
+      synchronized (writeLock)
+      {
+         Segment segment = transactions.remove(transactionId);
+         if (segment == null)
+         {
+            LOG.warn("Transaction " + transactionId + " is not logged or already removed.");
+            return;
+         }
+         replayed.remove(transactionId);
+         write(encode(REMOVED, transactionId, Collections.<String> emptySet(), Collections.<String> emptySet()));
+         segment.live--;
+         deleteUnusedSegments();
+      }
+   }
+
+   /**
+    * Force and close current segment. Segments with not removed transactions
+    * are kept and replayed when journal is opened next time.
+    */
+   public void close()
+   {
+      synchronized (writeLock)
+      {
+         if (closed)
+         {
+            return;
+         }
+         closed = true;
+         if (current != null)
+         {
+            try
+            {
+               current.reopenIfClosed();
+               current.close();
+            }
+            catch (IOException e)
+            {
+               LOG.warn("Can not close transaction log segment " + current.file.getAbsolutePath());
+            }
+            current = null;
+         }
+         deleteUnusedSegments();
+      }
+   }
+
+   /**
+    * Write record to current segment, new segment is started if record
+    * doesn't fit into current one.
+    *
+    * @return position of end of record in journal
+    */
+   private long write(byte[] record) throws TransactionLogException
+   {
+      if (closed)
+      {
+         throw new TransactionLogException("Transaction log is closed " + dir.getAbsolutePath());
+      }
+      try
+      {
+         if (current != null)
+         {
+            current.reopenIfClosed();
+         }
+         if (current == null || (current.position > 0 && current.position + record.length > segmentSize))
+         {
+            startSegment();
+         }
+         ByteBuffer buffer = ByteBuffer.wrap(record);
+         long position = current.position;
+         while (buffer.hasRemaining())
+         {
+            position += current.channel.write(buffer, position);
+         }
+         // Partially written record is overwritten by next record if write fails.
+         current.position = position;
+         written += record.length;
+         return written;
+      }
+      catch (ClosedByInterruptException e)
+      {
+         reopen(current);
+         throw new TransactionLogException("Interrupted while transaction log write.", e);
+      }
+      catch (IOException e)
+      {
+         throw new TransactionLogException("TransactionLog write exception: " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Wait until journal is forced to disk at least up to position. First
+    * waiting committer forces journal for all others.
+    */
+   private void sync(long position) throws TransactionLogException
+   {
+      synchronized (syncLock)
+      {
+         while (true)
+         {
+            if (synced >= position)
+            {
+               return;
+            }
+            if (!syncing)
+            {
+               syncing = true;
+               break;
+            }
+            try
+            {
+               syncLock.wait();
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               throw new TransactionLogException("Interrupted while waiting for transaction log sync.", e);
+            }
+         }
+      }
+
+      long target;
+      Segment segment;
+      synchronized (writeLock)
+      {
+         target = written;
+         segment = current;
+      }
+      boolean forced = false;
+      try
+      {
+         force(segment);
+         forced = true;
+      }
+      finally
+      {
+         synchronized (syncLock)
+         {
+            if (forced)
+            {
+               synced = Math.max(synced, target);
+            }
+            syncing = false;
+            syncLock.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Force segment to disk. Segment which is closed normally is forced before
+    * it is closed. Segment which channel is closed by interrupt of other
+    * thread is reopened and forced again.
+    *
+    * @param segment segment, <code>null</code> if journal is closed
+    */
+   private void force(Segment segment) throws TransactionLogException
+   {
+      while (true)
+      {
+         FileChannel channel;
+         synchronized (writeLock)
+         {
+            if (segment == null || segment.closed)
+            {
+               return;
+            }
+            channel = segment.channel;
+         }
+         try
+         {
+            channel.force(false);
+            return;
+         }
+         catch (ClosedByInterruptException e)
+         {
+            synchronized (writeLock)
+            {
+               reopen(segment);
+            }
+            throw new TransactionLogException("Interrupted while transaction log sync.", e);
+         }
+         catch (ClosedChannelException e)
+         {
+            // Closed by interrupt of writer or closed normally, check again.
+            synchronized (writeLock)
+            {
+               reopen(segment);
+               if (!segment.closed && !segment.channel.isOpen())
+               {
+                  throw new TransactionLogException("TransactionLog sync exception: " + e.getMessage(), e);
+               }
+            }
+         }
+         catch (IOException e)
+         {
+            throw new TransactionLogException("TransactionLog sync exception: " + e.getMessage(), e);
+         }
+      }
+   }
+
+   /**
+    * Reopen segment if its channel is closed by interrupt. Must be called
+    * with write lock held. Failure is logged, it is detected again by next
+    * write.
+    */
+   private void reopen(Segment segment)
+   {
+      try
+      {
+         segment.reopenIfClosed();
+      }
+      catch (IOException e)
+      {
+         LOG.warn("Can not reopen transaction log segment " + segment.file.getAbsolutePath() + ". "
+            + e.getMessage());
+      }
+   }
+
+   /**
+    * Close current segment and create next one. Must be called with write
+    * lock held.
+    */
+   private void startSegment() throws IOException
+   {
+      if (current != null)
+      {
+         current.close();
+      }
+      File file = new File(dir, segmentName(nextSegmentNumber++));
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try
+      {
+         // Write zeros instead of setting length to allocate blocks, so
+         // records don't change size of file and zero length ends records.
+         ByteBuffer zeros = ByteBuffer.allocate((int)Math.min(ALLOCATION_BUFFER_SIZE, segmentSize));
+         FileChannel channel = raf.getChannel();
+         long position = 0;
+         while (position < segmentSize)
+         {
+            zeros.clear();
+            zeros.limit((int)Math.min(zeros.capacity(), segmentSize - position));
+            position += channel.write(zeros, position);
+         }
+         channel.force(true);
+      }
+      catch (IOException e)
+      {
+         raf.close();
+         throw e;
+      }
+      current = new Segment(file, raf);
+      segments.add(current);
+      deleteUnusedSegments();
+   }
+
+   /**
+    * Delete oldest segments which have no transactions to replay. Must be
+    * called with write lock held.
+    */
+   private void deleteUnusedSegments()
+   {
+      while (!segments.isEmpty() && segments.getFirst() != current && segments.getFirst().live == 0)
+      {
+         deleteSegment(segments.removeFirst());
+      }
+   }
+
+   private void deleteSegment(Segment segment)
+   {
+      if (!segment.file.delete())
+      {
+         LOG.warn("Can not delete transaction log segment " + segment.file.getAbsolutePath());
+      }
+      else if (LOG.isDebugEnabled())
+      {
+         LOG.debug("Transaction log segment removed " + segment.file.getAbsolutePath());
+      }
+   }
+
+   /**
+    * Read all segments in order of creation. Reading of segment stops at
+    * first empty, incomplete or corrupted record. New records are always
+    * written to new segment.
+    */
+   private void replay() throws TransactionLogException
+   {
+      File[] files = dir.listFiles(new FileFilter()
+      {
+         public boolean accept(File file)
+         {
+            return isSegment(file);
+         }
+      });
+      if (files == null)
+      {
+         throw new TransactionLogException("Can not read directory " + dir.getAbsolutePath());
+      }
+      Arrays.sort(files);
+
+      for (File file : files)
+      {
+         nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(file) + 1);
+         Segment segment = new Segment(file, null);
+         segments.add(segment);
+         readSegment(segment);
+      }
+      deleteUnusedSegments();
+      if (!replayed.isEmpty() && LOG.isDebugEnabled())
+      {
+         LOG.debug(replayed.size() + " transactions replayed from " + dir.getAbsolutePath());
+      }
+   }
+
+   private void readSegment(Segment segment) throws TransactionLogException
+   {
+      long length = segment.file.length();
+      long position = 0;
+      DataInputStream in = null;
+      try
+      {
+         in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), ALLOCATION_BUFFER_SIZE));
+         CRC32 crc = new CRC32();
+         while (position + RECORD_OVERHEAD <= length)
+         {
+            int size = in.readInt();
+            if (size == 0)
+            {
+               break;
+            }
+            if (size < 0 || position + RECORD_OVERHEAD + size > length)
+            {
+               LOG.warn("Incomplete record at " + position + " of transaction log segment "
+                  + segment.file.getAbsolutePath());
+               break;
+            }
+            byte[] body = new byte[size];
+            in.readFully(body);
+            crc.reset();
+            crc.update(body);
+            if ((int)crc.getValue() != in.readInt())
+            {
+               LOG.warn("Corrupted record at " + position + " of transaction log segment "
+                  + segment.file.getAbsolutePath());
+               break;
+            }
+            position += RECORD_OVERHEAD + size;
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+            byte type = record.readByte();
+            long transactionId = record.readLong();
+            nextTransactionId = Math.max(nextTransactionId, transactionId + 1);
+            if (type == LOGGED)
+            {
+               replayed.put(transactionId, new SegmentedTransactionLog(transactionId, readSet(record),
+                  readSet(record), this));
+               transactions.put(transactionId, segment);
+               segment.live++;
+            }
+            else if (type == REMOVED)
+            {
+               replayed.remove(transactionId);
+               Segment logged = transactions.remove(transactionId);
+               if (logged != null)
+               {
+                  logged.live--;
+               }
+            }
+            else
+            {
+               throw new TransactionLogException("TransactionLog file is corrupted. Unexpected type of record "
+                  + type + ". file : " + segment.file.getAbsolutePath());
+            }
+         }
+      }
+      catch (EOFException e)
+      {
+         LOG.warn("Incomplete record at " + position + " of transaction log segment "
+            + segment.file.getAbsolutePath());
+      }
+      catch (IOException e)
+      {
+         throw new TransactionLogException("TransactionLog read exception: " + e.getMessage(), e);
+      }
+      finally
+      {
+         if (in != null)
+         {
+            try
+            {
+               in.close();
+            }
+            catch (IOException e)
+            {
+               LOG.warn("Can not close log file " + segment.file.getAbsolutePath());
+            }
+         }
+      }
+   }
+
+   private static Set<String> readSet(DataInputStream in) throws IOException
+   {
+      int size = in.readInt();
+      Set<String> keys = new HashSet<String>(size * 2);
+      for (int i = 0; i < size; i++)
+      {
+         keys.add(in.readUTF());
+      }
+      return keys;
+   }
+
+   private static byte[] encode(byte type, long transactionId, Set<String> added, Set<String> removed)
+      throws TransactionLogException
+   {
+      try
+      {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(bytes);
+         // Reserve place for length.
+         out.writeInt(0);
+         out.writeByte(type);
+         out.writeLong(transactionId);
+         if (type == LOGGED)
+         {
+            writeSet(out, added);
+            writeSet(out, removed);
+         }
+         // Reserve place for checksum.
+         out.writeInt(0);
+         out.flush();
+
+         ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+         int size = record.capacity() - RECORD_OVERHEAD;
+         CRC32 crc = new CRC32();
+         crc.update(record.array(), 4, size);
+         record.putInt(0, size);
+         record.putInt(4 + size, (int)crc.getValue());
+         return record.array();
+      }
+      catch (IOException e)
+      {
+         throw new TransactionLogException("TransactionLog write exception: " + e.getMessage(), e);
+      }
+   }
+
+   private static void writeSet(DataOutputStream out, Set<String> keys) throws IOException
+   {
+      out.writeInt(keys.size());
+      for (String key : keys)
+      {
+         out.writeUTF(key);
+      }
+   }
+
+   private static String segmentName(long number)
+   {
+      StringBuilder name = new StringBuilder(Long.toString(number));
+      while (name.length() < 20)
+      {
+         name.insert(0, '0');
+      }
+      return name.append(SEGMENT_EXTENSION).toString();
+   }
+
+   private static long segmentNumber(File file) throws TransactionLogException
+   {
+      String name = file.getName();
+      try
+      {
+         return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+      }
+      catch (NumberFormatException e)
+      {
+         throw new TransactionLogException("Unexpected transaction log segment " + file.getAbsolutePath());
+      }
+   }
+
+   /**
+    * Segment file and number of its transactions which are not removed.
+    */
+   private static final class Segment
+   {
+      final File file;
+
+      RandomAccessFile raf;
+
+      FileChannel channel;
+
+      long position;
+
+      int live;
+
+      /**
+       * Segment is forced and closed by {@link #close()}.
+       */
+      boolean closed;
+
+      Segment(File file, RandomAccessFile raf)
+      {
+         this.file = file;
+         this.raf = raf;
+         this.channel = raf == null ? null : raf.getChannel();
+      }
+
+      /**
+       * Open file again if channel is closed by interrupt. Records written
+       * before are kept, they are forced by next sync.
+       */
+      void reopenIfClosed() throws IOException
+      {
+         if (raf != null && !closed && !channel.isOpen())
+         {
+            raf.close();
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+         }
+      }
+
+      void close() throws IOException
+      {
+         if (raf != null)
+         {
+            channel.force(false);
+            raf.close();
+         }
+         closed = true;
+      }
+   }
+}
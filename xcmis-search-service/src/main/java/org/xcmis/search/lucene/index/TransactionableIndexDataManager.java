@@ -68,7 +68,16 @@ public class TransactionableIndexDataManager extends CacheableIndexDataManager
          throw new IndexException("Fail to create directory : " + storageDir.getAbsolutePath());
       }
 
-      this.transactionService = new FSIndexTransactionService(storageDir, new ReadWriteDirectoryFactory());
+      try
+      {
+         this.transactionService =
+            new FSIndexTransactionService(storageDir, new ReadWriteDirectoryFactory(), indexConfuguration
+               .getTransactionLogSegmentSize());
+      }
+      catch (final TransactionLogException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
 
    }
 
@@ -149,5 +158,6 @@ public class TransactionableIndexDataManager extends CacheableIndexDataManager
    public void stop()
    {
       super.stop();
+      this.transactionService.close();
    }
 }
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index.merge;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+import org.xcmis.spi.utils.Logger;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs merges of persistent index segments in background threads, so
+ * writers only add segments and never wait for merges. Number of concurrently
+ * running merges is limited and bytes written by merges may be limited per
+ * second to leave disk bandwidth for writers and readers. Limits are kept by
+ * {@link MergeLimiter} which may be shared by schedulers of several indexes.
+ * Merges are counted in {@link MergeStatistics}.
+ * <p>
+ * Rate limit applies to outputs created by merge threads in directory
+ * returned by {@link #throttle(Directory)}, so index writer must be opened on
+ * that directory.
+ * <p>
+ * Segment produced by merge replaces merged segments only in memory of
+ * writer, it becomes durable and visible to readers with next commit of
+ * writer. Owner of writer is notified about completed merges by
+ * {@link MergeListener} to commit them.
+ *
+ * @version $Id$
+ */
+public class BackgroundMergeScheduler extends ConcurrentMergeScheduler
+{
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(BackgroundMergeScheduler.class);
+
+   /**
+    * Min number of bytes written between two checks of rate limit.
+    */
+   private static final int MIN_PAUSE_CHECK_BYTES = 64 * 1024;
+
+   /**
+    * Interval of checks if merge waiting for permit is aborted, milliseconds.
+    */
+   private static final long ABORT_CHECK_INTERVAL = 100;
+
+   /**
+    * Set for threads running merge.
+    */
+   private static final ThreadLocal<Boolean> MERGING = new ThreadLocal<Boolean>();
+
+   private final MergeLimiter limiter;
+
+   private volatile MergeListener mergeListener;
+
+   /**
+    * @param maxConcurrentMerges max number of merges running at once
+    * @param maxMergeRate max number of megabytes per second written by all
+    *        merges, 0 if rate is not limited
+    * @param statistics merge statistics
+    */
+   public BackgroundMergeScheduler(int maxConcurrentMerges, double maxMergeRate, MergeStatistics statistics)
+   {
+      this(new MergeLimiter(maxConcurrentMerges, maxMergeRate, statistics));
+   }
+
+   /**
+    * @param limiter limits of merges, may be shared with other schedulers
+    */
+   public BackgroundMergeScheduler(MergeLimiter limiter)
+   {
+      // Writer is paused only if merges fall behind too far.
+      setMaxMergeCount(limiter.getMaxConcurrentMerges() + 2);
+      setMaxThreadCount(limiter.getMaxConcurrentMerges());
+      this.limiter = limiter;
+   }
+
+   /**
+    * @return merge statistics
+    */
+   public MergeStatistics getStatistics()
+   {
+      return limiter.getStatistics();
+   }
+
+   /**
+    * @param mergeListener listener notified about completed merges
+    */
+   public void setMergeListener(MergeListener mergeListener)
+   {
+      this.mergeListener = mergeListener;
+   }
+
+   /**
+    * Wrap directory to limit rate of writes of merges.
+    *
+    * @param directory index directory
+    * @return directory to open index writer
+    */
+   public Directory throttle(Directory directory)
+   {
+      return new ThrottledDirectory(directory);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   protected void doMerge(MergePolicy.OneMerge merge) throws IOException
+   {
+      // Merges of other indexes may hold all permits. Aborted merge doesn't
+      // wait for them, writer is closing and drops it at once.
+      boolean acquired = false;
+      while (!acquired && !merge.isAborted())
+      {
+         acquired = limiter.tryAcquire(ABORT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+      }
+      final MergeStatistics statistics = limiter.getStatistics();
+      statistics.mergeStarted();
+      long start = System.currentTimeMillis();
+      boolean completed = false;
+      MERGING.set(Boolean.TRUE);
+      try
+      {
+         super.doMerge(merge);
+         completed = !merge.isAborted();
+      }
+      finally
+      {
+         MERGING.remove();
+         if (acquired)
+         {
+            limiter.release();
+         }
+         long time = System.currentTimeMillis() - start;
+         statistics.mergeFinished(completed, merge.totalDocCount, time);
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug("Merge of " + merge.totalDocCount + " documents " + (completed ? "completed" : "failed")
+               + " in " + time + " ms, " + statistics);
+         }
+      }
+      final MergeListener listener = mergeListener;
+      if (completed && listener != null)
+      {
+         listener.mergeCompleted();
+      }
+   }
+
+   /**
+    * Listener of merges completed by scheduler.
+    */
+   public interface MergeListener
+   {
+      /**
+       * Called in merge thread after merge is completed. Merged segment is not
+       * committed yet. Implementation must not block, writer may wait for merge
+       * thread while listener is called.
+       */
+      void mergeCompleted();
+   }
+
+   /**
+    * Directory which creates throttled outputs for merge threads.
+    */
+   private final class ThrottledDirectory extends Directory
+   {
+      private final Directory delegate;
+
+      ThrottledDirectory(Directory delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      @Override
+      public String[] listAll() throws IOException
+      {
+         return delegate.listAll();
+      }
+
+      @Override
+      public boolean fileExists(String name) throws IOException
+      {
+         return delegate.fileExists(name);
+      }
+
+      @Override
+      @Deprecated
+      public long fileModified(String name) throws IOException
+      {
+         return delegate.fileModified(name);
+      }
+
+      @Override
+      @Deprecated
+      public void touchFile(String name) throws IOException
+      {
+         delegate.touchFile(name);
+      }
+
+      @Override
+      public void deleteFile(String name) throws IOException
+      {
+         delegate.deleteFile(name);
+      }
+
+      @Override
+      public long fileLength(String name) throws IOException
+      {
+         return delegate.fileLength(name);
+      }
+
+      @Override
+      public IndexOutput createOutput(String name) throws IOException
+      {
+         IndexOutput output = delegate.createOutput(name);
+         return MERGING.get() != null ? new ThrottledOutput(output) : output;
+      }
+
+      @Override
+      public void sync(Collection<String> names) throws IOException
+      {
+         delegate.sync(names);
+      }
+
+      @Override
+      public IndexInput openInput(String name) throws IOException
+      {
+         return delegate.openInput(name);
+      }
+
+      @Override
+      public IndexInput openInput(String name, int bufferSize) throws IOException
+      {
+         return delegate.openInput(name, bufferSize);
+      }
+
+      @Override
+      public Lock makeLock(String name)
+      {
+         return delegate.makeLock(name);
+      }
+
+      @Override
+      public void clearLock(String name) throws IOException
+      {
+         delegate.clearLock(name);
+      }
+
+      @Override
+      public void setLockFactory(LockFactory lockFactory) throws IOException
+      {
+         delegate.setLockFactory(lockFactory);
+      }
+
+      @Override
+      public LockFactory getLockFactory()
+      {
+         return delegate.getLockFactory();
+      }
+
+      @Override
+      public String getLockID()
+      {
+         return delegate.getLockID();
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         // Wrapped directory is closed by its owner.
+      }
+
+      @Override
+      public String toString()
+      {
+         return "Throttled(" + delegate + ")";
+      }
+   }
+
+   /**
+    * Output which pauses after each {@link #MIN_PAUSE_CHECK_BYTES} written
+    * bytes if rate limit is exceeded.
+    */
+   private final class ThrottledOutput extends IndexOutput
+   {
+      private final IndexOutput delegate;
+
+      private int pending;
+
+      ThrottledOutput(IndexOutput delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      @Override
+      public void writeByte(byte b) throws IOException
+      {
+         delegate.writeByte(b);
+         if (++pending >= MIN_PAUSE_CHECK_BYTES)
+         {
+            release();
+         }
+      }
+
+      @Override
+      public void writeBytes(byte[] b, int offset, int length) throws IOException
+      {
+         delegate.writeBytes(b, offset, length);
+         pending += length;
+         if (pending >= MIN_PAUSE_CHECK_BYTES)
+         {
+            release();
+         }
+      }
+
+      @Override
+      public void flush() throws IOException
+      {
+         delegate.flush();
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+         try
+         {
+            if (pending > 0)
+            {
+               release();
+            }
+         }
+         finally
+         {
+            delegate.close();
+         }
+      }
+
+      @Override
+      public long getFilePointer()
+      {
+         return delegate.getFilePointer();
+      }
+
+      @Override
+      public void seek(long pos) throws IOException
+      {
+         delegate.seek(pos);
+      }
+
+      @Override
+      public long length() throws IOException
+      {
+         return delegate.length();
+      }
+
+      @Override
+      public void setLength(long length) throws IOException
+      {
+         delegate.setLength(length);
+      }
+
+      private void release()
+      {
+         int bytes = pending;
+         pending = 0;
+         limiter.written(bytes);
+      }
+   }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index.merge;
+
+import org.apache.lucene.util.ThreadInterruptedException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits of background merges shared by {@link BackgroundMergeScheduler}s of
+ * all persisted indexes: number of merges running at once and number of bytes
+ * written by them per second. Each index writer needs own scheduler, so
+ * limits are kept apart from scheduler to apply to all indexes together.
+ *
+ * @version $Id$
+ */
+public class MergeLimiter
+{
+   private final int maxConcurrentMerges;
+
+   private final Semaphore permits;
+
+   /**
+    * Time to write one byte in nanoseconds, 0 if rate is not limited.
+    */
+   private final double nanosPerByte;
+
+   private final MergeStatistics statistics;
+
+   private final Object limiterLock = new Object();
+
+   /**
+    * Time when bytes written so far are allowed by rate limit.
+    */
+   private long allowedNanos;
+
+   /**
+    * @param maxConcurrentMerges max number of merges running at once
+    * @param maxMergeRate max number of megabytes per second written by all
+    *        merges, 0 if rate is not limited
+    * @param statistics merge statistics
+    */
+   public MergeLimiter(int maxConcurrentMerges, double maxMergeRate, MergeStatistics statistics)
+   {
+      if (maxConcurrentMerges < 1)
+      {
+         throw new IllegalArgumentException("Number of concurrent merges must be positive. ");
+      }
+      this.maxConcurrentMerges = maxConcurrentMerges;
+      this.permits = new Semaphore(maxConcurrentMerges, true);
+      this.nanosPerByte = maxMergeRate > 0 ? 1000000000d / (maxMergeRate * 1024 * 1024) : 0;
+      this.statistics = statistics;
+   }
+
+   /**
+    * @return max number of merges running at once
+    */
+   public int getMaxConcurrentMerges()
+   {
+      return maxConcurrentMerges;
+   }
+
+   /**
+    * @return merge statistics
+    */
+   public MergeStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   /**
+    * Wait for permit to run merge.
+    *
+    * @param timeout max time to wait
+    * @param unit unit of timeout
+    * @return <code>true</code> if permit is acquired, <code>false</code> if
+    *         timeout elapsed
+    */
+   boolean tryAcquire(long timeout, TimeUnit unit)
+   {
+      try
+      {
+         return permits.tryAcquire(timeout, unit);
+      }
+      catch (InterruptedException e)
+      {
+         throw new ThreadInterruptedException(e);
+      }
+   }
+
+   /**
+    * Return permit acquired by {@link #tryAcquire(long, TimeUnit)}.
+    */
+   void release()
+   {
+      permits.release();
+   }
+
+   /**
+    * Account bytes written by merge and pause if they exceed rate limit.
+    */
+   void written(long bytes)
+   {
+      statistics.bytesWritten(bytes);
+      if (nanosPerByte == 0)
+      {
+         return;
+      }
+      long target;
+      synchronized (limiterLock)
+      {
+         allowedNanos = Math.max(allowedNanos, System.nanoTime()) + (long)(bytes * nanosPerByte);
+         target = allowedNanos;
+      }
+      long pause = target - System.nanoTime();
+      if (pause > 0)
+      {
+         statistics.throttled(pause / 1000000);
+         try
+         {
+            Thread.sleep(pause / 1000000, (int)(pause % 1000000));
+         }
+         catch (InterruptedException e)
+         {
+            throw new ThreadInterruptedException(e);
+         }
+      }
+   }
+}
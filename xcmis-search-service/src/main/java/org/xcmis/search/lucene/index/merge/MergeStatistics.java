@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index.merge;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of background merges of persistent index segments.
+ *
+ * @version $Id$
+ */
+public class MergeStatistics
+{
+   private final AtomicInteger runningMerges = new AtomicInteger();
+
+   private final AtomicLong completedMerges = new AtomicLong();
+
+   private final AtomicLong failedMerges = new AtomicLong();
+
+   private final AtomicLong mergedDocuments = new AtomicLong();
+
+   private final AtomicLong mergeTime = new AtomicLong();
+
+   private final AtomicLong writtenBytes = new AtomicLong();
+
+   private final AtomicLong throttleTime = new AtomicLong();
+
+   /**
+    * @return number of merges which are running now
+    */
+   public int getRunningMerges()
+   {
+      return runningMerges.get();
+   }
+
+   /**
+    * @return number of successfully completed merges
+    */
+   public long getCompletedMerges()
+   {
+      return completedMerges.get();
+   }
+
+   /**
+    * @return number of aborted or failed merges
+    */
+   public long getFailedMerges()
+   {
+      return failedMerges.get();
+   }
+
+   /**
+    * @return number of documents in segments which are merged
+    */
+   public long getMergedDocuments()
+   {
+      return mergedDocuments.get();
+   }
+
+   /**
+    * @return total time of merges in milliseconds
+    */
+   public long getMergeTime()
+   {
+      return mergeTime.get();
+   }
+
+   /**
+    * @return number of bytes written by merges
+    */
+   public long getWrittenBytes()
+   {
+      return writtenBytes.get();
+   }
+
+   /**
+    * @return total time in milliseconds merges were paused to keep I/O rate
+    *         limit
+    */
+   public long getThrottleTime()
+   {
+      return throttleTime.get();
+   }
+
+   void mergeStarted()
+   {
+      runningMerges.incrementAndGet();
+   }
+
+   void mergeFinished(boolean completed, int documents, long time)
+   {
+      runningMerges.decrementAndGet();
+      mergeTime.addAndGet(time);
+      if (completed)
+      {
+         completedMerges.incrementAndGet();
+         mergedDocuments.addAndGet(documents);
+      }
+      else
+      {
+         failedMerges.incrementAndGet();
+      }
+   }
+
+   void bytesWritten(long bytes)
+   {
+      writtenBytes.addAndGet(bytes);
+   }
+
+   void throttled(long time)
+   {
+      throttleTime.addAndGet(time);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      return "running: " + getRunningMerges() + ", completed: " + getCompletedMerges() + ", failed: "
+         + getFailedMerges() + ", documents: " + getMergedDocuments() + ", time: " + getMergeTime()
+         + " ms, written: " + getWrittenBytes() + " bytes, throttled: " + getThrottleTime() + " ms";
+   }
+}
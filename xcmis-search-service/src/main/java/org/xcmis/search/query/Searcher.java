@@ -22,6 +22,7 @@ import org.xcmis.search.InvalidQueryException;
 import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.model.Query;
 import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.result.ScoredRowIterator;
 
 import java.util.List;
 import java.util.Map;
@@ -58,4 +59,32 @@ public interface Searcher
    public List<ScoredRow> execute(Query query, Map<String, Object> bindVariablesValues,
       InvocationContext invocationContext) throws InvalidQueryException, QueryExecutionException;
 
+   /**
+    * Execute given query with empty map of bind variables and default
+    * InvocationContext. Rows of result are fetched lazily while iterating.
+    * @param query
+    * @return iterator over rows of result
+    * @throws InvalidQueryException
+    */
+   public ScoredRowIterator iterate(Query query) throws InvalidQueryException, QueryExecutionException;
+
+   /**
+    * Execute given query with default InvocationContext. Rows of result are
+    * fetched lazily while iterating.
+    * @param query
+    * @return iterator over rows of result
+    * @throws InvalidQueryException
+    */
+   public ScoredRowIterator iterate(Query query, Map<String, Object> bindVariablesValues)
+      throws InvalidQueryException, QueryExecutionException;
+
+   /**
+    * Execute query. Rows of result are fetched lazily while iterating.
+    * @param query
+    * @return iterator over rows of result
+    * @throws InvalidQueryException
+    */
+   public ScoredRowIterator iterate(Query query, Map<String, Object> bindVariablesValues,
+      InvocationContext invocationContext) throws InvalidQueryException, QueryExecutionException;
+
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Join rows of two sources. Supported algorithms:
+ * <ul>
+ * <li>hash join: rows of smaller side are put in hash table by key, rows of
+ * other side look up matches in it;</li>
+ * <li>sort-merge join: rows of both sides are ordered by key and matched in
+ * one pass, result is ordered by join key. Used for inner joins if planner
+ * chose {@link JoinAlgorithm#MERGE}. Sorting is cheap if sources are already
+ * ordered by key;</li>
+ * <li>nested loop: each row of one side is compared with each row of other
+ * side. Used if one of the sides is so small that hash table is not
+ * worth.</li>
+ * </ul>
+ * Rows are produced in order of the probe side (left side for inner and left
+ * outer join). Join stops as soon as required number of rows produced.
+ */
+public class JoinExecutor
+{
+   /**
+    * If one side of join has not more rows then nested loop is used.
+    */
+   public static final int NESTED_LOOP_THRESHOLD = 8;
+
+   private final JoinMatcher matcher;
+
+   private final JoinType joinType;
+
+   private final JoinAlgorithm algorithm;
+
+   /**
+    * @param matcher matcher for join condition
+    * @param joinType join type
+    * @param algorithm algorithm suggested by planner. Merge join is used if
+    *           suggested, choice between hash join and nested loop is
+    *           revised by actual number of rows
+    */
+   public JoinExecutor(JoinMatcher matcher, JoinType joinType, JoinAlgorithm algorithm)
+   {
+      this.matcher = matcher;
+      this.joinType = joinType;
+      this.algorithm = algorithm;
+   }
+
+   /**
+    * Join rows.
+    *
+    * @param left rows of left side
+    * @param right rows of right side
+    * @param maxRows max number of rows to produce
+    * @return joined rows
+    * @throws QueryExecutionException if join condition can't be evaluated
+    */
+   public List<ScoredRow> join(List<ScoredRow> left, List<ScoredRow> right, int maxRows)
+      throws QueryExecutionException
+   {
+      List<ScoredRow> result = new ArrayList<ScoredRow>();
+      if (maxRows <= 0)
+      {
+         return result;
+      }
+      if (joinType == JoinType.INNER)
+      {
+         if (left.isEmpty() || right.isEmpty())
+         {
+            return result;
+         }
+         if (algorithm == JoinAlgorithm.MERGE)
+         {
+            mergeJoin(left, right, maxRows, result);
+         }
+         else if (Math.min(left.size(), right.size()) <= NESTED_LOOP_THRESHOLD)
+         {
+            nestedLoopJoin(left, right, maxRows, result);
+         }
+         else if (right.size() <= left.size())
+         {
+            hashJoin(left, true, right, maxRows, result);
+         }
+         else
+         {
+            hashJoin(right, false, left, maxRows, result);
+         }
+      }
+      else if (joinType == JoinType.LEFT_OUTER)
+      {
+         // Build always on inner side to be able produce unmatched rows.
+         hashJoin(left, true, right, maxRows, result);
+      }
+      else
+      {
+         hashJoin(right, false, left, maxRows, result);
+      }
+      return result;
+   }
+
+   /**
+    * Hash join. Hash table is built for rows of build side.
+    *
+    * @param probe rows of probe side
+    * @param probeLeft <code>true</code> if probe side is left side of join
+    * @param build rows of build side
+    * @param maxRows max number of rows to produce
+    * @param result result
+    * @throws QueryExecutionException
+    */
+   private void hashJoin(List<ScoredRow> probe, boolean probeLeft, List<ScoredRow> build, int maxRows,
+      List<ScoredRow> result) throws QueryExecutionException
+   {
+      boolean outer = joinType != JoinType.INNER;
+      Map<Object, List<Integer>> table = new HashMap<Object, List<Integer>>();
+      for (int i = 0; i < build.size(); i++)
+      {
+         for (Object key : matcher.getKeys(build.get(i), !probeLeft))
+         {
+            List<Integer> rows = table.get(key);
+            if (rows == null)
+            {
+               rows = new ArrayList<Integer>(1);
+               table.put(key, rows);
+            }
+            rows.add(i);
+         }
+      }
+      if (table.isEmpty() && !outer)
+      {
+         return;
+      }
+      Set<Integer> matched = new HashSet<Integer>();
+      for (ScoredRow probeRow : probe)
+      {
+         matched.clear();
+         for (Object key : matcher.getKeys(probeRow, probeLeft))
+         {
+            List<Integer> rows = table.get(key);
+            if (rows != null)
+            {
+               for (Integer i : rows)
+               {
+                  // Rows may have few common keys, join them only once.
+                  if (matched.add(i))
+                  {
+                     result.add(probeLeft ? merge(probeRow, build.get(i)) : merge(build.get(i), probeRow));
+                     if (result.size() >= maxRows)
+                     {
+                        return;
+                     }
+                  }
+               }
+            }
+         }
+         if (outer && matched.isEmpty())
+         {
+            result.add(probeRow);
+            if (result.size() >= maxRows)
+            {
+               return;
+            }
+         }
+      }
+   }
+
+   /**
+    * Nested loop join for inner join.
+    *
+    * @param left rows of left side
+    * @param right rows of right side
+    * @param maxRows max number of rows to produce
+    * @param result result
+    * @throws QueryExecutionException
+    */
+   private void nestedLoopJoin(List<ScoredRow> left, List<ScoredRow> right, int maxRows, List<ScoredRow> result)
+      throws QueryExecutionException
+   {
+      List<Set<Object>> rightKeys = new ArrayList<Set<Object>>(right.size());
+      for (ScoredRow rightRow : right)
+      {
+         rightKeys.add(matcher.getKeys(rightRow, false));
+      }
+      for (ScoredRow leftRow : left)
+      {
+         Set<Object> leftKeys = matcher.getKeys(leftRow, true);
+         if (leftKeys.isEmpty())
+         {
+            continue;
+         }
+         for (int i = 0; i < right.size(); i++)
+         {
+            if (!Collections.disjoint(leftKeys, rightKeys.get(i)))
+            {
+               result.add(merge(leftRow, right.get(i)));
+               if (result.size() >= maxRows)
+               {
+                  return;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Sort-merge join for inner join.
+    *
+    * @param left rows of left side
+    * @param right rows of right side
+    * @param maxRows max number of rows to produce
+    * @param result result
+    * @throws QueryExecutionException
+    */
+   private void mergeJoin(List<ScoredRow> left, List<ScoredRow> right, int maxRows, List<ScoredRow> result)
+      throws QueryExecutionException
+   {
+      List<KeyedRow> leftKeys = sortedKeys(left, true);
+      List<KeyedRow> rightKeys = sortedKeys(right, false);
+      // Rows with few keys may be matched by few keys, track joined pairs.
+      Set<Long> joined = matcher.isSingleKey() ? null : new HashSet<Long>();
+      int l = 0;
+      int r = 0;
+      while (l < leftKeys.size() && r < rightKeys.size())
+      {
+         int c = KEY_COMPARATOR.compare(leftKeys.get(l), rightKeys.get(r));
+         if (c < 0)
+         {
+            l++;
+         }
+         else if (c > 0)
+         {
+            r++;
+         }
+         else
+         {
+            int lEnd = l;
+            while (lEnd < leftKeys.size() && KEY_COMPARATOR.compare(leftKeys.get(lEnd), leftKeys.get(l)) == 0)
+            {
+               lEnd++;
+            }
+            int rEnd = r;
+            while (rEnd < rightKeys.size() && KEY_COMPARATOR.compare(rightKeys.get(rEnd), rightKeys.get(r)) == 0)
+            {
+               rEnd++;
+            }
+            for (int i = l; i < lEnd; i++)
+            {
+               KeyedRow leftRow = leftKeys.get(i);
+               for (int j = r; j < rEnd; j++)
+               {
+                  KeyedRow rightRow = rightKeys.get(j);
+                  if (joined == null || joined.add(((long)leftRow.index << 32) | rightRow.index))
+                  {
+                     result.add(merge(left.get(leftRow.index), right.get(rightRow.index)));
+                     if (result.size() >= maxRows)
+                     {
+                        return;
+                     }
+                  }
+               }
+            }
+            l = lEnd;
+            r = rEnd;
+         }
+      }
+   }
+
+   private List<KeyedRow> sortedKeys(List<ScoredRow> rows, boolean left) throws QueryExecutionException
+   {
+      List<KeyedRow> keys = new ArrayList<KeyedRow>(rows.size());
+      for (int i = 0; i < rows.size(); i++)
+      {
+         for (Object key : matcher.getKeys(rows.get(i), left))
+         {
+            keys.add(new KeyedRow(key, i));
+         }
+      }
+      // Stable sort, nearly linear if rows are already ordered by key.
+      Collections.sort(keys, KEY_COMPARATOR);
+      return keys;
+   }
+
+   private static ScoredRow merge(ScoredRow left, ScoredRow right)
+   {
+      return ScoredRow.merge(left, right, left.getScore() + right.getScore());
+   }
+
+   /**
+    * Compare values of join keys. Values of different types are ordered by
+    * name of type.
+    */
+   @SuppressWarnings("unchecked")
+   static int compareValues(Object o1, Object o2)
+   {
+      if (o1 == o2)
+      {
+         return 0;
+      }
+      if (o1 == null)
+      {
+         return -1;
+      }
+      if (o2 == null)
+      {
+         return 1;
+      }
+      if (o1.getClass() == o2.getClass() && o1 instanceof Comparable)
+      {
+         return ((Comparable<Object>)o1).compareTo(o2);
+      }
+      int c = o1.getClass().getName().compareTo(o2.getClass().getName());
+      return c != 0 ? c : o1.toString().compareTo(o2.toString());
+   }
+
+   private static final Comparator<KeyedRow> KEY_COMPARATOR = new Comparator<KeyedRow>()
+   {
+      public int compare(KeyedRow o1, KeyedRow o2)
+      {
+         return compareValues(o1.key, o2.key);
+      }
+   };
+
+   /**
+    * Key of row and position of row in source.
+    */
+   private static final class KeyedRow
+   {
+      final Object key;
+
+      final int index;
+
+      KeyedRow(Object key, int index)
+      {
+         this.key = key;
+         this.index = index;
+      }
+   }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import org.apache.commons.lang.NotImplementedException;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.Property;
+import org.xcmis.search.content.Property.ContentValue;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.model.source.join.ChildNodeJoinCondition;
+import org.xcmis.search.model.source.join.DescendantNodeJoinCondition;
+import org.xcmis.search.model.source.join.EquiJoinCondition;
+import org.xcmis.search.model.source.join.JoinCondition;
+import org.xcmis.search.model.source.join.SameNodeJoinCondition;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.result.ScoredRow;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reduce {@link JoinCondition} to comparison of keys. Each row of left and
+ * right side of join has set of keys, two rows are matched if they have at
+ * least one common key. For example for {@link ChildNodeJoinCondition} key of
+ * parent row is its identifier and keys of child row are identifiers of its
+ * parents.
+ */
+public abstract class JoinMatcher
+{
+   /**
+    * Read content of rows.
+    */
+   public interface EntryReader
+   {
+      /**
+       * @param identifier entry identifier
+       * @return entry or <code>null</code> if there is no such entry
+       * @throws QueryExecutionException if entry can't be read
+       */
+      ContentEntry getEntry(String identifier) throws QueryExecutionException;
+   }
+
+   protected final EntryReader reader;
+
+   protected JoinMatcher(EntryReader reader)
+   {
+      this.reader = reader;
+   }
+
+   /**
+    * Create matcher for join condition.
+    *
+    * @param condition join condition
+    * @param leftSelectors selectors of left side of join
+    * @param reader content reader
+    * @return matcher
+    */
+   public static JoinMatcher create(JoinCondition condition, Set<SelectorName> leftSelectors, EntryReader reader)
+   {
+      if (condition instanceof EquiJoinCondition)
+      {
+         EquiJoinCondition equi = (EquiJoinCondition)condition;
+         if (leftSelectors.contains(equi.getSelector1Name()))
+         {
+            return new EquiMatcher(reader, equi.getSelector1Name(), equi.getProperty1Name(), equi
+               .getSelector2Name(), equi.getProperty2Name());
+         }
+         return new EquiMatcher(reader, equi.getSelector2Name(), equi.getProperty2Name(), equi.getSelector1Name(),
+            equi.getProperty1Name());
+      }
+      else if (condition instanceof SameNodeJoinCondition)
+      {
+         SameNodeJoinCondition same = (SameNodeJoinCondition)condition;
+         if (same.getSelector2Path() != null)
+         {
+            throw new NotImplementedException("Same node join with relative path is not supported.");
+         }
+         return new SameNodeMatcher(reader, same.getSelector1Name(), same.getSelector2Name(), leftSelectors
+            .contains(same.getSelector1Name()));
+      }
+      else if (condition instanceof ChildNodeJoinCondition)
+      {
+         ChildNodeJoinCondition child = (ChildNodeJoinCondition)condition;
+         return new ChildNodeMatcher(reader, child.getParentSelectorName(), child.getChildSelectorName(),
+            leftSelectors.contains(child.getParentSelectorName()));
+      }
+      else if (condition instanceof DescendantNodeJoinCondition)
+      {
+         DescendantNodeJoinCondition descendant = (DescendantNodeJoinCondition)condition;
+         return new DescendantNodeMatcher(reader, descendant.getAncestorSelectorName(), descendant
+            .getDescendantSelectorName(), leftSelectors.contains(descendant.getAncestorSelectorName()));
+      }
+      throw new NotImplementedException("Join condition " + condition + " is not supported.");
+   }
+
+   /**
+    * Get keys of row.
+    *
+    * @param row row
+    * @param left <code>true</code> if row from left side of join
+    * @return keys of row, never <code>null</code>. Row with empty set of keys
+    *         has no matches
+    * @throws QueryExecutionException if keys can't be calculated
+    */
+   public abstract Set<Object> getKeys(ScoredRow row, boolean left) throws QueryExecutionException;
+
+   /**
+    * @return <code>true</code> if each row has at most one key
+    */
+   public boolean isSingleKey()
+   {
+      return false;
+   }
+
+   /**
+    * Convert property value to form suitable for comparison: dates to
+    * milliseconds, numbers to {@link BigDecimal} without trailing zeros.
+    *
+    * @param value property value
+    * @return normalized value
+    */
+   static Object normalize(Object value)
+   {
+      if (value instanceof Calendar)
+      {
+         return ((Calendar)value).getTimeInMillis();
+      }
+      else if (value instanceof BigDecimal)
+      {
+         BigDecimal decimal = (BigDecimal)value;
+         return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+      }
+      else if (value instanceof BigInteger || value instanceof Long || value instanceof Integer)
+      {
+         return normalize(new BigDecimal(value.toString()));
+      }
+      else if (value instanceof Double || value instanceof Float)
+      {
+         double number = ((Number)value).doubleValue();
+         if (Double.isNaN(number) || Double.isInfinite(number))
+         {
+            return value;
+         }
+         // Use shortest decimal form, not exact binary expansion, so 0.1 is equal to DECIMAL 0.1.
+         return normalize(value instanceof Float ? new BigDecimal(value.toString()) : BigDecimal.valueOf(number));
+      }
+      return value;
+   }
+
+   /**
+    * Get values of property.
+    *
+    * @param entry entry
+    * @param propertyName property name
+    * @return normalized values of property, empty list if there is no such
+    *         property
+    */
+   static List<Object> getValues(ContentEntry entry, String propertyName)
+   {
+      for (Property<?> property : entry.getProperties())
+      {
+         if (property.getName().equals(propertyName))
+         {
+            List<Object> values = new ArrayList<Object>(property.getValue().size());
+            for (ContentValue<?> value : property.getValue())
+            {
+               if (value.getValue() != null)
+               {
+                  values.add(normalize(value.getValue()));
+               }
+            }
+            return values;
+         }
+      }
+      return Collections.emptyList();
+   }
+
+   private static Set<Object> singleton(String identifier)
+   {
+      return identifier == null ? Collections.emptySet() : Collections.<Object> singleton(identifier);
+   }
+
+   /**
+    * Match rows by equal property values.
+    */
+   private static class EquiMatcher extends JoinMatcher
+   {
+      private final SelectorName leftSelector;
+
+      private final String leftProperty;
+
+      private final SelectorName rightSelector;
+
+      private final String rightProperty;
+
+      EquiMatcher(EntryReader reader, SelectorName leftSelector, String leftProperty, SelectorName rightSelector,
+         String rightProperty)
+      {
+         super(reader);
+         this.leftSelector = leftSelector;
+         this.leftProperty = leftProperty;
+         this.rightSelector = rightSelector;
+         this.rightProperty = rightProperty;
+      }
+
+      @Override
+      public Set<Object> getKeys(ScoredRow row, boolean left) throws QueryExecutionException
+      {
+         String identifier = row.getNodeIdentifer(left ? leftSelector.getName() : rightSelector.getName());
+         ContentEntry entry = identifier == null ? null : reader.getEntry(identifier);
+         if (entry == null)
+         {
+            return Collections.emptySet();
+         }
+         return new LinkedHashSet<Object>(getValues(entry, left ? leftProperty : rightProperty));
+      }
+   }
+
+   /**
+    * Match rows which contain the same node.
+    */
+   private static class SameNodeMatcher extends JoinMatcher
+   {
+      private final String leftSelector;
+
+      private final String rightSelector;
+
+      SameNodeMatcher(EntryReader reader, SelectorName selector1, SelectorName selector2, boolean selector1Left)
+      {
+         super(reader);
+         this.leftSelector = (selector1Left ? selector1 : selector2).getName();
+         this.rightSelector = (selector1Left ? selector2 : selector1).getName();
+      }
+
+      @Override
+      public Set<Object> getKeys(ScoredRow row, boolean left)
+      {
+         return singleton(row.getNodeIdentifer(left ? leftSelector : rightSelector));
+      }
+
+      @Override
+      public boolean isSingleKey()
+      {
+         return true;
+      }
+   }
+
+   /**
+    * Match rows where node of one selector is parent of node of other
+    * selector.
+    */
+   private static class ChildNodeMatcher extends JoinMatcher
+   {
+      private final String parentSelector;
+
+      private final String childSelector;
+
+      private final boolean parentLeft;
+
+      ChildNodeMatcher(EntryReader reader, SelectorName parentSelector, SelectorName childSelector,
+         boolean parentLeft)
+      {
+         super(reader);
+         this.parentSelector = parentSelector.getName();
+         this.childSelector = childSelector.getName();
+         this.parentLeft = parentLeft;
+      }
+
+      @Override
+      public Set<Object> getKeys(ScoredRow row, boolean left) throws QueryExecutionException
+      {
+         if (left == parentLeft)
+         {
+            return singleton(row.getNodeIdentifer(parentSelector));
+         }
+         String identifier = row.getNodeIdentifer(childSelector);
+         ContentEntry entry = identifier == null ? null : reader.getEntry(identifier);
+         if (entry == null)
+         {
+            return Collections.emptySet();
+         }
+         Set<Object> keys = new LinkedHashSet<Object>();
+         Collections.addAll(keys, entry.getParentIdentifiers());
+         return keys;
+      }
+   }
+
+   /**
+    * Match rows where node of one selector is ancestor of node of other
+    * selector.
+    */
+   private static class DescendantNodeMatcher extends JoinMatcher
+   {
+      private final String ancestorSelector;
+
+      private final String descendantSelector;
+
+      private final boolean ancestorLeft;
+
+      /**
+       * Ancestors of already visited entries.
+       */
+      private final Map<String, Set<Object>> ancestors = new HashMap<String, Set<Object>>();
+
+      DescendantNodeMatcher(EntryReader reader, SelectorName ancestorSelector, SelectorName descendantSelector,
+         boolean ancestorLeft)
+      {
+         super(reader);
+         this.ancestorSelector = ancestorSelector.getName();
+         this.descendantSelector = descendantSelector.getName();
+         this.ancestorLeft = ancestorLeft;
+      }
+
+      @Override
+      public Set<Object> getKeys(ScoredRow row, boolean left) throws QueryExecutionException
+      {
+         if (left == ancestorLeft)
+         {
+            return singleton(row.getNodeIdentifer(ancestorSelector));
+         }
+         String identifier = row.getNodeIdentifer(descendantSelector);
+         return identifier == null ? Collections.emptySet() : getAncestors(identifier, new HashSet<String>());
+      }
+
+      private Set<Object> getAncestors(String identifier, Set<String> path) throws QueryExecutionException
+      {
+         Set<Object> result = ancestors.get(identifier);
+         if (result != null)
+         {
+            return result;
+         }
+         result = new LinkedHashSet<Object>();
+         ContentEntry entry = reader.getEntry(identifier);
+         if (entry != null && path.add(identifier))
+         {
+            for (String parent : entry.getParentIdentifiers())
+            {
+               result.add(parent);
+               result.addAll(getAncestors(parent, path));
+            }
+            path.remove(identifier);
+         }
+         ancestors.put(identifier, result);
+         return result;
+      }
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import org.apache.commons.lang.NotImplementedException;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.model.operand.DynamicOperand;
+import org.xcmis.search.model.operand.FullTextSearchScore;
+import org.xcmis.search.model.operand.PropertyValue;
+import org.xcmis.search.model.ordering.Order;
+import org.xcmis.search.model.ordering.Ordering;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.join.JoinMatcher.EntryReader;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sort rows produced by join. Rows of join contain nodes of few selectors, so
+ * they can't be sorted by index and sorted in memory by values read from
+ * content. Supported orderings are {@link PropertyValue} and
+ * {@link FullTextSearchScore}.
+ */
+public class RowSorter
+{
+   private final List<Ordering> orderings;
+
+   private final EntryReader reader;
+
+   /**
+    * @param orderings orderings
+    * @param reader content reader
+    */
+   public RowSorter(List<Ordering> orderings, EntryReader reader)
+   {
+      this.orderings = orderings;
+      this.reader = reader;
+      for (Ordering ordering : orderings)
+      {
+         DynamicOperand operand = ordering.getOperand();
+         if (!(operand instanceof PropertyValue || operand instanceof FullTextSearchScore))
+         {
+            throw new NotImplementedException("Ordering by " + operand + " is not supported for join.");
+         }
+      }
+   }
+
+   /**
+    * Sort rows. Sort is stable.
+    *
+    * @param rows rows to sort
+    * @throws QueryExecutionException if content can't be read
+    */
+   public void sort(List<ScoredRow> rows) throws QueryExecutionException
+   {
+      if (orderings.isEmpty() || rows.size() < 2)
+      {
+         return;
+      }
+      // Read sort values once for each row.
+      List<SortKey> keys = new ArrayList<SortKey>(rows.size());
+      for (ScoredRow row : rows)
+      {
+         Object[] values = new Object[orderings.size()];
+         for (int i = 0; i < values.length; i++)
+         {
+            values[i] = getValue(row, orderings.get(i).getOperand());
+         }
+         keys.add(new SortKey(row, values));
+      }
+      Collections.sort(keys, new Comparator<SortKey>()
+      {
+         public int compare(SortKey o1, SortKey o2)
+         {
+            for (int i = 0; i < o1.values.length; i++)
+            {
+               int c = JoinExecutor.compareValues(o1.values[i], o2.values[i]);
+               if (c != 0)
+               {
+                  return orderings.get(i).getOrder() == Order.DESCENDING ? -c : c;
+               }
+            }
+            return 0;
+         }
+      });
+      for (int i = 0; i < keys.size(); i++)
+      {
+         rows.set(i, keys.get(i).row);
+      }
+   }
+
+   private Object getValue(ScoredRow row, DynamicOperand operand) throws QueryExecutionException
+   {
+      if (operand instanceof FullTextSearchScore)
+      {
+         return row.getScore();
+      }
+      PropertyValue propertyValue = (PropertyValue)operand;
+      String identifier = row.getNodeIdentifer(propertyValue.getSelectorName().getName());
+      ContentEntry entry = identifier == null ? null : reader.getEntry(identifier);
+      if (entry == null)
+      {
+         return null;
+      }
+      List<Object> values = JoinMatcher.getValues(entry, propertyValue.getPropertyName());
+      return values.isEmpty() ? null : values.get(0);
+   }
+
+   private static final class SortKey
+   {
+      final ScoredRow row;
+
+      final Object[] values;
+
+      SortKey(ScoredRow row, Object[] values)
+      {
+         this.row = row;
+         this.values = values;
+      }
+   }
+}
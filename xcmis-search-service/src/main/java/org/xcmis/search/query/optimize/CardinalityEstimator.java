@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimize;
+
+import org.xcmis.search.Visitors;
+import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.NestedExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.SelectorExecutionPlan;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimate number of rows produced by parts of query plan with
+ * {@link IndexStatistics}. Estimations are cached for one query.
+ */
+final class CardinalityEstimator
+{
+   /**
+    * Returned for constraints which can't be estimated.
+    */
+   static final long UNKNOWN = Long.MAX_VALUE;
+
+   private final IndexStatistics statistics;
+
+   private final Map<String, Object> variables;
+
+   /**
+    * Table names by selector alias.
+    */
+   private final Map<SelectorName, SelectorName> tables = new HashMap<SelectorName, SelectorName>();
+
+   private final Map<SelectorName, Long> tableCardinalities = new HashMap<SelectorName, Long>();
+
+   private final Map<Constraint, Long> constraintCardinalities = new HashMap<Constraint, Long>();
+
+   /**
+    * @param statistics index statistics
+    * @param context query execution context
+    * @param plan plan of query
+    */
+   CardinalityEstimator(IndexStatistics statistics, QueryExecutionContext context, QueryExecutionPlan plan)
+   {
+      this.statistics = statistics;
+      this.variables = context.getVariables();
+      collectTables(plan);
+   }
+
+   /**
+    * Estimate number of rows which satisfy constraint.
+    * 
+    * @param constraint constraint
+    * @return estimated number of rows or {@link #UNKNOWN} if constraint refers
+    *         to few selectors
+    */
+   long estimate(Constraint constraint)
+   {
+      Long cardinality = constraintCardinalities.get(constraint);
+      if (cardinality == null)
+      {
+         cardinality = UNKNOWN;
+         Set<SelectorName> selectors = Visitors.getSelectorsReferencedBy(constraint);
+         if (selectors.size() == 1)
+         {
+            SelectorName table = tables.get(selectors.iterator().next());
+            if (table != null)
+            {
+               cardinality = statistics.estimateCardinality(table, constraint, variables);
+            }
+         }
+         constraintCardinalities.put(constraint, cardinality);
+      }
+      return cardinality;
+   }
+
+   /**
+    * Estimate number of rows produced by selector. Constraints are assumed to
+    * be independent.
+    * 
+    * @param selector selector plan
+    * @param constraints constraints which refer to this selector only
+    * @return estimated number of rows
+    */
+   long estimate(SelectorExecutionPlan selector, List<Constraint> constraints)
+   {
+      long cardinality = getTableCardinality(selector.getName());
+      double rows = cardinality;
+      for (Constraint constraint : constraints)
+      {
+         long estimated = estimate(constraint);
+         if (estimated != UNKNOWN && cardinality > 0)
+         {
+            rows = rows * Math.min(estimated, cardinality) / cardinality;
+         }
+      }
+      return (long)Math.ceil(rows);
+   }
+
+   private long getTableCardinality(SelectorName table)
+   {
+      Long cardinality = tableCardinalities.get(table);
+      if (cardinality == null)
+      {
+         cardinality = statistics.getTableCardinality(table);
+         tableCardinalities.put(table, cardinality);
+      }
+      return cardinality;
+   }
+
+   private void collectTables(QueryExecutionPlan plan)
+   {
+      if (plan instanceof SelectorExecutionPlan)
+      {
+         SelectorExecutionPlan selector = (SelectorExecutionPlan)plan;
+         tables.put(selector.getAlias() != null ? selector.getAlias() : selector.getName(), selector.getName());
+      }
+      else if (plan instanceof JoinExecutionPlan)
+      {
+         collectTables(((JoinExecutionPlan)plan).getLeftPlan());
+         collectTables(((JoinExecutionPlan)plan).getRightPlan());
+      }
+      else if (plan instanceof NestedExecutionPlan)
+      {
+         collectTables(((NestedExecutionPlan)plan).getChildPlan());
+      }
+   }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimize;
+
+import org.apache.commons.lang.Validate;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+
+import java.util.LinkedList;
+
+/**
+ * Optimizer which uses {@link IndexStatistics} to estimate cost of plan:
+ * chooses join algorithm and build side. Constraints of one selector are not
+ * reordered, they are executed as one Lucene conjunction which always advances
+ * by its sparsest clause whatever order of clauses is.
+ */
+public class CostBasedOptimizer extends CriteriaBasedOptimizer
+{
+   private final IndexStatistics statistics;
+
+   /**
+    * @param statistics statistics of index
+    */
+   public CostBasedOptimizer(IndexStatistics statistics)
+   {
+      Validate.notNull(statistics, "The statistics argument may not be null");
+      this.statistics = statistics;
+   }
+
+   /**
+    * @see org.xcmis.search.query.optimize.CriteriaBasedOptimizer#populateCriteriaStack(java.util.LinkedList, org.xcmis.search.query.plan.QueryExecutionPlan)
+    */
+   @Override
+   protected void populateCriteriaStack(LinkedList<OptimizerCriteria> criteriaStack, QueryExecutionPlan plan)
+   {
+      if (plan.findPlanByType(QueryExecutionPlan.Type.JOIN) != null)
+      {
+         criteriaStack.add(new JoinCostCriteria(statistics));
+      }
+   }
+}
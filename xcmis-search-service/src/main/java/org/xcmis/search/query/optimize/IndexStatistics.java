@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimize;
+
+import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.source.SelectorName;
+
+import java.util.Map;
+
+/**
+ * Statistics of index used by {@link CostBasedOptimizer}. Implementations
+ * should be cheap to call, optimizer asks statistics few times for each
+ * query.
+ */
+public interface IndexStatistics
+{
+   /**
+    * @return number of entries in index
+    */
+   long getEntriesCount();
+
+   /**
+    * Get number of entries in table, including entries of inherited tables.
+    * 
+    * @param tableName name of table
+    * @return number of entries
+    */
+   long getTableCardinality(SelectorName tableName);
+
+   /**
+    * Estimate number of entries of table which satisfy constraint.
+    * 
+    * @param tableName name of table
+    * @param constraint constraint which refers to given table only
+    * @param bindVariablesValues values of bind variables
+    * @return estimated number of entries, never greater then cardinality of
+    *         table
+    */
+   long estimateCardinality(SelectorName tableName, Constraint constraint, Map<String, Object> bindVariablesValues);
+}
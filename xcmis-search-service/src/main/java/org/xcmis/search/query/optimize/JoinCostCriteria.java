@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimize;
+
+import org.xcmis.search.Visitors;
+import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.join.JoinExecutor;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.NestedExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.SelectorExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.SourceExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.WhereExecutionPlan;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Choose join algorithm and build side of each join by estimated number of
+ * rows of its sources. Constraints are taken into account for the source
+ * they will be pushed down to on execution.
+ * <ul>
+ * <li>merge join chosen by planner is kept;</li>
+ * <li>nested loop is chosen if one of the sources is expected to be small,
+ * hash join otherwise;</li>
+ * <li>build side of inner join is the side with less rows, for outer join it
+ * is always the side which may be null.</li>
+ * </ul>
+ */
+public class JoinCostCriteria implements OptimizerCriteria
+{
+   private final IndexStatistics statistics;
+
+   /**
+    * @param statistics index statistics
+    */
+   public JoinCostCriteria(IndexStatistics statistics)
+   {
+      this.statistics = statistics;
+   }
+
+   /**
+    * @see org.xcmis.search.query.optimize.OptimizerCriteria#execute(org.xcmis.search.query.QueryExecutionContext, org.xcmis.search.query.plan.QueryExecutionPlan, java.util.LinkedList)
+    */
+   public QueryExecutionPlan execute(QueryExecutionContext context, QueryExecutionPlan plan,
+      LinkedList<OptimizerCriteria> criteriaStack)
+   {
+      List<Constraint> constraints = new ArrayList<Constraint>();
+      QueryExecutionPlan current = plan;
+      while (current instanceof NestedExecutionPlan)
+      {
+         if (current instanceof WhereExecutionPlan)
+         {
+            constraints.add(((WhereExecutionPlan)current).getConstraint());
+         }
+         current = ((NestedExecutionPlan)current).getChildPlan();
+      }
+      if (current instanceof JoinExecutionPlan)
+      {
+         estimate(new CardinalityEstimator(statistics, context, plan), (SourceExecutionPlan)current, constraints);
+      }
+      return plan;
+   }
+
+   private long estimate(CardinalityEstimator estimator, SourceExecutionPlan source, List<Constraint> constraints)
+   {
+      long rows;
+      if (source instanceof SelectorExecutionPlan)
+      {
+         List<Constraint> own = new ArrayList<Constraint>();
+         for (Constraint constraint : constraints)
+         {
+            if (source.getSelectors().containsAll(Visitors.getSelectorsReferencedBy(constraint)))
+            {
+               own.add(constraint);
+            }
+         }
+         rows = estimator.estimate((SelectorExecutionPlan)source, own);
+      }
+      else
+      {
+         JoinExecutionPlan join = (JoinExecutionPlan)source;
+         long left = estimate(estimator, join.getLeftPlan(), constraints);
+         long right = estimate(estimator, join.getRightPlan(), constraints);
+         if (join.getJoinAlgorithm() != JoinAlgorithm.MERGE)
+         {
+            join.setJoinAlgorithm(Math.min(left, right) <= JoinExecutor.NESTED_LOOP_THRESHOLD
+               ? JoinAlgorithm.NESTED_LOOP : JoinAlgorithm.HASH);
+         }
+         if (join.getJoinType() == JoinType.INNER)
+         {
+            join.setBuildLeft(left < right);
+            // Each row of one side usually matches few rows of other side.
+            rows = Math.min(Math.max(left, right), left * right);
+         }
+         else if (join.getJoinType() == JoinType.LEFT_OUTER)
+         {
+            join.setBuildLeft(false);
+            rows = left;
+         }
+         else
+         {
+            join.setBuildLeft(true);
+            rows = right;
+         }
+      }
+      source.setEstimatedCardinality(rows);
+      return rows;
+   }
+}
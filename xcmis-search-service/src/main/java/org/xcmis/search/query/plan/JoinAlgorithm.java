@@ -22,5 +22,5 @@ package org.xcmis.search.query.plan;
  * Implementation of join algorithm.
  */
 public enum JoinAlgorithm {
-   NESTED_LOOP, MERGE
+   NESTED_LOOP, MERGE, HASH
 }
@@ -217,6 +217,11 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
        */
       private SourceExecutionPlan rightPlan;
 
+      /**
+       * If <code>true</code> then left source is the build side of join.
+       */
+      private boolean buildLeft;
+
       /**
        * @param type
        */
@@ -242,6 +247,27 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
          return joinAlgorithm;
       }
 
+      /**
+       * Build side is the side which expected to produce less rows. It is
+       * executed first and its rows are kept in memory while rows of other side
+       * are matched with them.
+       * 
+       * @return <code>true</code> if left source is the build side of join
+       */
+      public boolean isBuildLeft()
+      {
+         return buildLeft;
+      }
+
+      /**
+       * @param buildLeft <code>true</code> if left source is the build side of
+       *           join
+       */
+      public void setBuildLeft(boolean buildLeft)
+      {
+         this.buildLeft = buildLeft;
+      }
+
       /**
        * @return the joinCondition
        */
@@ -321,6 +347,8 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
       protected void getRecursiveString(StringBuilder str, int indentLevel)
       {
          super.getRecursiveString(str, indentLevel);
+         str.append(getType().getSymbol() + "[" + joinType + "," + joinAlgorithm + ",build="
+            + (buildLeft ? "left" : "right") + ",rows=" + getEstimatedCardinality() + "]");
          str.append("Left:" + leftPlan.toString());
          str.append("Right:" + rightPlan.toString());
       }
@@ -467,6 +495,7 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
       public void setChildPlan(QueryExecutionPlan childPlan)
       {
          this.childPlan = childPlan;
+         this.next = childPlan;
       }
    }
 
@@ -673,6 +702,11 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
    public static abstract class SourceExecutionPlan extends QueryExecutionPlan
    {
 
+      /**
+       * Estimated number of rows produced by source or -1 if unknown.
+       */
+      private long estimatedCardinality = -1;
+
       /**
        * @param type
        */
@@ -681,6 +715,22 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
          super(type);
       }
 
+      /**
+       * @return estimated number of rows produced by source or -1 if unknown
+       */
+      public long getEstimatedCardinality()
+      {
+         return estimatedCardinality;
+      }
+
+      /**
+       * @param estimatedCardinality estimated number of rows produced by source
+       */
+      public void setEstimatedCardinality(long estimatedCardinality)
+      {
+         this.estimatedCardinality = estimatedCardinality;
+      }
+
    }
 
    /**
@@ -29,11 +29,14 @@ import org.xcmis.search.model.Query;
 import org.xcmis.search.model.column.Column;
 import org.xcmis.search.model.constraint.And;
 import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.operand.PropertyValue;
 import org.xcmis.search.model.ordering.Ordering;
 import org.xcmis.search.model.source.Join;
 import org.xcmis.search.model.source.Selector;
 import org.xcmis.search.model.source.SelectorName;
 import org.xcmis.search.model.source.Source;
+import org.xcmis.search.model.source.join.EquiJoinCondition;
+import org.xcmis.search.model.source.join.JoinType;
 import org.xcmis.search.query.QueryExecutionContext;
 import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.LimitExecutionPlan;
@@ -178,6 +181,9 @@ public class SimplePlaner implements QueryExecutionPlaner
             node.getRight().accept(this);
             joinPlan.setRightPlan((SourceExecutionPlan)stepsStack.pop());
 
+            joinPlan.addSelectors(joinPlan.getLeftPlan().getSelectors());
+            joinPlan.addSelectors(joinPlan.getRightPlan().getSelectors());
+            stepsStack.push(joinPlan);
          }
 
          /**
@@ -241,11 +247,40 @@ public class SimplePlaner implements QueryExecutionPlaner
          {
             sortExecutionPlan.addSelectors(Visitors.getSelectorsReferencedBy(ordering));
          }
+         QueryExecutionPlan joinPlan = executionPlan.findPlanByType(QueryExecutionPlan.Type.JOIN);
+         if (joinPlan != null)
+         {
+            chooseJoinAlgorithm((JoinExecutionPlan)joinPlan, orderings.get(0));
+         }
          return sortExecutionPlan;
       }
       return executionPlan;
    }
 
+   /**
+    * Use merge join if result ordered by one of columns of equi-join, then
+    * rows produced by join are already ordered.
+    *
+    * @param joinPlan the top join of the plan
+    * @param ordering the first ordering of query
+    */
+   protected void chooseJoinAlgorithm(JoinExecutionPlan joinPlan, Ordering ordering)
+   {
+      if (joinPlan.getJoinType() == JoinType.INNER && joinPlan.getJoinCondition() instanceof EquiJoinCondition
+         && ordering.getOperand() instanceof PropertyValue)
+      {
+         EquiJoinCondition condition = (EquiJoinCondition)joinPlan.getJoinCondition();
+         PropertyValue value = (PropertyValue)ordering.getOperand();
+         if ((value.getSelectorName().equals(condition.getSelector1Name()) && value.getPropertyName().equals(
+            condition.getProperty1Name()))
+            || (value.getSelectorName().equals(condition.getSelector2Name()) && value.getPropertyName().equals(
+               condition.getProperty2Name())))
+         {
+            joinPlan.setJoinAlgorithm(JoinAlgorithm.MERGE);
+         }
+      }
+   }
+
    /**
     * Attach a PROJECT node at the top of the plan tree.
     * 
@@ -18,7 +18,6 @@
  */
 package org.xcmis.search.result;
 
-import org.xcmis.search.SearchServiceException;
 import org.xcmis.spi.utils.Logger;
 
 import java.util.LinkedHashMap;
@@ -99,7 +98,7 @@ public class ScoredRow
       return result;
    }
 
-   public static ScoredRow merge(ScoredRow nodes1, ScoredRow nodes2, float newscore) throws SearchServiceException
+   public static ScoredRow merge(ScoredRow nodes1, ScoredRow nodes2, float newscore)
    {
       Map<String, String> newNodesMap = new LinkedHashMap<String, String>();
       String[] names1 = nodes1.getSelectorNames();
@@ -108,7 +107,7 @@ public class ScoredRow
          newNodesMap.put(names1[i], nodes1.getNodeIdentifer(names1[i]));
       }
       String[] names2 = nodes2.getSelectorNames();
-      for (int i = 0; i < names1.length; i++)
+      for (int i = 0; i < names2.length; i++)
       {
          newNodesMap.put(names2[i], nodes2.getNodeIdentifer(names2[i]));
       }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.result;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over rows of query result. Rows may be fetched lazily page by
+ * page, so result of any size may be iterated without loading it in memory.
+ * Iterator remembers its position and continues search from it when next
+ * page is required.
+ */
+public interface ScoredRowIterator extends Iterator<ScoredRow>
+{
+   /**
+    * @return total number of rows in result or -1 if it is unknown
+    */
+   int size();
+
+   /**
+    * @return number of rows already returned or skipped
+    */
+   int getPosition();
+
+   /**
+    * Skip specified number of rows. Skipped rows are not fetched if it is
+    * possible.
+    * 
+    * @param skip number of rows to skip
+    * @throws NoSuchElementException if there are less then <code>skip</code>
+    *            rows left, in this case iterator is moved to the end of result
+    * @throws RowFetchException if rows can't be fetched
+    */
+   void skip(int skip) throws NoSuchElementException;
+
+   /**
+    * {@inheritDoc}
+    * 
+    * @throws RowFetchException if next rows can't be fetched
+    */
+   boolean hasNext();
+
+   /**
+    * {@inheritDoc}
+    * 
+    * @throws RowFetchException if next rows can't be fetched
+    */
+   ScoredRow next();
+
+   /**
+    * Release resources held by iterator. Iterator is closed automatically
+    * when all rows are fetched or fetching failed, so it must be closed
+    * explicitly only if it is not read to the end. Rows which are already
+    * fetched may be read after closing.
+    */
+   void close();
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link ScoredRowIterator} over rows which are already in memory.
+ */
+public class ScoredRowListIterator implements ScoredRowIterator
+{
+   /**
+    * Max initial capacity of list created by {@link #toList(ScoredRowIterator)}.
+    */
+   private static final int INITIAL_CAPACITY = 1024;
+
+   private final List<ScoredRow> rows;
+
+   private int position;
+
+   /**
+    * @param rows rows
+    */
+   public ScoredRowListIterator(List<ScoredRow> rows)
+   {
+      this.rows = rows;
+   }
+
+   /**
+    * @return iterator without rows
+    */
+   public static ScoredRowIterator empty()
+   {
+      return new ScoredRowListIterator(Collections.<ScoredRow> emptyList());
+   }
+
+   /**
+    * Read all rows left in iterator and close it.
+    * 
+    * @param rows iterator
+    * @return rows which were not read from iterator yet
+    * @throws RowFetchException if rows can't be fetched
+    */
+   public static List<ScoredRow> toList(ScoredRowIterator rows)
+   {
+      try
+      {
+         int left = rows.size() - rows.getPosition();
+         List<ScoredRow> list = new ArrayList<ScoredRow>(Math.max(0, Math.min(left, INITIAL_CAPACITY)));
+         while (rows.hasNext())
+         {
+            list.add(rows.next());
+         }
+         return list;
+      }
+      finally
+      {
+         rows.close();
+      }
+   }
+
+   /**
+    * @see org.xcmis.search.result.ScoredRowIterator#size()
+    */
+   public int size()
+   {
+      return rows.size();
+   }
+
+   /**
+    * @see org.xcmis.search.result.ScoredRowIterator#getPosition()
+    */
+   public int getPosition()
+   {
+      return position;
+   }
+
+   /**
+    * @see org.xcmis.search.result.ScoredRowIterator#skip(int)
+    */
+   public void skip(int skip) throws NoSuchElementException
+   {
+      if (skip > 0)
+      {
+         if ((long)position + skip > rows.size())
+         {
+            position = rows.size();
+            throw new NoSuchElementException();
+         }
+         position += skip;
+      }
+   }
+
+   /**
+    * @see java.util.Iterator#hasNext()
+    */
+   public boolean hasNext()
+   {
+      return position < rows.size();
+   }
+
+   /**
+    * @see java.util.Iterator#next()
+    */
+   public ScoredRow next()
+   {
+      if (position >= rows.size())
+      {
+         throw new NoSuchElementException();
+      }
+      return rows.get(position++);
+   }
+
+   /**
+    * @see java.util.Iterator#remove()
+    */
+   public void remove()
+   {
+      throw new UnsupportedOperationException("remove");
+   }
+
+   /**
+    * @see org.xcmis.search.result.ScoredRowIterator#close()
+    */
+   public void close()
+   {
+      // Nothing to release.
+   }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.config.IndexConfiguration;
+import org.xcmis.search.lucene.index.merge.DocumentCountAggregatePolicy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test for shared snapshots of index readers.
+ *
+ */
+public class CacheableIndexDataManagerTest
+{
+   private File dir;
+
+   private LuceneIndexingService indexingService;
+
+   private boolean started;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      dir = new File(System.getProperty("java.io.tmpdir"), "index-" + UUID.randomUUID());
+      indexingService =
+         new LuceneIndexingService(new IndexConfiguration(dir.getAbsolutePath(), "rootParentUuid", "rootUuid"), null);
+      indexingService.start();
+      started = true;
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (started)
+      {
+         indexingService.stop();
+      }
+      FileUtils.deleteDirectory(dir);
+   }
+
+   @Test
+   public void testShouldShareSnapshotUntilIndexIsChanged() throws Exception
+   {
+      indexingService.save(createTransaction("a"));
+      IndexReader first = indexingService.getIndexReader();
+      IndexReader second = indexingService.getIndexReader();
+      assertThat(second, sameInstance(first));
+      indexingService.releaseIndexReader(second);
+      indexingService.releaseIndexReader(first);
+      // manager still holds snapshot
+      assertThat(first.getRefCount() > 0, is(true));
+
+      indexingService.save(createTransaction("b"));
+      // replaced snapshot is closed once it is not used
+      assertThat(first.getRefCount(), is(0));
+      IndexReader reader = indexingService.getIndexReader();
+      assertThat(reader, not(sameInstance(first)));
+      assertThat(reader.numDocs(), is(2));
+      indexingService.releaseIndexReader(reader);
+   }
+
+   @Test
+   public void testShouldKeepHeldSnapshotAfterSave() throws Exception
+   {
+      indexingService.save(createTransaction("a"));
+      IndexReader held = indexingService.getIndexReader();
+
+      indexingService.save(createTransaction("b"));
+      // big transaction is saved directly to persisted index
+      indexingService.save(createTransaction(DocumentCountAggregatePolicy.DEFAULT_MAX_DOCUMENTS_4_DIR));
+
+      assertThat(held.numDocs(), is(1));
+      assertThat(count(held, "a"), is(1));
+      assertThat(count(held, "b"), is(0));
+      IndexReader reader = indexingService.getIndexReader();
+      assertThat(reader.numDocs(), is(2 + DocumentCountAggregatePolicy.DEFAULT_MAX_DOCUMENTS_4_DIR));
+      assertThat(count(reader, "b"), is(1));
+      indexingService.releaseIndexReader(reader);
+
+      indexingService.releaseIndexReader(held);
+      assertThat(held.getRefCount(), is(0));
+   }
+
+   @Test
+   public void testShouldKeepSubReadersOfDisposedChains() throws Exception
+   {
+      indexingService.save(createTransaction("a"));
+      indexingService.save(createTransaction("b"));
+      IndexReader held = indexingService.getIndexReader();
+      IndexReader[] subReaders = held.getSequentialSubReaders();
+
+      // memory chains are moved to persisted index and disposed
+      indexingService.stop();
+      started = false;
+
+      assertThat(count(held, "a"), is(1));
+      assertThat(count(held, "b"), is(1));
+      for (IndexReader subReader : subReaders)
+      {
+         assertThat(subReader.getRefCount() > 0, is(true));
+      }
+
+      // sub readers are released exactly once, when held snapshot is released
+      indexingService.releaseIndexReader(held);
+      assertThat(held.getRefCount(), is(0));
+      for (IndexReader subReader : subReaders)
+      {
+         assertThat(subReader.getRefCount(), is(0));
+      }
+   }
+
+   @Test
+   public void testShouldCloseEmptyReaderWithSnapshot() throws Exception
+   {
+      IndexReader empty = indexingService.getIndexReader();
+      assertThat(empty.numDocs(), is(0));
+      IndexReader[] subReaders = empty.getSequentialSubReaders();
+      assertThat(subReaders.length, is(1));
+      indexingService.releaseIndexReader(empty);
+      assertThat(subReaders[0].getRefCount(), is(1));
+
+      indexingService.save(createTransaction("a"));
+      assertThat(empty.getRefCount(), is(0));
+      assertThat(subReaders[0].getRefCount(), is(0));
+   }
+
+   @Test
+   public void testShouldQueryWhileIndexIsChanged() throws Exception
+   {
+      final AtomicBoolean done = new AtomicBoolean();
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      List<Thread> queries = new ArrayList<Thread>();
+      for (int i = 0; i < 4; i++)
+      {
+         Thread query = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  while (!done.get())
+                  {
+                     IndexReader reader = indexingService.getIndexReader();
+                     try
+                     {
+                        IndexSearcher searcher = new IndexSearcher(reader);
+                        searcher.search(new MatchAllDocsQuery(), 10);
+                        searcher.close();
+                     }
+                     finally
+                     {
+                        indexingService.releaseIndexReader(reader);
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.compareAndSet(null, e);
+               }
+            }
+         };
+         query.start();
+         queries.add(query);
+      }
+      try
+      {
+         for (int i = 0; i < 100; i++)
+         {
+            indexingService.save(createTransaction("doc" + i));
+         }
+         indexingService.save(createTransaction(DocumentCountAggregatePolicy.DEFAULT_MAX_DOCUMENTS_4_DIR));
+      }
+      finally
+      {
+         done.set(true);
+         for (Thread query : queries)
+         {
+            query.join();
+         }
+      }
+      if (error.get() != null)
+      {
+         throw new AssertionError(error.get());
+      }
+      long count = 100 + DocumentCountAggregatePolicy.DEFAULT_MAX_DOCUMENTS_4_DIR;
+      assertThat(indexingService.getDocumentCount(), is(count));
+   }
+
+   private static int count(IndexReader reader, String uuid) throws Exception
+   {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      try
+      {
+         return searcher.search(new TermQuery(new Term(FieldNames.UUID, uuid)), 10).totalHits;
+      }
+      finally
+      {
+         searcher.close();
+      }
+   }
+
+   private static IndexTransaction<Document> createTransaction(String... uuids)
+   {
+      Map<String, Document> added = new HashMap<String, Document>();
+      for (String uuid : uuids)
+      {
+         added.put(uuid, createDocument(uuid));
+      }
+      return new LuceneIndexTransaction(added, Collections.<String> emptySet());
+   }
+
+   private static IndexTransaction<Document> createTransaction(int count)
+   {
+      Map<String, Document> added = new HashMap<String, Document>();
+      for (int i = 0; i < count; i++)
+      {
+         String uuid = UUID.randomUUID().toString();
+         added.put(uuid, createDocument(uuid));
+      }
+      return new LuceneIndexTransaction(added, Collections.<String> emptySet());
+   }
+
+   private static Document createDocument(String uuid)
+   {
+      Document document = new Document();
+      document.add(new Field(FieldNames.UUID, uuid, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+      return document;
+   }
+}
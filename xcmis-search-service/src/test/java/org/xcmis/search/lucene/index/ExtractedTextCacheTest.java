@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Test for cache of extracted text.
+ * 
+ */
+public class ExtractedTextCacheTest
+{
+   @Test
+   public void testShouldDistinguishMimeTypeAndEncoding()
+   {
+      ExtractedTextCache cache = new ExtractedTextCache(100);
+      cache.put(ExtractedTextCache.createKey("digest", "text/plain", null), "plain");
+      cache.put(ExtractedTextCache.createKey("digest", "text/html", "UTF-8"), "html");
+
+      assertThat(cache.get(ExtractedTextCache.createKey("digest", "text/plain", null)), is("plain"));
+      assertThat(cache.get(ExtractedTextCache.createKey("digest", "text/html", "UTF-8")), is("html"));
+      assertThat(cache.get(ExtractedTextCache.createKey("digest", "text/html", null)), nullValue());
+   }
+
+   @Test
+   public void testShouldEvictLeastRecentlyUsedText()
+   {
+      ExtractedTextCache cache = new ExtractedTextCache(10);
+      cache.put("a", "aaaa");
+      cache.put("b", "bbbb");
+      // "a" becomes most recently used
+      assertThat(cache.get("a"), is("aaaa"));
+      cache.put("c", "cccc");
+
+      assertThat(cache.get("a"), is("aaaa"));
+      assertThat(cache.get("b"), nullValue());
+      assertThat(cache.get("c"), is("cccc"));
+   }
+
+   @Test
+   public void testShouldNotCacheTextLongerThanLimit()
+   {
+      ExtractedTextCache cache = new ExtractedTextCache(3);
+      cache.put("a", "aaaa");
+      assertThat(cache.get("a"), nullValue());
+   }
+}
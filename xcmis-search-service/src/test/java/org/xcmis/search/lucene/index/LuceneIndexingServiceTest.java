@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.config.IndexConfiguration;
+import org.xcmis.search.lucene.index.merge.DocumentCountAggregatePolicy;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Test for cleaning of persisted index before it is restored.
+ *
+ */
+public class LuceneIndexingServiceTest
+{
+   private File dir;
+
+   private LuceneIndexingService indexingService;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      dir = new File(System.getProperty("java.io.tmpdir"), "index-" + UUID.randomUUID());
+      indexingService =
+         new LuceneIndexingService(new IndexConfiguration(dir.getAbsolutePath(), "rootParentUuid", "rootUuid"), null);
+      indexingService.start();
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      indexingService.stop();
+      FileUtils.deleteDirectory(dir);
+   }
+
+   @Test
+   public void testShouldCleanIndexWithSharedWriter() throws Exception
+   {
+      int count = DocumentCountAggregatePolicy.DEFAULT_MAX_DOCUMENTS_4_DIR;
+      // big transaction is saved directly to persisted index
+      indexingService.save(createTransaction(count));
+      assertThat(indexingService.getDocumentCount(), is((long)count));
+      IndexWriter writer = indexingService.getIndexWriter();
+
+      indexingService.softCleanIndex();
+
+      assertThat(indexingService.getDocumentCount(), is(0L));
+      assertThat(committedDocuments(), is(0));
+      // writer is not closed, modifications continue with it
+      assertThat(indexingService.getIndexWriter(), sameInstance(writer));
+      indexingService.save(createTransaction(count));
+      assertThat(indexingService.getDocumentCount(), is((long)count));
+      assertThat(committedDocuments(), is(count));
+   }
+
+   private int committedDocuments() throws Exception
+   {
+      IndexReader reader = IndexReader.open(indexingService.getDirectory());
+      try
+      {
+         return reader.numDocs();
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   private static IndexTransaction<Document> createTransaction(int count)
+   {
+      Map<String, Document> added = new HashMap<String, Document>();
+      for (int i = 0; i < count; i++)
+      {
+         String uuid = UUID.randomUUID().toString();
+         Document document = new Document();
+         document.add(new Field(FieldNames.UUID, uuid, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+         added.put(uuid, document);
+      }
+      return new LuceneIndexTransaction(added, Collections.<String> emptySet());
+   }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test for segmented journal of index transactions.
+ *
+ */
+public class TransactionLogJournalTest
+{
+   private File dir;
+
+   @Before
+   public void setUp()
+   {
+      dir = new File(System.getProperty("java.io.tmpdir"), "tlog-" + UUID.randomUUID());
+      dir.mkdirs();
+   }
+
+   @After
+   public void tearDown()
+   {
+      for (File file : dir.listFiles())
+      {
+         file.delete();
+      }
+      dir.delete();
+   }
+
+   @Test
+   public void testShouldReplayNotRemovedTransactions() throws Exception
+   {
+      FSIndexTransactionService service = new FSIndexTransactionService(dir, new ReadWriteDirectoryFactory(), 1024);
+      TransactionLog first = service.createTransactionLog(set("a", "b"), set("c"));
+      TransactionLog second = service.createTransactionLog(set("d"), Collections.<String> emptySet());
+      first.log();
+      second.log();
+      second.removeLog();
+      service.close();
+
+      service = new FSIndexTransactionService(dir, new ReadWriteDirectoryFactory(), 1024);
+      assertThat(service.hasUncommitedTransactions(), is(true));
+      List<TransactionLog> logs = service.getTransactionLogs();
+      assertThat(logs.size(), is(1));
+      assertThat(logs.get(0).getAddedList(), is(set("a", "b")));
+      assertThat(logs.get(0).getRemovedList(), is(set("c")));
+
+      logs.get(0).removeLog();
+      service.close();
+      assertThat(dir.listFiles().length, is(0));
+   }
+
+   @Test
+   public void testShouldIgnoreTornRecord() throws Exception
+   {
+      TransactionLogJournal journal = new TransactionLogJournal(dir, 1024);
+      journal.append(set("a"), Collections.<String> emptySet());
+      journal.append(set("b"), Collections.<String> emptySet());
+      journal.close();
+
+      // Damage body of last record.
+      File segment = dir.listFiles()[0];
+      RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+      try
+      {
+         raf.seek(40);
+         raf.write(0xFF);
+      }
+      finally
+      {
+         raf.close();
+      }
+
+      journal = new TransactionLogJournal(dir, 1024);
+      List<TransactionLog> logs = journal.getReplayedLogs();
+      assertThat(logs.size(), is(1));
+      assertThat(logs.get(0).getAddedList(), is(set("a")));
+      journal.close();
+   }
+
+   @Test
+   public void testShouldDeleteSegmentsOfRemovedTransactions() throws Exception
+   {
+      final TransactionLogJournal journal = new TransactionLogJournal(dir, 64);
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try
+      {
+         Callable<Long> append = new Callable<Long>()
+         {
+            public Long call() throws Exception
+            {
+               return journal.append(set(UUID.randomUUID().toString()), Collections.<String> emptySet());
+            }
+         };
+         List<Future<Long>> results = executor.invokeAll(Collections.nCopies(20, append));
+         assertThat(dir.listFiles().length > 1, is(true));
+         for (Future<Long> result : results)
+         {
+            journal.remove(result.get());
+         }
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+      assertThat(dir.listFiles().length, is(1));
+      journal.close();
+      assertThat(dir.listFiles().length, is(0));
+   }
+
+   @Test
+   public void testShouldReopenSegmentAfterInterrupt() throws Exception
+   {
+      TransactionLogJournal journal = new TransactionLogJournal(dir, 1024);
+      journal.append(set("a"), Collections.<String> emptySet());
+      Thread.currentThread().interrupt();
+      try
+      {
+         journal.append(set("b"), Collections.<String> emptySet());
+         fail("Interrupted append must fail.");
+      }
+      catch (TransactionLogException e)
+      {
+         // expected
+      }
+      finally
+      {
+         Thread.interrupted();
+      }
+      journal.append(set("c"), Collections.<String> emptySet());
+      journal.close();
+
+      journal = new TransactionLogJournal(dir, 1024);
+      List<TransactionLog> logs = journal.getReplayedLogs();
+      assertThat(logs.size(), is(2));
+      assertThat(logs.get(0).getAddedList(), is(set("a")));
+      assertThat(logs.get(1).getAddedList(), is(set("c")));
+      journal.close();
+   }
+
+   private static Set<String> set(String... values)
+   {
+      return new HashSet<String>(Arrays.asList(values));
+   }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index.merge;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+import org.xcmis.search.lucene.index.FieldNames;
+import org.xcmis.search.lucene.index.LuceneIndexTransaction;
+import org.xcmis.search.lucene.index.PersistedIndex;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for background merges of persisted index.
+ *
+ */
+public class BackgroundMergeSchedulerTest
+{
+   private static final int DOCUMENT_SIZE = 64 * 1024;
+
+   @Test
+   public void testShouldCountMerges()
+   {
+      MergeStatistics statistics = new MergeStatistics();
+      statistics.mergeStarted();
+      statistics.mergeStarted();
+      assertThat(statistics.getRunningMerges(), is(2));
+
+      statistics.mergeFinished(true, 10, 5);
+      statistics.mergeFinished(false, 7, 3);
+      statistics.bytesWritten(100);
+      statistics.throttled(4);
+
+      assertThat(statistics.getRunningMerges(), is(0));
+      assertThat(statistics.getCompletedMerges(), is(1L));
+      assertThat(statistics.getFailedMerges(), is(1L));
+      assertThat(statistics.getMergedDocuments(), is(10L));
+      assertThat(statistics.getMergeTime(), is(8L));
+      assertThat(statistics.getWrittenBytes(), is(100L));
+      assertThat(statistics.getThrottleTime(), is(4L));
+   }
+
+   @Test
+   public void testShouldLimitConcurrentMerges()
+   {
+      BackgroundMergeScheduler scheduler = new BackgroundMergeScheduler(2, 0, new MergeStatistics());
+      assertThat(scheduler.getMaxThreadCount(), is(2));
+      assertThat(scheduler.getMaxMergeCount(), is(4));
+      try
+      {
+         new BackgroundMergeScheduler(0, 0, new MergeStatistics());
+         fail("Number of concurrent merges must be positive.");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testShouldThrottleOnlyMerges() throws Exception
+   {
+      MergeStatistics statistics = new MergeStatistics();
+      // 256 KB per second
+      BackgroundMergeScheduler scheduler = new BackgroundMergeScheduler(1, 0.25, statistics);
+      IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, new StandardAnalyzer(Version.LUCENE_35));
+      config.setMergeScheduler(scheduler);
+      IndexWriter writer = new IndexWriter(scheduler.throttle(new RAMDirectory()), config);
+      try
+      {
+         for (int i = 0; i < 4; i++)
+         {
+            writer.addDocument(createDocument(DOCUMENT_SIZE));
+            writer.commit();
+         }
+         // flushed segments are not throttled
+         assertThat(statistics.getWrittenBytes(), is(0L));
+         assertThat(statistics.getThrottleTime(), is(0L));
+
+         long start = System.currentTimeMillis();
+         writer.forceMerge(1);
+         long time = System.currentTimeMillis() - start;
+
+         assertThat(statistics.getCompletedMerges(), is(1L));
+         assertThat(statistics.getMergedDocuments(), is(4L));
+         long written = statistics.getWrittenBytes();
+         assertThat(written >= 4 * DOCUMENT_SIZE, is(true));
+         assertThat(statistics.getThrottleTime() > 0, is(true));
+         // half of time required by rate limit, to tolerate timer precision
+         assertThat(time >= written * 1000 / (256 * 1024) / 2, is(true));
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   @Test
+   public void testShouldCommitBackgroundMerges() throws Exception
+   {
+      MergeStatistics statistics = new MergeStatistics();
+      Directory directory = new RAMDirectory();
+      PersistedIndex index = new PersistedIndex(directory, new BackgroundMergeScheduler(1, 0, statistics));
+      int count = 12;
+      try
+      {
+         // one segment per transaction, enough segments to be merged
+         for (int i = 0; i < count; i++)
+         {
+            Document document = createDocument(10);
+            index.save(new LuceneIndexTransaction(Collections.singletonMap(document.get(FieldNames.UUID), document),
+               Collections.<String> emptySet()));
+         }
+
+         // merged segments are committed without further modifications
+         long timeout = System.currentTimeMillis() + 10000;
+         int segments = count;
+         while (segments >= count && System.currentTimeMillis() < timeout)
+         {
+            Thread.sleep(50);
+            IndexReader reader = IndexReader.open(directory);
+            try
+            {
+               assertThat(reader.numDocs(), is(count));
+               segments = reader.getSequentialSubReaders().length;
+            }
+            finally
+            {
+               reader.close();
+            }
+         }
+         assertThat(statistics.getCompletedMerges() > 0, is(true));
+         assertThat(segments < count, is(true));
+      }
+      finally
+      {
+         index.stop();
+      }
+   }
+
+   @Test
+   public void testShouldShareLimitOfConcurrentMerges() throws Exception
+   {
+      MergeStatistics statistics = new MergeStatistics();
+      MergeLimiter limiter = new MergeLimiter(1, 0, statistics);
+      IndexWriter first = createWriter(new BackgroundMergeScheduler(limiter));
+      IndexWriter second = createWriter(new BackgroundMergeScheduler(limiter));
+      // merge of other index is running
+      assertThat(limiter.tryAcquire(0, TimeUnit.MILLISECONDS), is(true));
+      try
+      {
+         // enough segments to be merged
+         for (int i = 0; i < 12; i++)
+         {
+            first.addDocument(createDocument(10));
+            first.commit();
+            second.addDocument(createDocument(10));
+            second.commit();
+         }
+         Thread.sleep(500);
+         assertThat(statistics.getRunningMerges(), is(0));
+         assertThat(statistics.getCompletedMerges(), is(0L));
+
+         limiter.release();
+         first.waitForMerges();
+         second.waitForMerges();
+         assertThat(statistics.getCompletedMerges() >= 2, is(true));
+         assertThat(limiter.tryAcquire(0, TimeUnit.MILLISECONDS), is(true));
+         limiter.release();
+      }
+      finally
+      {
+         first.close();
+         second.close();
+      }
+   }
+
+   @Test
+   public void testShouldCloseReplacedReader() throws Exception
+   {
+      PersistedIndex index =
+         new PersistedIndex(new RAMDirectory(), new BackgroundMergeScheduler(1, 0, new MergeStatistics()));
+      try
+      {
+         save(index, createDocument(10));
+         IndexReader first = index.getIndexReader();
+         // reference of snapshot
+         first.incRef();
+         save(index, createDocument(10));
+         IndexReader second = index.getIndexReader();
+         assertThat(second == first, is(false));
+         assertThat(second.numDocs(), is(2));
+         assertThat(first.getRefCount(), is(1));
+         assertThat(first.numDocs(), is(1));
+
+         first.decRef();
+         assertThat(first.getRefCount(), is(0));
+         assertThat(index.getIndexReader() == second, is(true));
+      }
+      finally
+      {
+         index.stop();
+      }
+   }
+
+   private static IndexWriter createWriter(BackgroundMergeScheduler scheduler) throws Exception
+   {
+      IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, new StandardAnalyzer(Version.LUCENE_35));
+      config.setMergePolicy(new TieredMergePolicy());
+      config.setMergeScheduler(scheduler);
+      return new IndexWriter(scheduler.throttle(new RAMDirectory()), config);
+   }
+
+   private static void save(PersistedIndex index, Document document) throws Exception
+   {
+      index.save(new LuceneIndexTransaction(Collections.singletonMap(document.get(FieldNames.UUID), document),
+         Collections.<String> emptySet()));
+   }
+
+   private static Document createDocument(int size)
+   {
+      char[] content = new char[size];
+      Arrays.fill(content, 'a');
+      Document document = new Document();
+      document.add(new Field(FieldNames.UUID, UUID.randomUUID().toString(), Field.Store.YES,
+         Field.Index.NOT_ANALYZED_NO_NORMS));
+      document.add(new Field("content", new String(content), Field.Store.YES, Field.Index.NO));
+      return document;
+   }
+}
@@ -41,10 +41,17 @@ import org.xcmis.search.content.Property;
 import org.xcmis.search.content.Schema;
 import org.xcmis.search.content.InMemorySchema.Builder;
 import org.xcmis.search.content.Property.BinaryValue;
+import org.xcmis.search.content.Property.SimpleValue;
+import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.search.content.command.read.GetChildEntriesCommand;
+import org.xcmis.search.content.command.read.GetContentEntryCommand;
+import org.xcmis.search.content.command.read.GetUnfiledEntriesCommand;
 import org.xcmis.search.content.interceptors.ContentReaderInterceptor;
 import org.xcmis.search.lucene.content.SchemaTableResolver;
+import org.xcmis.search.lucene.index.LuceneIndexer;
 import org.xcmis.search.model.Query;
 import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.result.ScoredRowIterator;
 import org.xcmis.search.value.CastSystem;
 import org.xcmis.search.value.NameConverter;
 import org.xcmis.search.value.PropertyType;
@@ -54,9 +61,15 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -217,4 +230,558 @@ public class SearchServiceTest
       List<ScoredRow> result = luceneSearchService.execute(query);
       assertThat(result.size(), is(1));
    }
+
+   @Test
+   public void testShouldSeeUncommittedChanges() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, schema);
+
+      //index configuration, changes never committed by size or time
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+      indexConfuration.setCommitBatchSize(Integer.MAX_VALUE);
+      indexConfuration.setCommitInterval(Long.MAX_VALUE);
+
+      //search service configuration
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(schema, tableResolver, mock(ContentReaderInterceptor.class), indexConfuration);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      List<String> ids = new ArrayList<String>();
+      for (int i = 0; i < 5; i++)
+      {
+         String id = UUID.randomUUID().toString();
+         ids.add(id);
+         List<ContentEntry> entys = new ArrayList<ContentEntry>();
+         entys.add(new ContentEntry("doc" + i, new String[]{"someTable"}, id, new String[]{UUID.randomUUID()
+            .toString()}, new Property[0]));
+         luceneSearchService.update(entys, new HashSet<String>());
+         assertThat(luceneSearchService.execute(query).size(), is(i + 1));
+      }
+
+      luceneSearchService.update(new ArrayList<ContentEntry>(), new HashSet<String>(ids.subList(0, 2)));
+      assertThat(luceneSearchService.execute(query).size(), is(3));
+      luceneSearchService.stop();
+   }
+
+   @Test
+   public void testShouldIterateResultPageByPage() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, schema);
+
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(schema, tableResolver, mock(ContentReaderInterceptor.class), indexConfuration);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      // More then few pages of result.
+      int count = 1000;
+      List<ContentEntry> entys = new ArrayList<ContentEntry>();
+      for (int i = 0; i < count; i++)
+      {
+         entys.add(new ContentEntry("doc" + i, new String[]{"someTable"}, UUID.randomUUID().toString(),
+            new String[]{UUID.randomUUID().toString()}, new Property[0]));
+      }
+      luceneSearchService.update(entys, new HashSet<String>());
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      ScoredRowIterator rows = luceneSearchService.iterate(query);
+      assertThat(rows.size(), is(count));
+      Set<String> ids = new HashSet<String>();
+      while (rows.hasNext())
+      {
+         ids.add(rows.next().getNodeIdentifer("someTable"));
+      }
+      assertThat(ids.size(), is(count));
+
+      rows = luceneSearchService.iterate(query);
+      rows.skip(count - 10);
+      assertThat(rows.getPosition(), is(count - 10));
+      int left = 0;
+      while (rows.hasNext())
+      {
+         assertThat(ids.contains(rows.next().getNodeIdentifer("someTable")), is(true));
+         left++;
+      }
+      assertThat(left, is(10));
+      luceneSearchService.stop();
+   }
+
+   @Test
+   public void testShouldIterateSnapshotOfIndex() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, schema);
+
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(schema, tableResolver, mock(ContentReaderInterceptor.class), indexConfuration);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      int count = 300;
+      List<String> ids = new ArrayList<String>();
+      List<ContentEntry> entys = new ArrayList<ContentEntry>();
+      for (int i = 0; i < count; i++)
+      {
+         String id = UUID.randomUUID().toString();
+         ids.add(id);
+         entys.add(new ContentEntry("doc" + i, new String[]{"someTable"}, id, new String[]{UUID.randomUUID()
+            .toString()}, new Property[0]));
+      }
+      luceneSearchService.update(entys, new HashSet<String>());
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      ScoredRowIterator rows = luceneSearchService.iterate(query);
+      Set<String> read = new HashSet<String>();
+      for (int i = 0; i < 100; i++)
+      {
+         read.add(rows.next().getNodeIdentifer("someTable"));
+      }
+
+      // Change index while result is read, next pages must not see changes.
+      List<ContentEntry> added = new ArrayList<ContentEntry>();
+      for (int i = 0; i < 50; i++)
+      {
+         added.add(new ContentEntry("new" + i, new String[]{"someTable"}, UUID.randomUUID().toString(),
+            new String[]{UUID.randomUUID().toString()}, new Property[0]));
+      }
+      luceneSearchService.update(added, new HashSet<String>(ids.subList(0, 150)));
+
+      int left = 0;
+      while (rows.hasNext())
+      {
+         read.add(rows.next().getNodeIdentifer("someTable"));
+         left++;
+      }
+      assertThat(left, is(count - 100));
+      Set<String> expected = new HashSet<String>(ids);
+      assertThat(read, is(expected));
+      assertThat(luceneSearchService.execute(query).size(), is(count - 150 + 50));
+      luceneSearchService.stop();
+   }
+
+   @Test
+   public void testShouldIterateInDocumentOrder() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, schema);
+
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(schema, tableResolver, mock(ContentReaderInterceptor.class), indexConfuration);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      // more rows than the largest page
+      int count = 33 * 1024;
+      String[] ids = new String[count];
+      List<ContentEntry> entys = new ArrayList<ContentEntry>();
+      String parent = UUID.randomUUID().toString();
+      for (int i = 0; i < count; i++)
+      {
+         // keys are not in order of indexing
+         int position = (int)((i * 7919L) % count);
+         String id = UUID.randomUUID().toString();
+         ids[position] = id;
+         entys.add(new ContentEntry("doc" + i, new String[]{"someTable"}, id, new String[]{parent}, null, null,
+            String.format("/folder/doc%06d", position), new Property[0]));
+      }
+      // entry without key goes first
+      String first = UUID.randomUUID().toString();
+      entys.add(new ContentEntry("unordered", new String[]{"someTable"}, first, new String[]{parent},
+         new Property[0]));
+      luceneSearchService.update(entys, new HashSet<String>());
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      InvocationContext ctx = luceneSearchService.getDefaultInvocationContext().withDocumentOrder();
+      ScoredRowIterator rows = luceneSearchService.iterate(query, Collections.<String, Object> emptyMap(), ctx);
+      assertThat(rows.next().getNodeIdentifer("someTable"), is(first));
+      for (int i = 0; i < count; i++)
+      {
+         assertThat(rows.next().getNodeIdentifer("someTable"), is(ids[i]));
+      }
+      assertThat(rows.hasNext(), is(false));
+      luceneSearchService.stop();
+   }
+
+   @Test(expected = NoSuchElementException.class)
+   public void testShouldNotSkipMoreRowsThenResultHas() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, schema);
+
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(schema, tableResolver, mock(ContentReaderInterceptor.class), indexConfuration);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      List<ContentEntry> entys = new ArrayList<ContentEntry>();
+      entys.add(new ContentEntry("doc", new String[]{"someTable"}, UUID.randomUUID().toString(),
+         new String[]{UUID.randomUUID().toString()}, new Property[0]));
+      luceneSearchService.update(entys, new HashSet<String>());
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      luceneSearchService.iterate(query).skip(2);
+   }
+
+   @Test
+   public void testShouldCompareAndSortNumericProperties() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      Schema numericSchema =
+         InMemorySchema.createBuilder().addTable("numericTable", new String[]{"longColumn", "doubleColumn"},
+            new PropertyType[]{PropertyType.LONG, PropertyType.DOUBLE}).build();
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, numericSchema);
+
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(numericSchema, tableResolver, mock(ContentReaderInterceptor.class),
+            indexConfuration);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      // Order of string representation differs from numeric order.
+      long[] longs = new long[]{-20, 3, 100, 7, 1000};
+      double[] doubles = new double[]{2.5, -1.25, 10.0, 0.5, 3.75};
+      String[] ids = new String[longs.length];
+      List<ContentEntry> entys = new ArrayList<ContentEntry>();
+      for (int i = 0; i < longs.length; i++)
+      {
+         ids[i] = UUID.randomUUID().toString();
+         Property[] props =
+            new Property[]{new Property<Long>(PropertyType.LONG, "longColumn", new SimpleValue<Long>(longs[i])),
+               new Property<Double>(PropertyType.DOUBLE, "doubleColumn", new SimpleValue<Double>(doubles[i]))};
+         entys.add(new ContentEntry("doc" + i, new String[]{"numericTable"}, ids[i], new String[]{UUID.randomUUID()
+            .toString()}, props));
+      }
+      luceneSearchService.update(entys, new HashSet<String>());
+
+      Query query =
+         builder.selectStar().from("numericTable AS numericTable").where().propertyValue("numericTable",
+            "longColumn").isGreaterThan(5L).end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "numericTable"), is(asSet(ids[2], ids[3], ids[4])));
+
+      // Fractional value compared with integer property.
+      query =
+         builder.selectStar().from("numericTable AS numericTable").where().propertyValue("numericTable",
+            "longColumn").isGreaterThan(6.5).end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "numericTable"), is(asSet(ids[2], ids[3], ids[4])));
+
+      query =
+         builder.selectStar().from("numericTable AS numericTable").where().propertyValue("numericTable",
+            "doubleColumn").isLessThanOrEqualTo(2.5).end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "numericTable"), is(asSet(ids[0], ids[1], ids[3])));
+
+      query =
+         builder.selectStar().from("numericTable AS numericTable").orderBy().ascending().propertyValue(
+            "numericTable", "longColumn").end().query();
+      assertThat(getOrderedIdentifiers(luceneSearchService.execute(query), "numericTable"), is(Arrays.asList(ids[0],
+         ids[1], ids[3], ids[2], ids[4])));
+
+      query =
+         builder.selectStar().from("numericTable AS numericTable").orderBy().descending().propertyValue(
+            "numericTable", "doubleColumn").end().query();
+      assertThat(getOrderedIdentifiers(luceneSearchService.execute(query), "numericTable"), is(Arrays.asList(ids[2],
+         ids[4], ids[0], ids[3], ids[1])));
+      luceneSearchService.stop();
+   }
+
+   @Test
+   public void testShouldCompareStringsByPrefixSuffixAndIgnoringCase() throws SearchServiceException,
+      InvalidQueryException, MimeTypeException, IOException, TikaException
+   {
+      Schema stringSchema = InMemorySchema.createBuilder().addTable("stringTable", "stringColumn").build();
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, stringSchema);
+
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(stringSchema, tableResolver, mock(ContentReaderInterceptor.class),
+            indexConfuration);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      String[] values = new String[]{"Alpha Report", "alpha notes", "Beta Report", "gamma*report"};
+      String[] names = new String[]{"report.txt", "notes.doc", "xcmis:summary.txt", "Summary.TXT"};
+      String[] ids = new String[values.length];
+      List<ContentEntry> entys = new ArrayList<ContentEntry>();
+      for (int i = 0; i < values.length; i++)
+      {
+         ids[i] = UUID.randomUUID().toString();
+         Property[] props =
+            new Property[]{new Property<String>(PropertyType.STRING, "stringColumn", new SimpleValue<String>(
+               values[i]))};
+         entys.add(new ContentEntry(names[i], new String[]{"stringTable"}, ids[i], new String[]{UUID.randomUUID()
+            .toString()}, props));
+      }
+      luceneSearchService.update(entys, new HashSet<String>());
+
+      Query query =
+         builder.selectStar().from("stringTable AS stringTable").where().propertyValue("stringTable",
+            "stringColumn").isLike("Alpha%").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[0])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().lowerCaseOf().propertyValue("stringTable",
+            "stringColumn").isLike("alpha%").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[0], ids[1])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().propertyValue("stringTable",
+            "stringColumn").isLike("%Report").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[0], ids[2])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().upperCaseOf().propertyValue("stringTable",
+            "stringColumn").isLike("%REPORT").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[0], ids[2],
+         ids[3])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().propertyValue("stringTable",
+            "stringColumn").isLike("%a_Report").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[0], ids[2])));
+
+      // Literal character which is wildcard of Lucene.
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().propertyValue("stringTable",
+            "stringColumn").isLike("g_mma*%").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[3])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().lowerCaseOf().propertyValue("stringTable",
+            "stringColumn").isEqualTo("beta report").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[2])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().nodeName("stringTable").isLike("%.txt")
+            .end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[0], ids[2])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().nodeLocalName("stringTable").isEqualTo(
+            "summary.txt").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[2])));
+
+      query =
+         builder.selectStar().from("stringTable AS stringTable").where().lowerCaseOf().nodeName("stringTable")
+            .isEqualTo("summary.txt").end().query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "stringTable"), is(asSet(ids[3])));
+      luceneSearchService.stop();
+   }
+
+   @Test
+   public void testShouldRecoverIndexOfContentTree() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      // root with three folders, each folder contains three documents
+      ContentTree contentTree = new ContentTree();
+      for (int i = 0; i < 3; i++)
+      {
+         contentTree.addFolder("folder" + i, 3);
+      }
+
+      SearchService luceneSearchService = new SearchService(createRecoveryConfiguration(contentTree));
+      // empty index is recovered from content on start
+      luceneSearchService.start();
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "someTable"), is(contentTree.getIdentifiers()));
+      luceneSearchService.stop();
+   }
+
+   @Test
+   public void testShouldResumeInterruptedRecovery() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      ContentTree contentTree = new ContentTree();
+      contentTree.addFolder("folder0", 3);
+      SearchServiceConfiguration configuration = createRecoveryConfiguration(contentTree);
+      SearchService luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+      luceneSearchService.stop();
+
+      // recovery of the same index format was interrupted after first folder
+      // was saved
+      File flag = new File(tempDir, "reindexProcessing");
+      FileUtils.writeStringToFile(flag, Integer.toString(LuceneIndexer.INDEX_FORMAT_VERSION), "UTF-8");
+      contentTree.addFolder("folder1", 3);
+      // entries which are already indexed are not indexed again, so indexed
+      // state of changed entry is kept
+      contentTree.moveToTable("folder0document0", "otherTable");
+
+      luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+      assertThat(flag.exists(), is(false));
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      List<ScoredRow> rows = luceneSearchService.execute(query);
+      // skipped entries are not duplicated
+      assertThat(rows.size(), is(contentTree.getIdentifiers().size()));
+      assertThat(getIdentifiers(rows, "someTable"), is(contentTree.getIdentifiers()));
+      luceneSearchService.stop();
+   }
+
+   @Test(timeout = 60000)
+   public void testShouldStopRecoveryOnWorkerError() throws SearchServiceException, InvalidQueryException,
+      MimeTypeException, IOException, TikaException
+   {
+      ContentTree contentTree = new ContentTree();
+      for (int i = 0; i < 3; i++)
+      {
+         contentTree.addFolder("folder" + i, 3);
+      }
+      contentTree.setFailingParent("folder1");
+      SearchServiceConfiguration configuration = createRecoveryConfiguration(contentTree);
+      SearchService luceneSearchService = new SearchService(configuration);
+      // error of worker stops recovery, other workers don't wait forever
+      luceneSearchService.start();
+      luceneSearchService.stop();
+      // recovery is not finished
+      assertThat(new File(tempDir, "reindexProcessing").exists(), is(true));
+
+      contentTree.setFailingParent(null);
+      luceneSearchService = new SearchService(configuration);
+      luceneSearchService.start();
+
+      Query query = builder.selectStar().from("someTable AS someTable").query();
+      assertThat(getIdentifiers(luceneSearchService.execute(query), "someTable"), is(contentTree.getIdentifiers()));
+      luceneSearchService.stop();
+   }
+
+   private SearchServiceConfiguration createRecoveryConfiguration(ContentTree contentTree)
+      throws SearchServiceException, MimeTypeException, IOException, TikaException
+   {
+      NameConverter<String> nameConverter = new ToStringNameConverter();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(nameConverter, schema);
+      IndexConfiguration indexConfuration =
+         new IndexConfiguration(tempDir.getAbsolutePath(), "rootParentUuid", "rootUuid");
+      indexConfuration.setRecoveryThreads(4);
+      return new SearchServiceConfiguration(schema, tableResolver, contentTree, indexConfuration);
+   }
+
+   private Set<String> getIdentifiers(List<ScoredRow> rows, String selector)
+   {
+      return new HashSet<String>(getOrderedIdentifiers(rows, selector));
+   }
+
+   private List<String> getOrderedIdentifiers(List<ScoredRow> rows, String selector)
+   {
+      List<String> ids = new ArrayList<String>(rows.size());
+      for (ScoredRow row : rows)
+      {
+         ids.add(row.getNodeIdentifer(selector));
+      }
+      return ids;
+   }
+
+   private Set<String> asSet(String... values)
+   {
+      return new HashSet<String>(Arrays.asList(values));
+   }
+
+   /**
+    * Content tree under "rootUuid". Tables of all entries are "someTable".
+    */
+   private static class ContentTree extends ContentReaderInterceptor
+   {
+      private final Map<String, ContentEntry> entries = new HashMap<String, ContentEntry>();
+
+      private final Map<String, List<ContentEntry>> children = new HashMap<String, List<ContentEntry>>();
+
+      /**
+       * Children of this entry can't be read.
+       */
+      private volatile String failingParent;
+
+      ContentTree()
+      {
+         entries.put("rootUuid", new ContentEntry("", new String[]{"someTable"}, "rootUuid", new String[0],
+            new Property[0]));
+      }
+
+      void addFolder(String folderId, int documents)
+      {
+         addEntry(folderId, "rootUuid");
+         for (int j = 0; j < documents; j++)
+         {
+            addEntry(folderId + "document" + j, folderId);
+         }
+      }
+
+      void moveToTable(String id, String table)
+      {
+         ContentEntry entry = entries.get(id);
+         ContentEntry moved =
+            new ContentEntry(entry.getName(), new String[]{table}, id, entry.getParentIdentifiers(), new Property[0]);
+         entries.put(id, moved);
+         List<ContentEntry> siblings = children.get(entry.getParentIdentifiers()[0]);
+         siblings.set(siblings.indexOf(entry), moved);
+      }
+
+      void setFailingParent(String failingParent)
+      {
+         this.failingParent = failingParent;
+      }
+
+      Set<String> getIdentifiers()
+      {
+         return new HashSet<String>(entries.keySet());
+      }
+
+      @Override
+      public Object visitChildEntriesCommand(InvocationContext ctx, GetChildEntriesCommand command)
+      {
+         if (command.getParentUuid().equals(failingParent))
+         {
+            throw new IllegalStateException("Children of " + failingParent + " can't be read.");
+         }
+         List<ContentEntry> entryChildren = children.get(command.getParentUuid());
+         return entryChildren == null ? Collections.<ContentEntry> emptyList() : entryChildren;
+      }
+
+      @Override
+      public Object visitGetContentEntryCommand(InvocationContext ctx, GetContentEntryCommand command)
+      {
+         return entries.get(command.getEntryUuid());
+      }
+
+      @Override
+      public Object visitGetUnfiledEntriesCommand(InvocationContext ctx, GetUnfiledEntriesCommand command)
+      {
+         return null;
+      }
+
+      private void addEntry(String id, String parentId)
+      {
+         ContentEntry entry = new ContentEntry(id, new String[]{"someTable"}, id, new String[]{parentId},
+            new Property[0]);
+         entries.put(id, entry);
+         List<ContentEntry> entryChildren = children.get(parentId);
+         if (entryChildren == null)
+         {
+            entryChildren = new ArrayList<ContentEntry>();
+            children.put(parentId, entryChildren);
+         }
+         entryChildren.add(entry);
+      }
+   }
 }
@@ -53,6 +53,36 @@ public class DescendantNodeTest extends AbstractQOMTest
       checkQOM(query, "s", new Node[]{n1, n2, n21});
    }
 
+   @Test
+   public void testDescendantNodesByIdentifier() throws SearchServiceException, InvalidQueryException
+   {
+      testRootNode.addNode(nodeName1, testNodeType);
+      Node n2 = testRootNode.addNode(nodeName2, testNodeType);
+      Node n21 = n2.addNode(nodeName1, testNodeType);
+      Node n211 = n21.addNode(nodeName1, testNodeType);
+      save(testRootNode);
+
+      Query query =
+         qf.from(testNodeType + " AS s").where().isBelowPath("s", "[" + n2.getIdentifier() + "]").end().query();
+
+      checkQOM(query, "s", new Node[]{n21, n211});
+   }
+
+   @Test
+   public void testDescendantNodesSavedSeparately() throws SearchServiceException, InvalidQueryException
+   {
+      Node n1 = testRootNode.addNode(nodeName1, testNodeType);
+      Node n11 = n1.addNode(nodeName1, testNodeType);
+      save(testRootNode);
+      // Ancestors of new node are resolved by already indexed parent.
+      Node n111 = n11.addNode(nodeName1, testNodeType);
+      save(n111);
+
+      Query query = qf.from(testNodeType + " AS s").where().isBelowPath("s", n1.getPath()).end().query();
+
+      checkQOM(query, "s", new Node[]{n11, n111});
+   }
+
    @Test
    public void testPathDoesNotExist() throws SearchServiceException, InvalidQueryException
    {
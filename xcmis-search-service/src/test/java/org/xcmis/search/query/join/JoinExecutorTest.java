@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.Property;
+import org.xcmis.search.content.Property.SimpleValue;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.model.source.join.ChildNodeJoinCondition;
+import org.xcmis.search.model.source.join.DescendantNodeJoinCondition;
+import org.xcmis.search.model.source.join.EquiJoinCondition;
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.query.join.JoinMatcher.EntryReader;
+import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.value.PropertyType;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test join algorithms.
+ */
+public class JoinExecutorTest
+{
+   private static final SelectorName DOC = new SelectorName("doc");
+
+   private static final SelectorName FOLDER = new SelectorName("folder");
+
+   private Map<String, ContentEntry> entries;
+
+   private EntryReader reader;
+
+   private Set<SelectorName> leftSelectors;
+
+   @Before
+   public void setUp()
+   {
+      entries = new HashMap<String, ContentEntry>();
+      reader = new EntryReader()
+      {
+         public ContentEntry getEntry(String identifier)
+         {
+            return entries.get(identifier);
+         }
+      };
+      leftSelectors = Collections.singleton(DOC);
+      // folder f1 contains f2, documents are in both folders.
+      addEntry("f1", "", "code", "a");
+      addEntry("f2", "f1", "code", "b");
+      for (int i = 0; i < 20; i++)
+      {
+         addEntry("d" + i, i % 2 == 0 ? "f1" : "f2", "code", i % 2 == 0 ? "a" : "b");
+      }
+   }
+
+   @Test
+   public void testHashJoin() throws Exception
+   {
+      // Both sides greater then threshold of nested loop.
+      List<ScoredRow> folders = new ArrayList<ScoredRow>();
+      for (int i = 0; i < JoinExecutor.NESTED_LOOP_THRESHOLD; i++)
+      {
+         folders.add(row(FOLDER, "f1"));
+         folders.add(row(FOLDER, "f2"));
+      }
+      List<ScoredRow> result = equiJoin(JoinType.INNER, JoinAlgorithm.NESTED_LOOP, documents(20), folders);
+      assertThat(result.size(), is(20 * JoinExecutor.NESTED_LOOP_THRESHOLD));
+      checkEquals(result);
+   }
+
+   @Test
+   public void testNestedLoopJoin() throws Exception
+   {
+      List<ScoredRow> result =
+         equiJoin(JoinType.INNER, JoinAlgorithm.NESTED_LOOP, documents(20), rows(FOLDER, "f1", "f2"));
+      assertThat(result.size(), is(20));
+      checkEquals(result);
+      // Order of left side kept.
+      for (int i = 0; i < 20; i++)
+      {
+         assertThat(result.get(i).getNodeIdentifer("doc"), is("d" + i));
+      }
+   }
+
+   @Test
+   public void testMergeJoin() throws Exception
+   {
+      List<ScoredRow> result =
+         equiJoin(JoinType.INNER, JoinAlgorithm.MERGE, documents(20), rows(FOLDER, "f2", "f1"));
+      assertThat(result.size(), is(20));
+      checkEquals(result);
+      // Ordered by join key.
+      for (int i = 0; i < 10; i++)
+      {
+         assertThat(result.get(i).getNodeIdentifer("folder"), is("f1"));
+      }
+      for (int i = 10; i < 20; i++)
+      {
+         assertThat(result.get(i).getNodeIdentifer("folder"), is("f2"));
+      }
+   }
+
+   @Test
+   public void testLeftOuterJoin() throws Exception
+   {
+      List<ScoredRow> result =
+         equiJoin(JoinType.LEFT_OUTER, JoinAlgorithm.NESTED_LOOP, documents(20), rows(FOLDER, "f1"));
+      assertThat(result.size(), is(20));
+      for (int i = 0; i < 20; i++)
+      {
+         assertThat(result.get(i).getNodeIdentifer("doc"), is("d" + i));
+         if (i % 2 == 0)
+         {
+            assertThat(result.get(i).getNodeIdentifer("folder"), is("f1"));
+         }
+         else
+         {
+            assertThat(result.get(i).getNodeIdentifer("folder"), nullValue());
+         }
+      }
+   }
+
+   @Test
+   public void testLimit() throws Exception
+   {
+      List<ScoredRow> result =
+         new JoinExecutor(JoinMatcher.create(new EquiJoinCondition(DOC, "code", FOLDER, "code"), leftSelectors,
+            reader), JoinType.INNER, JoinAlgorithm.NESTED_LOOP).join(documents(20), rows(FOLDER, "f1", "f2"), 5);
+      assertThat(result.size(), is(5));
+   }
+
+   @Test
+   public void testChildNodeJoin() throws Exception
+   {
+      List<ScoredRow> result =
+         new JoinExecutor(JoinMatcher.create(new ChildNodeJoinCondition(FOLDER, DOC), leftSelectors, reader),
+            JoinType.INNER, JoinAlgorithm.NESTED_LOOP).join(documents(20), rows(FOLDER, "f1"), Integer.MAX_VALUE);
+      assertThat(result.size(), is(10));
+      for (ScoredRow row : result)
+      {
+         assertThat(entries.get(row.getNodeIdentifer("doc")).getParentIdentifiers()[0], is("f1"));
+      }
+   }
+
+   @Test
+   public void testDescendantNodeJoin() throws Exception
+   {
+      List<ScoredRow> result =
+         new JoinExecutor(JoinMatcher.create(new DescendantNodeJoinCondition(FOLDER, DOC), leftSelectors, reader),
+            JoinType.INNER, JoinAlgorithm.NESTED_LOOP).join(documents(20), rows(FOLDER, "f1"), Integer.MAX_VALUE);
+      // All documents are in tree of f1.
+      assertThat(result.size(), is(20));
+   }
+
+   @Test
+   public void testDoubleJoinDecimal() throws Exception
+   {
+      addEntry("d0", "f1", new Property<Double>(PropertyType.DOUBLE, "amount", new SimpleValue<Double>(0.1d)));
+      addEntry("d1", "f1", new Property<Double>(PropertyType.DOUBLE, "amount", new SimpleValue<Double>(2.5d)));
+      addEntry("f1", "", new Property<BigDecimal>(PropertyType.DOUBLE, "amount", new SimpleValue<BigDecimal>(
+         new BigDecimal("0.10"))));
+      addEntry("f2", "", new Property<BigDecimal>(PropertyType.DOUBLE, "amount", new SimpleValue<BigDecimal>(
+         new BigDecimal("2.5"))));
+      JoinMatcher matcher =
+         JoinMatcher.create(new EquiJoinCondition(DOC, "amount", FOLDER, "amount"), leftSelectors, reader);
+      for (JoinAlgorithm algorithm : JoinAlgorithm.values())
+      {
+         List<ScoredRow> result =
+            new JoinExecutor(matcher, JoinType.INNER, algorithm).join(documents(2), rows(FOLDER, "f1", "f2"),
+               Integer.MAX_VALUE);
+         assertThat(result.size(), is(2));
+         for (ScoredRow row : result)
+         {
+            assertThat(row.getNodeIdentifer("folder"), is(row.getNodeIdentifer("doc").equals("d0") ? "f1" : "f2"));
+         }
+      }
+   }
+
+   private List<ScoredRow> equiJoin(JoinType type, JoinAlgorithm algorithm, List<ScoredRow> left,
+      List<ScoredRow> right) throws Exception
+   {
+      JoinMatcher matcher =
+         JoinMatcher.create(new EquiJoinCondition(DOC, "code", FOLDER, "code"), leftSelectors, reader);
+      return new JoinExecutor(matcher, type, algorithm).join(left, right, Integer.MAX_VALUE);
+   }
+
+   private void checkEquals(List<ScoredRow> result)
+   {
+      Set<String> codes = new HashSet<String>();
+      for (ScoredRow row : result)
+      {
+         Object docCode = JoinMatcher.getValues(entries.get(row.getNodeIdentifer("doc")), "code").get(0);
+         Object folderCode = JoinMatcher.getValues(entries.get(row.getNodeIdentifer("folder")), "code").get(0);
+         assertThat(docCode, is(folderCode));
+         codes.add((String)docCode);
+      }
+      assertThat(codes.size(), is(2));
+   }
+
+   private List<ScoredRow> documents(int count)
+   {
+      List<ScoredRow> rows = new ArrayList<ScoredRow>();
+      for (int i = 0; i < count; i++)
+      {
+         rows.add(row(DOC, "d" + i));
+      }
+      return rows;
+   }
+
+   private List<ScoredRow> rows(SelectorName selector, String... identifiers)
+   {
+      List<ScoredRow> rows = new ArrayList<ScoredRow>();
+      for (String identifier : identifiers)
+      {
+         rows.add(row(selector, identifier));
+      }
+      return rows;
+   }
+
+   private ScoredRow row(SelectorName selector, String identifier)
+   {
+      return new ScoredRow(selector.getName(), identifier, 1);
+   }
+
+   private void addEntry(String identifier, String parent, String property, String value)
+   {
+      addEntry(identifier, parent, new Property<String>(PropertyType.STRING, property, new SimpleValue<String>(value)));
+   }
+
+   private void addEntry(String identifier, String parent, Property<?> prop)
+   {
+      entries.put(identifier, new ContentEntry(identifier, new String[]{"table"}, identifier, new String[]{parent},
+         new Property[]{prop}));
+   }
+}
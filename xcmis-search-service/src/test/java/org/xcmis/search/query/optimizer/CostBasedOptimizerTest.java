@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimizer;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.content.InMemorySchema;
+import org.xcmis.search.model.Query;
+import org.xcmis.search.model.constraint.ChildNode;
+import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.QueryBuilder;
+import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.QueryExecutionExceptions;
+import org.xcmis.search.query.optimize.CostBasedOptimizer;
+import org.xcmis.search.query.optimize.IndexStatistics;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+import org.xcmis.search.query.plan.SimplePlaner;
+import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.Type;
+import org.xcmis.search.query.plan.QueryExecutionPlan.WhereExecutionPlan;
+import org.xcmis.search.value.CastSystem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for {@link CostBasedOptimizer}.
+ */
+public class CostBasedOptimizerTest
+{
+   private QueryBuilder builder;
+
+   private QueryExecutionExceptions problems;
+
+   private QueryExecutionContext context;
+
+   private StubStatistics statistics;
+
+   @Before
+   public void beforeEach()
+   {
+      builder = new QueryBuilder(mock(CastSystem.class));
+      problems = new QueryExecutionExceptions();
+      context =
+         new QueryExecutionContext(InMemorySchema.createBuilder().addTable("table1", "column1", "column2").addTable(
+            "table2", "column1", "column2").build(), problems, new HashMap<String, Object>());
+      statistics = new StubStatistics();
+   }
+
+   @Test
+   public void shouldNotEstimateConstraintsOfSingleSelector()
+   {
+      statistics.tables.put("table1", 1000L);
+      statistics.folderSize = 3;
+      Query query =
+         builder.selectStar().from("table1 AS t1").where().propertyValue("t1", "column1").isEqualTo("a").and()
+            .isChild("t1", "[folder]").end().query();
+
+      QueryExecutionPlan planned = new SimplePlaner().createPlan(context, query);
+      List<Constraint> constraints = getConstraints(planned);
+      QueryExecutionPlan plan = new CostBasedOptimizer(statistics).optimize(context, planned);
+      assertThat(problems.hasProblems(), is(false));
+
+      // constraints are executed as one conjunction, their order is kept and
+      // they are not estimated
+      assertThat(getConstraints(plan), is(constraints));
+      assertThat(statistics.estimations, is(0));
+   }
+
+   @Test
+   public void shouldBuildHashJoinOnSmallerSide()
+   {
+      statistics.tables.put("table1", 1000L);
+      statistics.tables.put("table2", 200L);
+      Query query =
+         builder.selectStar().from("table1 AS t1").innerJoin("table2 AS t2").on("t1.column1 = t2.column1").query();
+
+      JoinExecutionPlan join = (JoinExecutionPlan)optimize(query).findPlanByType(Type.JOIN);
+
+      assertThat(join.getJoinAlgorithm(), is(JoinAlgorithm.HASH));
+      assertThat(join.isBuildLeft(), is(false));
+      assertThat(join.getRightPlan().getEstimatedCardinality(), is(200L));
+   }
+
+   @Test
+   public void shouldUseNestedLoopIfConstraintLeavesFewRows()
+   {
+      statistics.tables.put("table1", 1000L);
+      statistics.tables.put("table2", 200L);
+      statistics.folderSize = 2;
+      Query query =
+         builder.selectStar().from("table1 AS t1").innerJoin("table2 AS t2").on("t1.column1 = t2.column1").where()
+            .isChild("t1", "[folder]").end().query();
+
+      JoinExecutionPlan join = (JoinExecutionPlan)optimize(query).findPlanByType(Type.JOIN);
+
+      assertThat(join.getJoinAlgorithm(), is(JoinAlgorithm.NESTED_LOOP));
+      assertThat(join.isBuildLeft(), is(true));
+      assertThat(join.getLeftPlan().getEstimatedCardinality(), is(2L));
+   }
+
+   @Test
+   public void shouldBuildOnInnerSideOfOuterJoin()
+   {
+      statistics.tables.put("table1", 10L);
+      statistics.tables.put("table2", 1000L);
+      Query query =
+         builder.selectStar().from("table1 AS t1").leftOuterJoin("table2 AS t2").on("t1.column1 = t2.column1")
+            .query();
+
+      JoinExecutionPlan join = (JoinExecutionPlan)optimize(query).findPlanByType(Type.JOIN);
+
+      assertThat(join.isBuildLeft(), is(false));
+   }
+
+   private QueryExecutionPlan optimize(Query query)
+   {
+      QueryExecutionPlan plan = new SimplePlaner().createPlan(context, query);
+      assertThat(problems.hasProblems(), is(false));
+      plan = new CostBasedOptimizer(statistics).optimize(context, plan);
+      assertThat(problems.hasProblems(), is(false));
+      return plan;
+   }
+
+   private List<Constraint> getConstraints(QueryExecutionPlan plan)
+   {
+      List<Constraint> constraints = new ArrayList<Constraint>();
+      QueryExecutionPlan where = plan.findPlanByType(Type.WHERE);
+      while (where instanceof WhereExecutionPlan)
+      {
+         constraints.add(((WhereExecutionPlan)where).getConstraint());
+         where = ((WhereExecutionPlan)where).getChildPlan();
+      }
+      return constraints;
+   }
+
+   /**
+    * Statistics with fixed table cardinalities. Child node constraints match
+    * folderSize entries, all other constraints match half of table.
+    */
+   private static class StubStatistics implements IndexStatistics
+   {
+      private final Map<String, Long> tables = new HashMap<String, Long>();
+
+      private long folderSize;
+
+      private int estimations;
+
+      public long getEntriesCount()
+      {
+         long count = 0;
+         for (Long cardinality : tables.values())
+         {
+            count += cardinality;
+         }
+         return count;
+      }
+
+      public long getTableCardinality(SelectorName tableName)
+      {
+         Long cardinality = tables.get(tableName.getName());
+         return cardinality == null ? 0 : cardinality;
+      }
+
+      public long estimateCardinality(SelectorName tableName, Constraint constraint,
+         Map<String, Object> bindVariablesValues)
+      {
+         estimations++;
+         long cardinality = getTableCardinality(tableName);
+         return constraint instanceof ChildNode ? Math.min(folderSize, cardinality) : cardinality / 2;
+      }
+   }
+}
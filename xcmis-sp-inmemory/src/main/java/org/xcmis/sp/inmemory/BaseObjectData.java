@@ -22,6 +22,7 @@ package org.xcmis.sp.inmemory;
 import org.xcmis.spi.BaseItemsIterator;
 import org.xcmis.spi.CmisConstants;
 import org.xcmis.spi.CmisRuntimeException;
+import org.xcmis.spi.CompiledACL;
 import org.xcmis.spi.ConstraintException;
 import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
@@ -39,7 +40,6 @@ import org.xcmis.spi.UpdateConflictException;
 import org.xcmis.spi.VersioningException;
 import org.xcmis.spi.model.AccessControlEntry;
 import org.xcmis.spi.model.BaseType;
-import org.xcmis.spi.model.ChangeEvent;
 import org.xcmis.spi.model.ChangeType;
 import org.xcmis.spi.model.Property;
 import org.xcmis.spi.model.PropertyDefinition;
@@ -78,7 +78,7 @@ import java.util.Set;
  * @version $Id: BaseObjectData.java 1197 2010-05-28 08:15:37Z
  *          alexey.zavizionov@gmail.com $
  */
-abstract class BaseObjectData implements ObjectData
+abstract class BaseObjectData implements ObjectData, CompiledACL.Holder
 {
 
    private static final Logger LOG = Logger.getLogger(BaseObjectData.class);
@@ -135,6 +135,11 @@ abstract class BaseObjectData implements ObjectData
 
    protected final Entry entry;
 
+   /**
+    * Set if name is changed but not saved yet.
+    */
+   private boolean renamed;
+
    public BaseObjectData(Entry entry, TypeDefinition type, StorageImpl storage)
    {
       this.entry = entry;
@@ -164,8 +169,8 @@ abstract class BaseObjectData implements ObjectData
       {
          throw new CmisRuntimeException("Unable apply policy. " + e.getMessage(), e);
       }
-      storage.changes.add(new ChangeEvent(StorageImpl.generateId(), getObjectId(), ChangeType.SECURITY, Calendar
-         .getInstance(), null, new HashSet<String>(entry.getPolicies()), null));
+      storage.changes.add(getObjectId(), ChangeType.SECURITY, Calendar.getInstance(), null, new HashSet<String>(entry
+         .getPolicies()), null);
    }
 
    public boolean equals(Object obj)
@@ -193,6 +198,18 @@ abstract class BaseObjectData implements ObjectData
       return CmisUtils.createAclFromPermissionMap(entry.getPermissions());
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public CompiledACL getCompiledACL()
+   {
+      if (!type.isControllableACL())
+      {
+         return CompiledACL.EMPTY;
+      }
+      return entry.getCompiledACL();
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -467,8 +484,8 @@ abstract class BaseObjectData implements ObjectData
          throw new CmisRuntimeException("Unable remove policy. " + e.getMessage(), e);
       }
 
-      storage.changes.add(new ChangeEvent(StorageImpl.generateId(), getObjectId(), ChangeType.SECURITY, Calendar
-         .getInstance(), null, new HashSet<String>(entry.getPolicies()), null));
+      storage.changes.add(getObjectId(), ChangeType.SECURITY, Calendar.getInstance(), null, new HashSet<String>(entry
+         .getPolicies()), null);
    }
 
    /**
@@ -476,9 +493,7 @@ abstract class BaseObjectData implements ObjectData
     */
    public void setACL(List<AccessControlEntry> acl)
    {
-      Map<String, Set<String>> permissions = entry.getPermissions();
-      permissions.clear();
-      CmisUtils.addAclToPermissionMap(permissions, acl);
+      entry.setACL(acl);
       try
       {
          save();
@@ -496,8 +511,7 @@ abstract class BaseObjectData implements ObjectData
             copy.add(new AccessControlEntry(ace.getPrincipal(), new HashSet<String>(ace.getPermissions()), ace
                .isDirect()));
          }
-         storage.changes.add(new ChangeEvent(StorageImpl.generateId(), getObjectId(), ChangeType.SECURITY, Calendar
-            .getInstance(), null, null, copy));
+         storage.changes.add(getObjectId(), ChangeType.SECURITY, Calendar.getInstance(), null, null, copy);
       }
    }
 
@@ -516,8 +530,7 @@ abstract class BaseObjectData implements ObjectData
          }
       }
       save();
-      storage.changes.add(new ChangeEvent(StorageImpl.generateId(), getObjectId(), ChangeType.UPDATED, Calendar
-         .getInstance(), chl, null, null));
+      storage.changes.add(getObjectId(), ChangeType.UPDATED, Calendar.getInstance(), chl, null, null);
    }
 
    /**
@@ -531,8 +544,7 @@ abstract class BaseObjectData implements ObjectData
       List<Property<?>> chl = new ArrayList<Property<?>>(1);
       // Create copy of property to be sure it will unchangeable in changes log.
       chl.add(createCopyOfProperty(property));
-      storage.changes.add(new ChangeEvent(StorageImpl.generateId(), getObjectId(), ChangeType.UPDATED, Calendar
-         .getInstance(), chl, null, null));
+      storage.changes.add(getObjectId(), ChangeType.UPDATED, Calendar.getInstance(), chl, null, null);
    }
 
    /**
@@ -656,17 +668,29 @@ abstract class BaseObjectData implements ObjectData
                return false;
             }
 
-            for (FolderData parent : getParents())
+            String objectId = getObjectId();
+            Set<String> parentIds = storage.parents.get(objectId);
+            for (String parent : parentIds)
+            {
+               if (storage.getChildIdByName(parent, name) != null)
+               {
+                  throw new NameConstraintViolationException("Object with name " + name
+                     + " already exists in parent folder.");
+               }
+            }
+            String oldName = getName();
+            entry.setProperty(property);
+            for (String parent : parentIds)
             {
-               for (ItemsIterator<ObjectData> iterator = parent.getChildren(null); iterator.hasNext();)
+               // Updated only if object is visible in folder, e.g. not PWC.
+               if (objectId.equals(storage.getChildIdByName(parent, oldName)))
                {
-                  if (name.equals(iterator.next().getName()))
-                  {
-                     throw new NameConstraintViolationException("Object with name " + name
-                        + " already exists in parent folder.");
-                  }
+                  storage.removeChildName(parent, oldName, objectId);
+                  storage.addChildName(parent, name, objectId);
                }
             }
+            renamed = true;
+            return true;
          }
 
          entry.setProperty(property);
@@ -814,7 +838,17 @@ abstract class BaseObjectData implements ObjectData
       entry.setValue(CmisConstants.CHANGE_TOKEN, new StringValue(StorageImpl.generateId()));
 
       storage.entries.put(entry.getId(), entry);
-      storage.indexListener.updated(this);
+      storage.updateChild(entry);
+      if (renamed && getBaseType() == BaseType.FOLDER)
+      {
+         // Paths of all objects in subtree are changed.
+         storage.indexListener.updatedTree(this, storage);
+      }
+      else
+      {
+         storage.indexListener.updated(this);
+      }
+      renamed = false;
    }
 
 }
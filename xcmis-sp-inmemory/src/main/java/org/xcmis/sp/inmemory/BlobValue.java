@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Value of document content. Implementations are immutable handles of bytes
+ * kept by {@link ContentStore}.
+ *
+ * @version $Id$
+ */
+public abstract class BlobValue extends Value
+{
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   /**
+    * @return length of content in bytes
+    */
+   public abstract long getLength();
+
+   /**
+    * Open new stream to read content. Each call returns independent stream.
+    *
+    * @return stream of content
+    * @throws IOException if content can't be read
+    */
+   public abstract InputStream getStream() throws IOException;
+
+   /**
+    * Open new stream to read content from <code>offset</code> without reading
+    * bytes before it.
+    *
+    * @param offset position of first byte of stream
+    * @return stream of content, empty if <code>offset</code> is not less than
+    *         length of content
+    * @throws IOException if content can't be read
+    */
+   public abstract InputStream getStream(long offset) throws IOException;
+
+   /**
+    * @return hex encoded SHA-1 digest of content
+    */
+   public abstract String getDigest();
+
+   @Override
+   public boolean isContent()
+   {
+      return true;
+   }
+
+   static String toHex(byte[] hash)
+   {
+      char[] chars = new char[hash.length * 2];
+      for (int i = 0; i < hash.length; i++)
+      {
+         chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+         chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+      }
+      return new String(chars);
+   }
+
+}
@@ -19,23 +19,49 @@
 
 package org.xcmis.sp.inmemory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * @author <a href="mailto:andrew00x@gmail.com">Andrey Parfonov</a>
  * @version $Id$
  */
-public class ByteArrayValue extends Value
+public class ByteArrayValue extends BlobValue
 {
 
    private final byte[] values;
 
+   /**
+    * Digest of bytes. Value is immutable so digest is computed once on first
+    * request.
+    */
+   private volatile String digest;
+
    public ByteArrayValue(byte[] a)
    {
-      this.values = new byte[a.length];
-      System.arraycopy(a, 0, this.values, 0, a.length);
+      this(a, true);
+   }
+
+   /**
+    * @param a bytes
+    * @param copy <code>false</code> if array is not shared and may be kept
+    *        without copying
+    */
+   private ByteArrayValue(byte[] a, boolean copy)
+   {
+      if (copy)
+      {
+         this.values = new byte[a.length];
+         System.arraycopy(a, 0, this.values, 0, a.length);
+      }
+      else
+      {
+         this.values = a;
+      }
    }
 
    @Override
@@ -44,10 +70,57 @@ public class ByteArrayValue extends Value
       return values;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public long getLength()
+   {
+      return values.length;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public InputStream getStream()
+   {
+      return new ByteArrayInputStream(values);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
    @Override
-   public boolean isContent()
+   public InputStream getStream(long offset)
    {
-      return true;
+      int start = (int)Math.min(Math.max(offset, 0), values.length);
+      return new ByteArrayInputStream(values, start, values.length - start);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String getDigest()
+   {
+      String d = digest;
+      if (d == null)
+      {
+         byte[] hash;
+         try
+         {
+            hash = MessageDigest.getInstance("SHA-1").digest(values);
+         }
+         catch (NoSuchAlgorithmException e)
+         {
+            // SHA-1 must be supported by every Java platform.
+            throw new IllegalStateException(e.getMessage(), e);
+         }
+         d = toHex(hash);
+         digest = d;
+      }
+      return d;
    }
 
    public static ByteArrayValue fromStream(InputStream stream) throws IOException
@@ -57,15 +130,15 @@ public class ByteArrayValue extends Value
          return new ByteArrayValue(new byte[0]);
       }
       ByteArrayOutputStream bout = new ByteArrayOutputStream();
-      byte[] buf = new byte[1024];
+      byte[] buf = new byte[8192];
       int r = -1;
       while ((r = stream.read(buf)) != -1)
       {
          bout.write(buf, 0, r);
       }
       stream.close();
-      byte[] bytes = bout.toByteArray();
-      return new ByteArrayValue(bytes);
+      // array is not shared, don't copy it again
+      return new ByteArrayValue(bout.toByteArray(), false);
    }
 
 }
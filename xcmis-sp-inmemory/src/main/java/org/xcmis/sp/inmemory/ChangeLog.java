@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.ConstraintException;
+import org.xcmis.spi.ItemsIterator;
+import org.xcmis.spi.model.AccessControlEntry;
+import org.xcmis.spi.model.ChangeEvent;
+import org.xcmis.spi.model.ChangeType;
+import org.xcmis.spi.model.Property;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Change log of in-memory storage. Each event gets monotonic sequence number
+ * which is used as change log token, so event may be found by token in
+ * constant time. Log may be limited in size, in this case the oldest events
+ * are evicted when limit is reached.
+ *
+ * @version $Id$
+ */
+final class ChangeLog
+{
+
+   private static final int INITIAL_CAPACITY = 64;
+
+   /** Max number of events in log or -1 if log is unbounded. */
+   private final long maxSize;
+
+   /** Ring buffer of events. */
+   private ChangeEvent[] buffer;
+
+   /** Position of the oldest event in buffer. */
+   private int head;
+
+   /** Number of events in buffer. */
+   private int count;
+
+   /** Sequence number of the oldest event in log. */
+   private volatile long firstSeq;
+
+   /** Sequence number which will be assigned to the next event. */
+   private volatile long nextSeq;
+
+   /**
+    * @param maxSize max number of events in log or -1 if log is unbounded
+    */
+   ChangeLog(long maxSize)
+   {
+      this.maxSize = maxSize;
+      this.buffer = new ChangeEvent[maxSize > 0 && maxSize < INITIAL_CAPACITY ? (int)maxSize : INITIAL_CAPACITY];
+   }
+
+   /**
+    * Add new event in log.
+    *
+    * @param objectId id of changed object
+    * @param changeType type of changes
+    * @param date date of changes
+    * @return added event
+    */
+   ChangeEvent add(String objectId, ChangeType changeType, Calendar date)
+   {
+      return add(objectId, changeType, date, null, null, null);
+   }
+
+   /**
+    * Add new event in log.
+    *
+    * @param objectId id of changed object
+    * @param changeType type of changes
+    * @param date date of changes
+    * @param properties updated properties
+    * @param policyIds applied policies
+    * @param acl applied ACL
+    * @return added event
+    */
+   synchronized ChangeEvent add(String objectId, ChangeType changeType, Calendar date, List<Property<?>> properties,
+      Set<String> policyIds, List<AccessControlEntry> acl)
+   {
+      if (maxSize == 0)
+      {
+         // Log disabled.
+         return null;
+      }
+      ChangeEvent event =
+         new ChangeEvent(Long.toString(nextSeq), objectId, changeType, date, properties, policyIds, acl);
+      if (maxSize > 0 && count == maxSize)
+      {
+         // Evict the oldest event.
+         buffer[head] = null;
+         head = (head + 1) % buffer.length;
+         count--;
+         firstSeq++;
+      }
+      else if (count == buffer.length)
+      {
+         int capacity = buffer.length * 2;
+         if (maxSize > 0 && capacity > maxSize)
+         {
+            capacity = (int)maxSize;
+         }
+         ChangeEvent[] newBuffer = new ChangeEvent[capacity];
+         for (int i = 0; i < count; i++)
+         {
+            newBuffer[i] = buffer[(head + i) % buffer.length];
+         }
+         buffer = newBuffer;
+         head = 0;
+      }
+      buffer[(head + count) % buffer.length] = event;
+      count++;
+      nextSeq++;
+      return event;
+   }
+
+   /**
+    * Get events started from event with specified token. Returned iterator
+    * does not copy events. Events added after calling this method are not
+    * visible via this iterator.
+    *
+    * @param changeLogToken change log token. If <code>null</code> then all
+    *        events will be returned
+    * @return iterator over events
+    * @throws ConstraintException if there is no event for specified token, e.g.
+    *         token is invalid or event was evicted from log
+    */
+   ItemsIterator<ChangeEvent> getChanges(String changeLogToken) throws ConstraintException
+   {
+      long end = nextSeq;
+      long start;
+      if (changeLogToken == null)
+      {
+         start = firstSeq;
+      }
+      else
+      {
+         try
+         {
+            start = Long.parseLong(changeLogToken);
+         }
+         catch (NumberFormatException e)
+         {
+            throw new ConstraintException("Invalid change log token " + changeLogToken);
+         }
+         if (start < firstSeq || start >= end)
+         {
+            throw new ConstraintException("No event corresponded to change log token " + changeLogToken);
+         }
+      }
+      return new ChangesIterator(start, end);
+   }
+
+   /**
+    * @return token of the latest event or <code>null</code> if log is empty
+    */
+   String getLatestToken()
+   {
+      long last = nextSeq - 1;
+      return last < firstSeq ? null : Long.toString(last);
+   }
+
+   /**
+    * @return number of events in log
+    */
+   synchronized int size()
+   {
+      return count;
+   }
+
+   private synchronized ChangeEvent get(long seq)
+   {
+      if (seq < firstSeq || seq >= nextSeq)
+      {
+         return null;
+      }
+      return buffer[(int)((head + (seq - firstSeq)) % buffer.length)];
+   }
+
+   /**
+    * Iterator over range of events. If events are evicted during iteration
+    * then iterator moves to the oldest available event.
+    */
+   private class ChangesIterator implements ItemsIterator<ChangeEvent>
+   {
+      private final long end;
+
+      private final int size;
+
+      private long seq;
+
+      ChangesIterator(long start, long end)
+      {
+         this.seq = start;
+         this.end = end;
+         this.size = (int)(end - start);
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public boolean hasNext()
+      {
+         if (seq < firstSeq)
+         {
+            seq = firstSeq;
+         }
+         return seq < end;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public ChangeEvent next()
+      {
+         ChangeEvent event = null;
+         while (event == null)
+         {
+            if (!hasNext())
+            {
+               throw new NoSuchElementException();
+            }
+            event = get(seq++);
+         }
+         return event;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void remove()
+      {
+         throw new UnsupportedOperationException("remove");
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public int size()
+      {
+         return size;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void skip(int skip) throws NoSuchElementException
+      {
+         if (skip > 0)
+         {
+            hasNext();
+            seq += skip;
+            if (seq > end)
+            {
+               seq = end;
+               throw new NoSuchElementException();
+            }
+         }
+      }
+   }
+}
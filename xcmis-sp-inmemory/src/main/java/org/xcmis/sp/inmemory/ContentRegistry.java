@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.StorageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content of documents shared by digest. Content with the same bytes is kept
+ * in {@link ContentStore} once and counted by references, so versions, private
+ * working copies and copies of document share one immutable value until
+ * content of one of them is replaced. Total size of distinct content is
+ * limited by max memory size of storage.
+ *
+ * @version $Id$
+ */
+final class ContentRegistry
+{
+
+   private final ContentStore store;
+
+   /** Max size of content in bytes, -1 if size is not limited. */
+   private final long maxMem;
+
+   /** Shared values by digest, guarded by this. */
+   private final Map<String, Shared> values = new HashMap<String, Shared>();
+
+   /** Total size of distinct content in bytes, guarded by this. */
+   private long size;
+
+   /**
+    * @param store store of content
+    * @param maxMem max size of content in bytes, -1 if size is not limited
+    */
+   ContentRegistry(ContentStore store, long maxMem)
+   {
+      this.store = store;
+      this.maxMem = maxMem;
+   }
+
+   /**
+    * Save new content or take reference to existing content with the same
+    * bytes.
+    *
+    * @param stream content, may be <code>null</code> for empty content
+    * @return content value
+    * @throws IOException if stream can't be read or content can't be saved
+    * @throws StorageException if max allowed memory size is reached
+    */
+   BlobValue add(InputStream stream) throws IOException, StorageException
+   {
+      BlobValue value = store.write(stream);
+      BlobValue duplicate = null;
+      synchronized (this)
+      {
+         Shared shared = values.get(value.getDigest());
+         if (shared != null)
+         {
+            shared.references++;
+            duplicate = value;
+            value = shared.value;
+         }
+         else if (maxMem > -1 && size + value.getLength() > maxMem)
+         {
+            duplicate = value;
+            value = null;
+         }
+         else
+         {
+            values.put(value.getDigest(), new Shared(value));
+            size += value.getLength();
+         }
+      }
+      if (duplicate != null)
+      {
+         store.release(duplicate);
+      }
+      if (value == null)
+      {
+         throw new StorageException("Unable add new object in storage. Max allowed memory size '" + maxMem
+            + "' bytes is reached."
+            + " Increase or set storage configuration property 'org.xcmis.inmemory.maxmem'.");
+      }
+      return value;
+   }
+
+   /**
+    * Take one more reference to content without copying it.
+    *
+    * @param value content value
+    * @return the same value or <code>null</code> if value is not managed by
+    *         this registry or is already released
+    */
+   synchronized BlobValue share(BlobValue value)
+   {
+      Shared shared = values.get(value.getDigest());
+      if (shared == null || shared.value != value)
+      {
+         return null;
+      }
+      shared.references++;
+      return value;
+   }
+
+   /**
+    * Release one reference to content. Content is removed from store when
+    * last reference is released.
+    *
+    * @param value content value
+    */
+   void release(BlobValue value)
+   {
+      synchronized (this)
+      {
+         Shared shared = values.get(value.getDigest());
+         if (shared == null || shared.value != value || --shared.references > 0)
+         {
+            return;
+         }
+         values.remove(value.getDigest());
+         size -= value.getLength();
+      }
+      store.release(value);
+   }
+
+   /**
+    * @return total size of distinct content in bytes
+    */
+   synchronized long getSize()
+   {
+      return size;
+   }
+
+   private static final class Shared
+   {
+      final BlobValue value;
+
+      int references = 1;
+
+      Shared(BlobValue value)
+      {
+         this.value = value;
+      }
+   }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Storage of content of documents. Entries of storage keep only
+ * {@link BlobValue} returned by store.
+ *
+ * @version $Id$
+ */
+public interface ContentStore
+{
+
+   /**
+    * Save content. Stream is read to the end and closed.
+    *
+    * @param stream content, may be <code>null</code> for empty content
+    * @return handle of saved content
+    * @throws IOException if stream can't be read or content can't be saved
+    */
+   BlobValue write(InputStream stream) throws IOException;
+
+   /**
+    * Notify store that content is not used any more. Content may not be read
+    * after it is released.
+    *
+    * @param value content to release
+    */
+   void release(BlobValue value);
+
+}
@@ -29,6 +29,7 @@ import org.xcmis.spi.NameConstraintViolationException;
 import org.xcmis.spi.PolicyData;
 import org.xcmis.spi.RelationshipData;
 import org.xcmis.spi.StorageException;
+import org.xcmis.spi.TypeNotFoundException;
 import org.xcmis.spi.UpdateConflictException;
 import org.xcmis.spi.VersioningException;
 import org.xcmis.spi.model.AccessControlEntry;
@@ -38,6 +39,7 @@ import org.xcmis.spi.model.TypeDefinition;
 import org.xcmis.spi.utils.MimeType;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.Calendar;
 import java.util.Collection;
@@ -80,7 +82,7 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
          storage.parents.remove(pwcId);
          storage.unfiled.remove(pwcId);
          storage.workingCopies.remove(vsId);
-         storage.entries.remove(pwcId);
+         storage.releaseContent(storage.entries.remove(pwcId));
 
          for (Iterator<String> iterator = storage.versions.get(getVersionSeriesId()).iterator(); iterator.hasNext();)
          {
@@ -134,6 +136,8 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
             if (contentStream != null)
             {
                doSetContentStream(contentStream);
+               // renditions are cached by change token
+               entry.setValue(CmisConstants.CHANGE_TOKEN, new StringValue(StorageImpl.generateId()));
             }
          }
          catch (IOException ioe)
@@ -166,7 +170,26 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
             entry.setValue(CmisConstants.CHECKIN_COMMENT, new StringValue(checkinComment));
          }
          storage.workingCopies.remove(getVersionSeriesId());
-         storage.versions.get(getVersionSeriesId()).add(pwcId);
+         List<String> versions = storage.versions.get(getVersionSeriesId());
+         // PWC becomes visible in parent folders instead of previous latest version.
+         String name = getName();
+         for (String parent : storage.parents.get(pwcId))
+         {
+            for (String version : versions)
+            {
+               storage.removeChildName(parent, storage.entries.get(version).getName(), version);
+            }
+            storage.addChildName(parent, name, pwcId);
+         }
+         versions.add(pwcId);
+         for (String version : versions)
+         {
+            storage.updateChild(storage.entries.get(version));
+         }
+      }
+      if (contentStream != null)
+      {
+         storage.contentChanged(this);
       }
       return this;
    }
@@ -205,16 +228,15 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
          pwc.setValue(CmisConstants.VERSION_SERIES_CHECKED_OUT_ID, new StringValue(pwcId));
          pwc.setValue(CmisConstants.VERSION_SERIES_CHECKED_OUT_BY, new StringValue(userId));
 
-         ByteArrayValue contentValue = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
+         BlobValue contentValue = (BlobValue)entry.getValue(PropertyDefinitions.CONTENT);
          if (contentValue != null)
          {
-            // check is max memory size reached
-            byte[] src = contentValue.getBytes();
-            storage.validateMemSize(src);
-
-            byte[] bytes = new byte[src.length];
-            System.arraycopy(src, 0, bytes, 0, bytes.length);
-            pwc.setValue(PropertyDefinitions.CONTENT, new ByteArrayValue(bytes));
+            // PWC shares content with checked-out version until it is updated
+            if (storage.contents.share(contentValue) == null)
+            {
+               throw new UpdateConflictException("Content of document is updated concurrently.");
+            }
+            pwc.setValue(PropertyDefinitions.CONTENT, contentValue);
 
             String mimeType = getContentStreamMimeType();
             if (mimeType != null)
@@ -228,7 +250,8 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
                pwc.setValue(CmisConstants.CHARSET, new StringValue(charset));
             }
 
-            pwc.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(bytes.length)));
+            pwc.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(contentValue
+               .getLength())));
             pwc.setValue(CmisConstants.CONTENT_STREAM_ID, new StringValue(pwcId));
             pwc.setValue(CmisConstants.CONTENT_STREAM_FILE_NAME, new StringValue(getName()));
          }
@@ -245,32 +268,31 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
          storage.entries.put(pwcId, pwc);
          for (String parent : storage.parents.get(getObjectId()))
          {
-            storage.children.get(parent).add(pwcId);
+            storage.children.get(parent).add(pwc);
          }
          storage.parents.put(pwcId, new CopyOnWriteArraySet<String>(storage.parents.get(getObjectId())));
 
          storage.workingCopies.put(getVersionSeriesId(), pwcId);
 
-         DocumentDataImpl pwcObject =
-            new DocumentDataImpl(pwc, //
-               new TypeDefinition(type.getId(), type.getBaseId(), type.getQueryName(), type.getLocalName(), type
-                  .getLocalNamespace(), type.getParentId(), type.getDisplayName(), type.getDescription(), type
-                  .isCreatable(), type.isFileable(), type.isQueryable(), type.isFulltextIndexed(), type
-                  .isIncludedInSupertypeQuery(), type.isControllablePolicy(), type.isControllableACL(), type
-                  .isVersionable(), type.getAllowedSourceTypes(), type.getAllowedTargetTypes(), type
-                  .getContentStreamAllowed(), PropertyDefinitions.getAll(getTypeId())), //
-               storage);
-
-         return pwcObject;
+         TypeDefinition pwcType;
+         try
+         {
+            pwcType = storage.getTypeDefinition(getTypeId(), true);
+         }
+         catch (TypeNotFoundException e)
+         {
+            throw new CmisRuntimeException(e.getMessage(), e);
+         }
+         return new DocumentDataImpl(pwc, pwcType, storage);
       }
    }
 
    /**
     * {@inheritDoc}
     */
-   public ContentStream getContentStream()
+   public ContentStream getContentStream() throws IOException
    {
-      ByteArrayValue contentValue = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
+      BlobValue contentValue = (BlobValue)entry.getValue(PropertyDefinitions.CONTENT);
       if (contentValue != null/* && contentValue.getBytes().length > 0*/)
       {
          MimeType mimeType = MimeType.fromString(getString(CmisConstants.CONTENT_STREAM_MIME_TYPE));
@@ -279,7 +301,7 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
          {
             mimeType.getParameters().put(CmisConstants.CHARSET, charset);
          }
-         return new BaseContentStream(contentValue.getBytes(), getContentStreamFileName(), mimeType);
+         return new BlobContentStream(contentValue, getContentStreamFileName(), mimeType);
       }
       return null;
    }
@@ -287,7 +309,7 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
    /**
     * {@inheritDoc}
     */
-   public ContentStream getContentStream(String streamId)
+   public ContentStream getContentStream(String streamId) throws IOException
    {
       if (streamId == null || streamId.equals(getString(CmisConstants.CONTENT_STREAM_ID)))
       {
@@ -365,8 +387,8 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
     */
    public boolean hasContent()
    {
-      ByteArrayValue cv = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
-      return cv != null && cv.getBytes().length > 0;
+      BlobValue cv = (BlobValue)entry.getValue(PropertyDefinitions.CONTENT);
+      return cv != null && cv.getLength() > 0;
    }
 
    /**
@@ -420,36 +442,68 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
    {
       doSetContentStream(contentStream);
       save();
+      storage.contentChanged(this);
    }
 
    private void doSetContentStream(ContentStream contentStream) throws IOException, StorageException
    {
       if (contentStream == null || contentStream.getStream() == null)
       {
-         entry.setValue(PropertyDefinitions.CONTENT, null);
-         entry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, null);
-         entry.setValue(CmisConstants.CHARSET, null);
-         entry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(0)));
-         entry.setValue(CmisConstants.CONTENT_STREAM_ID, null);
-         entry.setValue(CmisConstants.CONTENT_STREAM_FILE_NAME, null);
+         // Content value may be shared with other versions and copies, swap
+         // and release it atomically so it is released once.
+         synchronized (storage)
+         {
+            checkNotRemoved();
+            storage.releaseContent(entry);
+            entry.setValue(PropertyDefinitions.CONTENT, null);
+            entry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, null);
+            entry.setValue(CmisConstants.CHARSET, null);
+            entry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(0)));
+            entry.setValue(CmisConstants.CONTENT_STREAM_ID, null);
+            entry.setValue(CmisConstants.CONTENT_STREAM_FILE_NAME, null);
+         }
       }
       else
       {
-         ByteArrayValue cv = ByteArrayValue.fromStream(contentStream.getStream());
-         storage.validateMemSize(cv.getBytes());
-
+         // Read stream without lock.
+         BlobValue cv = storage.contents.add(contentStream.getStream());
          MimeType mimeType = contentStream.getMediaType();
-         entry.setValue(PropertyDefinitions.CONTENT, cv);
-         entry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, new StringValue(mimeType.getBaseType()));
          String charset = mimeType.getParameter(CmisConstants.CHARSET);
-         if (charset != null)
+         synchronized (storage)
          {
-            entry.setValue(CmisConstants.CHARSET, new StringValue(charset));
+            try
+            {
+               checkNotRemoved();
+            }
+            catch (CmisRuntimeException e)
+            {
+               storage.contents.release(cv);
+               throw e;
+            }
+            storage.releaseContent(entry);
+            entry.setValue(PropertyDefinitions.CONTENT, cv);
+            entry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, new StringValue(mimeType.getBaseType()));
+            if (charset != null)
+            {
+               entry.setValue(CmisConstants.CHARSET, new StringValue(charset));
+            }
+            entry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(cv
+               .getLength())));
+            entry.setValue(CmisConstants.CONTENT_STREAM_ID, new StringValue(getObjectId()));
+            entry.setValue(CmisConstants.CONTENT_STREAM_FILE_NAME, new StringValue(getName()));
          }
-         entry
-            .setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(cv.getBytes().length)));
-         entry.setValue(CmisConstants.CONTENT_STREAM_ID, new StringValue(getObjectId()));
-         entry.setValue(CmisConstants.CONTENT_STREAM_FILE_NAME, new StringValue(getName()));
+      }
+   }
+
+   /**
+    * Check that entry is not removed from storage, its content is released
+    * already in this case. Must be called under lock of storage.
+    */
+   private void checkNotRemoved()
+   {
+      if (storage.entries.get(entry.getId()) != entry)
+      {
+         throw new CmisRuntimeException("Object was removed from storage.");
       }
    }
 
@@ -470,25 +524,88 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
       }
       else
       {
-         String objectId = getObjectId();
-         String vsId = getVersionSeriesId();
-         storage.entries.remove(objectId);
-         for (String parent : storage.parents.get(objectId))
-         {
-            storage.children.get(parent).remove(objectId);
-         }
-         storage.parents.remove(objectId);
-         storage.unfiled.remove(objectId);
-         for (String version : storage.versions.get(getVersionSeriesId()))
+         // Content is released under lock, see doSetContentStream.
+         synchronized (storage)
          {
-            storage.entries.remove(version);
+            String objectId = getObjectId();
+            String vsId = getVersionSeriesId();
+            String name = getName();
+            storage.releaseContent(storage.entries.remove(objectId));
+            for (String parent : storage.parents.get(objectId))
+            {
+               storage.children.get(parent).remove(objectId);
+               storage.removeChildName(parent, name, objectId);
+            }
+            storage.parents.remove(objectId);
+            storage.unfiled.remove(objectId);
+            for (String version : storage.versions.get(getVersionSeriesId()))
+            {
+               storage.releaseContent(storage.entries.remove(version));
+            }
+            storage.versions.remove(vsId);
+            String pwcId = storage.workingCopies.remove(vsId);
+            if (pwcId != null)
+            {
+               storage.releaseContent(storage.entries.remove(pwcId));
+            }
          }
-         storage.versions.remove(vsId);
-         String pwcId = storage.workingCopies.remove(vsId);
-         if (pwcId != null)
+      }
+   }
+
+   /**
+    * Content stream of content stored in {@link ContentStore}. Digest of
+    * content is used as key of content. Stored content may be read from any
+    * position directly. Content is opened when stream is requested first
+    * time, so only key or length of content may be used without reading it.
+    */
+   static final class BlobContentStream extends BaseContentStream implements ContentStream.Keyed,
+      ContentStream.RandomAccess
+   {
+      private final BlobValue value;
+
+      private InputStream stream;
+
+      BlobContentStream(BlobValue value, String fileName, MimeType mediaType)
+      {
+         super(null, value.getLength(), fileName, mediaType);
+         this.value = value;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public synchronized InputStream getStream() throws IOException
+      {
+         if (stream == null)
          {
-            storage.entries.remove(pwcId);
+            stream = value.getStream();
          }
+         return stream;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public String getContentKey()
+      {
+         return value.getDigest();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public InputStream getStream(long offset) throws IOException
+      {
+         return value.getStream(offset);
+      }
+
+      /**
+       * @return stored content
+       */
+      BlobValue getValue()
+      {
+         return value;
       }
    }
 }
@@ -20,10 +20,13 @@
 package org.xcmis.sp.inmemory;
 
 import org.xcmis.spi.CmisConstants;
+import org.xcmis.spi.CompiledACL;
 import org.xcmis.spi.PolicyData;
+import org.xcmis.spi.model.AccessControlEntry;
 import org.xcmis.spi.model.BaseType;
 import org.xcmis.spi.model.Property;
 import org.xcmis.spi.model.PropertyType;
+import org.xcmis.spi.utils.CmisUtils;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -49,6 +52,9 @@ final class Entry
 
    private Set<String> policies;
 
+   /** ACL compiled from permissions or <code>null</code> if not compiled yet. */
+   private volatile CompiledACL compiledACL;
+
    public Entry()
    {
    }
@@ -87,6 +93,17 @@ final class Entry
       return null;
    }
 
+   public String getName()
+   {
+      Value value = getValues().get(CmisConstants.NAME);
+      if (value != null)
+      {
+         String[] strs = value.getStrings();
+         return strs.length > 0 ? strs[0] : null;
+      }
+      return null;
+   }
+
    public Map<String, Set<String>> getPermissions()
    {
       if (permissions == null)
@@ -135,11 +152,48 @@ final class Entry
       getPolicies().remove(policy.getObjectId());
    }
 
-   public void setPermissions(Map<String, Set<String>> permissions)
+   public synchronized void setPermissions(Map<String, Set<String>> permissions)
    {
       Map<String, Set<String>> ps = getPermissions();
       ps.clear();
       ps.putAll(permissions);
+      compiledACL = null;
+   }
+
+   /**
+    * Replace permissions with specified ACL.
+    *
+    * @param acl new ACL
+    */
+   public synchronized void setACL(List<AccessControlEntry> acl)
+   {
+      Map<String, Set<String>> ps = getPermissions();
+      ps.clear();
+      CmisUtils.addAclToPermissionMap(ps, acl);
+      compiledACL = null;
+   }
+
+   /**
+    * @return ACL compiled from permissions. It is compiled once and reused
+    *         until permissions are changed by {@link #setACL(List)} or
+    *         {@link #setPermissions(Map)}
+    */
+   public CompiledACL getCompiledACL()
+   {
+      CompiledACL acl = compiledACL;
+      if (acl == null)
+      {
+         synchronized (this)
+         {
+            acl = compiledACL;
+            if (acl == null)
+            {
+               acl = CompiledACL.compile(getPermissions());
+               compiledACL = acl;
+            }
+         }
+      }
+      return acl;
    }
 
    @SuppressWarnings("unchecked")
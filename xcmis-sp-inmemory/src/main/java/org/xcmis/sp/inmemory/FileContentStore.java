@@ -0,0 +1,512 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.utils.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+
+/**
+ * Content store which appends content to blob files and reads it through
+ * memory mapped buffers, so content doesn't use heap. Entries keep only file,
+ * offset and length of content. Content is mapped by windows of limited size
+ * when it is read, so content of any size may be read.
+ * <p>
+ * Each upload is streamed to blob file which is not used by other uploads, so
+ * concurrent uploads are written to different files. When size of file
+ * reaches limit file is sealed and no more content is appended to it. Sealed
+ * file is deleted when all its content is released.
+ * <p>
+ * Storage is not persistent, blob files left by previous run are deleted when
+ * store is created.
+ *
+ * @version $Id$
+ */
+public class FileContentStore implements ContentStore
+{
+
+   private static final Logger LOG = Logger.getLogger(FileContentStore.class);
+
+   /** Extension of blob files. */
+   public static final String BLOB_EXTENSION = ".blob";
+
+   /** Default max size of blob file in bytes. */
+   public static final long DEFAULT_MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+   /** Default max size of mapped part of content in bytes. */
+   public static final int DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
+
+   private static final int BUFFER_SIZE = 8192;
+
+   private final File dir;
+
+   private final long maxFileSize;
+
+   private final int windowSize;
+
+   /** Not sealed files which are not used by uploads now. */
+   private final LinkedList<BlobFile> writable = new LinkedList<BlobFile>();
+
+   private long nextFileNumber = 1;
+
+   /**
+    * @param dir directory of blob files
+    * @param maxFileSize size of blob file after which it is sealed
+    * @throws IOException if directory can't be created
+    */
+   public FileContentStore(File dir, long maxFileSize) throws IOException
+   {
+      this(dir, maxFileSize, DEFAULT_WINDOW_SIZE);
+   }
+
+   /**
+    * @param dir directory of blob files
+    * @param maxFileSize size of blob file after which it is sealed
+    * @param windowSize max size of mapped part of content
+    * @throws IOException if directory can't be created
+    */
+   FileContentStore(File dir, long maxFileSize, int windowSize) throws IOException
+   {
+      if (!dir.exists() && !dir.mkdirs())
+      {
+         throw new IOException("Unable create directory " + dir.getAbsolutePath());
+      }
+      File[] files = dir.listFiles();
+      if (files == null)
+      {
+         throw new IOException("Unable read directory " + dir.getAbsolutePath());
+      }
+      for (File file : files)
+      {
+         if (file.isFile() && file.getName().endsWith(BLOB_EXTENSION) && !file.delete())
+         {
+            LOG.warn("Unable delete blob file " + file.getAbsolutePath());
+         }
+      }
+      this.dir = dir;
+      this.maxFileSize = maxFileSize;
+      this.windowSize = windowSize;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public BlobValue write(InputStream stream) throws IOException
+   {
+      BlobFile file = acquire();
+      try
+      {
+         FileBlobValue value = file.append(stream);
+         synchronized (this)
+         {
+            file.live++;
+         }
+         return value;
+      }
+      finally
+      {
+         recycle(file);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void release(BlobValue value)
+   {
+      if (!(value instanceof FileBlobValue))
+      {
+         return;
+      }
+      BlobFile file = ((FileBlobValue)value).file;
+      synchronized (this)
+      {
+         file.live--;
+         if (file.live == 0 && file.readers == 0 && file.sealed)
+         {
+            file.delete();
+         }
+      }
+   }
+
+   /**
+    * Take file which is not used by other uploads or create new one.
+    */
+   private BlobFile acquire() throws IOException
+   {
+      File file;
+      synchronized (this)
+      {
+         if (!writable.isEmpty())
+         {
+            return writable.removeFirst();
+         }
+         file = new File(dir, Long.toString(nextFileNumber++) + BLOB_EXTENSION);
+      }
+      return new BlobFile(file);
+   }
+
+   /**
+    * Return file to pool after upload or seal it if it is full.
+    */
+   private synchronized void recycle(BlobFile file)
+   {
+      if (file.size < maxFileSize)
+      {
+         writable.addFirst(file);
+      }
+      else
+      {
+         file.sealed = true;
+         if (file.live == 0 && file.readers == 0)
+         {
+            file.delete();
+         }
+      }
+   }
+
+   private static MessageDigest createDigest()
+   {
+      try
+      {
+         return MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         // SHA-1 must be supported by every Java platform.
+         throw new IllegalStateException(e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Append-only file of content.
+    */
+   private final class BlobFile
+   {
+      final File file;
+
+      final RandomAccessFile raf;
+
+      final FileChannel channel;
+
+      /** Size of file, changed only by upload which owns file. */
+      volatile long size;
+
+      /** Number of not released values, guarded by store. */
+      int live;
+
+      /** Number of open streams which map file, guarded by store. */
+      int readers;
+
+      /** No more content is appended to sealed file, guarded by store. */
+      boolean sealed;
+
+      BlobFile(File file) throws IOException
+      {
+         this.file = file;
+         this.raf = new RandomAccessFile(file, "rw");
+         this.channel = raf.getChannel();
+      }
+
+      FileBlobValue append(InputStream stream) throws IOException
+      {
+         long offset = size;
+         long position = offset;
+         MessageDigest md = createDigest();
+         if (stream != null)
+         {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            try
+            {
+               int r;
+               while ((r = stream.read(bytes)) != -1)
+               {
+                  md.update(bytes, 0, r);
+                  buffer.clear();
+                  buffer.limit(r);
+                  while (buffer.hasRemaining())
+                  {
+                     position += channel.write(buffer, position);
+                  }
+               }
+            }
+            catch (IOException e)
+            {
+               // drop partially written content
+               channel.truncate(offset);
+               throw e;
+            }
+            finally
+            {
+               stream.close();
+            }
+         }
+         size = position;
+         return new FileBlobValue(this, offset, position - offset, BlobValue.toHex(md.digest()));
+      }
+
+      InputStream open(long offset, long length) throws IOException
+      {
+         if (length == 0)
+         {
+            return new ByteArrayInputStream(new byte[0]);
+         }
+         return new MappedInputStream(this, offset, offset + length);
+      }
+
+      void delete()
+      {
+         try
+         {
+            raf.close();
+         }
+         catch (IOException e)
+         {
+            LOG.warn("Unable close blob file " + file.getAbsolutePath());
+         }
+         if (!file.delete())
+         {
+            LOG.warn("Unable delete blob file " + file.getAbsolutePath());
+         }
+      }
+   }
+
+   /**
+    * Handle of content in blob file.
+    */
+   private static final class FileBlobValue extends BlobValue
+   {
+      final BlobFile file;
+
+      final long offset;
+
+      final long length;
+
+      final String digest;
+
+      FileBlobValue(BlobFile file, long offset, long length, String digest)
+      {
+         this.file = file;
+         this.offset = offset;
+         this.length = length;
+         this.digest = digest;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public long getLength()
+      {
+         return length;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public InputStream getStream() throws IOException
+      {
+         return file.open(offset, length);
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public InputStream getStream(long from) throws IOException
+      {
+         long start = Math.min(Math.max(from, 0), length);
+         return file.open(offset + start, length - start);
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public String getDigest()
+      {
+         return digest;
+      }
+   }
+
+   /**
+    * Stream of content mapped by windows of {@link #windowSize} bytes. First
+    * window is mapped when stream is opened, next one when previous one is
+    * read. If content doesn't fit in one window file is kept open until
+    * stream is closed or last window is mapped, so stream may be read after
+    * content is released.
+    */
+   private final class MappedInputStream extends InputStream
+   {
+      private final BlobFile file;
+
+      private final long end;
+
+      /** Position in file of next window. */
+      private long next;
+
+      private ByteBuffer window;
+
+      /** Set if stream is counted in readers of file. */
+      private boolean reader;
+
+      MappedInputStream(BlobFile file, long offset, long end) throws IOException
+      {
+         this.file = file;
+         this.next = offset;
+         this.end = end;
+         if (end - offset > windowSize)
+         {
+            synchronized (FileContentStore.this)
+            {
+               file.readers++;
+            }
+            reader = true;
+         }
+         try
+         {
+            map();
+         }
+         catch (IOException e)
+         {
+            close();
+            throw e;
+         }
+      }
+
+      @Override
+      public int read() throws IOException
+      {
+         return nextWindow() ? window.get() & 0xff : -1;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         if (len == 0)
+         {
+            return 0;
+         }
+         if (!nextWindow())
+         {
+            return -1;
+         }
+         int r = Math.min(len, window.remaining());
+         window.get(b, off, r);
+         return r;
+      }
+
+      @Override
+      public long skip(long n)
+      {
+         if (n <= 0)
+         {
+            return 0;
+         }
+         int mapped = window == null ? 0 : window.remaining();
+         if (n <= mapped)
+         {
+            window.position(window.position() + (int)n);
+            return n;
+         }
+         // skipped windows are not mapped
+         long skipped = Math.min(n, mapped + end - next);
+         next += skipped - mapped;
+         window = null;
+         if (next >= end)
+         {
+            releaseFile();
+         }
+         return skipped;
+      }
+
+      @Override
+      public int available()
+      {
+         return window == null ? 0 : window.remaining();
+      }
+
+      @Override
+      public void close()
+      {
+         window = null;
+         next = end;
+         releaseFile();
+      }
+
+      /**
+       * @return <code>true</code> if there are bytes in current window
+       */
+      private boolean nextWindow() throws IOException
+      {
+         if (window != null && window.hasRemaining())
+         {
+            return true;
+         }
+         if (next >= end)
+         {
+            return false;
+         }
+         map();
+         return true;
+      }
+
+      private void map() throws IOException
+      {
+         long size = Math.min(windowSize, end - next);
+         window = file.channel.map(FileChannel.MapMode.READ_ONLY, next, size);
+         next += size;
+         if (next >= end)
+         {
+            // mapped buffer stays valid after file is closed
+            releaseFile();
+         }
+      }
+
+      private void releaseFile()
+      {
+         if (!reader)
+         {
+            return;
+         }
+         reader = false;
+         synchronized (FileContentStore.this)
+         {
+            file.readers--;
+            if (file.readers == 0 && file.live == 0 && file.sealed)
+            {
+               file.delete();
+            }
+         }
+      }
+   }
+
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.CmisConstants;
+import org.xcmis.spi.model.BaseType;
+
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Children of folder in in-memory storage. Besides set of children ids keeps
+ * visible children (folders, policies, relationships and latest versions of
+ * documents) sorted by order of adding and by each of properties
+ * cmis:name, cmis:creationDate, cmis:lastModificationDate,
+ * cmis:objectTypeId, so children may be iterated in any of these orders
+ * without sorting. Changes are serialized, readers are not blocked and see
+ * weakly consistent view of children.
+ *
+ * @version $Id$
+ */
+final class FolderChildren
+{
+
+   /** Order of adding children in folder, used if order is not specified. */
+   private static final Comparator<ChildKey> ADDED = new Comparator<ChildKey>()
+   {
+      public int compare(ChildKey k1, ChildKey k2)
+      {
+         return k1.seq < k2.seq ? -1 : (k1.seq == k2.seq ? 0 : 1);
+      }
+   };
+
+   private static final Comparator<ChildKey> NAME = new Comparator<ChildKey>()
+   {
+      public int compare(ChildKey k1, ChildKey k2)
+      {
+         int r = compareStrings(k1.name, k2.name);
+         return r != 0 ? r : ADDED.compare(k1, k2);
+      }
+   };
+
+   private static final Comparator<ChildKey> CREATION_DATE = new Comparator<ChildKey>()
+   {
+      public int compare(ChildKey k1, ChildKey k2)
+      {
+         int r = k1.creationDate < k2.creationDate ? -1 : (k1.creationDate == k2.creationDate ? 0 : 1);
+         return r != 0 ? r : ADDED.compare(k1, k2);
+      }
+   };
+
+   private static final Comparator<ChildKey> LAST_MODIFICATION_DATE = new Comparator<ChildKey>()
+   {
+      public int compare(ChildKey k1, ChildKey k2)
+      {
+         int r =
+            k1.lastModificationDate < k2.lastModificationDate ? -1
+               : (k1.lastModificationDate == k2.lastModificationDate ? 0 : 1);
+         return r != 0 ? r : ADDED.compare(k1, k2);
+      }
+   };
+
+   private static final Comparator<ChildKey> OBJECT_TYPE_ID = new Comparator<ChildKey>()
+   {
+      public int compare(ChildKey k1, ChildKey k2)
+      {
+         int r = compareStrings(k1.typeId, k2.typeId);
+         return r != 0 ? r : ADDED.compare(k1, k2);
+      }
+   };
+
+   /** All children, include hidden, e.g. PWC and not latest versions of documents. */
+   private final ConcurrentHashMap<String, ChildKey> members = new ConcurrentHashMap<String, ChildKey>();
+
+   private final NavigableSet<ChildKey> byAdded = new ConcurrentSkipListSet<ChildKey>(ADDED);
+
+   private final NavigableSet<ChildKey> byName = new ConcurrentSkipListSet<ChildKey>(NAME);
+
+   private final NavigableSet<ChildKey> byCreationDate = new ConcurrentSkipListSet<ChildKey>(CREATION_DATE);
+
+   private final NavigableSet<ChildKey> byLastModificationDate =
+      new ConcurrentSkipListSet<ChildKey>(LAST_MODIFICATION_DATE);
+
+   private final NavigableSet<ChildKey> byObjectTypeId = new ConcurrentSkipListSet<ChildKey>(OBJECT_TYPE_ID);
+
+   /** Number of visible children. */
+   private volatile int visibleNum;
+
+   /** Sequence number for the next added child. */
+   private long nextSeq;
+
+   /**
+    * Add child in folder. Nothing happens if folder already contains child.
+    *
+    * @param entry child entry
+    * @return <code>true</code> if child added and <code>false</code> if
+    *         folder already contains it
+    */
+   synchronized boolean add(Entry entry)
+   {
+      String id = entry.getId();
+      if (members.containsKey(id))
+      {
+         return false;
+      }
+      ChildKey key = new ChildKey(id, nextSeq++, entry);
+      members.put(id, key);
+      index(key);
+      return true;
+   }
+
+   /**
+    * Update ordering keys and visibility of child after changing its
+    * properties. Nothing happens if folder does not contain child.
+    *
+    * @param entry child entry
+    */
+   synchronized void update(Entry entry)
+   {
+      String id = entry.getId();
+      ChildKey old = members.get(id);
+      if (old == null)
+      {
+         return;
+      }
+      ChildKey key = new ChildKey(id, old.seq, entry);
+      if (!key.sameAs(old))
+      {
+         unindex(old);
+         members.put(id, key);
+         index(key);
+      }
+   }
+
+   /**
+    * Remove child from folder.
+    *
+    * @param id child id
+    * @return <code>true</code> if child removed and <code>false</code> if
+    *         folder does not contain it
+    */
+   synchronized boolean remove(String id)
+   {
+      ChildKey key = members.remove(id);
+      if (key == null)
+      {
+         return false;
+      }
+      unindex(key);
+      return true;
+   }
+
+   /**
+    * @return number of all children in folder, include hidden
+    */
+   int size()
+   {
+      return members.size();
+   }
+
+   /**
+    * @return number of visible children in folder
+    */
+   int getVisibleNum()
+   {
+      return visibleNum;
+   }
+
+   /**
+    * Get ids of visible children in specified order. Only the first property
+    * of <code>orderBy</code> is considered, children with the same value of it
+    * are in order of adding them in folder. If <code>orderBy</code> is
+    * <code>null</code> or property is not one of supported then children are
+    * in order of adding them in folder.
+    *
+    * @param orderBy comma-separated list of query names and the ascending
+    *        modifier 'ASC' or the descending modifier 'DESC' for each query
+    *        name
+    * @return iterator over ids of children
+    */
+   Iterator<String> iterator(String orderBy)
+   {
+      NavigableSet<ChildKey> keys = byAdded;
+      boolean descending = false;
+      if (orderBy != null)
+      {
+         int comma = orderBy.indexOf(',');
+         String[] order = (comma < 0 ? orderBy : orderBy.substring(0, comma)).trim().split("\\s+");
+         String property = order[0];
+         if (CmisConstants.NAME.equals(property))
+         {
+            keys = byName;
+         }
+         else if (CmisConstants.CREATION_DATE.equals(property))
+         {
+            keys = byCreationDate;
+         }
+         else if (CmisConstants.LAST_MODIFICATION_DATE.equals(property))
+         {
+            keys = byLastModificationDate;
+         }
+         else if (CmisConstants.OBJECT_TYPE_ID.equals(property))
+         {
+            keys = byObjectTypeId;
+         }
+         descending = keys != byAdded && order.length > 1 && "DESC".equalsIgnoreCase(order[1]);
+      }
+      final Iterator<ChildKey> iterator = descending ? keys.descendingIterator() : keys.iterator();
+      return new Iterator<String>()
+      {
+         public boolean hasNext()
+         {
+            return iterator.hasNext();
+         }
+
+         public String next()
+         {
+            return iterator.next().id;
+         }
+
+         public void remove()
+         {
+            throw new UnsupportedOperationException("remove");
+         }
+      };
+   }
+
+   private void index(ChildKey key)
+   {
+      if (key.visible)
+      {
+         byAdded.add(key);
+         byName.add(key);
+         byCreationDate.add(key);
+         byLastModificationDate.add(key);
+         byObjectTypeId.add(key);
+         visibleNum++;
+      }
+   }
+
+   private void unindex(ChildKey key)
+   {
+      if (key.visible)
+      {
+         byAdded.remove(key);
+         byName.remove(key);
+         byCreationDate.remove(key);
+         byLastModificationDate.remove(key);
+         byObjectTypeId.remove(key);
+         visibleNum--;
+      }
+   }
+
+   private static int compareStrings(String s1, String s2)
+   {
+      if (s1 == null)
+      {
+         return s2 == null ? 0 : -1;
+      }
+      return s2 == null ? 1 : s1.compareTo(s2);
+   }
+
+   /**
+    * Snapshot of properties of child used for ordering. Properties of entry
+    * may be changed at any time so they are copied to keep sets consistent.
+    */
+   private static final class ChildKey
+   {
+      final String id;
+
+      final long seq;
+
+      final boolean visible;
+
+      final String name;
+
+      final long creationDate;
+
+      final long lastModificationDate;
+
+      final String typeId;
+
+      ChildKey(String id, long seq, Entry entry)
+      {
+         this.id = id;
+         this.seq = seq;
+         this.visible = isVisible(entry);
+         this.name = entry.getName();
+         this.creationDate = getTime(entry, CmisConstants.CREATION_DATE);
+         this.lastModificationDate = getTime(entry, CmisConstants.LAST_MODIFICATION_DATE);
+         this.typeId = entry.getTypeId();
+      }
+
+      boolean sameAs(ChildKey other)
+      {
+         return visible == other.visible && creationDate == other.creationDate
+            && lastModificationDate == other.lastModificationDate && compareStrings(name, other.name) == 0
+            && compareStrings(typeId, other.typeId) == 0;
+      }
+
+      private static boolean isVisible(Entry entry)
+      {
+         if (entry.getBaseTypeId() != BaseType.DOCUMENT)
+         {
+            return true;
+         }
+         Value value = entry.getValue(CmisConstants.IS_LATEST_VERSION);
+         if (value == null || !value.isBoolean() || value.getBooleans().length == 0
+            || value.getBooleans()[0] == null)
+         {
+            return true;
+         }
+         return value.getBooleans()[0];
+      }
+
+      private static long getTime(Entry entry, String id)
+      {
+         Value value = entry.getValue(id);
+         if (value == null || !value.isDate() || value.getDates().length == 0 || value.getDates()[0] == null)
+         {
+            return Long.MIN_VALUE;
+         }
+         Calendar date = value.getDates()[0];
+         return date.getTimeInMillis();
+      }
+   }
+}
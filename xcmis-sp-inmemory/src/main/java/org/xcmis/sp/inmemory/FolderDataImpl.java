@@ -19,7 +19,6 @@
 
 package org.xcmis.sp.inmemory;
 
-import org.xcmis.spi.BaseItemsIterator;
 import org.xcmis.spi.CmisConstants;
 import org.xcmis.spi.CmisRuntimeException;
 import org.xcmis.spi.ConstraintException;
@@ -27,6 +26,7 @@ import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
 import org.xcmis.spi.ItemsIterator;
+import org.xcmis.spi.LazyIterator;
 import org.xcmis.spi.ObjectData;
 import org.xcmis.spi.ObjectNotFoundException;
 import org.xcmis.spi.RelationshipData;
@@ -38,11 +38,10 @@ import org.xcmis.spi.model.RelationshipDirection;
 import org.xcmis.spi.model.TypeDefinition;
 import org.xcmis.spi.utils.Logger;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 /**
  * @author <a href="mailto:andrew00x@gmail.com">Andrey Parfonov</a>
@@ -64,10 +63,22 @@ class FolderDataImpl extends BaseObjectData implements FolderData
     */
    public void addObject(ObjectData object) throws ConstraintException
    {
-      storage.children.get(getObjectId()).add(object.getObjectId());
+      String name = object.getName();
+      boolean visible =
+         object.getBaseType() != BaseType.DOCUMENT || ((DocumentData)object).isLatestVersion();
+      if (visible)
+      {
+         String id = storage.getChildIdByName(getObjectId(), name);
+         if (id != null && !id.equals(object.getObjectId()))
+         {
+            throw new ConstraintException("Object with name " + name + " already exists in folder.");
+         }
+         storage.addChildName(getObjectId(), name, object.getObjectId());
+      }
+      storage.children.get(getObjectId()).add(storage.entries.get(object.getObjectId()));
       storage.parents.get(object.getObjectId()).add(getObjectId());
       storage.unfiled.remove(object.getObjectId());
-      storage.indexListener.updated(object);
+      storage.indexListener.updatedTree(object, storage);
    }
 
    /**
@@ -76,28 +87,8 @@ class FolderDataImpl extends BaseObjectData implements FolderData
    public ItemsIterator<ObjectData> getChildren(String orderBy)
    {
 
-      Set<String> childrenIds = storage.children.get(getObjectId());
-      List<ObjectData> children = new ArrayList<ObjectData>(childrenIds.size());
-      for (String ch : childrenIds)
-      {
-         ObjectData object = null;
-         try
-         {
-            object = storage.getObjectById(ch);
-         }
-         catch (ObjectNotFoundException e)
-         {
-            LOG.warn("Object " + ch + " not found in storage.");
-            continue;
-         }
-         if (object.getBaseType() == BaseType.DOCUMENT && !((DocumentData)object).isLatestVersion())
-         {
-            continue;
-         }
-         children.add(object);
-      }
-
-      return new BaseItemsIterator<ObjectData>(children);
+      FolderChildren children = storage.children.get(getObjectId());
+      return new ChildrenIterator(children.iterator(orderBy), children.getVisibleNum());
    }
 
    /**
@@ -153,12 +144,13 @@ class FolderDataImpl extends BaseObjectData implements FolderData
    public void removeObject(ObjectData object)
    {
       storage.children.get(getObjectId()).remove(object.getObjectId());
+      storage.removeChildName(getObjectId(), object.getName(), object.getObjectId());
       storage.parents.get(object.getObjectId()).remove(getObjectId());
       if (storage.parents.get(object.getObjectId()).size() == 0)
       {
          storage.unfiled.add(object.getObjectId());
       }
-      storage.indexListener.updated(object);
+      storage.indexListener.updatedTree(object, storage);
    }
 
    private String calculatePath()
@@ -219,12 +211,87 @@ class FolderDataImpl extends BaseObjectData implements FolderData
 
       String objectId = getObjectId();
       storage.entries.remove(objectId);
+      String name = getName();
       for (String parent : storage.parents.get(objectId))
       {
          storage.children.get(parent).remove(objectId);
+         storage.removeChildName(parent, name, objectId);
       }
       storage.parents.remove(objectId);
       storage.children.remove(objectId);
+      storage.childNames.remove(objectId);
+   }
+
+   /**
+    * Iterator over children of folder. Objects are created only for children
+    * which are returned, skipped children are not loaded.
+    */
+   private class ChildrenIterator extends LazyIterator<ObjectData>
+   {
+      private final Iterator<String> ids;
+
+      private final int size;
+
+      ChildrenIterator(Iterator<String> ids, int size)
+      {
+         this.ids = ids;
+         this.size = size;
+         fetchNext();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public int size()
+      {
+         return size;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void skip(int skip) throws NoSuchElementException
+      {
+         if (skip <= 0)
+         {
+            return;
+         }
+         if (next == null)
+         {
+            throw new NoSuchElementException();
+         }
+         // Prefetched object is the first skipped.
+         while (--skip > 0)
+         {
+            if (!ids.hasNext())
+            {
+               next = null;
+               throw new NoSuchElementException();
+            }
+            ids.next();
+         }
+         fetchNext();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      protected void fetchNext()
+      {
+         next = null;
+         while (next == null && ids.hasNext())
+         {
+            String id = ids.next();
+            try
+            {
+               next = storage.getObjectById(id);
+            }
+            catch (ObjectNotFoundException e)
+            {
+               LOG.warn("Object " + id + " not found in storage.");
+            }
+         }
+      }
    }
 
 }
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.model.BaseType;
+import org.xcmis.spi.model.ContentStreamAllowed;
+import org.xcmis.spi.model.PropertyDefinition;
+import org.xcmis.spi.model.TypeDefinition;
+
+import java.util.Map;
+
+/**
+ * Unmodifiable type definition. Single instance of it is shared between all
+ * objects of the same type and all callers of
+ * {@link StorageImpl#getTypeDefinition(String, boolean)}, any attempt to
+ * change it throws {@link UnsupportedOperationException}.
+ *
+ * @version $Id$
+ */
+final class SharedTypeDefinition extends TypeDefinition
+{
+
+   /**
+    * @param type source type definition
+    * @param propertyDefinitions unmodifiable property definitions or
+    *        <code>null</code> if type is shared without property definitions
+    */
+   SharedTypeDefinition(TypeDefinition type, Map<String, PropertyDefinition<?>> propertyDefinitions)
+   {
+      super(type.getId(), type.getBaseId(), type.getQueryName(), type.getLocalName(), type.getLocalNamespace(), type
+         .getParentId(), type.getDisplayName(), type.getDescription(), type.isCreatable(), type.isFileable(), type
+         .isQueryable(), type.isFulltextIndexed(), type.isIncludedInSupertypeQuery(), type.isControllablePolicy(),
+         type.isControllableACL(), type.isVersionable(), copy(type.getAllowedSourceTypes()), copy(type
+            .getAllowedTargetTypes()), type.getContentStreamAllowed(), propertyDefinitions);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String[] getAllowedSourceTypes()
+   {
+      return copy(super.getAllowedSourceTypes());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String[] getAllowedTargetTypes()
+   {
+      return copy(super.getAllowedTargetTypes());
+   }
+
+   // --- Setters are not supported.
+
+   @Override
+   public void setId(String id)
+   {
+      throw new UnsupportedOperationException("setId");
+   }
+
+   @Override
+   public void setBaseId(BaseType baseId)
+   {
+      throw new UnsupportedOperationException("setBaseId");
+   }
+
+   @Override
+   public void setQueryName(String queryName)
+   {
+      throw new UnsupportedOperationException("setQueryName");
+   }
+
+   @Override
+   public void setLocalName(String localName)
+   {
+      throw new UnsupportedOperationException("setLocalName");
+   }
+
+   @Override
+   public void setLocalNamespace(String localNamespace)
+   {
+      throw new UnsupportedOperationException("setLocalNamespace");
+   }
+
+   @Override
+   public void setParentId(String parentId)
+   {
+      throw new UnsupportedOperationException("setParentId");
+   }
+
+   @Override
+   public void setDisplayName(String displayName)
+   {
+      throw new UnsupportedOperationException("setDisplayName");
+   }
+
+   @Override
+   public void setDescription(String description)
+   {
+      throw new UnsupportedOperationException("setDescription");
+   }
+
+   @Override
+   public void setCreatable(boolean creatable)
+   {
+      throw new UnsupportedOperationException("setCreatable");
+   }
+
+   @Override
+   public void setFileable(boolean fileable)
+   {
+      throw new UnsupportedOperationException("setFileable");
+   }
+
+   @Override
+   public void setQueryable(boolean queryable)
+   {
+      throw new UnsupportedOperationException("setQueryable");
+   }
+
+   @Override
+   public void setFulltextIndexed(boolean fulltextIndexed)
+   {
+      throw new UnsupportedOperationException("setFulltextIndexed");
+   }
+
+   @Override
+   public void setIncludedInSupertypeQuery(boolean includedInSupertypeQuery)
+   {
+      throw new UnsupportedOperationException("setIncludedInSupertypeQuery");
+   }
+
+   @Override
+   public void setControllablePolicy(boolean controllablePolicy)
+   {
+      throw new UnsupportedOperationException("setControllablePolicy");
+   }
+
+   @Override
+   public void setControllableACL(boolean controllableACL)
+   {
+      throw new UnsupportedOperationException("setControllableACL");
+   }
+
+   @Override
+   public void setVersionable(boolean versionable)
+   {
+      throw new UnsupportedOperationException("setVersionable");
+   }
+
+   @Override
+   public void setAllowedSourceTypes(String[] allowedSourceTypes)
+   {
+      throw new UnsupportedOperationException("setAllowedSourceTypes");
+   }
+
+   @Override
+   public void setAllowedTargetTypes(String[] allowedTargetTypes)
+   {
+      throw new UnsupportedOperationException("setAllowedTargetTypes");
+   }
+
+   @Override
+   public void setContentStreamAllowed(ContentStreamAllowed contentStreamAllowed)
+   {
+      throw new UnsupportedOperationException("setContentStreamAllowed");
+   }
+
+   @Override
+   public void setPropertyDefinitions(Map<String, PropertyDefinition<?>> propertyDefinitions)
+   {
+      throw new UnsupportedOperationException("setPropertyDefinitions");
+   }
+
+   private static String[] copy(String[] a)
+   {
+      return a != null ? a.clone() : null;
+   }
+}
@@ -40,6 +40,27 @@ public class StorageConfiguration
    /** Max number of objects allowed to be added in storage. */
    private long maxItemsNum;
 
+   /** Max number of events kept in change log. */
+   private long maxChangesNum = -1;
+
+   /** Update index asynchronously. */
+   private boolean asyncIndexing;
+
+   /** Number of threads which update index in asynchronous mode. */
+   private int indexingThreads = Runtime.getRuntime().availableProcessors();
+
+   /** Max number of pending index changes in asynchronous mode. */
+   private int indexingQueueSize = 1000;
+
+   /** Store of content, overrides content directory if set. */
+   private ContentStore contentStore;
+
+   /** Directory of content files, content is kept in heap if not set. */
+   private String contentDir;
+
+   /** Max size of file of content in bytes. */
+   private long blobFileSize = FileContentStore.DEFAULT_MAX_FILE_SIZE;
+
    StorageConfiguration()
    {
    }
@@ -60,6 +81,21 @@ public class StorageConfiguration
       this.maxItemsNum = maxItemsNum;
    }
 
+   /**
+    * @param id the id
+    * @param name name
+    * @param description description
+    * @param maxMem max memory size
+    * @param maxItemsNum max objects count
+    * @param maxChangesNum max number of events kept in change log
+    */
+   public StorageConfiguration(String id, String name, String description, long maxMem, long maxItemsNum,
+      long maxChangesNum)
+   {
+      this(id, name, description, maxMem, maxItemsNum);
+      this.maxChangesNum = maxChangesNum;
+   }
+
    /**
     * @return the repository id
     */
@@ -124,6 +160,127 @@ public class StorageConfiguration
       this.maxMem = maxMem;
    }
 
+   /**
+    * @return max number of events kept in change log. If number of events
+    *         reaches this limit then the oldest events are evicted. -1 means
+    *         unbounded change log
+    */
+   public long getMaxChangesNum()
+   {
+      return maxChangesNum;
+   }
+
+   /**
+    * @param maxChangesNum max number of events kept in change log
+    */
+   public void setMaxChangesNum(long maxChangesNum)
+   {
+      this.maxChangesNum = maxChangesNum;
+   }
+
+   /**
+    * @return <code>true</code> if index is updated asynchronously
+    */
+   public boolean isAsyncIndexing()
+   {
+      return asyncIndexing;
+   }
+
+   /**
+    * @param asyncIndexing <code>true</code> if index should be updated
+    *        asynchronously
+    */
+   public void setAsyncIndexing(boolean asyncIndexing)
+   {
+      this.asyncIndexing = asyncIndexing;
+   }
+
+   /**
+    * @return number of threads which update index in asynchronous mode. By
+    *         default the same as number of available processors
+    */
+   public int getIndexingThreads()
+   {
+      return indexingThreads;
+   }
+
+   /**
+    * @param indexingThreads number of threads which update index in
+    *        asynchronous mode
+    */
+   public void setIndexingThreads(int indexingThreads)
+   {
+      this.indexingThreads = indexingThreads;
+   }
+
+   /**
+    * @return max number of pending index changes in asynchronous mode
+    */
+   public int getIndexingQueueSize()
+   {
+      return indexingQueueSize;
+   }
+
+   /**
+    * @param indexingQueueSize max number of pending index changes in
+    *        asynchronous mode
+    */
+   public void setIndexingQueueSize(int indexingQueueSize)
+   {
+      this.indexingQueueSize = indexingQueueSize;
+   }
+
+   /**
+    * @return store of content or <code>null</code> if store is created from
+    *         other configuration properties
+    */
+   public ContentStore getContentStore()
+   {
+      return contentStore;
+   }
+
+   /**
+    * @param contentStore store of content
+    */
+   public void setContentStore(ContentStore contentStore)
+   {
+      this.contentStore = contentStore;
+   }
+
+   /**
+    * @return directory where content is kept in memory mapped files or
+    *         <code>null</code> if content is kept in heap
+    */
+   public String getContentDir()
+   {
+      return contentDir;
+   }
+
+   /**
+    * @param contentDir directory where content is kept in memory mapped files
+    */
+   public void setContentDir(String contentDir)
+   {
+      this.contentDir = contentDir;
+   }
+
+   /**
+    * @return max size of file of content in bytes. No more content is added
+    *         in file after it reaches this size
+    */
+   public long getBlobFileSize()
+   {
+      return blobFileSize;
+   }
+
+   /**
+    * @param blobFileSize max size of file of content in bytes
+    */
+   public void setBlobFileSize(long blobFileSize)
+   {
+      this.blobFileSize = blobFileSize;
+   }
+
    /**
     * @return the repository description
     */
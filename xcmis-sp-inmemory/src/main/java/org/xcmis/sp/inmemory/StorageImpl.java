@@ -27,12 +27,16 @@ import org.xcmis.search.SearchServiceException;
 import org.xcmis.search.Visitors;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.SearchServiceConfiguration;
+import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.model.column.Column;
 import org.xcmis.search.model.source.SelectorName;
 import org.xcmis.search.parser.CmisQueryParser;
 import org.xcmis.search.parser.QueryParser;
 import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.result.RowFetchException;
 import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.result.ScoredRowIterator;
+import org.xcmis.search.result.ScoredRowListIterator;
 import org.xcmis.search.value.ToStringNameConverter;
 import org.xcmis.sp.inmemory.query.CmisContentReader;
 import org.xcmis.sp.inmemory.query.CmisSchema;
@@ -98,6 +102,8 @@ import org.xcmis.spi.utils.CmisUtils;
 import org.xcmis.spi.utils.Logger;
 import org.xcmis.spi.utils.MimeType;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -113,6 +119,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.UUID;
@@ -153,7 +160,15 @@ public class StorageImpl implements Storage
 
    final Map<String, Entry> entries;
 
-   final Map<String, Set<String>> children;
+   /** Children of folders. Key is folder id. */
+   final Map<String, FolderChildren> children;
+
+   /**
+    * Per-folder index of names of visible children (folders, policies,
+    * relationships and latest versions of documents). Key is folder id, value
+    * is map of child name to child id.
+    */
+   final Map<String, Map<String, String>> childNames;
 
    final Map<String, Set<String>> parents;
 
@@ -169,6 +184,16 @@ public class StorageImpl implements Storage
 
    final Map<String, Set<String>> typeChildren;
 
+   /**
+    * Shared type definitions with property definitions. Key is type id. Items
+    * are created at first request and dropped when type is added or removed.
+    */
+   private final Map<String, TypeDefinition> sharedTypes = new ConcurrentHashMap<String, TypeDefinition>();
+
+   /** Shared type definitions without property definitions. Key is type id. */
+   private final Map<String, TypeDefinition> sharedTypesNoPropertyDefinitions =
+      new ConcurrentHashMap<String, TypeDefinition>();
+
    final IndexListener indexListener;
 
    /** Searche service. */
@@ -177,7 +202,10 @@ public class StorageImpl implements Storage
    /** Cmis query parser. */
    final QueryParser cmisQueryParser;
 
-   final List<ChangeEvent> changes;
+   final ChangeLog changes;
+
+   /** Content of documents shared by digest. */
+   final ContentRegistry contents;
 
    RenditionManager renditionManager;
 
@@ -200,14 +228,16 @@ public class StorageImpl implements Storage
       this.configuration = configuration;
 
       this.entries = new ConcurrentHashMap<String, Entry>();
-      this.children = new ConcurrentHashMap<String, Set<String>>();
+      this.children = new ConcurrentHashMap<String, FolderChildren>();
+      this.childNames = new ConcurrentHashMap<String, Map<String, String>>();
       this.parents = new ConcurrentHashMap<String, Set<String>>();
       this.versions = new ConcurrentHashMap<String, List<String>>();
       this.workingCopies = new ConcurrentHashMap<String, String>();
       this.unfiled = new CopyOnWriteArraySet<String>();
       this.relationships = new ConcurrentHashMap<String, Set<String>>();
       this.types = new ConcurrentHashMap<String, TypeDefinition>();
-      this.changes = new CopyOnWriteArrayList<ChangeEvent>();
+      this.changes = new ChangeLog(configuration.getMaxChangesNum());
+      this.contents = new ContentRegistry(createContentStore(configuration), configuration.getMaxMem());
 
       PermissionMapping permissionMapping = new PermissionMapping();
       permissionMapping.put(PermissionMapping.CAN_GET_DESCENDENTS_FOLDER, //
@@ -344,10 +374,14 @@ public class StorageImpl implements Storage
 
       entries.put(rootEntry.getId(), rootEntry);
       parents.put(ROOT_FOLDER_ID, EMPTY_PARENTS);
-      children.put(ROOT_FOLDER_ID, new CopyOnWriteArraySet<String>());
+      children.put(ROOT_FOLDER_ID, new FolderChildren());
+      childNames.put(ROOT_FOLDER_ID, new ConcurrentHashMap<String, String>());
 
       this.searchService = getInitializedSearchService();
-      this.indexListener = new IndexListener(searchService);
+      this.indexListener =
+         configuration.isAsyncIndexing() ? new IndexListener(searchService, repositoryInfo, configuration
+            .getIndexingThreads(), configuration.getIndexingQueueSize()) : new IndexListener(searchService,
+            repositoryInfo);
       this.cmisQueryParser = new CmisQueryParser();
    }
 
@@ -424,16 +458,9 @@ public class StorageImpl implements Storage
          throw new NameConstraintViolationException("Name for new document must be provided.");
       }
 
-      if (parent != null)
+      if (parent != null && getChildIdByName(parent.getObjectId(), name) != null)
       {
-         for (ItemsIterator<ObjectData> iterator = parent.getChildren(null); iterator.hasNext();)
-         {
-            if (name.equals(iterator.next().getName()))
-            {
-               throw new NameConstraintViolationException("Object with name " + name
-                  + " already exists in parent folder.");
-            }
-         }
+         throw new NameConstraintViolationException("Object with name " + name + " already exists in parent folder.");
       }
 
       Entry docEntry = new Entry();
@@ -462,9 +489,18 @@ public class StorageImpl implements Storage
       //      docEntry.setValue(CmisConstants.VERSION_SERIES_CHECKED_OUT_ID, new StringValue());
       //      docEntry.setValue(CmisConstants.VERSION_SERIES_CHECKED_OUT_BY, new StringValue());
 
+      BlobValue cv = null;
       if (content != null)
       {
-         ByteArrayValue cv = ByteArrayValue.fromStream(content.getStream());
+         // content of other document is shared instead of copying
+         if (content instanceof DocumentDataImpl.BlobContentStream)
+         {
+            cv = contents.share(((DocumentDataImpl.BlobContentStream)content).getValue());
+         }
+         if (cv == null)
+         {
+            cv = contents.add(content.getStream());
+         }
          docEntry.setValue(PropertyDefinitions.CONTENT, cv);
          MimeType mimeType = content.getMediaType();
          docEntry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, new StringValue(mimeType.getBaseType()));
@@ -474,7 +510,7 @@ public class StorageImpl implements Storage
             docEntry.setValue(CmisConstants.CHARSET, new StringValue(charset));
          }
          docEntry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger
-            .valueOf(cv.getBytes().length)));
+            .valueOf(cv.getLength())));
          docEntry.setValue(CmisConstants.CONTENT_STREAM_ID, new StringValue(docId));
 
          Property<?> contentFileNameProperty = properties.get(CmisConstants.CONTENT_STREAM_FILE_NAME);
@@ -514,7 +550,8 @@ public class StorageImpl implements Storage
 
       if (parent != null)
       {
-         children.get(parent.getObjectId()).add(docId);
+         children.get(parent.getObjectId()).add(docEntry);
+         addChildName(parent.getObjectId(), name, docId);
          Set<String> set = new CopyOnWriteArraySet<String>();
          set.add(parent.getObjectId());
          parents.put(docId, set);
@@ -531,8 +568,12 @@ public class StorageImpl implements Storage
 
       DocumentDataImpl document = new DocumentDataImpl(docEntry, typeDefinition, this);
       indexListener.created(document);
+      if (cv != null)
+      {
+         contentChanged(document);
+      }
 
-      changes.add(new ChangeEvent(generateId(), docId, ChangeType.CREATED, (Calendar)cal.clone()));
+      changes.add(docId, ChangeType.CREATED, (Calendar)cal.clone());
 
       return document;
    }
@@ -560,12 +601,9 @@ public class StorageImpl implements Storage
          throw new NameConstraintViolationException("Name for new folder must be provided.");
       }
 
-      for (ItemsIterator<ObjectData> iterator = parent.getChildren(null); iterator.hasNext();)
+      if (getChildIdByName(parent.getObjectId(), name) != null)
       {
-         if (name.equals(iterator.next().getName()))
-         {
-            throw new NameConstraintViolationException("Object with name " + name + " already exists in parent folder.");
-         }
+         throw new NameConstraintViolationException("Object with name " + name + " already exists in parent folder.");
       }
 
       Entry folderEntry = new Entry();
@@ -604,17 +642,19 @@ public class StorageImpl implements Storage
          CmisUtils.addAclToPermissionMap(folderEntry.getPermissions(), acl);
       }
 
-      children.get(parent.getObjectId()).add(folderId);
+      children.get(parent.getObjectId()).add(folderEntry);
+      addChildName(parent.getObjectId(), name, folderId);
       Set<String> set = new CopyOnWriteArraySet<String>();
       set.add(parent.getObjectId());
       parents.put(folderId, set);
       entries.put(folderId, folderEntry);
-      children.put(folderId, new CopyOnWriteArraySet<String>());
+      children.put(folderId, new FolderChildren());
+      childNames.put(folderId, new ConcurrentHashMap<String, String>());
 
       FolderDataImpl folder = new FolderDataImpl(folderEntry, typeDefinition, this);
       indexListener.created(folder);
 
-      changes.add(new ChangeEvent(generateId(), folderId, ChangeType.CREATED, (Calendar)cal.clone()));
+      changes.add(folderId, ChangeType.CREATED, (Calendar)cal.clone());
 
       return folder;
    }
@@ -700,7 +740,7 @@ public class StorageImpl implements Storage
       PolicyDataImpl policy = new PolicyDataImpl(policyEntry, typeDefinition, this);
       indexListener.created(policy);
 
-      changes.add(new ChangeEvent(generateId(), policyId, ChangeType.CREATED, (Calendar)cal.clone()));
+      changes.add(policyId, ChangeType.CREATED, (Calendar)cal.clone());
 
       return policy;
    }
@@ -802,7 +842,7 @@ public class StorageImpl implements Storage
       RelationshipDataImpl relationship = new RelationshipDataImpl(relationshipEntry, typeDefinition, this);
       indexListener.created(relationship);
 
-      changes.add(new ChangeEvent(generateId(), relationshipId, ChangeType.CREATED, (Calendar)cal.clone()));
+      changes.add(relationshipId, ChangeType.CREATED, (Calendar)cal.clone());
 
       return relationship;
    }
@@ -821,7 +861,7 @@ public class StorageImpl implements Storage
       Set<String> removed = new HashSet<String>();
       removed.add(objectId);
       indexListener.removed(removed);
-      changes.add(new ChangeEvent(generateId(), objectId, ChangeType.DELETED, Calendar.getInstance()));
+      changes.add(objectId, ChangeType.DELETED, Calendar.getInstance());
    }
 
    /**
@@ -867,7 +907,7 @@ public class StorageImpl implements Storage
 
       for (String id : removed)
       {
-         changes.add(new ChangeEvent(generateId(), id, ChangeType.DELETED, Calendar.getInstance()));
+         changes.add(id, ChangeType.DELETED, Calendar.getInstance());
       }
 
       try
@@ -918,22 +958,7 @@ public class StorageImpl implements Storage
     */
    public ItemsIterator<ChangeEvent> getChangeLog(String changeLogToken) throws ConstraintException
    {
-      if (changeLogToken != null)
-      {
-         int offset = 0;
-         int size = changes.size();
-         for (Iterator<ChangeEvent> iter = changes.iterator(); iter.hasNext()
-            && !changeLogToken.equals(iter.next().getLogToken());)
-         {
-            offset++;
-         }
-         if (offset == size)
-         {
-            throw new ConstraintException("No event corresponded to change log token " + changeLogToken);
-         }
-         return new BaseItemsIterator<ChangeEvent>(changes.subList(offset, size));
-      }
-      return new BaseItemsIterator<ChangeEvent>(changes);
+      return changes.getChanges(changeLogToken);
    }
 
    /**
@@ -1035,25 +1060,13 @@ public class StorageImpl implements Storage
             break;
          }
          String segName = tokenizer.nextToken();
-         Set<String> childrenIds = children.get(point);
-         if (childrenIds == null || childrenIds.isEmpty())
+         String id = getChildIdByName(point, segName);
+         if (id != null && tokenizer.hasMoreTokens() && entries.get(id).getBaseTypeId() != BaseType.FOLDER)
          {
-            point = null;
-         }
-         else
-         {
-            for (String id : childrenIds)
-            {
-               ObjectData seg = getObjectById(id);
-               String name = seg.getName();
-               if ((BaseType.FOLDER == seg.getBaseType() || !tokenizer.hasMoreElements()) && segName.equals(name))
-               {
-                  point = id;
-                  break;
-               }
-               point = null;
-            }
+            // Only folders may be in the middle of path.
+            id = null;
          }
+         point = id;
       }
 
       if (point == null)
@@ -1081,11 +1094,10 @@ public class StorageImpl implements Storage
     */
    public RepositoryInfo getRepositoryInfo()
    {
-      int size = changes.size();
-      if (size > 0)
+      String latestToken = changes.getLatestToken();
+      if (latestToken != null)
       {
-         ChangeEvent event = changes.get(size - 1);
-         repositoryInfo.setLatestChangeLogToken(event.getLogToken());
+         repositoryInfo.setLatestChangeLogToken(latestToken);
       }
       // TODO clone repositoryInfo
       return repositoryInfo;
@@ -1098,19 +1110,18 @@ public class StorageImpl implements Storage
       throws UpdateConflictException, VersioningException, NameConstraintViolationException, StorageException
    {
       String name = object.getName();
-      for (ItemsIterator<ObjectData> iterator = target.getChildren(null); iterator.hasNext();)
-      {
-         if (name.equals(iterator.next().getName()))
-         {
-            throw new NameConstraintViolationException("Object with name " + name
-               + " already exists in destination folder.");
-         }
-      }
       String objectid = object.getObjectId();
       String sourceId = source.getObjectId();
       String targetId = target.getObjectId();
+      if (getChildIdByName(targetId, name) != null)
+      {
+         throw new NameConstraintViolationException("Object with name " + name
+            + " already exists in destination folder.");
+      }
       children.get(sourceId).remove(objectid);
-      children.get(targetId).add(objectid);
+      removeChildName(sourceId, name, objectid);
+      children.get(targetId).add(entries.get(objectid));
+      addChildName(targetId, name, objectid);
       parents.get(object.getObjectId()).remove(sourceId);
       parents.get(object.getObjectId()).add(targetId);
       try
@@ -1121,7 +1132,8 @@ public class StorageImpl implements Storage
       {
          throw new CmisRuntimeException("Unable get object after moving.");
       }
-      indexListener.updated(object);
+      // Ancestors of all objects in moved subtree are changed.
+      indexListener.updatedTree(object, this);
       return object;
    }
 
@@ -1133,15 +1145,30 @@ public class StorageImpl implements Storage
       try
       {
          org.xcmis.search.model.Query qom = cmisQueryParser.parseQuery(query.getStatement());
-         List<ScoredRow> rows = searchService.execute(qom);
+         // Query must see all changes made before.
+         indexListener.awaitIndexed();
+         // Rows not readable by current user are filtered by index.
+         InvocationContext ctx = searchService.getDefaultInvocationContext().withPrincipals(getQueryPrincipals());
          //check if needed default sorting
          if (qom.getOrderings().size() == 0)
          {
             Set<SelectorName> selectorsReferencedBy = Visitors.getSelectorsReferencedBy(qom);
-            Collections.sort(rows, new DocumentOrderResultSorter(selectorsReferencedBy.iterator().next().getName(),
-               this));
+            if (selectorsReferencedBy.size() > 1)
+            {
+               // Default order is document order, order of joined rows is
+               // not kept by index so need all rows to sort them.
+               List<ScoredRow> rows = searchService.execute(qom, Collections.<String, Object> emptyMap(), ctx);
+               Collections.sort(rows, new DocumentOrderResultSorter(selectorsReferencedBy.iterator().next()
+                  .getName(), this));
+               return new QueryResultIterator(new ScoredRowListIterator(rows), qom);
+            }
+            // Default order is document order, rows are sorted by index with
+            // keys supplied by index listener.
+            ctx = ctx.withDocumentOrder();
          }
-         return new QueryResultIterator(rows, qom);
+         // Rows are fetched from index only when they are requested.
+         return new QueryResultIterator(searchService.iterate(qom, Collections.<String, Object> emptyMap(), ctx),
+            qom);
       }
       catch (InvalidQueryException e)
       {
@@ -1160,13 +1187,15 @@ public class StorageImpl implements Storage
    {
       String objectId = object.getObjectId();
       Set<String> parentIds = parents.get(object.getObjectId());
+      String name = object.getName();
       for (String id : parentIds)
       {
          children.get(id).remove(objectId);
+         removeChildName(id, name, objectId);
       }
       parentIds.clear();
       unfiled.add(objectId);
-      indexListener.updated(object);
+      indexListener.updatedTree(object, this);
    }
 
    /**
@@ -1245,6 +1274,7 @@ public class StorageImpl implements Storage
       typeChildren.get(superType.getId()).add(type.getId());
       typeChildren.put(type.getId(), new HashSet<String>());
       PropertyDefinitions.putAll(type.getId(), m);
+      invalidateSharedType(type.getId());
 
       return type.getId();
    }
@@ -1284,20 +1314,37 @@ public class StorageImpl implements Storage
    public TypeDefinition getTypeDefinition(String typeId, boolean includePropertyDefinition)
       throws TypeNotFoundException, CmisRuntimeException
    {
+      Map<String, TypeDefinition> cache = includePropertyDefinition ? sharedTypes : sharedTypesNoPropertyDefinitions;
+      TypeDefinition shared = cache.get(typeId);
+      if (shared != null)
+      {
+         return shared;
+      }
       TypeDefinition type = types.get(typeId);
       if (type == null)
       {
          throw new TypeNotFoundException("Type '" + typeId + "' does not exist.");
       }
-      TypeDefinition copy =
-         new TypeDefinition(type.getId(), type.getBaseId(), type.getQueryName(), type.getLocalName(), type
-            .getLocalNamespace(), type.getParentId(), type.getDisplayName(), type.getDescription(), type.isCreatable(),
-            type.isFileable(), type.isQueryable(), type.isFulltextIndexed(), type.isIncludedInSupertypeQuery(), type
-               .isControllablePolicy(), type.isControllableACL(), type.isVersionable(), type.getAllowedSourceTypes(),
-            type.getAllowedTargetTypes(), type.getContentStreamAllowed(), includePropertyDefinition
-               ? PropertyDefinitions.getAll(typeId) : null);
+      shared =
+         new SharedTypeDefinition(type, includePropertyDefinition ? PropertyDefinitions.getAll(typeId) : null);
+      cache.put(typeId, shared);
+      if (types.get(typeId) != type)
+      {
+         // Type removed or replaced concurrently, do not keep stale copy.
+         cache.remove(typeId);
+      }
+      return shared;
+   }
 
-      return copy;
+   /**
+    * Drop shared copies of type definition.
+    *
+    * @param typeId type id
+    */
+   private void invalidateSharedType(String typeId)
+   {
+      sharedTypes.remove(typeId);
+      sharedTypesNoPropertyDefinitions.remove(typeId);
    }
 
    public Collection<TypeDefinition> getSubTypes(String typeId, boolean includePropertyDefinitions)
@@ -1350,6 +1397,20 @@ public class StorageImpl implements Storage
       typeChildren.get(type.getParentId()).remove(typeId);
 
       PropertyDefinitions.removeAll(typeId);
+      invalidateSharedType(typeId);
+   }
+
+   /**
+    * @return principals whose read permission gives access to query results or
+    *         <code>null</code> if results are not filtered
+    */
+   private Set<String> getQueryPrincipals()
+   {
+      if (getRepositoryInfo().getCapabilities().getCapabilityACL() == CapabilityACL.NONE)
+      {
+         return null;
+      }
+      return Collections.singleton(getCurrentUser());
    }
 
    protected String getCurrentUser()
@@ -1358,6 +1419,96 @@ public class StorageImpl implements Storage
       return ctx != null ? ctx.getUserId() : getRepositoryInfo().getPrincipalAnonymous();
    }
 
+   /**
+    * Get id of visible child with specified name.
+    *
+    * @param folderId parent folder id
+    * @param name name of child
+    * @return id of child or <code>null</code> if folder has not child with
+    *         specified name
+    */
+   String getChildIdByName(String folderId, String name)
+   {
+      Map<String, String> names = childNames.get(folderId);
+      if (names == null || name == null)
+      {
+         return null;
+      }
+      String id = names.get(name);
+      if (id != null && !entries.containsKey(id))
+      {
+         // Object removed together with its version series, drop stale record.
+         removeChildName(folderId, name, id);
+         return null;
+      }
+      return id;
+   }
+
+   /**
+    * Register name of visible child in index of parent folder.
+    *
+    * @param folderId parent folder id
+    * @param name name of child
+    * @param childId child id
+    */
+   void addChildName(String folderId, String name, String childId)
+   {
+      Map<String, String> names = childNames.get(folderId);
+      if (names != null && name != null)
+      {
+         synchronized (names)
+         {
+            names.put(name, childId);
+         }
+      }
+   }
+
+   /**
+    * Remove name of child from index of parent folder. Record is removed only
+    * if it points to specified child.
+    *
+    * @param folderId parent folder id
+    * @param name name of child
+    * @param childId child id
+    */
+   void removeChildName(String folderId, String name, String childId)
+   {
+      Map<String, String> names = childNames.get(folderId);
+      if (names != null && name != null)
+      {
+         synchronized (names)
+         {
+            if (childId.equals(names.get(name)))
+            {
+               names.remove(name);
+            }
+         }
+      }
+   }
+
+   /**
+    * Update ordering keys and visibility of object in all its parent folders.
+    * Must be called after changing properties of object which is already
+    * filed in folders.
+    *
+    * @param entry object entry
+    */
+   void updateChild(Entry entry)
+   {
+      Set<String> parentIds = parents.get(entry.getId());
+      if (parentIds != null)
+      {
+         for (String parent : parentIds)
+         {
+            FolderChildren folderChildren = children.get(parent);
+            if (folderChildren != null)
+            {
+               folderChildren.update(entry);
+            }
+         }
+      }
+   }
+
    void validateMaxItemsNumber(ObjectData object) throws StorageException
    {
       long maxItemsNum = configuration.getMaxItemsNum();
@@ -1369,27 +1520,72 @@ public class StorageImpl implements Storage
       }
    }
 
-   void validateMemSize(byte[] content) throws StorageException
+   /**
+    * Notify rendition manager that document is created with content or its
+    * content is changed.
+    *
+    * @param document document
+    */
+   void contentChanged(DocumentData document)
    {
-      if (content == null || content.length == 0)
+      if (renditionManager != null)
       {
-         return;
+         renditionManager.contentChanged(document);
       }
-      long size = 0;
-      for (Entry c : entries.values())
+   }
+
+   /**
+    * Release reference to content of removed entry. Content is removed when
+    * it is not shared with other entries any more.
+    *
+    * @param entry entry which content is removed, may be <code>null</code>
+    */
+   void releaseContent(Entry entry)
+   {
+      if (entry != null)
       {
-         ByteArrayValue contentValue = (ByteArrayValue)c.getValue(PropertyDefinitions.CONTENT);
+         BlobValue contentValue = (BlobValue)entry.getValue(PropertyDefinitions.CONTENT);
          if (contentValue != null)
          {
-            size += contentValue.getBytes().length;
+            contents.release(contentValue);
          }
       }
-      long maxMem = configuration.getMaxMem();
-      if (maxMem > -1 && size + content.length > maxMem)
+   }
+
+   /**
+    * Get current usage of storage resources.
+    *
+    * @return usage of storage
+    */
+   public StorageUsage getUsage()
+   {
+      return new StorageUsage(contents.getSize(), entries.size(), configuration.getMaxMem(), configuration
+         .getMaxItemsNum());
+   }
+
+   /**
+    * Create store of content. Configured store is used if any, otherwise
+    * content is kept in files if directory for content is configured, or in
+    * heap.
+    */
+   private static ContentStore createContentStore(StorageConfiguration configuration)
+   {
+      if (configuration.getContentStore() != null)
       {
-         throw new StorageException("Unable add new object in storage. Max allowed memory size '" + maxMem
-            + "' bytes is reached." + " Increase or set storage configuration property 'org.xcmis.inmemory.maxmem'.");
+         return configuration.getContentStore();
       }
+      if (configuration.getContentDir() != null)
+      {
+         try
+         {
+            return new FileContentStore(new File(configuration.getContentDir()), configuration.getBlobFileSize());
+         }
+         catch (IOException e)
+         {
+            throw new CmisRuntimeException("Unable create content store. " + e.getMessage(), e);
+         }
+      }
+      return new HeapContentStore();
    }
 
    private SearchService getInitializedSearchService() throws TikaException
@@ -1436,7 +1632,8 @@ public class StorageImpl implements Storage
       /** The selector name. */
       private final String selectorName;
 
-      private final Map<String, ObjectData> itemCache;
+      /** Keys of objects in document order. Key is calculated once for each object. */
+      private final Map<String, String> pathCache;
 
       private final Storage storage;
 
@@ -1444,7 +1641,7 @@ public class StorageImpl implements Storage
       {
          this.selectorName = selectorName;
          this.storage = storage;
-         this.itemCache = new HashMap<String, ObjectData>();
+         this.pathCache = new HashMap<String, String>();
       }
 
       /**
@@ -1474,33 +1671,27 @@ public class StorageImpl implements Storage
        */
       public String getPath(String identifer)
       {
-         ObjectData obj = itemCache.get(identifer);
-         if (obj == null)
+         if (pathCache.containsKey(identifer))
          {
-            try
-            {
-               obj = storage.getObjectById(identifer);
-            }
-            catch (ObjectNotFoundException e)
-            {
-               // XXX : correct ?
-               return null;
-            }
-            itemCache.put(identifer, obj);
+            return pathCache.get(identifer);
          }
-         if (obj.getBaseType() == BaseType.FOLDER)
+         String path = calculatePath(identifer);
+         pathCache.put(identifer, path);
+         return path;
+      }
+
+      private String calculatePath(String identifer)
+      {
+         try
          {
-            if (((FolderData)obj).isRoot())
-            {
-               return obj.getName();
-            }
+            // the same order as for queries on single selector
+            return IndexListener.getOrderKey(storage.getObjectById(identifer));
          }
-         Collection<FolderData> parents = obj.getParents();
-         if (parents.size() == 0)
+         catch (ObjectNotFoundException e)
          {
-            return obj.getName();
+            // XXX : correct ?
+            return null;
          }
-         return parents.iterator().next().getPath() + "/" + obj.getName();
       }
    }
 
@@ -1541,22 +1732,20 @@ public class StorageImpl implements Storage
    }
 
    /**
-    * Iterator over query result's.
+    * Iterator over query result's. It must be closed if it is not read to the
+    * end, since rows of result may hold index reader.
     */
-   private class QueryResultIterator extends LazyIterator<Result>
+   private class QueryResultIterator extends LazyIterator<Result> implements Closeable
    {
-      private final Iterator<ScoredRow> rows;
+      private final ScoredRowIterator rows;
 
       private final Set<SelectorName> selectors;
 
-      private final int size;
-
       private final org.xcmis.search.model.Query qom;
 
-      QueryResultIterator(List<ScoredRow> rows, org.xcmis.search.model.Query qom)
+      QueryResultIterator(ScoredRowIterator rows, org.xcmis.search.model.Query qom)
       {
-         this.size = rows.size();
-         this.rows = rows.iterator();
+         this.rows = rows;
          this.selectors = Visitors.getSelectorsReferencedBy(qom);
          this.qom = qom;
          fetchNext();
@@ -1567,7 +1756,45 @@ public class StorageImpl implements Storage
        */
       public int size()
       {
-         return size;
+         try
+         {
+            return rows.size();
+         }
+         catch (RowFetchException e)
+         {
+            throw new CmisRuntimeException(e.getLocalizedMessage(), e);
+         }
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public void skip(int skip) throws NoSuchElementException
+      {
+         if (skip > 0)
+         {
+            // Already fetched result is the first skipped. Skip other rows
+            // without reading them.
+            try
+            {
+               rows.skip(skip - 1);
+            }
+            catch (NoSuchElementException e)
+            {
+               next = null;
+               throw e;
+            }
+            catch (RowFetchException e)
+            {
+               throw new CmisRuntimeException(e.getLocalizedMessage(), e);
+            }
+            fetchNext();
+            if (next == null)
+            {
+               throw new NoSuchElementException();
+            }
+         }
       }
 
       /**
@@ -1576,7 +1803,7 @@ public class StorageImpl implements Storage
       protected void fetchNext()
       {
          next = null;
-         while (next == null && rows.hasNext())
+         while (next == null && hasNextRow())
          {
             ScoredRow row = rows.next();
             for (SelectorName selectorName : selectors)
@@ -1612,6 +1839,26 @@ public class StorageImpl implements Storage
             }
          }
       }
+
+      private boolean hasNextRow()
+      {
+         try
+         {
+            return rows.hasNext();
+         }
+         catch (RowFetchException e)
+         {
+            throw new CmisRuntimeException(e.getLocalizedMessage(), e);
+         }
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void close()
+      {
+         rows.close();
+      }
    }
 
    private class TreeVisitor implements ObjectDataVisitor
@@ -55,8 +55,38 @@ public class StorageProviderImpl implements StorageProvider
    public StorageProviderImpl(String repositoryId, String repositoryName, String description, long maxStorageMemSize,
       long maxItemsNumber) throws TikaException
    {
-      this.storageConfig =
-         new StorageConfiguration(repositoryId, repositoryName, description, maxStorageMemSize, maxItemsNumber);
+      this(repositoryId, repositoryName, description, maxStorageMemSize, maxItemsNumber, -1L);
+   }
+
+   /**
+    * Instantiates a new storage provider impl.
+    *
+    * @param repositoryId String repository id
+    * @param repositoryName String repository name
+    * @param description String description
+    * @param maxStorageMemSize the max storage memory size in bytes or -1L for
+    *        unbounded
+    * @param maxItemsNumber the maximum items number, or -1L for unbounded
+    * @param maxChangesNumber the maximum number of events in change log, or
+    *        -1L for unbounded
+    * @throws TikaException
+    */
+   public StorageProviderImpl(String repositoryId, String repositoryName, String description, long maxStorageMemSize,
+      long maxItemsNumber, long maxChangesNumber) throws TikaException
+   {
+      this(new StorageConfiguration(repositoryId, repositoryName, description, maxStorageMemSize, maxItemsNumber,
+         maxChangesNumber));
+   }
+
+   /**
+    * Instantiates a new storage provider impl.
+    *
+    * @param storageConfig storage configuration
+    * @throws TikaException
+    */
+   public StorageProviderImpl(StorageConfiguration storageConfig) throws TikaException
+   {
+      this.storageConfig = storageConfig;
       this.renditionManager = RenditionManager.getInstance();
       this.storageImpl =
          new StorageImpl(storageConfig, renditionManager, new PermissionService());
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+/**
+ * Snapshot of resources used by in-memory storage.
+ *
+ * @version $Id$
+ */
+public final class StorageUsage
+{
+
+   /** Total size of content in bytes. */
+   private final long contentSize;
+
+   /** Number of objects in storage. */
+   private final long itemsNum;
+
+   /** Max memory size allowed to be used for store objects or -1 if unbounded. */
+   private final long maxMem;
+
+   /** Max number of objects allowed to be added in storage or -1 if unbounded. */
+   private final long maxItemsNum;
+
+   public StorageUsage(long contentSize, long itemsNum, long maxMem, long maxItemsNum)
+   {
+      this.contentSize = contentSize;
+      this.itemsNum = itemsNum;
+      this.maxMem = maxMem;
+      this.maxItemsNum = maxItemsNum;
+   }
+
+   /**
+    * @return total size of content in bytes
+    */
+   public long getContentSize()
+   {
+      return contentSize;
+   }
+
+   /**
+    * @return number of objects in storage
+    */
+   public long getItemsNum()
+   {
+      return itemsNum;
+   }
+
+   /**
+    * @return max memory size allowed to be used for store objects or -1 if
+    *         unbounded
+    */
+   public long getMaxMem()
+   {
+      return maxMem;
+   }
+
+   /**
+    * @return max number of objects allowed to be added in storage or -1 if
+    *         unbounded
+    */
+   public long getMaxItemsNum()
+   {
+      return maxItemsNum;
+   }
+
+   /**
+    * @return number of bytes still available for content or -1 if memory size
+    *         is unbounded
+    */
+   public long getFreeMem()
+   {
+      return maxMem > -1 ? Math.max(0, maxMem - contentSize) : -1;
+   }
+
+   /**
+    * @return number of objects which still may be added in storage or -1 if
+    *         number of objects is unbounded
+    */
+   public long getFreeItemsNum()
+   {
+      return maxItemsNum > -1 ? Math.max(0, maxItemsNum - itemsNum) : -1;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String toString()
+   {
+      return "content size: " + contentSize + ", max memory: " + maxMem + ", items: " + itemsNum + ", max items: "
+         + maxItemsNum;
+   }
+}
@@ -52,7 +52,7 @@ public class CmisContentReader extends ContentReaderInterceptor
    {
       super();
       this.storage = storage;
-      this.contentEntryAdapter = new ContentEntryAdapter();
+      this.contentEntryAdapter = new ContentEntryAdapter(storage.getRepositoryInfo());
    }
 
    /**
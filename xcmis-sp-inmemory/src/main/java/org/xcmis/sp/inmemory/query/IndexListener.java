@@ -28,12 +28,21 @@ import org.xcmis.search.content.Property.ContentValue;
 import org.xcmis.search.content.Property.SimpleValue;
 import org.xcmis.search.value.PropertyType;
 import org.xcmis.spi.CmisConstants;
+import org.xcmis.spi.CompiledACL;
+import org.xcmis.spi.ConstraintException;
 import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
+import org.xcmis.spi.ItemsIterator;
 import org.xcmis.spi.ObjectData;
+import org.xcmis.spi.ObjectNotFoundException;
 import org.xcmis.spi.PolicyData;
 import org.xcmis.spi.RelationshipData;
+import org.xcmis.spi.Storage;
+import org.xcmis.spi.model.BaseType;
+import org.xcmis.spi.model.CapabilityACL;
+import org.xcmis.spi.model.PermissionMapping;
+import org.xcmis.spi.model.RepositoryInfo;
 import org.xcmis.spi.utils.Logger;
 
 import java.io.IOException;
@@ -41,10 +50,30 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Pass changes of objects to {@link SearchService}. By default index is
+ * updated synchronously in caller thread. In asynchronous mode changes are
+ * queued and applied by pool of workers. Pending changes of the same object
+ * are coalesced and changes of different objects are applied in batches.
+ * Queue is bounded, caller is blocked when it is full. Each change gets
+ * sequence number, use {@link #awaitIndexed(long, long)} to wait until all
+ * changes up to specified number are applied.
+ *
  * @author <a href="mailto:andrew00x@gmail.com">Andrey Parfonov</a>
  * @version $Id: IndexListener.java 1261 2010-06-09 09:52:06Z andrew00x $
  */
@@ -53,6 +82,11 @@ public class IndexListener
 
    private static final Logger LOG = Logger.getLogger(IndexListener.class);
 
+   /**
+    * Max number of changes applied to index in one transaction.
+    */
+   private static final int MAX_BATCH_SIZE = 100;
+
    /**
     * Index storage.
     */
@@ -60,19 +94,126 @@ public class IndexListener
 
    private final ContentEntryAdapter contentEntryAdapter;
 
+   /**
+    * Workers or <code>null</code> if index is updated synchronously.
+    */
+   private final ExecutorService workers;
+
+   /**
+    * Max number of workers.
+    */
+   private final int workersNum;
+
+   /**
+    * Max number of pending changes.
+    */
+   private final int queueSize;
+
+   private final Object lock = new Object();
+
+   /**
+    * Pending changes, object id is used as key. Guarded by lock.
+    */
+   private final Map<String, Change> pending = new LinkedHashMap<String, Change>();
+
+   /**
+    * Id of objects which are indexed by workers at the moment. Guarded by lock.
+    */
+   private final Set<String> processing = new HashSet<String>();
+
+   /**
+    * Sequence numbers of pending and processing changes. Guarded by lock.
+    */
+   private final TreeSet<Long> unindexed = new TreeSet<Long>();
+
+   /**
+    * Sequence number of the last change. Guarded by lock.
+    */
+   private long lastSeq;
+
+   /**
+    * Number of running workers. Guarded by lock.
+    */
+   private int activeWorkers;
+
+   /**
+    * Create listener which updates index synchronously.
+    *
+    * @param searchService search service
+    */
    public IndexListener(SearchService searchService)
+   {
+      this(searchService, null, 0, 0);
+   }
+
+   /**
+    * Create listener which updates index synchronously and indexes principals
+    * allowed to read objects.
+    *
+    * @param searchService search service
+    * @param repositoryInfo repository info, it provides ACL capability and
+    *        permission mapping. If <code>null</code> principals are not
+    *        indexed
+    */
+   public IndexListener(SearchService searchService, RepositoryInfo repositoryInfo)
+   {
+      this(searchService, repositoryInfo, 0, 0);
+   }
+
+   /**
+    * Create listener which updates index asynchronously if
+    * <code>workersNum</code> is positive.
+    *
+    * @param searchService search service
+    * @param workersNum max number of threads which update index. If zero then
+    *        index updated synchronously
+    * @param queueSize max number of pending changes. If it is reached then
+    *        caller is blocked until workers take some changes from queue
+    */
+   public IndexListener(SearchService searchService, int workersNum, int queueSize)
+   {
+      this(searchService, null, workersNum, queueSize);
+   }
+
+   /**
+    * Create listener which updates index asynchronously if
+    * <code>workersNum</code> is positive and indexes principals allowed to
+    * read objects.
+    *
+    * @param searchService search service
+    * @param repositoryInfo repository info, it provides ACL capability and
+    *        permission mapping. If <code>null</code> principals are not
+    *        indexed
+    * @param workersNum max number of threads which update index. If zero then
+    *        index updated synchronously
+    * @param queueSize max number of pending changes. If it is reached then
+    *        caller is blocked until workers take some changes from queue
+    */
+   public IndexListener(SearchService searchService, RepositoryInfo repositoryInfo, int workersNum, int queueSize)
    {
       if (searchService == null)
          throw new IllegalArgumentException("The searchService argument may not be null");
+      if (workersNum > 0 && queueSize < 1)
+         throw new IllegalArgumentException("The queueSize argument must be positive");
       this.searchService = searchService;
-      this.contentEntryAdapter = new ContentEntryAdapter();
+      this.contentEntryAdapter = new ContentEntryAdapter(repositoryInfo);
+      this.workersNum = workersNum;
+      this.queueSize = queueSize;
+      this.workers = workersNum > 0 ? Executors.newFixedThreadPool(workersNum, new WorkerThreadFactory()) : null;
    }
 
    public void created(ObjectData object)
    {
       try
       {
-         searchService.update(contentEntryAdapter.createEntry(object), null);
+         if (workers != null)
+         {
+            submit(object.getObjectId(), contentEntryAdapter.createEntry(object), false);
+         }
+         else
+         {
+            searchService.update(contentEntryAdapter.createEntry(object), null);
+         }
       }
       catch (IndexModificationException e)
       {
@@ -92,6 +233,14 @@ public class IndexListener
 
    public void removed(Set<String> removed)
    {
+      if (workers != null)
+      {
+         for (String id : removed)
+         {
+            submit(id, null, true);
+         }
+         return;
+      }
       try
       {
          searchService.update(Collections.EMPTY_LIST, removed);
@@ -109,7 +258,86 @@ public class IndexListener
    {
       try
       {
-         searchService.update(contentEntryAdapter.createEntry(object), object.getObjectId());
+         if (workers != null)
+         {
+            submit(object.getObjectId(), contentEntryAdapter.createEntry(object), true);
+         }
+         else
+         {
+            searchService.update(contentEntryAdapter.createEntry(object), object.getObjectId());
+         }
+      }
+      catch (IndexModificationException e)
+      {
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug(e.getLocalizedMessage());
+         }
+      }
+      catch (IOException e)
+      {
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug(e.getLocalizedMessage());
+         }
+      }
+   }
+
+   /**
+    * Update index of object and all its descendants. Should be used when
+    * object is moved, filed in or removed from folder since ancestors of all
+    * objects in its subtree are changed. Descendants are indexed in batches.
+    * Folders list only the latest versions of documents, so all versions and
+    * private working copy of each document in subtree are indexed as well.
+    *
+    * @param object moved object
+    * @param storage storage of object, used to get versions of documents
+    */
+   public void updatedTree(ObjectData object, Storage storage)
+   {
+      if (object.getBaseType() != BaseType.FOLDER)
+      {
+         updated(object);
+         return;
+      }
+      List<ContentEntry> batch = new ArrayList<ContentEntry>();
+      Set<String> batchIds = new HashSet<String>();
+      LinkedList<ObjectData> queue = new LinkedList<ObjectData>();
+      queue.add(object);
+      try
+      {
+         while (!queue.isEmpty())
+         {
+            ObjectData next = queue.removeFirst();
+            if (next.getBaseType() == BaseType.FOLDER)
+            {
+               for (ItemsIterator<ObjectData> children = ((FolderData)next).getChildren(null); children.hasNext();)
+               {
+                  ObjectData child = children.next();
+                  if (child.getBaseType() == BaseType.DOCUMENT)
+                  {
+                     queue.addAll(getAllVersions((DocumentData)child, storage));
+                  }
+                  else
+                  {
+                     queue.add(child);
+                  }
+               }
+            }
+            if (workers != null)
+            {
+               submit(next.getObjectId(), contentEntryAdapter.createEntry(next), true);
+               continue;
+            }
+            batch.add(contentEntryAdapter.createEntry(next));
+            batchIds.add(next.getObjectId());
+            if (batch.size() >= MAX_BATCH_SIZE || queue.isEmpty())
+            {
+               searchService.update(batch, batchIds);
+               batch = new ArrayList<ContentEntry>();
+               batchIds = new HashSet<String>();
+            }
+         }
       }
       catch (IndexModificationException e)
       {
@@ -127,12 +355,330 @@ public class IndexListener
       }
    }
 
+   /**
+    * Get all versions of document include private working copy.
+    */
+   private static Collection<DocumentData> getAllVersions(DocumentData document, Storage storage)
+   {
+      String versionSeriesId = document.getVersionSeriesId();
+      if (versionSeriesId != null)
+      {
+         try
+         {
+            return storage.getAllVersions(versionSeriesId);
+         }
+         catch (ObjectNotFoundException e)
+         {
+            // Document is not versionable.
+         }
+      }
+      return Collections.singletonList(document);
+   }
+
+   /**
+    * @return sequence number of the last change passed to listener. Always 0
+    *         if index is updated synchronously
+    */
+   public long getLastSequence()
+   {
+      synchronized (lock)
+      {
+         return lastSeq;
+      }
+   }
+
+   /**
+    * Wait until all changes with sequence number less then or equals to
+    * <code>seq</code> are applied to index.
+    *
+    * @param seq sequence number
+    * @param timeout max time to wait in milliseconds. Zero means wait without
+    *        timeout
+    * @return <code>true</code> if changes are applied and <code>false</code>
+    *         if timeout elapsed before
+    * @throws InterruptedException if current thread interrupted while waiting
+    */
+   public boolean awaitIndexed(long seq, long timeout) throws InterruptedException
+   {
+      synchronized (lock)
+      {
+         long deadline = System.currentTimeMillis() + timeout;
+         while (!unindexed.isEmpty() && unindexed.first() <= seq)
+         {
+            if (timeout > 0)
+            {
+               long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0)
+               {
+                  return false;
+               }
+               lock.wait(remaining);
+            }
+            else
+            {
+               lock.wait();
+            }
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Wait until all changes passed to listener before calling this method are
+    * applied to index. If current thread is interrupted then method returns
+    * immediately and interrupted status of thread is restored.
+    */
+   public void awaitIndexed()
+   {
+      if (workers == null)
+      {
+         return;
+      }
+      try
+      {
+         awaitIndexed(getLastSequence(), 0);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Get key of object in document order. Objects are ordered by path, path
+    * of object filed in few folders is path in its first parent, path of
+    * unfiled object is its name. Key of each object in subtree is changed
+    * when folder is moved or renamed.
+    *
+    * @param object object
+    * @return key of object in document order
+    */
+   public static String getOrderKey(ObjectData object)
+   {
+      if (object.getBaseType() == BaseType.FOLDER)
+      {
+         return ((FolderData)object).getPath();
+      }
+      Collection<FolderData> parents = object.getParents();
+      if (parents.size() == 0)
+      {
+         return object.getName();
+      }
+      String parentPath = parents.iterator().next().getPath();
+      return parentPath.endsWith("/") ? parentPath + object.getName() : parentPath + "/" + object.getName();
+   }
+
+   /**
+    * Add change in queue. If there is pending change for the same object then
+    * it is replaced by new one.
+    *
+    * @param id object id
+    * @param entry new state of object or <code>null</code> if object removed
+    * @param replace <code>true</code> if object may be already in index
+    */
+   private void submit(String id, ContentEntry entry, boolean replace)
+   {
+      synchronized (lock)
+      {
+         Change prev = pending.get(id);
+         while (prev == null && pending.size() >= queueSize)
+         {
+            try
+            {
+               lock.wait();
+            }
+            catch (InterruptedException e)
+            {
+               // Do not lose change, exceed queue size instead.
+               Thread.currentThread().interrupt();
+               break;
+            }
+            prev = pending.get(id);
+         }
+         if (prev != null)
+         {
+            unindexed.remove(prev.seq);
+            // Object never was in index if the first pending change is creation.
+            replace = prev.replace;
+         }
+         Change change = new Change(++lastSeq, id, entry, replace);
+         pending.put(id, change);
+         unindexed.add(change.seq);
+         if (activeWorkers < workersNum && activeWorkers < pending.size())
+         {
+            try
+            {
+               workers.execute(new Worker());
+               activeWorkers++;
+            }
+            catch (RejectedExecutionException e)
+            {
+               LOG.error("Unable start index worker. " + e.getMessage());
+            }
+         }
+      }
+   }
+
+   /**
+    * Take batch of pending changes. Changes of objects which are processed by
+    * other worker are skipped. Must be called with lock held.
+    *
+    * @return batch of changes, empty list if there is no changes to process
+    */
+   private List<Change> takeBatch()
+   {
+      List<Change> batch = new ArrayList<Change>();
+      for (Iterator<Change> i = pending.values().iterator(); i.hasNext() && batch.size() < MAX_BATCH_SIZE;)
+      {
+         Change change = i.next();
+         if (processing.add(change.id))
+         {
+            i.remove();
+            batch.add(change);
+         }
+      }
+      if (batch.size() > 0)
+      {
+         // Free space in queue.
+         lock.notifyAll();
+      }
+      return batch;
+   }
+
+   /**
+    * Pending change of object.
+    */
+   private static final class Change
+   {
+      final long seq;
+
+      final String id;
+
+      /**
+       * New state of object or <code>null</code> if object removed.
+       */
+      final ContentEntry entry;
+
+      /**
+       * <code>true</code> if previous state of object may be in index.
+       */
+      final boolean replace;
+
+      Change(long seq, String id, ContentEntry entry, boolean replace)
+      {
+         this.seq = seq;
+         this.id = id;
+         this.entry = entry;
+         this.replace = replace;
+      }
+   }
+
+   /**
+    * Apply pending changes in batches until queue is empty.
+    */
+   private final class Worker implements Runnable
+   {
+      public void run()
+      {
+         for (;;)
+         {
+            List<Change> batch;
+            synchronized (lock)
+            {
+               batch = takeBatch();
+               if (batch.isEmpty())
+               {
+                  activeWorkers--;
+                  return;
+               }
+            }
+            List<ContentEntry> added = new ArrayList<ContentEntry>(batch.size());
+            Set<String> removed = new HashSet<String>();
+            for (Change change : batch)
+            {
+               if (change.entry != null)
+               {
+                  added.add(change.entry);
+               }
+               if (change.entry == null || change.replace)
+               {
+                  removed.add(change.id);
+               }
+            }
+            try
+            {
+               searchService.update(added, removed);
+            }
+            catch (IndexModificationException e)
+            {
+               LOG.error("Unable update index. " + e.getLocalizedMessage(), e);
+            }
+            catch (RuntimeException e)
+            {
+               LOG.error("Unable update index. " + e.getLocalizedMessage(), e);
+            }
+            finally
+            {
+               synchronized (lock)
+               {
+                  for (Change change : batch)
+                  {
+                     processing.remove(change.id);
+                     unindexed.remove(change.seq);
+                  }
+                  lock.notifyAll();
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Create daemon threads for workers.
+    */
+   private static final class WorkerThreadFactory implements ThreadFactory
+   {
+      private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+      private final AtomicInteger threadNumber = new AtomicInteger();
+
+      private final String prefix = "xcmis-indexer-" + POOL_NUMBER.incrementAndGet() + "-";
+
+      public Thread newThread(Runnable r)
+      {
+         Thread t = new Thread(r, prefix + threadNumber.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      }
+   }
+
    /**
     * Adapt changes produced by CMIS SPI to {@link ContentEntry} acceptable for.
     * {@link SearchService}
     */
    public static class ContentEntryAdapter
    {
+      private final RepositoryInfo repositoryInfo;
+
+      /**
+       * Create adapter which does not index principals, everyone is allowed to
+       * read created entries.
+       */
+      public ContentEntryAdapter()
+      {
+         this(null);
+      }
+
+      /**
+       * @param repositoryInfo repository info, it provides ACL capability and
+       *        permission mapping used to find principals allowed to read
+       *        objects. If <code>null</code> principals are not indexed
+       */
+      public ContentEntryAdapter(RepositoryInfo repositoryInfo)
+      {
+         this.repositoryInfo = repositoryInfo;
+      }
+
       /**
        * Convert {@link ObjectData} to {@link ContentEntry}.
        *
@@ -172,7 +718,8 @@ public class IndexListener
          //mark parent of root as parent
          mockEntry.parentIdentifiers.add("");
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getAncestorIdentifiers(), mockEntry.principals, mockEntry
+            .orderKey, mockEntry.getProperties());
       }
 
       /**
@@ -185,7 +732,8 @@ public class IndexListener
          //mark parent of root as parent
          mockEntry.parentIdentifiers.add("");
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getAncestorIdentifiers(), mockEntry.principals, mockEntry
+            .orderKey, mockEntry.getProperties());
       }
 
       private MockContentEntry fillCommonInformation(ObjectData objectData)
@@ -194,9 +742,12 @@ public class IndexListener
          contentEntry.tableNames.add(objectData.getTypeDefinition().getQueryName());
          contentEntry.identifier = objectData.getObjectId();
          contentEntry.name = objectData.getName();
+         contentEntry.principals = getReadPrincipals(objectData);
+         contentEntry.orderKey = getOrderKey(objectData);
          for (FolderData folder : objectData.getParents())
          {
             contentEntry.parentIdentifiers.add(folder.getObjectId());
+            addAncestors(folder, contentEntry.ancestorIdentifiers);
          }
 
          for (org.xcmis.spi.model.Property<?> property : objectData.getProperties().values())
@@ -209,6 +760,68 @@ public class IndexListener
          return contentEntry;
       }
 
+      /**
+       * Get principals allowed to read object. The same rules as
+       * {@link org.xcmis.spi.PermissionService} applies for
+       * {@link PermissionMapping#CAN_GET_PROPERTIES_OBJECT} are used.
+       *
+       * @param objectData object
+       * @return principals allowed to read object or <code>null</code> if
+       *         everyone is allowed to read it
+       */
+      private String[] getReadPrincipals(ObjectData objectData)
+      {
+         if (repositoryInfo == null
+            || repositoryInfo.getCapabilities().getCapabilityACL() == CapabilityACL.NONE
+            || repositoryInfo.getAclCapability() == null)
+         {
+            return null;
+         }
+         Collection<String> read =
+            repositoryInfo.getAclCapability().getMapping().getPermissions(PermissionMapping.CAN_GET_PROPERTIES_OBJECT);
+         if (read == null || read.size() == 0)
+         {
+            return null;
+         }
+         CompiledACL acl =
+            objectData instanceof CompiledACL.Holder ? ((CompiledACL.Holder)objectData).getCompiledACL() : CompiledACL
+               .compile(objectData.getACL(false));
+         String anyone = repositoryInfo.getPrincipalAnyone();
+         long mask = CompiledACL.getMask(read);
+         if (acl.isGranted(anyone, anyone, mask, read))
+         {
+            return null;
+         }
+         List<String> principals = new ArrayList<String>();
+         for (String principal : acl.getPrincipals())
+         {
+            if (acl.isGranted(anyone, principal, mask, read))
+            {
+               principals.add(principal);
+            }
+         }
+         return principals.toArray(new String[principals.size()]);
+      }
+
+      /**
+       * Add folder and all its ancestors in set.
+       */
+      private void addAncestors(FolderData folder, Set<String> ancestors)
+      {
+         while (ancestors.add(folder.getObjectId()) && !folder.isRoot())
+         {
+            try
+            {
+               folder = folder.getParent();
+            }
+            catch (ConstraintException e)
+            {
+               // Folder always has one parent except root.
+               break;
+            }
+         }
+      }
+
       private <G> Property<G> convertProperty(org.xcmis.spi.model.Property<G> property)
       {
          Collection<ContentValue<G>> value = new ArrayList<ContentValue<G>>();
@@ -230,7 +843,8 @@ public class IndexListener
       {
          MockContentEntry mockEntry = fillCommonInformation(objectData);
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getAncestorIdentifiers(), mockEntry.principals, mockEntry
+            .orderKey, mockEntry.getProperties());
       }
 
       /**
@@ -247,13 +861,16 @@ public class IndexListener
          if (cs != null)
          {
             List<ContentValue<InputStream>> vals = new ArrayList<ContentValue<InputStream>>(1);
+            // key of content allows to reuse extracted text when only metadata or location is changed
+            String contentKey = cs instanceof ContentStream.Keyed ? ((ContentStream.Keyed)cs).getContentKey() : null;
             vals.add(new BinaryValue(cs.getStream(), cs.getMediaType().getBaseType(), cs.getMediaType().getParameter(
-               CmisConstants.CHARSET), cs.length()));
+               CmisConstants.CHARSET), cs.length(), contentKey));
             //TODO add constant for property name content
             mockEntry.properties.add(new Property<InputStream>(PropertyType.BINARY, "content", vals));
          }
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getAncestorIdentifiers(), mockEntry.principals, mockEntry
+            .orderKey, mockEntry.getProperties());
       }
    }
 
@@ -274,6 +891,22 @@ public class IndexListener
        */
       List<String> parentIdentifiers;
 
+      /**
+       * Identifiers of all ancestors of entry.
+       */
+      Set<String> ancestorIdentifiers;
+
+      /**
+       * Principals allowed to read entry or <code>null</code> if everyone is
+       * allowed to read it.
+       */
+      String[] principals;
+
+      /**
+       * Key of entry in document order.
+       */
+      String orderKey;
+
       /**
        * Entry identifier.
        */
@@ -291,6 +924,7 @@ public class IndexListener
       {
          tableNames = new ArrayList<String>();
          parentIdentifiers = new ArrayList<String>();
+         ancestorIdentifiers = new LinkedHashSet<String>();
          properties = new ArrayList<Property>();
       }
 
@@ -310,6 +944,14 @@ public class IndexListener
          return parentIdentifiers.toArray(new String[parentIdentifiers.size()]);
       }
 
+      /**
+       * @return the ancestorIdentifiers
+       */
+      public String[] getAncestorIdentifiers()
+      {
+         return ancestorIdentifiers.toArray(new String[ancestorIdentifiers.size()]);
+      }
+
       /**
        * @return the properties
        */
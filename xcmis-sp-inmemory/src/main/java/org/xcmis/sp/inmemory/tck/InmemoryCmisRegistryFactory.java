@@ -20,14 +20,18 @@
 package org.xcmis.sp.inmemory.tck;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Properties;
 
 import org.apache.tika.exception.TikaException;
+import org.xcmis.sp.inmemory.StorageConfiguration;
 import org.xcmis.spi.CmisRegistry;
 import org.xcmis.spi.CmisRegistryFactory;
+import org.xcmis.spi.RenditionCache;
+import org.xcmis.spi.RenditionExecutor;
 import org.xcmis.spi.RenditionManager;
 import org.xcmis.spi.utils.Logger;
 
@@ -78,6 +82,8 @@ public class InmemoryCmisRegistryFactory implements CmisRegistryFactory
          {
             RenditionManager renditionManager = RenditionManager.getInstance();
             renditionManager.addRenditionProviders(Arrays.asList(renditionProvider.split(",")));
+            configureRenditionExecutor(renditionManager, properties);
+            configureRenditionCache(renditionManager, properties);
          }
 
          String sids = (String)properties.get("org.xcmis.storage.id");
@@ -116,11 +122,73 @@ public class InmemoryCmisRegistryFactory implements CmisRegistryFactory
                         LOG.error("Unable convert '" + sMaxMem + "' to long. ");
                      }
                   }
-                  reg.addStorage(new org.xcmis.sp.inmemory.StorageProviderImpl(id, //
+                  String sMaxChangesNum = (String)properties.get("org.xcmis.storage." + id + ".maxChangesNum");
+                  long maxChangesNum = -1;
+                  if (sMaxChangesNum != null && sMaxChangesNum.length() > 0)
+                  {
+                     try
+                     {
+                        maxChangesNum = Long.parseLong(sMaxChangesNum);
+                     }
+                     catch (NumberFormatException ne)
+                     {
+                        LOG.error("Unable convert '" + sMaxChangesNum + "' to long. ");
+                     }
+                  }
+                  StorageConfiguration storageConfig = new StorageConfiguration(id, //
                      name != null && name.length() > 0 ? name : id, //
                      description != null && description.length() > 0 ? description : id, //
                      maxMem, //
-                     maxItemsNum));
+                     maxItemsNum, //
+                     maxChangesNum);
+                  String sAsyncIndexing = (String)properties.get("org.xcmis.storage." + id + ".asyncIndexing");
+                  if (sAsyncIndexing != null && sAsyncIndexing.length() > 0)
+                  {
+                     storageConfig.setAsyncIndexing(Boolean.parseBoolean(sAsyncIndexing));
+                  }
+                  String sIndexingThreads = (String)properties.get("org.xcmis.storage." + id + ".indexingThreads");
+                  if (sIndexingThreads != null && sIndexingThreads.length() > 0)
+                  {
+                     try
+                     {
+                        storageConfig.setIndexingThreads(Integer.parseInt(sIndexingThreads));
+                     }
+                     catch (NumberFormatException ne)
+                     {
+                        LOG.error("Unable convert '" + sIndexingThreads + "' to int. ");
+                     }
+                  }
+                  String sIndexingQueueSize =
+                     (String)properties.get("org.xcmis.storage." + id + ".indexingQueueSize");
+                  if (sIndexingQueueSize != null && sIndexingQueueSize.length() > 0)
+                  {
+                     try
+                     {
+                        storageConfig.setIndexingQueueSize(Integer.parseInt(sIndexingQueueSize));
+                     }
+                     catch (NumberFormatException ne)
+                     {
+                        LOG.error("Unable convert '" + sIndexingQueueSize + "' to int. ");
+                     }
+                  }
+                  String sContentDir = (String)properties.get("org.xcmis.storage." + id + ".contentDir");
+                  if (sContentDir != null && sContentDir.length() > 0)
+                  {
+                     storageConfig.setContentDir(sContentDir);
+                  }
+                  String sBlobFileSize = (String)properties.get("org.xcmis.storage." + id + ".blobFileSize");
+                  if (sBlobFileSize != null && sBlobFileSize.length() > 0)
+                  {
+                     try
+                     {
+                        storageConfig.setBlobFileSize(Long.parseLong(sBlobFileSize));
+                     }
+                     catch (NumberFormatException ne)
+                     {
+                        LOG.error("Unable convert '" + sBlobFileSize + "' to long. ");
+                     }
+                  }
+                  reg.addStorage(new org.xcmis.sp.inmemory.StorageProviderImpl(storageConfig));
                   LOG.info("Register storage " + id);
                }
             }
@@ -133,6 +201,82 @@ public class InmemoryCmisRegistryFactory implements CmisRegistryFactory
       }
    }
 
+   /**
+    * Set pool which creates renditions. By default pool has one thread per
+    * processor, queue of twice as many jobs and default memory and time limits
+    * of job.
+    */
+   private static void configureRenditionExecutor(RenditionManager renditionManager, Properties properties)
+   {
+      long threads = parseLong((String)properties.get("org.xcmis.storage.renditionThreads"));
+      if (threads == 0)
+      {
+         return;
+      }
+      if (threads < 0)
+      {
+         threads = Runtime.getRuntime().availableProcessors();
+      }
+      long queueSize = parseLong((String)properties.get("org.xcmis.storage.renditionQueueSize"));
+      long memoryLimit = parseLong((String)properties.get("org.xcmis.storage.renditionMemoryLimit"));
+      long timeout = parseLong((String)properties.get("org.xcmis.storage.renditionTimeout"));
+      renditionManager.setExecutor(new RenditionExecutor((int)threads, queueSize > 0 ? (int)queueSize
+         : (int)threads * 2, memoryLimit > 0 ? memoryLimit : RenditionExecutor.DEFAULT_MEMORY_LIMIT, timeout > 0
+         ? timeout : RenditionExecutor.DEFAULT_TIMEOUT));
+   }
+
+   /**
+    * Set cache of renditions if its size is configured.
+    */
+   private static void configureRenditionCache(RenditionManager renditionManager, Properties properties)
+   {
+      long cacheSize = parseLong((String)properties.get("org.xcmis.storage.renditionCacheSize"));
+      if (cacheSize <= 0)
+      {
+         return;
+      }
+      String cacheDir = (String)properties.get("org.xcmis.storage.renditionCacheDir");
+      try
+      {
+         if (cacheDir != null && cacheDir.length() > 0)
+         {
+            long diskSize = parseLong((String)properties.get("org.xcmis.storage.renditionCacheDiskSize"));
+            renditionManager.setCache(new RenditionCache(cacheSize, new File(cacheDir), diskSize > 0 ? diskSize
+               : RenditionCache.DEFAULT_MAX_DISK_SIZE));
+         }
+         else
+         {
+            renditionManager.setCache(new RenditionCache(cacheSize));
+         }
+      }
+      catch (IOException ioe)
+      {
+         LOG.error("Unable create rendition cache. " + ioe.getMessage(), ioe);
+         return;
+      }
+      long threads = parseLong((String)properties.get("org.xcmis.storage.renditionPrecomputeThreads"));
+      if (threads > 0)
+      {
+         renditionManager.setPrecomputeThreads((int)threads);
+      }
+   }
+
+   private static long parseLong(String value)
+   {
+      if (value != null && value.length() > 0)
+      {
+         try
+         {
+            return Long.parseLong(value);
+         }
+         catch (NumberFormatException ne)
+         {
+            LOG.error("Unable convert '" + value + "' to long. ");
+         }
+      }
+      return -1;
+   }
+
    public CmisRegistry getRegistry()
    {
       return reg;
@@ -62,15 +62,18 @@ public abstract class BaseTest extends TestCase
       super.setUp();
       HashMap<String, Object> properties = new HashMap<String, Object>();
       properties.put("exo.cmis.changetoken.feature", false);
-      StorageConfiguration configuration = new StorageConfiguration(storageId, storageId, null, -1, -1);
-
-      storage = new StorageImpl(configuration, RenditionManager.getInstance(), new PermissionService());
+      storage = new StorageImpl(createConfiguration(), RenditionManager.getInstance(), new PermissionService());
       UserContext.setCurrent(new UserContext(principal));
       rootFolder = (FolderData)storage.getObjectById(storage.getRepositoryInfo().getRootFolderId());
 
       documentTypeDefinition = storage.getTypeDefinition("cmis:document", true);
    }
 
+   protected StorageConfiguration createConfiguration()
+   {
+      return new StorageConfiguration(storageId, storageId, null, -1, -1);
+   }
+
    protected FolderData createFolder(FolderData parent, String name) throws Exception
    {
       PropertyDefinition<?> def = PropertyDefinitions.getPropertyDefinition("cmis:folder", CmisConstants.NAME);
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.CmisConstants;
+import org.xcmis.spi.FolderData;
+import org.xcmis.spi.PermissionService;
+import org.xcmis.spi.RenditionManager;
+import org.xcmis.spi.UserContext;
+import org.xcmis.spi.model.Property;
+import org.xcmis.spi.model.PropertyDefinition;
+import org.xcmis.spi.model.TypeDefinition;
+import org.xcmis.spi.model.impl.StringProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Micro-benchmark for name conflict checks and path resolution in large
+ * folder. Not run as part of unit tests. Run it with:
+ *
+ * <pre>
+ * java org.xcmis.sp.inmemory.ChildNameIndexBenchmark [children] [lookups]
+ * </pre>
+ *
+ * Time spent for create document and resolve path must not grow together with
+ * number of children in folder.
+ *
+ * @version $Id$
+ */
+public class ChildNameIndexBenchmark
+{
+
+   public static void main(String[] args) throws Exception
+   {
+      int childrenNum = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+      int lookupsNum = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+      StorageImpl storage =
+         new StorageImpl(new StorageConfiguration("bench", "bench", null, -1, -1), RenditionManager.getInstance(),
+            new PermissionService());
+      UserContext.setCurrent(new UserContext("root"));
+      FolderData root = (FolderData)storage.getObjectById(storage.getRepositoryInfo().getRootFolderId());
+      TypeDefinition folderType = storage.getTypeDefinition("cmis:folder", true);
+      FolderData folder = storage.createFolder(root, folderType, name("cmis:folder", "bench"), null, null);
+
+      int step = childrenNum / 10;
+      long start = System.nanoTime();
+      long stepStart = start;
+      for (int i = 1; i <= childrenNum; i++)
+      {
+         storage.createFolder(folder, folderType, name("cmis:folder", "child" + i), null, null);
+         if (step > 0 && i % step == 0)
+         {
+            long now = System.nanoTime();
+            System.out.println(String.format("children: %8d, avg create: %8.1f us", i, (now - stepStart) / 1000.0
+               / step));
+            stepStart = now;
+         }
+      }
+      System.out.println(String.format("created %d children in %d ms", childrenNum,
+         (System.nanoTime() - start) / 1000000));
+
+      start = System.nanoTime();
+      for (int i = 0; i < lookupsNum; i++)
+      {
+         storage.getObjectByPath("/bench/child" + (1 + (i * 7919) % childrenNum));
+      }
+      System.out.println(String.format("avg path lookup: %.1f us", (System.nanoTime() - start) / 1000.0
+         / lookupsNum));
+      System.exit(0);
+   }
+
+   private static Map<String, Property<?>> name(String typeId, String name)
+   {
+      PropertyDefinition<?> def = PropertyDefinitions.getPropertyDefinition(typeId, CmisConstants.NAME);
+      Map<String, Property<?>> properties = new HashMap<String, Property<?>>();
+      properties.put(CmisConstants.NAME, new StringProperty(def.getId(), def.getQueryName(), def.getLocalName(), def
+         .getDisplayName(), name));
+      return properties;
+   }
+}
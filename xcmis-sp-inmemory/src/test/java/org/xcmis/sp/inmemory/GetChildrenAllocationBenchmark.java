@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.CmisConstants;
+import org.xcmis.spi.Connection;
+import org.xcmis.spi.FolderData;
+import org.xcmis.spi.PermissionService;
+import org.xcmis.spi.RenditionManager;
+import org.xcmis.spi.UserContext;
+import org.xcmis.spi.model.IncludeRelationships;
+import org.xcmis.spi.model.Property;
+import org.xcmis.spi.model.PropertyDefinition;
+import org.xcmis.spi.model.TypeDefinition;
+import org.xcmis.spi.model.impl.StringProperty;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Micro-benchmark for memory allocated on object read path. Not run as part of
+ * unit tests. Run it with:
+ *
+ * <pre>
+ * java org.xcmis.sp.inmemory.GetChildrenAllocationBenchmark [children] [iterations]
+ * </pre>
+ *
+ * Prints number of bytes allocated by one call of
+ * {@link Connection#getChildren(String, boolean, IncludeRelationships, boolean, boolean, String, String, String, int, int)}
+ * and by one type definition lookup. As baseline for the last one prints
+ * allocation of copying type definition as it was done for each object before
+ * type definitions were shared. Requires HotSpot JVM which supports measurement
+ * of thread allocated memory.
+ *
+ * @version $Id$
+ */
+public class GetChildrenAllocationBenchmark
+{
+
+   public static void main(String[] args) throws Exception
+   {
+      int childrenNum = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+      int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+
+      StorageImpl storage =
+         new StorageImpl(new StorageConfiguration("bench", "bench", null, -1, -1), RenditionManager.getInstance(),
+            new PermissionService());
+      UserContext.setCurrent(new UserContext("root"));
+      Connection connection = new InmemConnection(storage);
+      FolderData root = (FolderData)storage.getObjectById(storage.getRepositoryInfo().getRootFolderId());
+      TypeDefinition folderType = storage.getTypeDefinition("cmis:folder", true);
+      FolderData folder = storage.createFolder(root, folderType, name("cmis:folder", "bench"), null, null);
+      for (int i = 0; i < childrenNum; i++)
+      {
+         storage.createFolder(folder, folderType, name("cmis:folder", "child" + i), null, null);
+      }
+      String folderId = folder.getObjectId();
+
+      // Warm up.
+      for (int i = 0; i < iterations; i++)
+      {
+         getChildren(connection, folderId);
+      }
+
+      long start = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < iterations; i++)
+      {
+         getChildren(connection, folderId);
+      }
+      long allocated = (threads.getThreadAllocatedBytes(threadId) - start) / iterations;
+      System.out.println(String.format("getChildren of %d items: %d bytes, %d bytes per child", childrenNum,
+         allocated, allocated / childrenNum));
+
+      int lookups = iterations * childrenNum;
+      start = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < lookups; i++)
+      {
+         storage.getTypeDefinition("cmis:folder", true);
+      }
+      System.out.println(String.format("shared type definition lookup: %.1f bytes",
+         (double)(threads.getThreadAllocatedBytes(threadId) - start) / lookups));
+
+      start = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < lookups; i++)
+      {
+         copy(storage.types.get("cmis:folder"));
+      }
+      System.out.println(String.format("copy of type definition (baseline): %.1f bytes",
+         (double)(threads.getThreadAllocatedBytes(threadId) - start) / lookups));
+      System.exit(0);
+   }
+
+   private static void getChildren(Connection connection, String folderId) throws Exception
+   {
+      connection.getChildren(folderId, false, IncludeRelationships.NONE, false, true, null, null, null, -1, 0);
+   }
+
+   /**
+    * Copy type definition in the same way as it was done by
+    * {@link StorageImpl#getTypeDefinition(String, boolean)} for each object
+    * before type definitions were shared.
+    */
+   private static TypeDefinition copy(TypeDefinition type)
+   {
+      return new TypeDefinition(type.getId(), type.getBaseId(), type.getQueryName(), type.getLocalName(), type
+         .getLocalNamespace(), type.getParentId(), type.getDisplayName(), type.getDescription(), type.isCreatable(),
+         type.isFileable(), type.isQueryable(), type.isFulltextIndexed(), type.isIncludedInSupertypeQuery(), type
+            .isControllablePolicy(), type.isControllableACL(), type.isVersionable(), type.getAllowedSourceTypes(),
+         type.getAllowedTargetTypes(), type.getContentStreamAllowed(), PropertyDefinitions.getAll(type.getId()));
+   }
+
+   private static Map<String, Property<?>> name(String typeId, String name)
+   {
+      PropertyDefinition<?> def = PropertyDefinitions.getPropertyDefinition(typeId, CmisConstants.NAME);
+      Map<String, Property<?>> properties = new HashMap<String, Property<?>>();
+      properties.put(CmisConstants.NAME, new StringProperty(def.getId(), def.getQueryName(), def.getLocalName(), def
+         .getDisplayName(), name));
+      return properties;
+   }
+}
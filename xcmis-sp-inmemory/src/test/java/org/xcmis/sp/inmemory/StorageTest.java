@@ -20,20 +20,33 @@ package org.xcmis.sp.inmemory;
 
 import org.xcmis.spi.BaseContentStream;
 import org.xcmis.spi.CmisConstants;
+import org.xcmis.spi.ConstraintException;
 import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
 import org.xcmis.spi.ItemsIterator;
+import org.xcmis.spi.NameConstraintViolationException;
 import org.xcmis.spi.ObjectData;
+import org.xcmis.spi.ObjectNotFoundException;
+import org.xcmis.spi.PermissionService;
+import org.xcmis.spi.StorageException;
+import org.xcmis.spi.TypeNotFoundException;
 import org.xcmis.spi.model.AccessControlEntry;
+import org.xcmis.spi.model.BaseType;
 import org.xcmis.spi.model.ChangeEvent;
 import org.xcmis.spi.model.ChangeType;
 import org.xcmis.spi.model.Property;
 import org.xcmis.spi.model.PropertyDefinition;
+import org.xcmis.spi.model.TypeDefinition;
 import org.xcmis.spi.model.VersioningState;
 import org.xcmis.spi.model.impl.StringProperty;
 import org.xcmis.spi.utils.MimeType;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -43,7 +56,9 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @author <a href="mailto:Sergey.Kabashnyuk@exoplatform.org">Sergey
@@ -98,6 +113,32 @@ public class StorageTest extends BaseTest
       assertEquals(ChangeType.UPDATED, l.get(0).getType());
    }
 
+   public void testChangeLogEviction() throws Exception
+   {
+      storage =
+         new StorageImpl(new StorageConfiguration(storageId, storageId, null, -1, -1, 2), null,
+            new PermissionService());
+      rootFolder = (FolderData)storage.getObjectById(storage.getRepositoryInfo().getRootFolderId());
+      createDocument(rootFolder, "testChangeLogEviction1", documentTypeDefinition, null, null);
+      String firstToken = storage.getRepositoryInfo().getLatestChangeLogToken();
+      createDocument(rootFolder, "testChangeLogEviction2", documentTypeDefinition, null, null);
+      createDocument(rootFolder, "testChangeLogEviction3", documentTypeDefinition, null, null);
+
+      ItemsIterator<ChangeEvent> changeLog = storage.getChangeLog(null);
+      assertEquals(2, changeLog.size());
+      assertEquals(storage.getRepositoryInfo().getLatestChangeLogToken(), storage.getChangeLog(
+         storage.getRepositoryInfo().getLatestChangeLogToken()).next().getLogToken());
+      try
+      {
+         storage.getChangeLog(firstToken);
+         fail("ConstraintException must be thrown, event was evicted from change log.");
+      }
+      catch (ConstraintException e)
+      {
+         // OK
+      }
+   }
+
    public void testAddAcl() throws Exception
    {
       DocumentData document = createDocument(rootFolder, "aclTest", documentTypeDefinition, null, null);
@@ -216,6 +257,380 @@ public class StorageTest extends BaseTest
 
    }
 
+   public void testNameConflict() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "nameConflictFolderTest");
+      createDocument(folder, "doc1", documentTypeDefinition, null, null);
+      try
+      {
+         createDocument(folder, "doc1", documentTypeDefinition, null, null);
+         fail("NameConstraintViolationException must be thrown.");
+      }
+      catch (NameConstraintViolationException e)
+      {
+         // OK
+      }
+      try
+      {
+         createFolder(folder, "doc1");
+         fail("NameConstraintViolationException must be thrown.");
+      }
+      catch (NameConstraintViolationException e)
+      {
+         // OK
+      }
+   }
+
+   public void testNameConflictAfterRename() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "nameConflictAfterRenameFolderTest");
+      DocumentData document = createDocument(folder, "doc1", documentTypeDefinition, null, null);
+      document.setProperty(new StringProperty("cmis:name", "cmis:name", "cmis:name", "cmis:name", "doc2"));
+      // Old name must be released.
+      createDocument(folder, "doc1", documentTypeDefinition, null, null);
+      try
+      {
+         createDocument(folder, "doc2", documentTypeDefinition, null, null);
+         fail("NameConstraintViolationException must be thrown.");
+      }
+      catch (NameConstraintViolationException e)
+      {
+         // OK
+      }
+   }
+
+   public void testNameReleasedAfterMoveAndDelete() throws Exception
+   {
+      FolderData folder1 = createFolder(rootFolder, "nameReleasedFolderTest1");
+      FolderData folder2 = createFolder(rootFolder, "nameReleasedFolderTest2");
+      DocumentData document = createDocument(folder1, "doc1", documentTypeDefinition, null, null);
+      storage.moveObject(document, folder2, folder1);
+      DocumentData document2 = createDocument(folder1, "doc1", documentTypeDefinition, null, null);
+      try
+      {
+         storage.moveObject(document2, folder2, folder1);
+         fail("NameConstraintViolationException must be thrown.");
+      }
+      catch (NameConstraintViolationException e)
+      {
+         // OK
+      }
+      storage.deleteObject(document2, true);
+      createDocument(folder1, "doc1", documentTypeDefinition, null, null);
+   }
+
+   public void testGetObjectByPath() throws Exception
+   {
+      FolderData folder1 = createFolder(rootFolder, "objectByPathFolderTest");
+      FolderData folder2 = createFolder(folder1, "folder2");
+      DocumentData document = createDocument(folder2, "doc1", documentTypeDefinition, null, null);
+      assertEquals(folder2.getObjectId(), storage.getObjectByPath("/objectByPathFolderTest/folder2").getObjectId());
+      assertEquals(document.getObjectId(), storage.getObjectByPath("/objectByPathFolderTest/folder2/doc1")
+         .getObjectId());
+      try
+      {
+         storage.getObjectByPath("/objectByPathFolderTest/folder2/doc1/doc1");
+         fail("ObjectNotFoundException must be thrown.");
+      }
+      catch (ObjectNotFoundException e)
+      {
+         // OK
+      }
+      document.setProperty(new StringProperty("cmis:name", "cmis:name", "cmis:name", "cmis:name", "doc2"));
+      assertEquals(document.getObjectId(), storage.getObjectByPath("/objectByPathFolderTest/folder2/doc2")
+         .getObjectId());
+   }
+
+   public void testGetObjectByPathAfterCheckin() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "objectByPathCheckinFolderTest");
+      DocumentData document = createDocument(folder, "doc1", documentTypeDefinition, null, VersioningState.MAJOR);
+      DocumentData pwc = document.checkout();
+      DocumentData checkedIn = pwc.checkin(true, "", null, null, null, null);
+      assertEquals(checkedIn.getObjectId(), storage.getObjectByPath("/objectByPathCheckinFolderTest/doc1")
+         .getObjectId());
+   }
+
+   public void testChildrenOrderBy() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "childrenOrderByFolderTest");
+      DocumentData document = createDocument(folder, "b", documentTypeDefinition, null, VersioningState.MAJOR);
+      createDocument(folder, "c", documentTypeDefinition, null, null);
+      createFolder(folder, "a");
+      assertEquals(Arrays.asList("b", "c", "a"), childrenNames(folder.getChildren(null)));
+      assertEquals(Arrays.asList("a", "b", "c"), childrenNames(folder.getChildren("cmis:name")));
+      assertEquals(Arrays.asList("c", "b", "a"), childrenNames(folder.getChildren("cmis:name DESC")));
+      // Only the first property is used, documents and folders are in order of adding.
+      assertEquals(Arrays.asList("b", "c", "a"), childrenNames(folder.getChildren("cmis:objectTypeId,cmis:name")));
+
+      // Renamed and checked-in object must be reordered.
+      document.setProperty(new StringProperty("cmis:name", "cmis:name", "cmis:name", "cmis:name", "d"));
+      DocumentData pwc = document.checkout();
+      assertEquals(3, folder.getChildren("cmis:name").size());
+      pwc.checkin(true, "", null, null, null, null);
+      ItemsIterator<ObjectData> children = folder.getChildren("cmis:name");
+      assertEquals(3, children.size());
+      assertEquals(Arrays.asList("a", "c", "d"), childrenNames(children));
+      assertEquals(Arrays.asList("d", "a", "c"), childrenNames(folder.getChildren("cmis:lastModificationDate DESC")));
+   }
+
+   public void testChildrenPaging() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "childrenPagingFolderTest");
+      for (int i = 0; i < 10; i++)
+      {
+         createDocument(folder, "doc" + i, documentTypeDefinition, null, null);
+      }
+      ItemsIterator<ObjectData> children = folder.getChildren("cmis:name DESC");
+      assertEquals(10, children.size());
+      children.skip(3);
+      assertEquals("doc6", children.next().getName());
+
+      children = folder.getChildren(null);
+      children.skip(10);
+      assertFalse(children.hasNext());
+      try
+      {
+         folder.getChildren(null).skip(11);
+         fail("NoSuchElementException must be thrown.");
+      }
+      catch (NoSuchElementException e)
+      {
+         // OK
+      }
+   }
+
+   public void testSharedTypeDefinition() throws Exception
+   {
+      TypeDefinition type = storage.getTypeDefinition("cmis:document", true);
+      assertSame(type, storage.getTypeDefinition("cmis:document", true));
+      assertNull(storage.getTypeDefinition("cmis:document", false).getPropertyDefinitions());
+      DocumentData document = createDocument(rootFolder, "sharedTypeTest", documentTypeDefinition, null, null);
+      assertSame(type, storage.getObjectById(document.getObjectId()).getTypeDefinition());
+      assertSame(type, document.checkout().getTypeDefinition());
+      try
+      {
+         type.setQueryable(false);
+         fail("UnsupportedOperationException must be thrown.");
+      }
+      catch (UnsupportedOperationException e)
+      {
+         // OK
+      }
+
+      TypeDefinition newType = new TypeDefinition();
+      newType.setId("sharedTypeTest");
+      newType.setQueryName("sharedTypeTest");
+      newType.setBaseId(BaseType.FOLDER);
+      newType.setParentId("cmis:folder");
+      newType.setFileable(true);
+      storage.addType(newType);
+      assertEquals("sharedTypeTest", storage.getTypeDefinition("sharedTypeTest", true).getId());
+      storage.removeType("sharedTypeTest");
+      try
+      {
+         storage.getTypeDefinition("sharedTypeTest", true);
+         fail("TypeNotFoundException must be thrown.");
+      }
+      catch (TypeNotFoundException e)
+      {
+         // OK
+      }
+   }
+
+   private List<String> childrenNames(ItemsIterator<ObjectData> children)
+   {
+      List<String> names = new ArrayList<String>();
+      while (children.hasNext())
+      {
+         names.add(children.next().getName());
+      }
+      return names;
+   }
+
+   public void testContentSizeAccounting() throws Exception
+   {
+      assertEquals(0, storage.getUsage().getContentSize());
+      DocumentData document =
+         createDocument(rootFolder, "contentSizeTest", documentTypeDefinition, new BaseContentStream(
+            "to be or not to be".getBytes(), null, new MimeType("text", "plain")), VersioningState.MAJOR);
+      assertEquals(18, storage.getUsage().getContentSize());
+
+      document.setContentStream(new BaseContentStream("12345".getBytes(), null, new MimeType("text", "plain")));
+      assertEquals(5, storage.getUsage().getContentSize());
+
+      DocumentData pwc = document.checkout();
+      // PWC shares content with checked-out document
+      assertEquals(5, storage.getUsage().getContentSize());
+      pwc.cancelCheckout();
+      assertEquals(5, storage.getUsage().getContentSize());
+
+      document.setContentStream(null);
+      assertEquals(0, storage.getUsage().getContentSize());
+
+      document.setContentStream(new BaseContentStream("12345".getBytes(), null, new MimeType("text", "plain")));
+      storage.deleteObject(document, true);
+      assertEquals(0, storage.getUsage().getContentSize());
+   }
+
+   public void testContentDeduplication() throws Exception
+   {
+      DocumentData document1 =
+         createDocument(rootFolder, "dedupTest1", documentTypeDefinition, new BaseContentStream("12345".getBytes(),
+            null, new MimeType("text", "plain")), VersioningState.MAJOR);
+      DocumentData document2 =
+         createDocument(rootFolder, "dedupTest2", documentTypeDefinition, new BaseContentStream("12345".getBytes(),
+            null, new MimeType("text", "plain")), VersioningState.MAJOR);
+      FolderData folder = createFolder(rootFolder, "dedupTestFolder");
+      DocumentData copy = storage.copyDocument(document1, folder, null, null, null, VersioningState.MAJOR);
+      assertEquals(5, storage.getUsage().getContentSize());
+
+      DocumentData pwc = document1.checkout();
+      pwc.setContentStream(new BaseContentStream("123".getBytes(), null, new MimeType("text", "plain")));
+      assertEquals(8, storage.getUsage().getContentSize());
+      pwc.checkin(true, null, null, null, null, null);
+      assertEquals("12345", read(document1.getContentStream().getStream()));
+      assertEquals("123", read(pwc.getContentStream().getStream()));
+
+      storage.deleteObject(document2, true);
+      storage.deleteObject(copy, true);
+      assertEquals(8, storage.getUsage().getContentSize());
+      storage.deleteObject(pwc, true);
+      assertEquals(0, storage.getUsage().getContentSize());
+   }
+
+   public void testConcurrentSetContentStream() throws Exception
+   {
+      final DocumentData document =
+         createDocument(rootFolder, "concurrentContentTest", documentTypeDefinition, new BaseContentStream("12345"
+            .getBytes(), null, new MimeType("text", "plain")), VersioningState.MAJOR);
+      FolderData folder = createFolder(rootFolder, "concurrentContentTestFolder");
+      // Copy shares content with document.
+      DocumentData copy = storage.copyDocument(document, folder, null, null, null, VersioningState.MAJOR);
+      final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+      Thread[] threads = new Thread[4];
+      for (int i = 0; i < threads.length; i++)
+      {
+         final String content = i % 2 == 0 ? "abc" : "abcd";
+         threads[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  for (int j = 0; j < 50; j++)
+                  {
+                     document.setContentStream(new BaseContentStream(content.getBytes(), null, new MimeType("text",
+                        "plain")));
+                  }
+               }
+               catch (Throwable e)
+               {
+                  errors.add(e);
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (Thread thread : threads)
+      {
+         thread.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertEquals("12345", read(copy.getContentStream().getStream()));
+      assertEquals(5 + document.getContentStream().length(), storage.getUsage().getContentSize());
+   }
+
+   public void testMaxMem() throws Exception
+   {
+      storage = new StorageImpl(new StorageConfiguration(storageId, storageId, null, 10, -1), null, null);
+      rootFolder = (FolderData)storage.getObjectById(storage.getRepositoryInfo().getRootFolderId());
+      createDocument(rootFolder, "maxMemTest1", documentTypeDefinition, new BaseContentStream("12345".getBytes(),
+         null, new MimeType("text", "plain")), VersioningState.MAJOR);
+      try
+      {
+         createDocument(rootFolder, "maxMemTest2", documentTypeDefinition, new BaseContentStream("123456".getBytes(),
+            null, new MimeType("text", "plain")), VersioningState.MAJOR);
+         fail("StorageException must be thrown.");
+      }
+      catch (StorageException e)
+      {
+         // OK
+      }
+      assertEquals(5, storage.getUsage().getContentSize());
+      assertEquals(5, storage.getUsage().getFreeMem());
+   }
+
+   public void testFileContentStore() throws Exception
+   {
+      File dir = new File(System.getProperty("java.io.tmpdir"), "content-" + StorageImpl.generateId());
+      StorageConfiguration configuration = new StorageConfiguration(storageId, storageId, null, -1, -1);
+      configuration.setContentDir(dir.getAbsolutePath());
+      configuration.setBlobFileSize(16);
+      storage = new StorageImpl(configuration, null, new PermissionService());
+      rootFolder = (FolderData)storage.getObjectById(storage.getRepositoryInfo().getRootFolderId());
+
+      DocumentData document =
+         createDocument(rootFolder, "fileContentTest", documentTypeDefinition, new BaseContentStream(
+            "to be or not to be".getBytes(), null, new MimeType("text", "plain")), VersioningState.MAJOR);
+      assertEquals(18, document.getContentStream().length());
+      assertEquals("to be or not to be", read(document.getContentStream().getStream()));
+
+      InputStream stream = document.getContentStream().getStream();
+      document.setContentStream(new BaseContentStream("12345".getBytes(), null, new MimeType("text", "plain")));
+      assertEquals("12345", read(document.getContentStream().getStream()));
+      // content is still readable through stream opened before update
+      assertEquals("to be or not to be", read(stream));
+
+      storage.deleteObject(document, true);
+      assertEquals(0, storage.getUsage().getContentSize());
+      // file of first content is sealed and deleted after content is removed
+      assertEquals(1, dir.list().length);
+
+      for (File file : dir.listFiles())
+      {
+         file.delete();
+      }
+      dir.delete();
+   }
+
+   public void testFileContentStoreWindows() throws Exception
+   {
+      File dir = new File(System.getProperty("java.io.tmpdir"), "content-" + StorageImpl.generateId());
+      // content is mapped by windows of 4 bytes
+      FileContentStore store = new FileContentStore(dir, 16, 4);
+      BlobValue value = store.write(new ByteArrayInputStream("to be or not to be".getBytes()));
+      assertEquals(18, value.getLength());
+      assertEquals("to be or not to be", read(value.getStream()));
+      assertEquals("not to be", read(value.getStream(9)));
+
+      InputStream stream = value.getStream();
+      assertEquals(3, stream.skip(3));
+      assertEquals('b', stream.read());
+      // skip over not mapped windows
+      assertEquals(9, stream.skip(9));
+      // file of released content is kept while stream maps it
+      store.release(value);
+      assertEquals(1, dir.list().length);
+      assertEquals("to be", read(stream));
+      assertEquals(0, dir.list().length);
+      dir.delete();
+   }
+
+   private static String read(InputStream stream) throws IOException
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8];
+      int r;
+      while ((r = stream.read(buf)) != -1)
+      {
+         out.write(buf, 0, r);
+      }
+      stream.close();
+      return out.toString();
+   }
+
    private int getSize(Iterator<String> iterator)
    {
       int result = 0;
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory.query;
+
+import org.xcmis.sp.inmemory.StorageConfiguration;
+import org.xcmis.spi.DocumentData;
+import org.xcmis.spi.FolderData;
+import org.xcmis.spi.ObjectData;
+import org.xcmis.spi.model.impl.StringProperty;
+import org.xcmis.spi.utils.MimeType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check that queries see all changes when index is updated asynchronously.
+ *
+ * @version $Id$
+ */
+public class AsyncIndexingTest extends BaseQueryTest
+{
+   private FolderData testRoot;
+
+   @Override
+   protected StorageConfiguration createConfiguration()
+   {
+      StorageConfiguration configuration = super.createConfiguration();
+      configuration.setAsyncIndexing(true);
+      configuration.setIndexingThreads(2);
+      // Small queue to make callers wait for workers.
+      configuration.setIndexingQueueSize(4);
+      return configuration;
+   }
+
+   @Override
+   public void setUp() throws Exception
+   {
+      super.setUp();
+      testRoot = createFolder(rootFolder, "AsyncIndexingTest");
+   }
+
+   public void testCreate() throws Exception
+   {
+      List<ObjectData> expected = new ArrayList<ObjectData>();
+      for (int i = 0; i < 20; i++)
+      {
+         expected.add(createDocument(testRoot, "node" + i, nasaDocumentTypeDefinition, "hello world".getBytes(),
+            MimeType.fromString("text/plain")));
+      }
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_FOLDER('" + testRoot.getObjectId() + "')", expected
+         .toArray(new ObjectData[expected.size()]));
+   }
+
+   public void testUpdateAndDelete() throws Exception
+   {
+      DocumentData doc1 =
+         createDocument(testRoot, "node1", nasaDocumentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+      DocumentData doc2 =
+         createDocument(testRoot, "node2", nasaDocumentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+      // Several updates of the same document may be coalesced.
+      for (int i = 0; i < 10; i++)
+      {
+         doc1.setProperty(new StringProperty(PROPERTY_COMMANDER, PROPERTY_COMMANDER, PROPERTY_COMMANDER,
+            PROPERTY_COMMANDER, "commander" + i));
+      }
+
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE " + PROPERTY_COMMANDER + " = 'commander9'",
+         new ObjectData[]{doc1});
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE " + PROPERTY_COMMANDER + " = 'commander8'",
+         new ObjectData[]{});
+
+      storage.deleteObject(doc1, true);
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_FOLDER('" + testRoot.getObjectId() + "')",
+         new ObjectData[]{doc2});
+   }
+}
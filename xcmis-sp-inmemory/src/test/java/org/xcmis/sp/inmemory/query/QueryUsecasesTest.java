@@ -25,8 +25,11 @@ import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
 import org.xcmis.spi.ItemsIterator;
+import org.xcmis.spi.UserContext;
+import org.xcmis.spi.model.AccessControlEntry;
 import org.xcmis.spi.model.CapabilityJoin;
 import org.xcmis.spi.model.CapabilityQuery;
+import org.xcmis.spi.model.Permission.BasicPermissions;
 import org.xcmis.spi.model.RepositoryCapabilities;
 import org.xcmis.spi.model.TypeDefinition;
 import org.xcmis.spi.model.UnfileObject;
@@ -39,7 +42,10 @@ import org.xcmis.spi.utils.MimeType;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -828,6 +834,86 @@ public class QueryUsecasesTest extends BaseQueryTest
       checkResult(result, new DocumentData[]{doc1, doc2});
    }
 
+   /**
+    * Test IN_TREE constraint after moving folder.
+    * <p>
+    * Initial data:
+    * <p>
+    * folder1
+    * <p>
+    * - folder2
+    * <p>
+    * -- document doc1
+    * <p>
+    * folder3
+    * <p>
+    * folder2 is moved to folder3.
+    * <p>
+    * Query : Select all documents that are in tree of folder1 and folder3.
+    * <p>
+    * Expected result: nothing for folder1, doc1 for folder3.
+    *
+    * @throws Exception if an unexpected error occurs
+    */
+   public void testTreeConstrainAfterMove() throws Exception
+   {
+      // create data
+      FolderData folder1 = createFolder(testRoot, "folder1");
+      FolderData folder2 = createFolder(folder1, "folder2");
+      FolderData folder3 = createFolder(testRoot, "folder3");
+
+      DocumentData doc1 =
+         createDocument(folder2, "node1", nasaDocumentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+
+      storage.moveObject(folder2, folder3, folder1);
+
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + folder1.getObjectId() + "')",
+         new DocumentData[]{});
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + folder3.getObjectId() + "')",
+         new DocumentData[]{doc1});
+   }
+
+   /**
+    * Test IN_TREE constraint after moving folder with versions of document.
+    * <p>
+    * Initial data:
+    * <ul>
+    * <li>folder1
+    * <li>folder1/folder2
+    * <li>folder1/folder2/doc1 with version2 and private working copy
+    * <li>folder3
+    * </ul>
+    * folder2 is moved to folder3.
+    * <p>
+    * Query : Select all documents that are in tree of folder1 and folder3.
+    * <p>
+    * Expected result: nothing for folder1, all versions of doc1 and private
+    * working copy for folder3.
+    *
+    * @throws Exception if an unexpected error occurs
+    */
+   public void testTreeConstrainAfterMoveWithVersions() throws Exception
+   {
+      // create data
+      FolderData folder1 = createFolder(testRoot, "folder1");
+      FolderData folder2 = createFolder(folder1, "folder2");
+      FolderData folder3 = createFolder(testRoot, "folder3");
+
+      DocumentData doc1 =
+         createDocument(folder2, "node1", nasaDocumentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+      DocumentData version2 = doc1.checkout().checkin(true, "", null, null, null, null);
+      DocumentData pwc = version2.checkout();
+
+      storage.moveObject(folder2, folder3, folder1);
+
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + folder1.getObjectId() + "')",
+         new DocumentData[]{});
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + folder3.getObjectId() + "')",
+         new DocumentData[]{doc1, version2, pwc});
+   }
+
    /**
     * Test not equal comparison (<>).
     * <p>
@@ -1299,4 +1385,92 @@ public class QueryUsecasesTest extends BaseQueryTest
       // check results
       checkResult(result, new DocumentData[]{doc1, doc2});
    }
+
+   /**
+    * Test that query returns only documents which current user is allowed to
+    * read.
+    * <p>
+    * Initial data:
+    * <ul>
+    * <li>doc1: no ACL
+    * <li>doc2: <b>cmis:read</b> granted to <b>john</b> only
+    * </ul>
+    * <p>
+    * Query : Select all documents in folder.
+    * <p>
+    * Expected result: doc1 for user <b>root</b>, doc1 and doc2 for user
+    * <b>john</b>
+    *
+    * @throws Exception if an unexpected error occurs
+    */
+   public void testReadPermissionConstraint() throws Exception
+   {
+      DocumentData doc1 =
+         createDocument(testRoot, "node1", documentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+      DocumentData doc2 =
+         createDocument(testRoot, "node2", documentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+      doc2.setACL(Collections.singletonList(new AccessControlEntry("john", new HashSet<String>(Arrays
+         .asList(BasicPermissions.CMIS_READ.value())))));
+
+      String stat = "SELECT * FROM cmis:document WHERE IN_FOLDER( '" + testRoot.getObjectId() + "')";
+
+      checkResult(storage.query(new Query(stat, false)), new DocumentData[]{doc1});
+
+      UserContext.setCurrent(new UserContext("john"));
+      try
+      {
+         checkResult(storage.query(new Query(stat, false)), new DocumentData[]{doc1, doc2});
+      }
+      finally
+      {
+         UserContext.setCurrent(new UserContext(principal));
+      }
+   }
+
+   /**
+    * Test default document order of result.
+    * <p>
+    * Initial data:
+    * <p>
+    * - document a
+    * <p>
+    * - folder b
+    * <p>
+    * -- document x
+    * <p>
+    * - folder c
+    * <p>
+    * -- document y
+    * <p>
+    * Query : Select all documents in tree without ORDER BY, then rename
+    * folder b to d and select again.
+    * <p>
+    * Expected result: a, x, y and then a, y, x.
+    *
+    * @throws Exception if an unexpected error occurs
+    */
+   public void testDocumentOrderAfterFolderRename() throws Exception
+   {
+      FolderData folder = createFolder(testRoot, "documentOrder");
+      FolderData folderB = createFolder(folder, "b");
+      FolderData folderC = createFolder(folder, "c");
+      DocumentData y =
+         createDocument(folderC, "y", nasaDocumentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+      DocumentData x =
+         createDocument(folderB, "x", nasaDocumentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+      DocumentData a =
+         createDocument(folder, "a", nasaDocumentTypeDefinition, "hello world".getBytes(), MimeType
+            .fromString("text/plain"));
+
+      String statement = "SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + folder.getObjectId() + "')";
+      checkResultOrder(storage.query(new Query(statement, true)), new DocumentData[]{a, x, y});
+
+      folderB.setProperty(new StringProperty(CmisConstants.NAME, CmisConstants.NAME, CmisConstants.NAME,
+         CmisConstants.NAME, "d"));
+      checkResultOrder(storage.query(new Query(statement, true)), new DocumentData[]{a, y, x});
+   }
 }
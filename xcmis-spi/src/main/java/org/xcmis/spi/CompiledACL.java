@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.spi;
+
+import org.xcmis.spi.model.AccessControlEntry;
+import org.xcmis.spi.model.Permission.BasicPermissions;
+import org.xcmis.spi.utils.CmisUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ACL of object compiled for fast permission checks. Permissions of each
+ * principal are represented as bitmask, each known permission has own bit.
+ * Up to 63 different permissions may be represented as bits, if there are
+ * more of them then checks of permissions without own bit fall back to
+ * comparison of permission names. Instances are immutable and may be cached until ACL of
+ * object is changed.
+ *
+ * @version $Id$
+ */
+public final class CompiledACL
+{
+
+   /**
+    * Object which is able to provide (possibly cached) compiled ACL. Used by
+    * {@link PermissionService} instead of compiling ACL from
+    * {@link ObjectData#getACL(boolean)} each time.
+    */
+   public interface Holder
+   {
+      /**
+       * @return compiled ACL of object, never <code>null</code>
+       */
+      CompiledACL getCompiledACL();
+   }
+
+   /** Empty ACL. Everything is allowed for everyone. */
+   public static final CompiledACL EMPTY = new CompiledACL(Collections.<String, Set<String>> emptyMap());
+
+   /** Mask of permissions which can't be represented as bits. */
+   public static final long UNKNOWN = -1L;
+
+   /** Bit of 'cmis:all' permission. */
+   private static final long ALL = 1L;
+
+   private static final int MAX_BITS = 63;
+
+   /** Bits of known permissions. */
+   private static final Map<String, Long> BITS = new ConcurrentHashMap<String, Long>();
+
+   static
+   {
+      BITS.put(BasicPermissions.CMIS_ALL.value(), ALL);
+   }
+
+   /**
+    * Compile ACL.
+    *
+    * @param acl ACL
+    * @return compiled ACL
+    */
+   public static CompiledACL compile(List<AccessControlEntry> acl)
+   {
+      if (acl == null || acl.size() == 0)
+      {
+         return EMPTY;
+      }
+      Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+      CmisUtils.addAclToPermissionMap(map, acl);
+      return new CompiledACL(map);
+   }
+
+   /**
+    * Compile permissions map.
+    *
+    * @param permissions map of principal to set of permissions granted to it.
+    *        Map is copied
+    * @return compiled ACL
+    */
+   public static CompiledACL compile(Map<String, Set<String>> permissions)
+   {
+      if (permissions == null || permissions.size() == 0)
+      {
+         return EMPTY;
+      }
+      Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+      for (Map.Entry<String, Set<String>> e : permissions.entrySet())
+      {
+         map.put(e.getKey(), Collections.unmodifiableSet(new HashSet<String>(e.getValue())));
+      }
+      return new CompiledACL(map);
+   }
+
+   /**
+    * Get bitmask of permissions.
+    *
+    * @param permissions permissions
+    * @return bitmask or {@link #UNKNOWN} if at least one permission has not
+    *         own bit
+    */
+   public static long getMask(Collection<String> permissions)
+   {
+      long mask = 0;
+      for (String permission : permissions)
+      {
+         long bit = getBit(permission);
+         if (bit == 0)
+         {
+            return UNKNOWN;
+         }
+         mask |= bit;
+      }
+      return mask;
+   }
+
+   private static long getBit(String permission)
+   {
+      Long bit = BITS.get(permission);
+      if (bit == null)
+      {
+         synchronized (BITS)
+         {
+            bit = BITS.get(permission);
+            if (bit == null)
+            {
+               int size = BITS.size();
+               if (size >= MAX_BITS)
+               {
+                  return 0;
+               }
+               bit = 1L << size;
+               BITS.put(permission, bit);
+            }
+         }
+      }
+      return bit;
+   }
+
+   /** Principal to set of its permissions. */
+   private final Map<String, Set<String>> permissions;
+
+   /** Principal to bitmask of its permissions. */
+   private final Map<String, Long> masks;
+
+   private CompiledACL(Map<String, Set<String>> permissions)
+   {
+      this.permissions = permissions;
+      this.masks = new HashMap<String, Long>(permissions.size() * 2);
+      for (Map.Entry<String, Set<String>> e : permissions.entrySet())
+      {
+         masks.put(e.getKey(), getMask(e.getValue()));
+      }
+   }
+
+   /**
+    * @return <code>true</code> if ACL has not any entries
+    */
+   public boolean isEmpty()
+   {
+      return permissions.isEmpty();
+   }
+
+   /**
+    * @return principals which have entries in ACL
+    */
+   public Set<String> getPrincipals()
+   {
+      return Collections.unmodifiableSet(permissions.keySet());
+   }
+
+   /**
+    * Check are permissions granted. First 'any principal' then specified
+    * principal are checked. Decision is made by the first of them which has
+    * entry in ACL. If ACL is empty then everything is allowed.
+    *
+    * @param principalAnyone name of 'any principal'
+    * @param principal principal
+    * @param mask bitmask of required permissions, see
+    *        {@link #getMask(Collection)}
+    * @param required required permissions
+    * @return <code>true</code> if all required permissions granted
+    */
+   public boolean isGranted(String principalAnyone, String principal, long mask, Collection<String> required)
+   {
+      if (permissions.isEmpty())
+      {
+         return true;
+      }
+      Long granted = masks.get(principalAnyone);
+      String decisive = principalAnyone;
+      if (granted == null)
+      {
+         granted = masks.get(principal);
+         decisive = principal;
+      }
+      if (granted == null)
+      {
+         return false;
+      }
+      long g = granted;
+      if (g != UNKNOWN && mask != UNKNOWN)
+      {
+         return (g & ALL) != 0 || (g & mask) == mask;
+      }
+      Set<String> p = permissions.get(decisive);
+      return p.contains(BasicPermissions.CMIS_ALL.value()) || p.containsAll(required);
+   }
+}
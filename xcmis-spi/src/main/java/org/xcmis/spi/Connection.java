@@ -51,6 +51,7 @@ import org.xcmis.spi.query.Score;
 import org.xcmis.spi.utils.CmisUtils;
 import org.xcmis.spi.utils.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -2823,73 +2824,91 @@ public abstract class Connection
       ItemsIterator<Result> iterator = storage.query(new Query(statement, searchAllVersions));
       try
       {
-         if (skipCount > 0)
+         try
          {
-            iterator.skip(skipCount);
+            if (skipCount > 0)
+            {
+               iterator.skip(skipCount);
+            }
+         }
+         catch (NoSuchElementException nse)
+         {
+            throw new InvalidArgumentException("skipCount parameter is greater then total number of items");
          }
-      }
-      catch (NoSuchElementException nse)
-      {
-         throw new InvalidArgumentException("skipCount parameter is greater then total number of items");
-      }
 
-      if (includeRelationships == null)
-      {
-         includeRelationships = IncludeRelationships.NONE; // Default.
-      }
+         if (includeRelationships == null)
+         {
+            includeRelationships = IncludeRelationships.NONE; // Default.
+         }
 
-      RenditionFilter parsedRenditionFilter = new RenditionFilter(renditionFilter);
+         RenditionFilter parsedRenditionFilter = new RenditionFilter(renditionFilter);
 
-      ItemsList<CmisObject> list = new ItemsList<CmisObject>();
+         ItemsList<CmisObject> list = new ItemsList<CmisObject>();
 
-      for (int count = 0; iterator.hasNext() && (maxItems < 0 || count < maxItems); count++)
-      {
-         Result result = iterator.next();
-         StringBuilder propertyFilter = new StringBuilder();
-         if (result.getPropertyNames() != null)
+         for (int count = 0; iterator.hasNext() && (maxItems < 0 || count < maxItems); count++)
          {
-            for (String s : result.getPropertyNames())
+            Result result = iterator.next();
+            StringBuilder propertyFilter = new StringBuilder();
+            if (result.getPropertyNames() != null)
             {
-               if (propertyFilter.length() > 0)
+               for (String s : result.getPropertyNames())
                {
-                  propertyFilter.append(',');
+                  if (propertyFilter.length() > 0)
+                  {
+                     propertyFilter.append(',');
+                  }
+                  propertyFilter.append(s);
                }
-               propertyFilter.append(s);
             }
-         }
 
-         ObjectData data = null;
-         try
-         {
-            data = storage.getObjectById(result.getObjectId());
-         }
-         catch (ObjectNotFoundException e)
-         {
-            // If object was removed but found in index
-            LOG.warn("Object " + result.getObjectId() + " was removed.");
-            continue;
-         }
+            ObjectData data = null;
+            try
+            {
+               data = storage.getObjectById(result.getObjectId());
+            }
+            catch (ObjectNotFoundException e)
+            {
+               // If object was removed but found in index
+               LOG.warn("Object " + result.getObjectId() + " was removed.");
+               continue;
+            }
+
+            CmisObject object =
+               getCmisObject(data, includeAllowableActions, includeRelationships, false, false, includeObjectInfo,
+                  new PropertyFilter(propertyFilter.toString()), parsedRenditionFilter);
 
-         CmisObject object =
-            getCmisObject(data, includeAllowableActions, includeRelationships, false, false, includeObjectInfo,
-               new PropertyFilter(propertyFilter.toString()), parsedRenditionFilter);
+            Score score = result.getScore();
+            if (score != null)
+            {
+               String scoreColumnName = score.getScoreColumnName();
+               DecimalProperty scoreProperty =
+                  new DecimalProperty(scoreColumnName, scoreColumnName, scoreColumnName, scoreColumnName, score
+                     .getScoreValue());
+               object.getProperties().put(scoreColumnName, scoreProperty);
+            }
+            list.getItems().add(object);
+         }
 
-         Score score = result.getScore();
-         if (score != null)
+         // Indicate that we have some more results.
+         list.setHasMoreItems(iterator.hasNext());
+         list.setNumItems(iterator.size()); // ItemsIterator gives -1 if total number is unknown
+         return list;
+      }
+      finally
+      {
+         // Storage may hold resources of result until it is read to the end.
+         if (iterator instanceof Closeable)
          {
-            String scoreColumnName = score.getScoreColumnName();
-            DecimalProperty scoreProperty =
-               new DecimalProperty(scoreColumnName, scoreColumnName, scoreColumnName, scoreColumnName, score
-                  .getScoreValue());
-            object.getProperties().put(scoreColumnName, scoreProperty);
+            try
+            {
+               ((Closeable)iterator).close();
+            }
+            catch (IOException e)
+            {
+               LOG.warn("Unable to close query result: " + e.getLocalizedMessage());
+            }
          }
-         list.getItems().add(object);
       }
-
-      // Indicate that we have some more results.
-      list.setHasMoreItems(iterator.hasNext());
-      list.setNumItems(iterator.size()); // ItemsIterator gives -1 if total number is unknown
-      return list;
    }
 
    /**
@@ -30,6 +30,38 @@ import java.io.InputStream;
  */
 public interface ContentStream
 {
+   /**
+    * Content stream which is able to provide key of its bytes. Streams with
+    * the same key have the same bytes, so data derived from bytes, e.g. text
+    * extracted for full-text index, may be reused instead of reading stream.
+    */
+   interface Keyed
+   {
+      /**
+       * @return key of bytes of stream, e.g. digest of bytes, never
+       *         <code>null</code>
+       */
+      String getContentKey();
+   }
+
+   /**
+    * Content stream which is able to open stream at any position without
+    * reading bytes before it, e.g. to serve range requests.
+    */
+   interface RandomAccess
+   {
+      /**
+       * Open new stream of bytes starting at <code>offset</code>.
+       *
+       * @param offset position of first byte of stream
+       * @return stream of bytes from <code>offset</code> to the end of
+       *         content, empty stream if <code>offset</code> is not less than
+       *         length of content
+       * @throws IOException if an I/O error occurs
+       */
+      InputStream getStream(long offset) throws IOException;
+   }
+
    /**
     * @return content stream file name
     */
@@ -19,7 +19,6 @@
 
 package org.xcmis.spi;
 
-import org.xcmis.spi.model.AccessControlEntry;
 import org.xcmis.spi.model.AllowableActions;
 import org.xcmis.spi.model.BaseType;
 import org.xcmis.spi.model.CapabilityACL;
@@ -27,14 +26,12 @@ import org.xcmis.spi.model.PermissionMapping;
 import org.xcmis.spi.model.RepositoryCapabilities;
 import org.xcmis.spi.model.RepositoryInfo;
 import org.xcmis.spi.model.TypeDefinition;
-import org.xcmis.spi.model.Permission.BasicPermissions;
-import org.xcmis.spi.utils.CmisUtils;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * Common service for resolve CMIS object permissions.
@@ -45,6 +42,10 @@ import java.util.Set;
 public class PermissionService
 {
 
+   /** Compiled permission mappings of repositories. */
+   private final Map<RepositoryInfo, CompiledMapping> mappings =
+      Collections.synchronizedMap(new WeakHashMap<RepositoryInfo, CompiledMapping>());
+
    /**
     * Calculate allowable actions for specified object.
     *
@@ -67,7 +68,8 @@ public class PermissionService
          userId = repositoryInfo.getPrincipalAnonymous();
       }
 
-      PermissionMapping permissionMapping = repositoryInfo.getAclCapability().getMapping();
+      CompiledMapping mapping = getCompiledMapping(repositoryInfo);
+      CompiledACL acl = getCompiledACL(object);
 
       AllowableActions actions = new AllowableActions();
       TypeDefinition type = object.getTypeDefinition();
@@ -79,8 +81,7 @@ public class PermissionService
          {
             if (capabilities.isCapabilityGetDescendants()
                && BaseType.FOLDER == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_GET_DESCENDENTS_FOLDER),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_DESCENDENTS_FOLDER, userId))
             {
                actions.setCanGetDescendants(true);
             }
@@ -89,8 +90,7 @@ public class PermissionService
          {
             if (capabilities.isCapabilityGetFolderTree()
                && BaseType.FOLDER == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_GET_FOLDER_TREE_FOLDER),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_FOLDER_TREE_FOLDER, userId))
             {
                actions.setCanGetFolderTree(true);
             }
@@ -98,8 +98,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_CHILDREN.equals(action))
          {
             if (BaseType.FOLDER == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_GET_CHILDREN_FOLDER),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_CHILDREN_FOLDER, userId))
             {
                actions.setCanGetChildren(true);
             }
@@ -107,8 +106,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_OBJECT_PARENTS.equals(action))
          {
             if (type.isFileable()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_GET_OBJECT_PARENTS_OBJECT), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_OBJECT_PARENTS_OBJECT, userId))
             {
                actions.setCanGetObjectParents(true);
             }
@@ -116,8 +114,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_FOLDER_PARENT.equals(action))
          {
             if (BaseType.FOLDER == type.getBaseId()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_GET_FOLDER_PARENT_FOLDER), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_FOLDER_PARENT_FOLDER, userId))
             {
                actions.setCanGetFolderParent(true);
             }
@@ -125,8 +122,7 @@ public class PermissionService
          else if (AllowableActions.CAN_CREATE_DOCUMENT.equals(action))
          {
             if (BaseType.FOLDER == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_CREATE_DOCUMENT_FOLDER),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_CREATE_DOCUMENT_FOLDER, userId))
             {
                actions.setCanCreateDocument(true);
             }
@@ -134,8 +130,7 @@ public class PermissionService
          else if (AllowableActions.CAN_CREATE_FOLDER.equals(action))
          {
             if (BaseType.FOLDER == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_CREATE_FOLDER_FOLDER),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_CREATE_FOLDER_FOLDER, userId))
             {
                actions.setCanCreateFolder(true);
             }
@@ -143,18 +138,15 @@ public class PermissionService
          else if (AllowableActions.CAN_CREATE_RELATIONSHIP.equals(action))
          {
             if (BaseType.RELATIONSHIP != type.getBaseId()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_CREATE_RELATIONSHIP_SOURCE), userId, repositoryInfo)
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_CREATE_RELATIONSHIP_TARGET), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_CREATE_RELATIONSHIP_SOURCE, userId)
+               && isGranted(acl, mapping, PermissionMapping.CAN_CREATE_RELATIONSHIP_TARGET, userId))
             {
                actions.setCanCreateRelationship(true);
             }
          }
          else if (AllowableActions.CAN_GET_PROPERTIES.equals(action))
          {
-            if (hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_GET_PROPERTIES_OBJECT),
-               userId, repositoryInfo))
+            if (isGranted(acl, mapping, PermissionMapping.CAN_GET_PROPERTIES_OBJECT, userId))
             {
                actions.setCanGetProperties(true);
             }
@@ -162,16 +154,14 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_CONTENT_STREAM.equals(action))
          {
             if (BaseType.DOCUMENT == type.getBaseId()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_GET_CONTENT_STREAM_OBJECT), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_CONTENT_STREAM_OBJECT, userId))
             {
                actions.setCanGetContentStream(true);
             }
          }
          else if (AllowableActions.CAN_UPDATE_PROPERTIES.equals(action))
          {
-            if (hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_UPDATE_PROPERTIES_OBJECT),
-               userId, repositoryInfo))
+            if (isGranted(acl, mapping, PermissionMapping.CAN_UPDATE_PROPERTIES_OBJECT, userId))
             {
                actions.setCanUpdateProperties(true);
             }
@@ -179,8 +169,7 @@ public class PermissionService
          else if (AllowableActions.CAN_MOVE_OBJECT.equals(action))
          {
             if (type.isFileable()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_MOVE_OBJECT_OBJECT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_MOVE_OBJECT_OBJECT, userId))
             {
                actions.setCanMoveObject(true);
             }
@@ -190,14 +179,12 @@ public class PermissionService
             if (BaseType.FOLDER == type.getBaseId())
             {
                if (!((FolderData)object).hasChildren()
-                  && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_DELETE_OBJECT),
-                     userId, repositoryInfo))
+                  && isGranted(acl, mapping, PermissionMapping.CAN_DELETE_OBJECT, userId))
                {
                   actions.setCanDeleteObject(true);
                }
             }
-            else if (hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_DELETE_OBJECT),
-               userId, repositoryInfo))
+            else if (isGranted(acl, mapping, PermissionMapping.CAN_DELETE_OBJECT, userId))
             {
                actions.setCanDeleteObject(true);
             }
@@ -205,8 +192,7 @@ public class PermissionService
          else if (AllowableActions.CAN_DELETE_TREE.equals(action))
          {
             if (BaseType.FOLDER == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_DELETE_TREE_FOLDER),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_DELETE_TREE_FOLDER, userId))
             {
                actions.setCanDeleteTree(true);
             }
@@ -214,8 +200,7 @@ public class PermissionService
          else if (AllowableActions.CAN_SET_CONTENT_STREAM.equals(action))
          {
             if (BaseType.DOCUMENT == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_SET_CONTENT_DOCUMENT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_SET_CONTENT_DOCUMENT, userId))
             {
                actions.setCanSetContentStream(true);
             }
@@ -223,9 +208,7 @@ public class PermissionService
          else if (AllowableActions.CAN_DELETE_CONTENT_STREAM.equals(action))
          {
             if (BaseType.DOCUMENT == type.getBaseId()
-               && hasPermission(object,
-                  permissionMapping.getPermissions(PermissionMapping.CAN_DELETE_CONTENT_DOCUMENT), userId,
-                  repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_DELETE_CONTENT_DOCUMENT, userId))
             {
                actions.setCanDeleteContentStream(true);
             }
@@ -233,8 +216,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_RENDITIONS.equals(action))
          {
             if (BaseType.DOCUMENT == type.getBaseId()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_GET_RENDITIONS_OBJECT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_RENDITIONS_OBJECT, userId))
             {
                actions.setCanGetRenditions(true);
             }
@@ -242,8 +224,7 @@ public class PermissionService
          else if (AllowableActions.CAN_ADD_TO_FOLDER.equals(action))
          {
             if (type.isFileable()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_ADD_TO_FOLDER_OBJECT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_ADD_TO_FOLDER_OBJECT, userId))
             {
                actions.setCanAddObjectToFolder(true);
             }
@@ -252,8 +233,7 @@ public class PermissionService
          {
             if (type.isFileable() //
                && type.getBaseId() != BaseType.FOLDER //
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_REMOVE_OBJECT_FROM_FOLDER_OBJECT), userId, repositoryInfo) //
+               && isGranted(acl, mapping, PermissionMapping.CAN_REMOVE_OBJECT_FROM_FOLDER_OBJECT, userId) //
                && (repositoryInfo.getCapabilities().isCapabilityUnfiling() || object.getParents().size() > 1))
             {
                actions.setCanRemoveObjectFromFolder(true);
@@ -262,8 +242,7 @@ public class PermissionService
          else if (AllowableActions.CAN_CHECKOUT.equals(action))
          {
             if (type.isVersionable()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_CHECKOUT_DOCUMENT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_CHECKOUT_DOCUMENT, userId))
             {
                actions.setCanCheckOut(true);
             }
@@ -272,8 +251,7 @@ public class PermissionService
          {
             if (type.isVersionable()
                && ((DocumentData)object).isVersionSeriesCheckedOut()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_CANCEL_CHECKOUT_DOCUMENT), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_CANCEL_CHECKOUT_DOCUMENT, userId))
             {
                actions.setCanCancelCheckOut(true);
             }
@@ -282,8 +260,7 @@ public class PermissionService
          {
             if (type.isVersionable()
                && ((DocumentData)object).isPWC()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_CHECKIN_DOCUMENT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_CHECKIN_DOCUMENT, userId))
             {
                actions.setCanCancelCheckOut(true);
             }
@@ -291,8 +268,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_ALL_VERSIONS.equals(action))
          {
             if (BaseType.DOCUMENT == type.getBaseId()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_GET_ALL_VERSIONS_DOCUMENT), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_ALL_VERSIONS_DOCUMENT, userId))
             {
                actions.setCanGetAllVersions(true);
             }
@@ -300,8 +276,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_OBJECT_RELATIONSHIPS.equals(action))
          {
             if (BaseType.RELATIONSHIP != type.getBaseId()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_GET_OBJECT_RELATIONSHIPS_OBJECT), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_OBJECT_RELATIONSHIPS_OBJECT, userId))
             {
                actions.setCanGetObjectRelationships(true);
             }
@@ -309,8 +284,7 @@ public class PermissionService
          else if (AllowableActions.CAN_ADD_POLICY.equals(action))
          {
             if (type.isControllablePolicy()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_ADD_POLICY_OBJECT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_ADD_POLICY_OBJECT, userId))
             {
                actions.setCanApplyPolicy(true);
             }
@@ -318,8 +292,7 @@ public class PermissionService
          else if (AllowableActions.CAN_REMOVE_POLICY.equals(action))
          {
             if (type.isControllablePolicy()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_REMOVE_POLICY_OBJECT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_REMOVE_POLICY_OBJECT, userId))
             {
                actions.setCanRemovePolicy(true);
             }
@@ -327,8 +300,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_APPLIED_POLICIES.equals(action))
          {
             if (type.isControllablePolicy()
-               && hasPermission(object, permissionMapping
-                  .getPermissions(PermissionMapping.CAN_GET_APPLIED_POLICIES_OBJECT), userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_APPLIED_POLICIES_OBJECT, userId))
             {
                actions.setCanGetAppliedPolicies(true);
             }
@@ -336,8 +308,7 @@ public class PermissionService
          else if (AllowableActions.CAN_GET_ACL.equals(action))
          {
             if (type.isControllableACL()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_GET_ACL_OBJECT), userId,
-                  repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_GET_ACL_OBJECT, userId))
             {
                actions.setCanGetACL(true);
             }
@@ -345,8 +316,7 @@ public class PermissionService
          else if (AllowableActions.CAN_APPLY_ACL.equals(action))
          {
             if (type.isControllableACL()
-               && hasPermission(object, permissionMapping.getPermissions(PermissionMapping.CAN_APPLY_ACL_OBJECT),
-                  userId, repositoryInfo))
+               && isGranted(acl, mapping, PermissionMapping.CAN_APPLY_ACL_OBJECT, userId))
             {
                actions.setCanApplyACL(true);
             }
@@ -375,28 +345,76 @@ public class PermissionService
       {
          userId = repositoryInfo.getPrincipalAnonymous();
       }
-      List<AccessControlEntry> acl = object.getACL(false);
-      if (acl.size() == 0)
+      return getCompiledACL(object).isGranted(repositoryInfo.getPrincipalAnyone(), userId,
+         CompiledACL.getMask(permissions), permissions);
+   }
+
+   /**
+    * Get compiled ACL of object. If object is {@link CompiledACL.Holder} then
+    * ACL provided by object is used, otherwise ACL is compiled from
+    * {@link ObjectData#getACL(boolean)}.
+    *
+    * @param object object
+    * @return compiled ACL
+    */
+   protected CompiledACL getCompiledACL(ObjectData object)
+   {
+      if (object instanceof CompiledACL.Holder)
+      {
+         return ((CompiledACL.Holder)object).getCompiledACL();
+      }
+      return CompiledACL.compile(object.getACL(false));
+   }
+
+   private boolean isGranted(CompiledACL acl, CompiledMapping mapping, String key, String userId)
+   {
+      Collection<String> permissions = mapping.permissions.get(key);
+      if (permissions == null || permissions.size() == 0)
+      {
+         throw new CmisRuntimeException("Permissions set may not be null or empty.");
+      }
+      return acl.isGranted(mapping.principalAnyone, userId, mapping.masks.get(key), permissions);
+   }
+
+   private CompiledMapping getCompiledMapping(RepositoryInfo repositoryInfo)
+   {
+      PermissionMapping permissionMapping = repositoryInfo.getAclCapability().getMapping();
+      CompiledMapping mapping = mappings.get(repositoryInfo);
+      if (mapping == null || mapping.source != permissionMapping)
       {
-         return true;
+         mapping = new CompiledMapping(permissionMapping, repositoryInfo.getPrincipalAnyone());
+         mappings.put(repositoryInfo, mapping);
       }
-      Map<String, Set<String>> map = new HashMap<String, Set<String>>();
-      CmisUtils.addAclToPermissionMap(map, acl);
+      return mapping;
+   }
+
+   /**
+    * Permission mapping of repository with permissions of each key compiled
+    * to bitmask.
+    */
+   private static final class CompiledMapping
+   {
+      final PermissionMapping source;
+
+      final String principalAnyone;
+
+      final Map<String, Collection<String>> permissions;
+
+      final Map<String, Long> masks;
 
-      // Check for 'any principal' first the for current principal.
-      for (String principal : new String[]{repositoryInfo.getPrincipalAnyone(), userId})
+      CompiledMapping(PermissionMapping source, String principalAnyone)
       {
-         Set<String> p = map.get(principal);
-         if (p != null)
+         this.source = source;
+         this.principalAnyone = principalAnyone;
+         this.permissions = new HashMap<String, Collection<String>>(source.getAll());
+         this.masks = new HashMap<String, Long>();
+         for (Map.Entry<String, Collection<String>> e : permissions.entrySet())
          {
-            if (p.contains(BasicPermissions.CMIS_ALL.value()))
+            if (e.getValue() != null)
             {
-               // All operations allowed.
-               return true;
+               masks.put(e.getKey(), CompiledACL.getMask(e.getValue()));
             }
-            return p.containsAll(permissions);
          }
       }
-      return false;
    }
 }
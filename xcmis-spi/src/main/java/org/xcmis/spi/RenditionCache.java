@@ -0,0 +1,518 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.spi;
+
+import org.xcmis.spi.model.Rendition;
+import org.xcmis.spi.utils.Logger;
+import org.xcmis.spi.utils.MimeType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of rendition streams. Renditions are kept in memory and, if
+ * directory for cache is set, renditions evicted from memory are moved to
+ * disk. Least recently used renditions are evicted when total size of
+ * renditions in tier exceeds its limit.
+ * <p>
+ * Renditions are keyed by object id, change token and stream id, so
+ * renditions of updated object are not used any more.
+ *
+ * @version $Id$
+ */
+public class RenditionCache
+{
+
+   private static final Logger LOG = Logger.getLogger(RenditionCache.class);
+
+   /** Extension of files of renditions. */
+   public static final String FILE_EXTENSION = ".rendition";
+
+   /** Default max size of renditions on disk in bytes. */
+   public static final long DEFAULT_MAX_DISK_SIZE = 256 * 1024 * 1024;
+
+   private final long maxMemorySize;
+
+   private final File directory;
+
+   private final long maxDiskSize;
+
+   /** Renditions in memory in access order, guarded by this. */
+   private final LinkedHashMap<String, Item> memory = new LinkedHashMap<String, Item>(16, 0.75f, true);
+
+   /** Renditions on disk in access order, guarded by this. */
+   private final LinkedHashMap<String, Item> disk = new LinkedHashMap<String, Item>(16, 0.75f, true);
+
+   /**
+    * Renditions evicted from memory which are being written to disk, guarded
+    * by this. Rendition is moved to disk only if it is still here when file
+    * is written.
+    */
+   private final Map<String, Item> pending = new HashMap<String, Item>();
+
+   private long memorySize;
+
+   private long diskSize;
+
+   private long nextFileNumber = 1;
+
+   /**
+    * Create cache which keeps renditions in memory only.
+    *
+    * @param maxMemorySize max size of renditions in memory in bytes
+    */
+   public RenditionCache(long maxMemorySize)
+   {
+      this.maxMemorySize = maxMemorySize;
+      this.directory = null;
+      this.maxDiskSize = 0;
+   }
+
+   /**
+    * Create cache which moves renditions evicted from memory to disk. Files
+    * left in directory by previous run are removed.
+    *
+    * @param maxMemorySize max size of renditions in memory in bytes
+    * @param directory directory for renditions evicted from memory
+    * @param maxDiskSize max size of renditions on disk in bytes, see
+    *        {@link #DEFAULT_MAX_DISK_SIZE}
+    * @throws IOException if directory can't be created
+    * @throws IllegalArgumentException if <code>maxDiskSize</code> is not
+    *         positive
+    */
+   public RenditionCache(long maxMemorySize, File directory, long maxDiskSize) throws IOException
+   {
+      if (maxDiskSize <= 0)
+      {
+         throw new IllegalArgumentException("Max disk size must be positive. ");
+      }
+      if (!directory.exists() && !directory.mkdirs())
+      {
+         throw new IOException("Unable create directory " + directory.getAbsolutePath());
+      }
+      File[] files = directory.listFiles();
+      if (files == null)
+      {
+         throw new IOException("Unable read directory " + directory.getAbsolutePath());
+      }
+      for (File file : files)
+      {
+         if (file.isFile() && file.getName().endsWith(FILE_EXTENSION) && !file.delete())
+         {
+            LOG.warn("Unable delete rendition file " + file.getAbsolutePath());
+         }
+      }
+      this.maxMemorySize = maxMemorySize;
+      this.directory = directory;
+      this.maxDiskSize = maxDiskSize;
+   }
+
+   /**
+    * Get cached rendition.
+    *
+    * @param objectId object id
+    * @param changeToken change token of object, may be <code>null</code>
+    * @param streamId stream id of rendition
+    * @return rendition stream or <code>null</code> if rendition is not cached
+    * @throws IOException if rendition can't be read from disk
+    */
+   public RenditionContentStream get(String objectId, String changeToken, String streamId) throws IOException
+   {
+      Item item;
+      synchronized (this)
+      {
+         item = getItem(createKey(objectId, changeToken, streamId));
+      }
+      if (item == null)
+      {
+         return null;
+      }
+      if (item.bytes != null)
+      {
+         return new RenditionContentStream(item.bytes, item.fileName, item.mediaType, item.kind, item.height,
+            item.width);
+      }
+      InputStream in;
+      try
+      {
+         in = new FileInputStream(item.file);
+      }
+      catch (IOException e)
+      {
+         // file was evicted after item is got from cache
+         return null;
+      }
+      return new RenditionContentStream(in, item.length, item.fileName, item.mediaType, item.kind, item.height,
+         item.width);
+   }
+
+   /**
+    * Get description of cached rendition.
+    *
+    * @param objectId object id
+    * @param changeToken change token of object, may be <code>null</code>
+    * @param streamId stream id of rendition
+    * @return rendition with known length, height and width or
+    *         <code>null</code> if rendition is not cached
+    */
+   public synchronized Rendition getRendition(String objectId, String changeToken, String streamId)
+   {
+      Item item = getItem(createKey(objectId, changeToken, streamId));
+      if (item == null)
+      {
+         return null;
+      }
+      return new Rendition(streamId, item.kind, item.mediaType.toString(), item.length, item.height, item.width,
+         null, null);
+   }
+
+   /**
+    * Read rendition stream and put rendition in cache.
+    *
+    * @param objectId object id
+    * @param changeToken change token of object, may be <code>null</code>
+    * @param streamId stream id of rendition
+    * @param rendition rendition stream, it is read to the end and closed
+    * @return new rendition stream of the same bytes with known length
+    * @throws IOException if rendition stream can't be read
+    */
+   public RenditionContentStream put(String objectId, String changeToken, String streamId,
+      RenditionContentStream rendition) throws IOException
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      InputStream in = rendition.getStream();
+      try
+      {
+         byte[] buf = new byte[8192];
+         int r;
+         while ((r = in.read(buf)) != -1)
+         {
+            out.write(buf, 0, r);
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+      Item item =
+         new Item(createKey(objectId, changeToken, streamId), out.toByteArray(), rendition.getFileName(), rendition
+            .getMediaType(), rendition.getKind(), rendition.getHeight(), rendition.getWidth());
+      List<Item> evicted = new ArrayList<Item>();
+      List<File> obsolete = new ArrayList<File>();
+      synchronized (this)
+      {
+         removeKey(item.key, obsolete);
+         if (item.length <= maxMemorySize)
+         {
+            memory.put(item.key, item);
+            memorySize += item.length;
+            evictFromMemory(evicted);
+         }
+         else
+         {
+            evict(item, evicted);
+         }
+      }
+      deleteFiles(obsolete);
+      for (Item e : evicted)
+      {
+         moveToDisk(e);
+      }
+      return new RenditionContentStream(item.bytes, item.fileName, item.mediaType, item.kind, item.height,
+         item.width);
+   }
+
+   /**
+    * Remove all renditions of object.
+    *
+    * @param objectId object id
+    */
+   public void remove(String objectId)
+   {
+      String prefix = objectId + '\n';
+      List<File> obsolete = new ArrayList<File>();
+      synchronized (this)
+      {
+         for (Iterator<Map.Entry<String, Item>> i = memory.entrySet().iterator(); i.hasNext();)
+         {
+            Map.Entry<String, Item> e = i.next();
+            if (e.getKey().startsWith(prefix))
+            {
+               memorySize -= e.getValue().length;
+               i.remove();
+            }
+         }
+         for (Iterator<String> i = pending.keySet().iterator(); i.hasNext();)
+         {
+            if (i.next().startsWith(prefix))
+            {
+               i.remove();
+            }
+         }
+         for (Iterator<Map.Entry<String, Item>> i = disk.entrySet().iterator(); i.hasNext();)
+         {
+            Map.Entry<String, Item> e = i.next();
+            if (e.getKey().startsWith(prefix))
+            {
+               diskSize -= e.getValue().length;
+               obsolete.add(e.getValue().file);
+               i.remove();
+            }
+         }
+      }
+      deleteFiles(obsolete);
+   }
+
+   /**
+    * @return total size of renditions in memory in bytes
+    */
+   public synchronized long getMemorySize()
+   {
+      return memorySize;
+   }
+
+   /**
+    * @return total size of renditions on disk in bytes
+    */
+   public synchronized long getDiskSize()
+   {
+      return diskSize;
+   }
+
+   private static String createKey(String objectId, String changeToken, String streamId)
+   {
+      return objectId + '\n' + (changeToken == null ? "" : changeToken) + '\n' + streamId;
+   }
+
+   /**
+    * Get rendition from any tier. Must be called under lock.
+    */
+   private Item getItem(String key)
+   {
+      Item item = memory.get(key);
+      if (item == null)
+      {
+         item = pending.get(key);
+      }
+      if (item == null)
+      {
+         item = disk.get(key);
+      }
+      return item;
+   }
+
+   /**
+    * Remove rendition with key from all tiers. Must be called under lock.
+    *
+    * @param key key of rendition
+    * @param obsolete files to delete after lock is released
+    */
+   private void removeKey(String key, List<File> obsolete)
+   {
+      Item item = memory.remove(key);
+      if (item != null)
+      {
+         memorySize -= item.length;
+      }
+      pending.remove(key);
+      item = disk.remove(key);
+      if (item != null)
+      {
+         diskSize -= item.length;
+         obsolete.add(item.file);
+      }
+   }
+
+   /**
+    * Evict least recently used renditions from memory. Must be called under
+    * lock.
+    *
+    * @param evicted renditions to write to disk after lock is released
+    */
+   private void evictFromMemory(List<Item> evicted)
+   {
+      for (Iterator<Item> i = memory.values().iterator(); memorySize > maxMemorySize && i.hasNext();)
+      {
+         Item item = i.next();
+         i.remove();
+         memorySize -= item.length;
+         evict(item, evicted);
+      }
+   }
+
+   /**
+    * Mark rendition evicted from memory as pending for disk if disk tier is
+    * enabled and rendition fits in it. Must be called under lock.
+    */
+   private void evict(Item item, List<Item> evicted)
+   {
+      if (directory != null && item.length <= maxDiskSize)
+      {
+         pending.put(item.key, item);
+         evicted.add(item);
+      }
+   }
+
+   /**
+    * Write rendition to disk and evict least recently used renditions from
+    * disk. File is written without lock, so readers are not blocked by disk
+    * I/O. Rendition is dropped if it was removed or replaced meanwhile.
+    */
+   private void moveToDisk(Item item)
+   {
+      File file;
+      synchronized (this)
+      {
+         if (pending.get(item.key) != item)
+         {
+            return;
+         }
+         file = new File(directory, Long.toString(nextFileNumber++) + FILE_EXTENSION);
+      }
+      try
+      {
+         OutputStream out = new FileOutputStream(file);
+         try
+         {
+            out.write(item.bytes);
+         }
+         finally
+         {
+            out.close();
+         }
+      }
+      catch (IOException e)
+      {
+         LOG.warn("Unable write rendition to disk. " + e.getMessage());
+         synchronized (this)
+         {
+            if (pending.get(item.key) == item)
+            {
+               pending.remove(item.key);
+            }
+         }
+         deleteFile(file);
+         return;
+      }
+      List<File> obsolete = new ArrayList<File>();
+      synchronized (this)
+      {
+         if (pending.get(item.key) == item)
+         {
+            pending.remove(item.key);
+            disk.put(item.key, new Item(item, file));
+            diskSize += item.length;
+            for (Iterator<Item> i = disk.values().iterator(); diskSize > maxDiskSize && i.hasNext();)
+            {
+               Item evicted = i.next();
+               i.remove();
+               diskSize -= evicted.length;
+               obsolete.add(evicted.file);
+            }
+         }
+         else
+         {
+            obsolete.add(file);
+         }
+      }
+      deleteFiles(obsolete);
+   }
+
+   private static void deleteFiles(List<File> files)
+   {
+      for (File file : files)
+      {
+         deleteFile(file);
+      }
+   }
+
+   private static void deleteFile(File file)
+   {
+      if (!file.delete())
+      {
+         LOG.warn("Unable delete rendition file " + file.getAbsolutePath());
+      }
+   }
+
+   /**
+    * Cached rendition. Bytes of rendition are kept in memory or in file.
+    */
+   private static final class Item
+   {
+      final String key;
+
+      final byte[] bytes;
+
+      final File file;
+
+      final long length;
+
+      final String fileName;
+
+      final MimeType mediaType;
+
+      final String kind;
+
+      final int height;
+
+      final int width;
+
+      Item(String key, byte[] bytes, String fileName, MimeType mediaType, String kind, int height, int width)
+      {
+         this.key = key;
+         this.bytes = bytes;
+         this.file = null;
+         this.length = bytes.length;
+         this.fileName = fileName;
+         this.mediaType = mediaType;
+         this.kind = kind;
+         this.height = height;
+         this.width = width;
+      }
+
+      /**
+       * Copy of item which bytes are moved to file.
+       */
+      Item(Item item, File file)
+      {
+         this.key = item.key;
+         this.bytes = null;
+         this.file = file;
+         this.length = item.length;
+         this.fileName = item.fileName;
+         this.mediaType = item.mediaType;
+         this.kind = item.kind;
+         this.height = item.height;
+         this.width = item.width;
+      }
+   }
+
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.spi;
+
+import org.xcmis.spi.utils.MimeType;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs generation of renditions in bounded pool of threads. Number of jobs
+ * waiting for thread is limited, new jobs are rejected when queue is full
+ * instead of piling up decoded images in memory. Each job gets memory limit
+ * which is passed to {@link RenditionProvider.MemoryBounded} providers and
+ * time limit after which caller stops waiting and job is interrupted; reading
+ * of source stream fails in interrupted job.
+ *
+ * @version $Id$
+ */
+public class RenditionExecutor
+{
+
+   /** Default max number of bytes of decoded source data per job. */
+   public static final long DEFAULT_MEMORY_LIMIT = 16 * 1024 * 1024;
+
+   /** Default max time of job in milliseconds. */
+   public static final long DEFAULT_TIMEOUT = 30 * 1000;
+
+   private final ThreadPoolExecutor executor;
+
+   private final long memoryLimit;
+
+   private final long timeout;
+
+   private final AtomicLong rejected = new AtomicLong();
+
+   private final AtomicLong timedOut = new AtomicLong();
+
+   /**
+    * @param threads number of threads which generate renditions
+    * @param queueSize max number of jobs waiting for thread
+    * @param memoryLimit max number of bytes of decoded source data per job
+    * @param timeout max time of job in milliseconds
+    */
+   public RenditionExecutor(int threads, int queueSize, long memoryLimit, long timeout)
+   {
+      if (threads < 1)
+      {
+         throw new IllegalArgumentException("Number of threads must be positive. ");
+      }
+      if (queueSize < 1)
+      {
+         throw new IllegalArgumentException("Queue size must be positive. ");
+      }
+      if (memoryLimit <= 0)
+      {
+         throw new IllegalArgumentException("Memory limit must be positive. ");
+      }
+      if (timeout <= 0)
+      {
+         throw new IllegalArgumentException("Timeout must be positive. ");
+      }
+      this.memoryLimit = memoryLimit;
+      this.timeout = timeout;
+      this.executor =
+         new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+            new ThreadFactory()
+            {
+               private final AtomicInteger number = new AtomicInteger();
+
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "xcmis-rendition-generator-" + number.incrementAndGet());
+                  t.setDaemon(true);
+                  return t;
+               }
+            }, new ThreadPoolExecutor.AbortPolicy());
+      this.executor.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * @return max number of bytes of decoded source data per job
+    */
+   public long getMemoryLimit()
+   {
+      return memoryLimit;
+   }
+
+   /**
+    * @return max time of job in milliseconds
+    */
+   public long getTimeout()
+   {
+      return timeout;
+   }
+
+   /**
+    * @return number of jobs waiting for thread
+    */
+   public int getQueuedJobs()
+   {
+      return executor.getQueue().size();
+   }
+
+   /**
+    * @return number of jobs rejected because queue was full
+    */
+   public long getRejected()
+   {
+      return rejected.get();
+   }
+
+   /**
+    * @return number of jobs which exceeded time limit
+    */
+   public long getTimedOut()
+   {
+      return timedOut.get();
+   }
+
+   /**
+    * Create rendition in pool thread and wait for it.
+    *
+    * @param provider rendition provider
+    * @param stream source stream
+    * @return rendition stream
+    * @throws IOException if job is rejected, exceeds time limit, or any i/o
+    *         error occurs while rendition is created
+    */
+   public RenditionContentStream execute(final RenditionProvider provider, ContentStream stream) throws IOException
+   {
+      final ContentStream source = new InterruptibleContentStream(stream);
+      Future<RenditionContentStream> future;
+      try
+      {
+         future = executor.submit(new Callable<RenditionContentStream>()
+         {
+            public RenditionContentStream call() throws IOException
+            {
+               return generate(provider, source, memoryLimit);
+            }
+         });
+      }
+      catch (RejectedExecutionException ree)
+      {
+         rejected.incrementAndGet();
+         throw new IOException("Unable create rendition, too many renditions are being created. ");
+      }
+      try
+      {
+         return future.get(timeout, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException te)
+      {
+         timedOut.incrementAndGet();
+         cancel(future);
+         throw new IOException("Unable create rendition in " + timeout + " ms. ");
+      }
+      catch (InterruptedException ie)
+      {
+         cancel(future);
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for rendition. ");
+      }
+      catch (ExecutionException ee)
+      {
+         Throwable cause = ee.getCause();
+         if (cause instanceof IOException)
+         {
+            throw (IOException)cause;
+         }
+         if (cause instanceof RuntimeException)
+         {
+            throw (RuntimeException)cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error)cause;
+         }
+         throw new IOException("Unable create rendition. " + cause);
+      }
+   }
+
+   /**
+    * Cancel job and remove it from queue if it is not started yet, so it is
+    * not counted against queue size.
+    */
+   private void cancel(Future<RenditionContentStream> future)
+   {
+      future.cancel(true);
+      executor.purge();
+   }
+
+   /**
+    * Stop threads. Jobs which are running are interrupted.
+    */
+   public void shutdown()
+   {
+      executor.shutdownNow();
+   }
+
+   /**
+    * Create rendition in current thread.
+    *
+    * @param provider rendition provider
+    * @param stream source stream
+    * @param memoryLimit max number of bytes of decoded source data, used if
+    *        provider is {@link RenditionProvider.MemoryBounded}
+    * @return rendition stream
+    * @throws IOException if any i/o error occurs
+    */
+   static RenditionContentStream generate(RenditionProvider provider, ContentStream stream, long memoryLimit)
+      throws IOException
+   {
+      if (provider instanceof RenditionProvider.MemoryBounded)
+      {
+         return ((RenditionProvider.MemoryBounded)provider).getRenditionStream(stream, memoryLimit);
+      }
+      return provider.getRenditionStream(stream);
+   }
+
+   /**
+    * Source stream which fails to read bytes when thread is interrupted, so
+    * job which exceeded time limit is stopped.
+    */
+   private static final class InterruptibleContentStream implements ContentStream
+   {
+      private final ContentStream delegate;
+
+      InterruptibleContentStream(ContentStream delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      public String getFileName()
+      {
+         return delegate.getFileName();
+      }
+
+      public MimeType getMediaType()
+      {
+         return delegate.getMediaType();
+      }
+
+      public InputStream getStream() throws IOException
+      {
+         return new FilterInputStream(delegate.getStream())
+         {
+            @Override
+            public int read() throws IOException
+            {
+               checkInterrupted();
+               return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+               checkInterrupted();
+               return super.read(b, off, len);
+            }
+
+            @Override
+            public long skip(long n) throws IOException
+            {
+               checkInterrupted();
+               return super.skip(n);
+            }
+         };
+      }
+
+      public long length()
+      {
+         return delegate.length();
+      }
+
+      private static void checkInterrupted() throws InterruptedIOException
+      {
+         if (Thread.currentThread().isInterrupted())
+         {
+            throw new InterruptedIOException("Creation of rendition is interrupted. ");
+         }
+      }
+   }
+}
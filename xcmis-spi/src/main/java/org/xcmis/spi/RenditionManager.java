@@ -31,6 +31,12 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -44,6 +50,12 @@ public class RenditionManager
 
    private static final Logger LOG = Logger.getLogger(RenditionManager.class);
 
+   /** Kind of renditions which are generated in background. */
+   private static final String THUMBNAIL = "cmis:thumbnail";
+
+   /** Max number of documents waiting for generation of renditions. */
+   private static final int PRECOMPUTE_QUEUE_SIZE = 1000;
+
    private static AtomicReference<RenditionManager> manager = new AtomicReference<RenditionManager>();
 
    public static RenditionManager getInstance()
@@ -122,10 +134,160 @@ public class RenditionManager
          }
       });
 
+   /** Cache of generated renditions, <code>null</code> if cache is disabled. */
+   private volatile RenditionCache cache;
+
+   /** Workers which generate thumbnails, <code>null</code> if disabled. */
+   private volatile ExecutorService precomputeExecutor;
+
+   /**
+    * Pool which creates renditions, <code>null</code> if renditions are
+    * created in caller thread.
+    */
+   private volatile RenditionExecutor executor;
+
    protected RenditionManager()
    {
    }
 
+   /**
+    * @return cache of renditions or <code>null</code> if renditions are not
+    *         cached
+    */
+   public RenditionCache getCache()
+   {
+      return cache;
+   }
+
+   /**
+    * @param cache cache of renditions, <code>null</code> to disable caching
+    */
+   public void setCache(RenditionCache cache)
+   {
+      this.cache = cache;
+   }
+
+   /**
+    * @return pool which creates renditions or <code>null</code> if renditions
+    *         are created in caller thread
+    */
+   public RenditionExecutor getExecutor()
+   {
+      return executor;
+   }
+
+   /**
+    * Set pool which creates renditions. Previous pool, if any, is shut down.
+    *
+    * @param executor pool which creates renditions, <code>null</code> to
+    *        create renditions in caller thread with
+    *        {@link RenditionExecutor#DEFAULT_MEMORY_LIMIT}
+    */
+   public synchronized void setExecutor(RenditionExecutor executor)
+   {
+      RenditionExecutor previous = this.executor;
+      this.executor = executor;
+      if (previous != null && previous != executor)
+      {
+         previous.shutdown();
+      }
+   }
+
+   /**
+    * Set number of threads which generate thumbnails in background when
+    * content of document is changed, see {@link #contentChanged(DocumentData)}.
+    * Generated thumbnails are put in cache, so precomputation works only if
+    * cache is set. If too many documents are waiting then new documents are
+    * skipped and their thumbnails are generated on request.
+    *
+    * @param threads number of threads, 0 to disable precomputation
+    */
+   public synchronized void setPrecomputeThreads(int threads)
+   {
+      if (precomputeExecutor != null)
+      {
+         precomputeExecutor.shutdown();
+         precomputeExecutor = null;
+      }
+      if (threads > 0)
+      {
+         ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+               PRECOMPUTE_QUEUE_SIZE), new ThreadFactory()
+            {
+               private final AtomicInteger number = new AtomicInteger();
+
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "xcmis-rendition-" + number.incrementAndGet());
+                  t.setDaemon(true);
+                  t.setPriority(Thread.MIN_PRIORITY);
+                  return t;
+               }
+            }, new ThreadPoolExecutor.DiscardPolicy());
+         executor.allowCoreThreadTimeOut(true);
+         precomputeExecutor = executor;
+      }
+   }
+
+   /**
+    * Notify manager that document is created or its content is changed.
+    * Cached renditions of document are removed and thumbnails are generated
+    * in background if precomputation is enabled.
+    *
+    * @param document document
+    */
+   public void contentChanged(final DocumentData document)
+   {
+      RenditionCache cache = this.cache;
+      if (cache == null)
+      {
+         return;
+      }
+      cache.remove(document.getObjectId());
+      ExecutorService executor = precomputeExecutor;
+      if (executor != null && document.hasContent())
+      {
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+               precompute(document);
+            }
+         });
+      }
+   }
+
+   /**
+    * Generate and cache thumbnails of document.
+    */
+   private void precompute(DocumentData document)
+   {
+      try
+      {
+         if (!document.hasContent())
+         {
+            return;
+         }
+         MimeType mime = MimeType.fromString(document.getContentStreamMimeType());
+         for (Rendition rendition : createRenditions(mime))
+         {
+            if (THUMBNAIL.equals(rendition.getKind()))
+            {
+               RenditionContentStream stream = getStream(document, rendition.getStreamId());
+               if (stream != null)
+               {
+                  stream.getStream().close();
+               }
+            }
+         }
+      }
+      catch (Exception e)
+      {
+         LOG.error("Unable create renditions of object " + document.getObjectId() + ". " + e.getMessage());
+      }
+   }
+
    public void addRenditionProviders(List<String> provs)
    {
       if (provs != null && !provs.isEmpty())
@@ -163,6 +325,11 @@ public class RenditionManager
       {
          throw new NullPointerException("Mime-type may not be null.");
       }
+      return new BaseItemsIterator<Rendition>(createRenditions(mime));
+   }
+
+   private List<Rendition> createRenditions(MimeType mime)
+   {
       List<Rendition> renditions = new ArrayList<Rendition>();
       for (Map.Entry<MimeType, RenditionProvider> e : renditionProviders.entrySet())
       {
@@ -177,11 +344,12 @@ public class RenditionManager
             renditions.add(rendition);
          }
       }
-      return new BaseItemsIterator<Rendition>(renditions);
+      return renditions;
    }
 
    /**
-    * Get all renditions of specified entry.
+    * Get all renditions of specified entry. Length, height and width are
+    * known for renditions which are cached.
     *
     * @param object object for getting renditions
     * @return set of object renditions. If object has not renditions then empty
@@ -193,7 +361,21 @@ public class RenditionManager
       if (object.getBaseType() == BaseType.DOCUMENT && ((DocumentData)object).hasContent())
       {
          MimeType mime = MimeType.fromString(((DocumentData)object).getContentStreamMimeType());
-         return getRenditions(mime);
+         List<Rendition> renditions = createRenditions(mime);
+         RenditionCache cache = this.cache;
+         if (cache != null)
+         {
+            for (int i = 0; i < renditions.size(); i++)
+            {
+               Rendition cached =
+                  cache.getRendition(object.getObjectId(), object.getChangeToken(), renditions.get(i).getStreamId());
+               if (cached != null)
+               {
+                  renditions.set(i, cached);
+               }
+            }
+         }
+         return new BaseItemsIterator<Rendition>(renditions);
       }
       return CmisUtils.emptyItemsIterator();
    }
@@ -207,14 +389,16 @@ public class RenditionManager
     * <li>can process 'image/jpeg' content</li>
     * </ul>
     * and provided MimeType is 'image/jpeg' then second provider from list will
-    * be in use.
+    * be in use. Rendition is created by {@link RenditionExecutor} if it is
+    * set.
     *
     * @param mime MimeType
     * @param stream ContentStream
     * @return rendition content stream or <code>null</code> if there is no
     *         {@link RenditionProvider} which can produce stream for requested
     *         type
-    * @throws IOException if any I/O error occurs
+    * @throws IOException if any I/O error occurs or rendition is rejected by
+    *         {@link RenditionExecutor}
     */
    public RenditionContentStream getStream(ContentStream stream, MimeType mime) throws IOException
    {
@@ -223,15 +407,20 @@ public class RenditionManager
          if (e.getKey().match(mime))
          {
             RenditionProvider renditionProvider = e.getValue();
-            RenditionContentStream renditionContentStream = renditionProvider.getRenditionStream(stream);
-            return renditionContentStream;
+            RenditionExecutor executor = this.executor;
+            if (executor != null)
+            {
+               return executor.execute(renditionProvider, stream);
+            }
+            return RenditionExecutor.generate(renditionProvider, stream, RenditionExecutor.DEFAULT_MEMORY_LIMIT);
          }
       }
       return null;
    }
 
    /**
-    * Get rendition stream for objects with specified stream id.
+    * Get rendition stream for objects with specified stream id. Rendition is
+    * taken from cache if it is cached for current change token of object.
     *
     * @param streamId stream id
     * @param obj ObjectData
@@ -245,8 +434,23 @@ public class RenditionManager
       // Not support other than document objects
       if (object.getBaseType() == BaseType.DOCUMENT && ((DocumentData)object).hasContent())
       {
+         RenditionCache cache = this.cache;
+         String changeToken = object.getChangeToken();
+         if (cache != null)
+         {
+            RenditionContentStream cached = cache.get(object.getObjectId(), changeToken, streamId);
+            if (cached != null)
+            {
+               return cached;
+            }
+         }
          MimeType mime = MimeType.fromString(decode(streamId));
-         return getStream(((DocumentData)object).getContentStream(), mime);
+         RenditionContentStream rendition = getStream(((DocumentData)object).getContentStream(), mime);
+         if (rendition != null && cache != null)
+         {
+            rendition = cache.put(object.getObjectId(), changeToken, streamId, rendition);
+         }
+         return rendition;
       }
       return null;
    }
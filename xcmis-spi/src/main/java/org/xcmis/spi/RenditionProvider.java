@@ -30,6 +30,24 @@ import java.io.IOException;
 public interface RenditionProvider
 {
 
+   /**
+    * Provider which is able to limit memory used to create rendition, e.g. by
+    * decoding of source image with subsampling.
+    */
+   interface MemoryBounded
+   {
+      /**
+       * Create content stream of rendition and use not more than
+       * <code>memoryLimit</code> bytes for decoded source data.
+       *
+       * @param stream source stream
+       * @param memoryLimit max number of bytes of decoded source data
+       * @return rendition stream
+       * @throws IOException if any i/o error occurs
+       */
+      RenditionContentStream getRenditionStream(ContentStream stream, long memoryLimit) throws IOException;
+   }
+
    /**
     * Create content stream of rendition for specified object.
     *
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.spi.utils;
+
+import org.xcmis.spi.ConstraintException;
+import org.xcmis.spi.ContentStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream of part of content. Content streams which implement
+ * {@link ContentStream.RandomAccess} are opened at start of range directly,
+ * other streams are skipped to start of range.
+ *
+ * @version $Id$
+ */
+public final class ContentRange extends FilterInputStream
+{
+
+   /** Number of bytes left in range, -1 if range is not bounded. */
+   private long remaining;
+
+   private ContentRange(InputStream in, long length)
+   {
+      super(in);
+      this.remaining = length;
+   }
+
+   /**
+    * Open stream of part of content.
+    *
+    * @param content content stream
+    * @param offset position of first byte of range
+    * @param length max number of bytes in range, -1 to read content to the end
+    * @return stream of bytes of range
+    * @throws IOException if an I/O error occurs
+    * @throws ConstraintException if <code>offset</code> is greater than
+    *         length of content
+    */
+   public static InputStream open(ContentStream content, long offset, long length) throws IOException,
+      ConstraintException
+   {
+      InputStream in;
+      if (offset > 0 && content instanceof ContentStream.RandomAccess)
+      {
+         if (content.length() >= 0 && offset > content.length())
+         {
+            throw new ConstraintException("offset value is greater than the size of the content. ");
+         }
+         in = ((ContentStream.RandomAccess)content).getStream(offset);
+      }
+      else
+      {
+         in = content.getStream();
+         if (offset > 0 && skip(in, offset) < offset)
+         {
+            in.close();
+            throw new ConstraintException("offset value is greater than the size of the content. ");
+         }
+      }
+      return new ContentRange(in, length);
+   }
+
+   /**
+    * Skip bytes of stream. Unlike {@link InputStream#skip(long)} stops only
+    * at the end of stream.
+    */
+   private static long skip(InputStream in, long n) throws IOException
+   {
+      long skipped = 0;
+      while (skipped < n)
+      {
+         long s = in.skip(n - skipped);
+         if (s <= 0)
+         {
+            if (in.read() == -1)
+            {
+               break;
+            }
+            s = 1;
+         }
+         skipped += s;
+      }
+      return skipped;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int read() throws IOException
+   {
+      if (remaining == 0)
+      {
+         return -1;
+      }
+      int b = super.read();
+      if (b != -1 && remaining > 0)
+      {
+         remaining--;
+      }
+      return b;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int read(byte[] b, int off, int len) throws IOException
+   {
+      if (remaining == 0)
+      {
+         return -1;
+      }
+      int n = super.read(b, off, remaining > 0 ? (int)Math.min(len, remaining) : len);
+      if (n > 0 && remaining > 0)
+      {
+         remaining -= n;
+      }
+      return n;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public long skip(long n) throws IOException
+   {
+      long s = super.skip(remaining >= 0 ? Math.min(n, remaining) : n);
+      if (s > 0 && remaining > 0)
+      {
+         remaining -= s;
+      }
+      return s;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int available() throws IOException
+   {
+      int available = super.available();
+      return remaining >= 0 ? (int)Math.min(available, remaining) : available;
+   }
+
+   /**
+    * {@inheritDoc} Marks are not supported.
+    */
+   @Override
+   public boolean markSupported()
+   {
+      return false;
+   }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.spi;
+
+import junit.framework.TestCase;
+
+import org.xcmis.spi.model.AccessControlEntry;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * @version $Id$
+ */
+public class CompiledACLTest extends TestCase
+{
+
+   private static final Collection<String> READ = Arrays.asList("cmis:read");
+
+   private static final Collection<String> READ_WRITE = Arrays.asList("cmis:read", "cmis:write");
+
+   public void testEmpty() throws Exception
+   {
+      CompiledACL acl = CompiledACL.compile((List<AccessControlEntry>)null);
+      assertTrue(acl.isEmpty());
+      assertTrue(isGranted(acl, "john", READ_WRITE));
+   }
+
+   public void testPrincipal() throws Exception
+   {
+      CompiledACL acl = CompiledACL.compile(Arrays.asList(ace("john", "cmis:read"), ace("mary", "cmis:read"), ace(
+         "mary", "cmis:write")));
+      assertTrue(isGranted(acl, "john", READ));
+      assertFalse(isGranted(acl, "john", READ_WRITE));
+      assertTrue(isGranted(acl, "mary", READ_WRITE));
+      assertFalse(isGranted(acl, "bob", READ));
+   }
+
+   public void testAll() throws Exception
+   {
+      CompiledACL acl = CompiledACL.compile(Arrays.asList(ace("john", "cmis:all")));
+      assertTrue(isGranted(acl, "john", READ_WRITE));
+      assertTrue(isGranted(acl, "john", Arrays.asList("custom:permission")));
+   }
+
+   public void testAnyoneDecides() throws Exception
+   {
+      CompiledACL acl = CompiledACL.compile(Arrays.asList(ace("cmis:anyone", "cmis:read"), ace("john", "cmis:all")));
+      assertTrue(isGranted(acl, "john", READ));
+      // Entry of 'any principal' is checked first and it is decisive.
+      assertFalse(isGranted(acl, "john", READ_WRITE));
+   }
+
+   public void testCustomPermission() throws Exception
+   {
+      CompiledACL acl = CompiledACL.compile(Arrays.asList(ace("john", "custom:approve")));
+      assertTrue(isGranted(acl, "john", Arrays.asList("custom:approve")));
+      assertFalse(isGranted(acl, "john", Arrays.asList("custom:approve", "custom:reject")));
+   }
+
+   private boolean isGranted(CompiledACL acl, String principal, Collection<String> permissions)
+   {
+      return acl.isGranted("cmis:anyone", principal, CompiledACL.getMask(permissions), permissions);
+   }
+
+   private AccessControlEntry ace(String principal, String permission)
+   {
+      return new AccessControlEntry(principal, new HashSet<String>(Arrays.asList(permission)));
+   }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.spi;
+
+import junit.framework.TestCase;
+
+import org.xcmis.spi.model.Rendition;
+import org.xcmis.spi.utils.MimeType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+/**
+ * @version $Id$
+ */
+public class RenditionCacheTest extends TestCase
+{
+
+   private File dir;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      dir = new File(System.getProperty("java.io.tmpdir"), "renditions-" + UUID.randomUUID());
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      if (dir.exists())
+      {
+         for (File file : dir.listFiles())
+         {
+            file.delete();
+         }
+         dir.delete();
+      }
+      super.tearDown();
+   }
+
+   public void testGetByChangeToken() throws Exception
+   {
+      RenditionCache cache = new RenditionCache(1024);
+      RenditionContentStream stream = cache.put("doc1", "token1", "stream1", rendition("thumbnail"));
+      assertEquals(9, stream.length());
+      assertEquals("thumbnail", read(stream.getStream()));
+
+      assertEquals("thumbnail", read(cache.get("doc1", "token1", "stream1").getStream()));
+      assertNull(cache.get("doc1", "token2", "stream1"));
+      assertNull(cache.get("doc1", "token1", "stream2"));
+
+      Rendition rendition = cache.getRendition("doc1", "token1", "stream1");
+      assertEquals(9, rendition.getLength());
+      assertEquals(20, rendition.getHeight());
+      assertEquals(10, rendition.getWidth());
+      assertEquals("cmis:thumbnail", rendition.getKind());
+   }
+
+   public void testRemove() throws Exception
+   {
+      RenditionCache cache = new RenditionCache(1024);
+      cache.put("doc1", "token1", "stream1", rendition("thumbnail"));
+      cache.put("doc2", "token1", "stream1", rendition("thumbnail"));
+      cache.remove("doc1");
+      assertNull(cache.get("doc1", "token1", "stream1"));
+      assertNotNull(cache.get("doc2", "token1", "stream1"));
+      assertEquals(9, cache.getMemorySize());
+   }
+
+   public void testEvictToDisk() throws Exception
+   {
+      RenditionCache cache = new RenditionCache(10, dir, 10);
+      cache.put("doc1", "token1", "stream1", rendition("123456"));
+      cache.put("doc2", "token1", "stream1", rendition("abcdef"));
+      // least recently used rendition is moved to disk
+      assertEquals(6, cache.getMemorySize());
+      assertEquals(6, cache.getDiskSize());
+      assertEquals("123456", read(cache.get("doc1", "token1", "stream1").getStream()));
+      assertEquals(1, dir.listFiles().length);
+
+      cache.put("doc3", "token1", "stream1", rendition("ABCDEF"));
+      // rendition evicted from disk is removed
+      assertNull(cache.get("doc1", "token1", "stream1"));
+      assertEquals("abcdef", read(cache.get("doc2", "token1", "stream1").getStream()));
+      assertEquals(1, dir.listFiles().length);
+   }
+
+   public void testInvalidDiskSize() throws Exception
+   {
+      try
+      {
+         new RenditionCache(10, dir, -1);
+         fail("IllegalArgumentException expected. ");
+      }
+      catch (IllegalArgumentException e)
+      {
+      }
+   }
+
+   private static RenditionContentStream rendition(String content)
+   {
+      return new RenditionContentStream(content.getBytes(), null, new MimeType("image", "png"), "cmis:thumbnail",
+         20, 10);
+   }
+
+   private static String read(InputStream in) throws IOException
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8];
+      int r;
+      while ((r = in.read(buf)) != -1)
+      {
+         out.write(buf, 0, r);
+      }
+      in.close();
+      return out.toString();
+   }
+
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.spi;
+
+import junit.framework.TestCase;
+
+import org.xcmis.spi.utils.MimeType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @version $Id$
+ */
+public class RenditionExecutorTest extends TestCase
+{
+
+   public void testMemoryLimit() throws Exception
+   {
+      RenditionExecutor executor = new RenditionExecutor(1, 1, 1024, 10000);
+      try
+      {
+         RenditionContentStream out = executor.execute(new BoundedProvider(), stream());
+         assertEquals(1024, out.getHeight());
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   public void testRejectWhenQueueIsFull() throws Exception
+   {
+      // Timeout is much longer than test, jobs wait for latch only.
+      final RenditionExecutor executor = new RenditionExecutor(1, 1, 1024, 60000);
+      final BlockingProvider provider = new BlockingProvider();
+      Thread[] callers = new Thread[2];
+      try
+      {
+         for (int i = 0; i < callers.length; i++)
+         {
+            callers[i] = new Thread()
+            {
+               @Override
+               public void run()
+               {
+                  try
+                  {
+                     executor.execute(provider, stream());
+                  }
+                  catch (IOException e)
+                  {
+                  }
+               }
+            };
+            callers[i].start();
+            if (i == 0)
+            {
+               assertTrue(provider.started.await(10, TimeUnit.SECONDS));
+            }
+         }
+         // First job is running, second one waits in queue.
+         long deadline = System.currentTimeMillis() + 10000;
+         while (executor.getQueuedJobs() == 0 && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(10);
+         }
+         assertEquals(1, executor.getQueuedJobs());
+         try
+         {
+            executor.execute(provider, stream());
+            fail("IOException expected. ");
+         }
+         catch (IOException e)
+         {
+         }
+         assertEquals(1, executor.getRejected());
+         assertEquals(0, executor.getTimedOut());
+         provider.release.countDown();
+         for (Thread caller : callers)
+         {
+            caller.join(10000);
+         }
+      }
+      finally
+      {
+         provider.release.countDown();
+         executor.shutdown();
+      }
+   }
+
+   public void testTimedOutJobLeavesQueue() throws Exception
+   {
+      RenditionExecutor executor = new RenditionExecutor(1, 1, 1024, 100);
+      BlockingProvider provider = new BlockingProvider();
+      provider.uninterruptible = true;
+      try
+      {
+         for (int i = 0; i < 3; i++)
+         {
+            try
+            {
+               executor.execute(provider, stream());
+               fail("IOException expected. ");
+            }
+            catch (IOException e)
+            {
+            }
+         }
+         // First job is still running, next jobs timed out in queue and are
+         // removed from it, so they are not rejected.
+         assertEquals(3, executor.getTimedOut());
+         assertEquals(0, executor.getQueuedJobs());
+         assertEquals(0, executor.getRejected());
+      }
+      finally
+      {
+         provider.release.countDown();
+         executor.shutdown();
+      }
+   }
+
+   public void testTimeout() throws Exception
+   {
+      RenditionExecutor executor = new RenditionExecutor(1, 1, 1024, 100);
+      BlockingProvider provider = new BlockingProvider();
+      try
+      {
+         executor.execute(provider, stream());
+         fail("IOException expected. ");
+      }
+      catch (IOException e)
+      {
+         assertEquals(1, executor.getTimedOut());
+      }
+      finally
+      {
+         provider.release.countDown();
+         executor.shutdown();
+      }
+   }
+
+   private static ContentStream stream()
+   {
+      return new BaseContentStream(new ByteArrayInputStream(new byte[8]), "test", new MimeType("image", "png"));
+   }
+
+   private static class BoundedProvider extends BlockingProvider implements RenditionProvider.MemoryBounded
+   {
+      public RenditionContentStream getRenditionStream(ContentStream stream, long memoryLimit) throws IOException
+      {
+         return new RenditionContentStream(new byte[0], null, getProducedMediaType(), getKind(), (int)memoryLimit, 1);
+      }
+   }
+
+   private static class BlockingProvider implements RenditionProvider
+   {
+      final CountDownLatch started = new CountDownLatch(1);
+
+      final CountDownLatch release = new CountDownLatch(1);
+
+      /** If true then provider ignores interruption. */
+      volatile boolean uninterruptible;
+
+      public RenditionContentStream getRenditionStream(ContentStream stream) throws IOException
+      {
+         started.countDown();
+         while (true)
+         {
+            try
+            {
+               release.await();
+               break;
+            }
+            catch (InterruptedException e)
+            {
+               if (!uninterruptible)
+               {
+                  throw new IOException("Interrupted. ");
+               }
+            }
+         }
+         InputStream in = stream.getStream();
+         in.read();
+         return new RenditionContentStream(new byte[0], null, getProducedMediaType(), getKind(), 1, 1);
+      }
+
+      public MimeType[] getSupportedMediaType()
+      {
+         return new MimeType[]{new MimeType("image", "png")};
+      }
+
+      public MimeType getProducedMediaType()
+      {
+         return new MimeType("image", "png");
+      }
+
+      public String getKind()
+      {
+         return "cmis:thumbnail";
+      }
+
+      public int getHeight()
+      {
+         return -1;
+      }
+
+      public int getWidth()
+      {
+         return -1;
+      }
+   }
+}
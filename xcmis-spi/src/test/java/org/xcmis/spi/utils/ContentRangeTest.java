@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.spi.utils;
+
+import junit.framework.TestCase;
+
+import org.xcmis.spi.BaseContentStream;
+import org.xcmis.spi.ConstraintException;
+import org.xcmis.spi.ContentStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @version $Id$
+ */
+public class ContentRangeTest extends TestCase
+{
+
+   private static final byte[] BYTES = "0123456789".getBytes();
+
+   public void testRange() throws Exception
+   {
+      assertEquals("3456", read(ContentRange.open(new BaseContentStream(BYTES, null, null), 3, 4)));
+      assertEquals("789", read(ContentRange.open(new BaseContentStream(BYTES, null, null), 7, -1)));
+      assertEquals("89", read(ContentRange.open(new BaseContentStream(BYTES, null, null), 8, 10)));
+   }
+
+   public void testOffsetGreaterThanLength() throws Exception
+   {
+      try
+      {
+         ContentRange.open(new BaseContentStream(BYTES, null, null), 11, -1);
+         fail("ConstraintException must be thrown.");
+      }
+      catch (ConstraintException e)
+      {
+         // OK
+      }
+   }
+
+   public void testRandomAccess() throws Exception
+   {
+      RandomAccessContentStream content = new RandomAccessContentStream();
+      assertEquals("56", read(ContentRange.open(content, 5, 2)));
+      assertFalse("Prefix of content must not be read. ", content.sequentialStreamUsed);
+   }
+
+   private static String read(InputStream in) throws IOException
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[3];
+      int r;
+      while ((r = in.read(buf)) != -1)
+      {
+         out.write(buf, 0, r);
+      }
+      in.close();
+      return out.toString();
+   }
+
+   private static class RandomAccessContentStream extends BaseContentStream implements ContentStream.RandomAccess
+   {
+      private boolean sequentialStreamUsed;
+
+      RandomAccessContentStream()
+      {
+         super(BYTES, null, null);
+      }
+
+      @Override
+      public InputStream getStream() throws IOException
+      {
+         sequentialStreamUsed = true;
+         return super.getStream();
+      }
+
+      public InputStream getStream(long offset)
+      {
+         return new ByteArrayInputStream(BYTES, (int)offset, BYTES.length - (int)offset);
+      }
+   }
+
+}
@@ -37,15 +37,14 @@ import org.xcmis.spi.ChangeTokenHolder;
 import org.xcmis.spi.CmisConstants;
 import org.xcmis.spi.CmisRegistry;
 import org.xcmis.spi.Connection;
-import org.xcmis.spi.ConstraintException;
 import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.model.IncludeRelationships;
 import org.xcmis.spi.model.UnfileObject;
 import org.xcmis.spi.model.VersioningState;
+import org.xcmis.spi.utils.ContentRange;
 import org.xcmis.spi.utils.Logger;
 import org.xcmis.spi.utils.MimeType;
 
-import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -470,16 +469,14 @@ public class ObjectServicePortImpl implements ObjectServicePort
             // Not clear need to set length of full content or part of it for range requests.
             result.setLength(BigInteger.valueOf(cs.length()));
          }
-         InputStream in = cs.getStream();
          if (offset == null && length == null)
          {
-            result.setStream(new DataHandler(new InputStreamDataSource(in, type)));
+            result.setStream(new DataHandler(new InputStreamDataSource(cs.getStream(), type)));
          }
          else
          {
-            result.setStream(new DataHandler(new InputStreamDataSource(
-               new ContentRange(in, offset == null ? 0 : offset.longValue(), length == null ? -1 : length.longValue()),
-               type)));
+            result.setStream(new DataHandler(new InputStreamDataSource(ContentRange.open(cs, offset == null ? 0
+               : offset.longValue(), length == null ? -1 : length.longValue()), type)));
          }
          return result;
       }
@@ -533,58 +530,6 @@ public class ObjectServicePortImpl implements ObjectServicePort
       }
    }
 
-   private static class ContentRange extends FilterInputStream
-   {
-      private long remaining;
-      private final boolean needTruncate;
-
-      private ContentRange(InputStream in, long offset, long length) throws IOException, ConstraintException
-      {
-         super(in);
-         if (offset > 0)
-         {
-            if (in.skip(offset) < offset)
-            {
-               throw new ConstraintException("offset value is greater than the size of the content. ");
-            }
-         }
-         needTruncate = length >= 0;
-         remaining = length;
-      }
-
-      @Override
-      public int read() throws IOException
-      {
-         if (needTruncate)
-         {
-            if (remaining > 0)
-            {
-               int b = super.read();
-               remaining -= 1;
-               return b;
-            }
-            return -1;
-         }
-         return super.read();
-      }
-
-      @Override
-      public int read(byte[] b, int off, int len) throws IOException
-      {
-         if (needTruncate)
-         {
-            if (remaining > 0)
-            {
-               int n = super.read(b, off, (int)Math.min(len, remaining));
-               remaining -= n;
-               return n;
-            }
-            return -1;
-         }
-         return super.read(b, off, len);
-      }
-   }
-
    /**
     * {@inheritDoc}
     */